@@ -322,6 +322,14 @@ public final class BxmlFactoryFinder {
             in.setNamespaceAware(namespaceAware);
         }
 
+        public boolean isMemoryMapped() {
+            return in.isMemoryMapped();
+        }
+
+        public void setMemoryMapped(boolean memoryMapped) {
+            in.setMemoryMapped(memoryMapped);
+        }
+
         public BxmlStreamReader createScanner(ReadableByteChannel bxmlSource) throws IOException {
             return wrap(in.createScanner(bxmlSource));
         }
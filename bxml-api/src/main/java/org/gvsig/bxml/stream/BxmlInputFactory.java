@@ -72,6 +72,34 @@ public interface BxmlInputFactory {
      */
     public void setNamespaceAware(boolean namespaceAware);
 
+    /**
+     * Returns whether this factory is configured to produce bxml readers that access files through
+     * memory mapping rather than by copying their contents to an intermediate buffer.
+     * <p>
+     * If not explicitly set through {@link #setMemoryMapped(boolean)}, defaults to {@code false}.
+     * </p>
+     * 
+     * @return {@code true} if the factory produces readers that memory map their input files,
+     *         {@code false} otherwise.
+     */
+    public boolean isMemoryMapped();
+
+    /**
+     * Sets whether the readers produced by this factory shall memory map their input when it comes
+     * from a file (i.e. {@link #createScanner(File)} or a {@link java.nio.channels.FileChannel}
+     * given to {@link #createScanner(ReadableByteChannel)}).
+     * <p>
+     * Memory mapping saves the system calls and memory copies involved in reading the file and is
+     * recommended for big files and files read more than once. Other kind of inputs are not
+     * affected by this setting.
+     * </p>
+     * 
+     * @param memoryMapped
+     *            {@code true} for the factory to create readers that memory map their input files,
+     *            {@code false} otherwise
+     */
+    public void setMemoryMapped(boolean memoryMapped);
+
     /**
      * Creates a {@link BxmlStreamReader} ready to parse an XML formatted document encoded as OGC
      * Binary XML specification out of a given input stream.
@@ -240,6 +240,29 @@ public interface BxmlStreamReader {
      */
     public EventType nextTag() throws IOException;
 
+    /**
+     * Skips the whole content of the current element, leaving the cursor at its matching
+     * END_ELEMENT event, so {@link #getTagDepth()} is decreased by one as if {@link #next()} had
+     * been called until reaching it.
+     * <p>
+     * No events are produced for the skipped descendants: implementations are encouraged to walk
+     * the skipped tokens without decoding the attribute and value contents, so this is the
+     * cheapest way to ignore an element the client code isn't interested in, like a large
+     * geometry. The namespace declarations in the skipped attributes are not processed either.
+     * </p>
+     * <p>
+     * If the document was encoded with a {@link EncodingOptions#getSkipIndexThreshold() skip
+     * index} and the reader {@link #supportsRandomAccess() supports random access}, the indexed
+     * elements may be skipped with a single seek to their end.
+     * </p>
+     *
+     * @pre {getEventType() == START_ELEMENT}
+     * @post {getEventType() == END_ELEMENT}
+     * @throws IOException
+     *             if an I/O error occurs while skipping over the element contents
+     */
+    public void skipElement() throws IOException;
+
     /**
      * Returns the event type for the current position of the BXML reader cursor.
      * <p>
@@ -447,6 +470,45 @@ public interface BxmlStreamReader {
      */
     public QName getElementName();
 
+    /**
+     * Returns an identifier for the name of the current element, being at a START_ELEMENT or
+     * END_ELEMENT event.
+     * <p>
+     * Name identifiers are non negative integers, unique for each name in the document being
+     * parsed (for BXML documents, the string table index of the encoded name), so that client code
+     * can compare and dispatch on element names without going through their {@link QName}
+     * representation. Use {@link #getNameId(QName)} to find out the identifier of a given name.
+     * </p>
+     * <p>
+     * Name identifiers are only meaningful for the document being parsed, and are not guaranteed
+     * to be the same for the same name in another document.
+     * </p>
+     * 
+     * @pre {getEventType().isTag() == true}
+     * @post {$return >= 0}
+     * @return the identifier of the current element's name
+     * @see #getElementName()
+     */
+    public int getElementNameId();
+
+    /**
+     * Returns the identifier that {@link #getElementNameId()} and {@link #getAttributeNameId(int)}
+     * return for the given name, or {@code -1} if the identifier is not known yet, for example
+     * because the name has not been found in the document so far.
+     * <p>
+     * Note that a name not found yet may still appear later in the document, as BXML string tables
+     * may be spread through the document. So this method is meant to be called once per name and
+     * document to pre resolve the identifiers of interest, re trying for the names not found until
+     * they're found, rather than on each element.
+     * </p>
+     * 
+     * @param name
+     *            the name to look up the identifier for
+     * @post {$return >= -1}
+     * @return the identifier of {@code name}, or {@code -1}
+     */
+    public int getNameId(QName name);
+
     /**
      * @pre {supportsRandomAccess() == true}
      * @pre {getEventType() == START_ELEMENT}
@@ -475,6 +537,45 @@ public interface BxmlStreamReader {
      */
     public EventType setPosition(long position) throws IOException;
 
+    /**
+     * Looks up the positions of the elements indexed by {@code value} in the document's index table
+     * for {@code xpathExpression}, as created by a writer asked to index it through
+     * {@link EncodingOptions#getIndexableXpathExpressionsHint()}.
+     * <p>
+     * Values are matched by their string representation, as they'd be in XML. The index table is
+     * loaded the first time it's looked up and cached for the subsequent lookups, so looking up
+     * an indexed value costs a hash lookup instead of a scan of the whole document.
+     * </p>
+     * 
+     * @pre {supportsRandomAccess() == true}
+     * @pre {xpathExpression != null}
+     * @pre {value != null}
+     * @param xpathExpression
+     *            the exact XPath expression the document was indexed by
+     * @param value
+     *            the indexed value to look up
+     * @return the positions of the matching elements, suitable for {@link #setPosition(long)},
+     *         possibly empty if none matches; or {@code null} if the document has no index table
+     *         for {@code xpathExpression}
+     * @throws IOException
+     */
+    public long[] lookup(String xpathExpression, Object value) throws IOException;
+
+    /**
+     * Sets the parser position to the first element indexed by {@code value} in the document's
+     * index table for {@code xpathExpression}.
+     * 
+     * @pre {supportsRandomAccess() == true}
+     * @pre {xpathExpression != null}
+     * @pre {value != null}
+     * @post {$return == START_ELEMENT || $return == NONE}
+     * @return the START_ELEMENT event for the matching element, or {@link EventType#NONE NONE},
+     *         with the parser position unchanged, if there's no match
+     * @throws IOException
+     * @see #lookup(String, Object)
+     */
+    public EventType seekToMatch(String xpathExpression, Object value) throws IOException;
+
     /**
      * Returns the count of attributes on this {@code START_ELEMENT}
      * <p>
@@ -526,6 +627,22 @@ public interface BxmlStreamReader {
      */
     public QName getAttributeName(int index);
 
+    /**
+     * Returns the identifier for the name of the attribute at index {@code index}, as described in
+     * {@link #getElementNameId()}.
+     * 
+     * @pre {getEventType() == START_ELEMENT}
+     * @pre {index >= 0}
+     * @pre {index < getAttributeCount()}
+     * @post {$return >= 0}
+     * @param index
+     *            zero based index for which to return the name identifier
+     * @return the identifier of the name of the attribute at index {@code index}
+     * @see #getAttributeName(int)
+     * @see #getNameId(QName)
+     */
+    public int getAttributeNameId(int index);
+
     /**
      * Returns the coalesced value for the attribute at index {@code index}
      * <p>
@@ -548,6 +665,42 @@ public interface BxmlStreamReader {
      */
     public String getAttributeValue(int index);
 
+    /**
+     * Returns the value of the attribute at index {@code index} as an {@code int}.
+     * <p>
+     * If the attribute value was encoded as a single integral value token, it is returned as is,
+     * without going through its String representation. Otherwise the
+     * {@link #getAttributeValue(int) coalesced String value} is parsed.
+     * </p>
+     * 
+     * @pre {getEventType() == START_ELEMENT}
+     * @pre {index >= 0}
+     * @pre {index < getAttributeCount()}
+     * @param index
+     * @return the attribute value as an int
+     * @throws NumberFormatException
+     *             if the attribute value is not an integral number in the {@code int} range
+     */
+    public int getAttributeIntValue(int index);
+
+    /**
+     * Returns the value of the attribute at index {@code index} as a {@code double}.
+     * <p>
+     * If the attribute value was encoded as a single numeric value token, it is returned as is,
+     * without going through its String representation. Otherwise the
+     * {@link #getAttributeValue(int) coalesced String value} is parsed.
+     * </p>
+     * 
+     * @pre {getEventType() == START_ELEMENT}
+     * @pre {index >= 0}
+     * @pre {index < getAttributeCount()}
+     * @param index
+     * @return the attribute value as a double
+     * @throws NumberFormatException
+     *             if the attribute value is not a number
+     */
+    public double getAttributeDoubleValue(int index);
+
     /**
      * Returns the normalized attribute value of the attribute with the namespace and localName If
      * the namespaceURI is null the namespace is not checked for equality
@@ -621,6 +774,59 @@ public interface BxmlStreamReader {
      */
     public String getStringValue() throws IOException;
 
+    /**
+     * Returns the current value or comment token as a character sequence that may be backed by an
+     * internal buffer of this reader, saving the creation of a String object for it.
+     * <p>
+     * The returned sequence is only valid until the next call to {@link #next()}, or any other
+     * method that advances the reader. Client code needing to hold on to the value shall make a
+     * copy of it, for example through {@code toString()}.
+     * </p>
+     * <p>
+     * Other than that, this method behaves exactly like {@link #getStringValue()}.
+     * </p>
+     * 
+     * @pre {getEventType().isValue() == true || getEventType() == {@link EventType#COMMENT}
+     * @post {$return != null}
+     * @return the current value as a character sequence, valid until the reader is advanced
+     * @throws IOException
+     *             if an I/O error occurs while reading the data
+     * @see #getStringValue()
+     */
+    public CharSequence getCharSequenceValue() throws IOException;
+
+    /**
+     * Being at a {@link EventType#VALUE_STRING string value} or {@link EventType#COMMENT comment}
+     * event, copies up to {@code length} characters of its value into {@code dst}, starting at
+     * array index {@code offset}, and returns the number of characters copied.
+     * <p>
+     * Successive calls for the same event return the following characters of the value, so that
+     * long strings can be read in chunks into a client supplied buffer. Once all the characters
+     * were returned this method returns {@code 0}.
+     * </p>
+     * <p>
+     * NOTE this method can't be combined with {@link #getStringValue()} or
+     * {@link #getCharSequenceValue()} for the same event, since they consume the whole value.
+     * </p>
+     * 
+     * @pre {getEventType() == VALUE_STRING || getEventType() == COMMENT}
+     * @pre {dst != null}
+     * @pre {offset >= 0}
+     * @pre {length <= (dst.length - offset)}
+     * @post {$return >= 0 && $return <= length}
+     * @param dst
+     *            the client supplied buffer where to store the read characters
+     * @param offset
+     *            the zero based index at which to start storing the read characters in {@code dst}
+     * @param length
+     *            the maximum number of characters to store in {@code dst}
+     * @return the number of characters stored in {@code dst}, {@code 0} if there are no more
+     *         characters for the current value
+     * @throws IOException
+     *             if an I/O error occurs while reading the data
+     */
+    public int getValue(char[] dst, int offset, int length) throws IOException;
+
     /**
      * Being at a {@link EventType#VALUE_BOOL boolean value} event, reads {@code length} booleans
      * out of the underlying input stream and stores them in {@code dst}, starting at array index
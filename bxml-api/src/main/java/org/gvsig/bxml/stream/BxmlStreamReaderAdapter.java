@@ -186,6 +186,20 @@ public class BxmlStreamReaderAdapter implements BxmlStreamReader {
         return impl.getAttributeValue(index);
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeIntValue(int)
+     */
+    public int getAttributeIntValue(int index) {
+        return impl.getAttributeIntValue(index);
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeDoubleValue(int)
+     */
+    public double getAttributeDoubleValue(int index) {
+        return impl.getAttributeDoubleValue(index);
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeName(int)
      */
@@ -193,6 +207,13 @@ public class BxmlStreamReaderAdapter implements BxmlStreamReader {
         return impl.getAttributeName(index);
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeNameId(int)
+     */
+    public int getAttributeNameId(final int index) {
+        return impl.getAttributeNameId(index);
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getElementName()
      */
@@ -200,6 +221,20 @@ public class BxmlStreamReaderAdapter implements BxmlStreamReader {
         return impl.getElementName();
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getElementNameId()
+     */
+    public int getElementNameId() {
+        return impl.getElementNameId();
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getNameId(javax.xml.namespace.QName)
+     */
+    public int getNameId(final QName name) {
+        return impl.getNameId(name);
+    }
+
     /**
      * @throws IOException
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getElementPosition()
@@ -223,6 +258,21 @@ public class BxmlStreamReaderAdapter implements BxmlStreamReader {
         return impl.setPosition(position);
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#lookup(java.lang.String, java.lang.Object)
+     */
+    public long[] lookup(final String xpathExpression, final Object value) throws IOException {
+        return impl.lookup(xpathExpression, value);
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#seekToMatch(java.lang.String, java.lang.Object)
+     */
+    public EventType seekToMatch(final String xpathExpression, final Object value)
+            throws IOException {
+        return impl.seekToMatch(xpathExpression, value);
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getBooleanValue()
      */
@@ -244,6 +294,20 @@ public class BxmlStreamReaderAdapter implements BxmlStreamReader {
         return impl.getStringValue();
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getCharSequenceValue()
+     */
+    public CharSequence getCharSequenceValue() throws IOException {
+        return impl.getCharSequenceValue();
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getValue(char[], int, int)
+     */
+    public int getValue(char[] dst, int offset, int length) throws IOException {
+        return impl.getValue(dst, offset, length);
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getValue(boolean[], int, int)
      */
@@ -314,6 +378,13 @@ public class BxmlStreamReaderAdapter implements BxmlStreamReader {
         return impl.nextTag();
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#skipElement()
+     */
+    public void skipElement() throws IOException {
+        impl.skipElement();
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getDoubleValue()
      */
@@ -33,6 +33,7 @@ package org.gvsig.bxml.stream;
 import static org.gvsig.bxml.stream.Contract.assertPost;
 import static org.gvsig.bxml.stream.Contract.assertPre;
 import static org.gvsig.bxml.stream.EventType.COMMENT;
+import static org.gvsig.bxml.stream.EventType.END_ELEMENT;
 import static org.gvsig.bxml.stream.EventType.START_ELEMENT;
 import static org.gvsig.bxml.stream.EventType.VALUE_BOOL;
 import static org.gvsig.bxml.stream.EventType.VALUE_BYTE;
@@ -40,6 +41,7 @@ import static org.gvsig.bxml.stream.EventType.VALUE_DOUBLE;
 import static org.gvsig.bxml.stream.EventType.VALUE_FLOAT;
 import static org.gvsig.bxml.stream.EventType.VALUE_INT;
 import static org.gvsig.bxml.stream.EventType.VALUE_LONG;
+import static org.gvsig.bxml.stream.EventType.VALUE_STRING;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
@@ -109,6 +111,28 @@ public final class BxmlStreamReader_Contract extends BxmlStreamReaderAdapter imp
         return attributeValue;
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeIntValue(int)
+     */
+    public int getAttributeIntValue(int index) {
+        assertEventType(START_ELEMENT);
+        assertPre(index > -1, "Attribute index shall be >= 0");
+        assertPre(index < impl.getAttributeCount(),
+                "Attribute index shall be < getAttributeCount()");
+        return impl.getAttributeIntValue(index);
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeDoubleValue(int)
+     */
+    public double getAttributeDoubleValue(int index) {
+        assertEventType(START_ELEMENT);
+        assertPre(index > -1, "Attribute index shall be >= 0");
+        assertPre(index < impl.getAttributeCount(),
+                "Attribute index shall be < getAttributeCount()");
+        return impl.getAttributeDoubleValue(index);
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeName(int)
      */
@@ -126,6 +150,20 @@ public final class BxmlStreamReader_Contract extends BxmlStreamReaderAdapter imp
         return attributeName;
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeNameId(int)
+     */
+    public int getAttributeNameId(final int index) {
+        assertEventType(START_ELEMENT);
+        assertPre(index > -1, "Attribute index shall be >= 0");
+        assertPre(index < impl.getAttributeCount(),
+                "Attribute index shall be < getAttributeCount()");
+
+        final int nameId = impl.getAttributeNameId(index);
+        assertPost(nameId >= 0, "returned attribute name id shall be >= 0");
+        return nameId;
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getElementName()
      */
@@ -138,6 +176,28 @@ public final class BxmlStreamReader_Contract extends BxmlStreamReaderAdapter imp
         return elementName;
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getElementNameId()
+     */
+    public int getElementNameId() {
+        final EventType eventType = getEventType();
+        assertPre(eventType.isTag(), "Event type shall be either START_ELEMENT or END_ELEMENT: ",
+                eventType);
+        final int nameId = impl.getElementNameId();
+        assertPost(nameId >= 0, "returned element name id shall be >= 0");
+        return nameId;
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getNameId(javax.xml.namespace.QName)
+     */
+    public int getNameId(final QName name) {
+        assertPre(name != null, "name can't be null");
+        final int nameId = impl.getNameId(name);
+        assertPost(nameId >= -1, "returned name id shall be >= -1");
+        return nameId;
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getElementPosition()
      */
@@ -163,6 +223,32 @@ public final class BxmlStreamReader_Contract extends BxmlStreamReaderAdapter imp
         return eventType;
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#lookup(java.lang.String, java.lang.Object)
+     */
+    public long[] lookup(final String xpathExpression, final Object value) throws IOException {
+        assertPre(impl.supportsRandomAccess(),
+                "This BxmlStreamReader does not support random access");
+        assertPre(xpathExpression != null, "xpathExpression can't be null");
+        assertPre(value != null, "value can't be null");
+        return impl.lookup(xpathExpression, value);
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#seekToMatch(java.lang.String, java.lang.Object)
+     */
+    public EventType seekToMatch(final String xpathExpression, final Object value)
+            throws IOException {
+        assertPre(impl.supportsRandomAccess(),
+                "This BxmlStreamReader does not support random access");
+        assertPre(xpathExpression != null, "xpathExpression can't be null");
+        assertPre(value != null, "value can't be null");
+        EventType eventType = impl.seekToMatch(xpathExpression, value);
+        assertPost(EventType.START_ELEMENT == eventType || EventType.NONE == eventType,
+                "seekToMatch: return value shall be START_ELEMENT or NONE");
+        return eventType;
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#require(org.gvsig.bxml.stream.EventType,
      *      java.lang.String, java.lang.String)
@@ -240,6 +326,34 @@ public final class BxmlStreamReader_Contract extends BxmlStreamReaderAdapter imp
         return stringValue;
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getCharSequenceValue()
+     */
+    public CharSequence getCharSequenceValue() throws IOException {
+        final EventType eventType = getEventType();
+        assertPre(eventType.isValue() || COMMENT == eventType,
+                "Current event type is not a VALUE event nor a comment: ", eventType);
+        final CharSequence value = impl.getCharSequenceValue();
+        assertPost(value != null, "getCharSequenceValue() returns null");
+        return value;
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getValue(char[], int, int)
+     */
+    public int getValue(char[] dst, int offset, int length) throws IOException {
+        final EventType eventType = getEventType();
+        assertPre(VALUE_STRING == eventType || COMMENT == eventType,
+                "Current event type is not VALUE_STRING nor COMMENT: ", eventType);
+        assertPre(dst != null, "getValue(char[], int, int): destination array is null");
+        assertPre(offset > -1, "getValue(char[], int, int): offset shall be >= 0");
+        assertPre(length <= (dst.length - offset),
+                "getValue(char[], int, int): length shall be < (dst.length - offset)");
+        final int count = impl.getValue(dst, offset, length);
+        assertPost(count >= 0 && count <= length, "getValue(char[], int, int) returned ", count);
+        return count;
+    }
+
     /**
      * Runs the precondition checks for the various getValue(xxx[], int, int) methods
      */
@@ -364,6 +478,22 @@ public final class BxmlStreamReader_Contract extends BxmlStreamReaderAdapter imp
         return nextTag;
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#skipElement()
+     */
+    public void skipElement() throws IOException {
+        assertEventType(START_ELEMENT);
+        final int tagDepth = impl.getTagDepth();
+
+        impl.skipElement();
+
+        assertPost(impl.getEventType() == END_ELEMENT,
+                "skipElement(): shall leave the cursor at an END_ELEMENT event, got ", impl
+                        .getEventType());
+        assertPost(impl.getTagDepth() == tagDepth - 1,
+                "skipElement(): tag depth shall be decreased by one");
+    }
+
     /**
      * Runs the precondition checks for the getXXXValue() methods
      */
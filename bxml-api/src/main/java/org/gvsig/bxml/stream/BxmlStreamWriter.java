@@ -184,6 +184,77 @@ public interface BxmlStreamWriter {
      */
     public void flush() throws IOException;
 
+    /**
+     * Returns whether {@link #createFragmentWriter() fragment writers} can be created and
+     * {@link #writeFragment written} at the current position.
+     * 
+     * @return {@code false} if fragments are not supported by the implementation or not at this
+     *         point, like outside the root element
+     */
+    public boolean canWriteFragments();
+
+    /**
+     * Creates a writer to encode the next child element of the current element into memory, so
+     * that several children can be encoded at once by different threads and then
+     * {@link #writeFragment written down} in order by the thread using this writer.
+     * <p>
+     * This method is to be called from the thread using this writer, the fragment writer can then
+     * be used from any other thread. Name references resolved by this writer before the fragment
+     * writer was created are also valid for it. A fragment writer holding only the start of some
+     * elements can also be written down as a {@link #writeTemplate template}.
+     * </p>
+     * 
+     * @pre {canWriteFragments() == true}
+     * @return a writer to write a single element, start to end, with
+     * @throws IllegalStateException
+     *             if {@link #canWriteFragments()} is false
+     * @throws IOException
+     * @see #writeFragment(BxmlStreamWriter)
+     */
+    public BxmlStreamWriter createFragmentWriter() throws IOException;
+
+    /**
+     * Writes down the element encoded by {@code fragment} as the next child of the current
+     * element, and closes {@code fragment}.
+     * <p>
+     * Implementations may reject a fragment, writing nothing, if it can't be written down as is,
+     * like one that does not hold exactly one complete element. The caller shall then write the
+     * element again directly to this writer. Either way the document is the same as if the
+     * element had been written directly.
+     * </p>
+     * 
+     * @param fragment
+     *            a writer {@link #createFragmentWriter() created} by this one
+     * @return whether the fragment was written down
+     * @throws IllegalArgumentException
+     *             if {@code fragment} is not a fragment writer
+     * @throws IOException
+     */
+    public boolean writeFragment(BxmlStreamWriter fragment) throws IOException;
+
+    /**
+     * Writes down the start of the elements encoded by {@code template}, leaving them open as if
+     * they had been started on this writer, so that element starts that are always the same, like
+     * an element and its constant attributes, are encoded once and then copied as they are.
+     * <p>
+     * {@code template} is a fragment writer holding the start of one or more nested elements, the
+     * attribute list of the last one being ended if it has attributes. It is not changed, so it can
+     * be written any number of times and by several threads at once. Implementations may reject
+     * it, writing nothing, if it can't be written as is at this point, like when it was created by
+     * a writer for another document or with other namespace prefixes in scope. The caller shall
+     * then start the elements directly on this writer.
+     * </p>
+     * 
+     * @param template
+     *            a writer {@link #createFragmentWriter() created} by this one or by the writer this
+     *            one is a fragment writer of
+     * @return whether the template was written down
+     * @throws IllegalArgumentException
+     *             if {@code template} is not a fragment writer
+     * @throws IOException
+     */
+    public boolean writeTemplate(BxmlStreamWriter template) throws IOException;
+
     /**
      * Test if the current event is of the given {@code type} and if the {@code namespaceUri} and
      * {@code localName} match the current namespace and name of the current event.
@@ -282,6 +353,19 @@ public interface BxmlStreamWriter {
      */
     public void writeStartElement(final QName qname) throws IOException;
 
+    /**
+     * Starts an element whose name was resolved with {@link #getNameReference(String, String)}.
+     * 
+     * @pre {getLastEvent() != NONE}
+     * @pre {nameReference >= 0}
+     * @post {getLastEvent() == START_ELEMENT}
+     * @param nameReference
+     *            a name reference returned by {@link #getNameReference(String, String)}
+     * @throws IOException
+     * @see #writeStartElement(String, String)
+     */
+    public void writeStartElement(final long nameReference) throws IOException;
+
     /**
      * @pre {getTagDeep() > 0}
      * @pre { ( getLastEvent().isValue() AND getWrittenValueCount() == getValueLength() ) ||
@@ -345,6 +429,20 @@ public interface BxmlStreamWriter {
      */
     public void writeStartAttribute(final QName qname) throws IOException;
 
+    /**
+     * Starts writing an xml attribute whose name was resolved with
+     * {@link #getNameReference(String, String)}.
+     * 
+     * @pre {getLastEvent() IN (START_ELEMENT, ATTRIBUTE) }
+     * @pre {nameReference >= 0}
+     * @post {getLastEvent() == ATTRIBUTE}
+     * @param nameReference
+     *            a name reference returned by {@link #getNameReference(String, String)}
+     * @throws IOException
+     * @see #writeStartAttribute(String, String)
+     */
+    public void writeStartAttribute(final long nameReference) throws IOException;
+
     /**
      * Indicates there are no more element attributes to encode for the current element.
      * <p>
@@ -824,6 +922,29 @@ public interface BxmlStreamWriter {
      */
     public long getStringTableReference(final CharSequence stringValue) throws IOException;
 
+    /**
+     * Resolves an element or attribute name once, so that it can then be written any number of
+     * times with {@link #writeStartElement(long)} or {@link #writeStartAttribute(long)} without
+     * resolving its prefix and looking it up in the StringTable each time.
+     * <p>
+     * The name is resolved with the namespace prefixes in scope. Should those change afterwards
+     * the reference is still valid, though writing it costs as much as writing the name itself.
+     * Implementations that can't resolve names, or not the given one, like a name whose namespace
+     * has no prefix bound, return {@code -1}, in which case the name shall be written as usual.
+     * </p>
+     * 
+     * @pre {namespaceUri != null}
+     * @pre {localName != null}
+     * @param namespaceUri
+     *            the namespace uri of the name
+     * @param localName
+     *            the non qualified (local) name
+     * @return the name reference, or {@code -1} if the name can't be referenced
+     * @throws IOException
+     */
+    public long getNameReference(final String namespaceUri, final String localName)
+            throws IOException;
+
     /**
      * @pre {getLastEvent().isValue() == true}
      * @post {$return >= 0}
@@ -390,4 +390,55 @@ public class BxmlStreamWriterAdapter implements BxmlStreamWriter {
         return impl.supportsStringTableValues();
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#canWriteFragments()
+     */
+    public boolean canWriteFragments() {
+        return impl.canWriteFragments();
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#createFragmentWriter()
+     */
+    public BxmlStreamWriter createFragmentWriter() throws IOException {
+        return impl.createFragmentWriter();
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeFragment(BxmlStreamWriter)
+     */
+    public boolean writeFragment(final BxmlStreamWriter fragment) throws IOException {
+        return impl.writeFragment(fragment);
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeTemplate(BxmlStreamWriter)
+     */
+    public boolean writeTemplate(final BxmlStreamWriter template) throws IOException {
+        return impl.writeTemplate(template);
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#getNameReference(java.lang.String,
+     *      java.lang.String)
+     */
+    public long getNameReference(final String namespaceUri, final String localName)
+            throws IOException {
+        return impl.getNameReference(namespaceUri, localName);
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeStartElement(long)
+     */
+    public void writeStartElement(final long nameReference) throws IOException {
+        impl.writeStartElement(nameReference);
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeStartAttribute(long)
+     */
+    public void writeStartAttribute(final long nameReference) throws IOException {
+        impl.writeStartAttribute(nameReference);
+    }
+
 }
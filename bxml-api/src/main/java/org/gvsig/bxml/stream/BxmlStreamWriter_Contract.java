@@ -480,6 +480,91 @@ public final class BxmlStreamWriter_Contract extends BxmlStreamWriterAdapter imp
                 "writeStartElement: last event should be START_ELEMENT");
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#createFragmentWriter()
+     */
+    @Override
+    public BxmlStreamWriter createFragmentWriter() throws IOException {
+        assertPre(impl.canWriteFragments(), "createFragmentWriter: can't write fragments here");
+        return impl.createFragmentWriter();
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeFragment(BxmlStreamWriter)
+     */
+    @Override
+    public boolean writeFragment(final BxmlStreamWriter fragment) throws IOException {
+        assertPre(fragment != null, "writeFragment: fragment can't be null");
+        final boolean written = impl.writeFragment(fragment);
+        if (written) {
+            lastEvent = impl.getLastEvent();
+            assertPost(END_ELEMENT == lastEvent,
+                    "writeFragment: last event should be END_ELEMENT: ", lastEvent);
+        }
+        return written;
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeTemplate(BxmlStreamWriter)
+     */
+    @Override
+    public boolean writeTemplate(final BxmlStreamWriter template) throws IOException {
+        assertPre(template != null, "writeTemplate: template can't be null");
+
+        lastEvent = impl.getLastEvent();
+        assertPre(lastEvent != EventType.NONE, "writeStartDocument has not been called");
+
+        final boolean written = impl.writeTemplate(template);
+        if (written) {
+            lastEvent = impl.getLastEvent();
+            assertPost(START_ELEMENT == lastEvent || ATTRIBUTES_END == lastEvent,
+                    "writeTemplate: last event should be START_ELEMENT or ATTRIBUTES_END: ",
+                    lastEvent);
+        }
+        return written;
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeStartElement(long)
+     */
+    @Override
+    public void writeStartElement(final long nameReference) throws IOException {
+        assertPre(nameReference >= 0, "writeStartElement: invalid name reference: ",
+                nameReference);
+
+        lastEvent = impl.getLastEvent();
+        assertPre(lastEvent != EventType.NONE, "writeStartDocument has not been called");
+
+        impl.writeStartElement(nameReference);
+
+        assertPost(START_ELEMENT == impl.getLastEvent(),
+                "writeStartElement: last event should be START_ELEMENT");
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeStartAttribute(long)
+     */
+    @Override
+    public void writeStartAttribute(final long nameReference) throws IOException {
+        assertPre(nameReference >= 0, "writeStartAttribute: invalid name reference: ",
+                nameReference);
+        impl.writeStartAttribute(nameReference);
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#getNameReference(java.lang.String,
+     *      java.lang.String)
+     */
+    @Override
+    public long getNameReference(final String namespaceUri, final String localName)
+            throws IOException {
+        assertPre(namespaceUri != null && localName != null,
+                "getNameReference: namespace and localName can't be null");
+        long ref = impl.getNameReference(namespaceUri, localName);
+        assertPost(ref >= -1, "Returned name reference should be >= -1");
+        return ref;
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeValue(java.lang.String)
      */
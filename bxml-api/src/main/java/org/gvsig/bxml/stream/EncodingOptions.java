@@ -45,6 +45,12 @@ import java.util.Set;
  * the running JVM, acquired through {@link ByteOrder#nativeOrder()};
  * <li>charactersEncoding: {@code UTF-8}
  * <li>useCompression: false;
+ * <li>compressionLevel: {@link #DEFAULT_COMPRESSION_LEVEL};
+ * <li>compressionBlockSize: {@code 0} (the document body is compressed as a single GZIP stream);
+ * <li>stringTableFragmentSize: {@link #DEFAULT_STRING_TABLE_FRAGMENT_SIZE};
+ * <li>flushThreshold: {@link #DEFAULT_FLUSH_THRESHOLD};
+ * <li>flushDepth: {@code 0} (do not flush at any specific element depth);
+ * <li>skipIndexThreshold: {@code 0} (do not index any element end);
  * <li>useStrictXmlStrings: false;
  * <li>isValidated: false;
  * <li>isNamespaceAware: false.
@@ -58,6 +64,31 @@ import java.util.Set;
 public class EncodingOptions implements Cloneable {
     public static final String DEFAULT_XML_VERSION = "1.0";
 
+    /**
+     * Compression level value meaning to use the compressor's default, which usually favours speed
+     * over size
+     */
+    public static final int DEFAULT_COMPRESSION_LEVEL = -1;
+
+    /**
+     * A suggested {@link #setCompressionBlockSize(int) compression block size} of {@value} bytes,
+     * which gives a compression ratio close to the one of a single GZIP stream while keeping the
+     * cost of a random access seek low
+     */
+    public static final int DEFAULT_COMPRESSION_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Default {@link #setStringTableFragmentSize(int) maximum number of strings} per StringTable
+     * token
+     */
+    public static final int DEFAULT_STRING_TABLE_FRAGMENT_SIZE = 256;
+
+    /**
+     * Default {@link #setFlushThreshold(int) number of buffered bytes} after which a
+     * {@link BxmlStreamWriter} flushes its content when closing an element
+     */
+    public static final int DEFAULT_FLUSH_THRESHOLD = 32 * 1024;
+
     private boolean namespaceAware;
 
     private ByteOrder byteOrder;
@@ -66,6 +97,18 @@ public class EncodingOptions implements Cloneable {
 
     private boolean useCompression;
 
+    private int compressionLevel;
+
+    private int compressionBlockSize;
+
+    private int stringTableFragmentSize;
+
+    private int flushThreshold;
+
+    private int flushDepth;
+
+    private int skipIndexThreshold;
+
     private boolean useStrictXmlStrings;
 
     private boolean isValidated;
@@ -87,6 +130,12 @@ public class EncodingOptions implements Cloneable {
         this.charactersEncoding = Charset.forName("UTF-8");
         this.xmlVersion = DEFAULT_XML_VERSION;
         this.useCompression = false;
+        this.compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+        this.compressionBlockSize = 0;
+        this.stringTableFragmentSize = DEFAULT_STRING_TABLE_FRAGMENT_SIZE;
+        this.flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+        this.flushDepth = 0;
+        this.skipIndexThreshold = 0;
         this.useStrictXmlStrings = false;
         this.isValidated = false;
         this.isStandalone = null;
@@ -195,6 +244,224 @@ public class EncodingOptions implements Cloneable {
         this.useCompression = useCompression;
     }
 
+    /**
+     * Returns the GZIP compression level {@link BxmlStreamWriter}s created with this encoding
+     * options shall use if {@link #isUseCompression()} is {@code true}.
+     * <p>
+     * Defaults to {@link #DEFAULT_COMPRESSION_LEVEL}
+     * </p>
+     * 
+     * @return the compression level, from {@code 0} (no compression) to {@code 9} (best
+     *         compression), or {@link #DEFAULT_COMPRESSION_LEVEL}
+     */
+    public final int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the GZIP compression level {@link BxmlStreamWriter}s created with this encoding options
+     * shall use if {@link #isUseCompression()} is {@code true}.
+     * 
+     * @param compressionLevel
+     *            the compression level, from {@code 0} (no compression) to {@code 9} (best
+     *            compression), or {@link #DEFAULT_COMPRESSION_LEVEL}
+     * @throws IllegalArgumentException
+     *             if {@code compressionLevel} is not in the {@code [-1, 9]} range
+     */
+    public final void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < DEFAULT_COMPRESSION_LEVEL || compressionLevel > 9) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Returns the size in bytes of the independently compressed blocks the document body is split
+     * into if {@link #isUseCompression()} is {@code true}, or {@code 0} if the body is compressed
+     * as a single GZIP stream.
+     * <p>
+     * Block compressed documents are still valid GZIP streams, but carry an index of the block
+     * offsets that allows readers to seek to any position in the document by decompressing a single
+     * block, hence they support random access the same as uncompressed ones.
+     * </p>
+     * <p>
+     * Defaults to {@code 0}
+     * </p>
+     * 
+     * @return the uncompressed size of the compressed blocks, or {@code 0} if not block compressed
+     * @see #DEFAULT_COMPRESSION_BLOCK_SIZE
+     */
+    public final int getCompressionBlockSize() {
+        return compressionBlockSize;
+    }
+
+    /**
+     * Sets the size in bytes of the independently compressed blocks the document body shall be
+     * split into if {@link #isUseCompression()} is {@code true}.
+     * 
+     * @param compressionBlockSize
+     *            the uncompressed size of each compressed block, or {@code 0} to compress the
+     *            document body as a single GZIP stream
+     * @throws IllegalArgumentException
+     *             if {@code compressionBlockSize < 0}
+     * @see #DEFAULT_COMPRESSION_BLOCK_SIZE
+     */
+    public final void setCompressionBlockSize(int compressionBlockSize) {
+        if (compressionBlockSize < 0) {
+            throw new IllegalArgumentException("Invalid compression block size: "
+                    + compressionBlockSize);
+        }
+        this.compressionBlockSize = compressionBlockSize;
+    }
+
+    /**
+     * Returns the maximum number of strings a {@link BxmlStreamWriter} shall put in a single
+     * StringTable token.
+     * <p>
+     * New strings are buffered and written down as a single StringTable fragment right before the
+     * first reference to any of them, or as soon as this many strings are buffered. Larger fragments
+     * mean less StringTable tokens in the document body and less entries in the trailer's
+     * StringTableIndex. As element and attribute names are referenced as soon as they're written,
+     * a fragment holds the new names of a start element along with its namespace declarations,
+     * plus the strings obtained through {@link BxmlStreamWriter#getStringTableReference} since the
+     * previous fragment.
+     * </p>
+     * <p>
+     * Defaults to {@link #DEFAULT_STRING_TABLE_FRAGMENT_SIZE}
+     * </p>
+     * 
+     * @return the maximum number of strings per StringTable token
+     */
+    public final int getStringTableFragmentSize() {
+        return stringTableFragmentSize;
+    }
+
+    /**
+     * Sets the maximum number of strings a {@link BxmlStreamWriter} shall put in a single
+     * StringTable token.
+     * 
+     * @param stringTableFragmentSize
+     *            the maximum number of strings per StringTable token
+     * @throws IllegalArgumentException
+     *             if {@code stringTableFragmentSize < 1}
+     * @see #getStringTableFragmentSize()
+     */
+    public final void setStringTableFragmentSize(int stringTableFragmentSize) {
+        if (stringTableFragmentSize < 1) {
+            throw new IllegalArgumentException("Invalid string table fragment size: "
+                    + stringTableFragmentSize);
+        }
+        this.stringTableFragmentSize = stringTableFragmentSize;
+    }
+
+    /**
+     * Returns the number of buffered bytes at or above which a {@link BxmlStreamWriter} flushes
+     * its content when an element is closed.
+     * <p>
+     * Writers do not flush on every element end, but only when this threshold is reached, when
+     * closing an element at the {@link #getFlushDepth() flush depth}, when the document ends, or
+     * when {@link BxmlStreamWriter#flush()} is explicitly called. The underlying output stream may
+     * still need to flush on its own when its buffer gets full. A value of {@code 0} means to flush
+     * after every element end, and {@link Integer#MAX_VALUE} to leave it up to the output stream
+     * and the calling code.
+     * </p>
+     * <p>
+     * Defaults to {@link #DEFAULT_FLUSH_THRESHOLD}
+     * </p>
+     * 
+     * @return the number of buffered bytes that triggers a flush at the end of an element
+     */
+    public final int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    /**
+     * Sets the number of buffered bytes at or above which a {@link BxmlStreamWriter} flushes its
+     * content when an element is closed.
+     * 
+     * @param flushThreshold
+     *            the number of buffered bytes that triggers a flush at the end of an element
+     * @throws IllegalArgumentException
+     *             if {@code flushThreshold < 0}
+     * @see #getFlushThreshold()
+     */
+    public final void setFlushThreshold(int flushThreshold) {
+        if (flushThreshold < 0) {
+            throw new IllegalArgumentException("Invalid flush threshold: " + flushThreshold);
+        }
+        this.flushThreshold = flushThreshold;
+    }
+
+    /**
+     * Returns the depth of the elements after whose end a {@link BxmlStreamWriter} flushes its
+     * content regardless of the {@link #getFlushThreshold() flush threshold}, where the root
+     * element is at depth {@code 1}.
+     * <p>
+     * For example, a depth of {@code 2} flushes after each member of a feature collection, so that
+     * the receiving end gets every feature as soon as it is encoded.
+     * </p>
+     * <p>
+     * Defaults to {@code 0}, meaning not to flush at any specific depth
+     * </p>
+     * 
+     * @return the depth of the elements whose end triggers a flush, or {@code 0}
+     */
+    public final int getFlushDepth() {
+        return flushDepth;
+    }
+
+    /**
+     * Sets the depth of the elements after whose end a {@link BxmlStreamWriter} flushes its
+     * content.
+     * 
+     * @param flushDepth
+     *            the depth of the elements whose end triggers a flush, or {@code 0} not to flush
+     *            at any specific depth
+     * @throws IllegalArgumentException
+     *             if {@code flushDepth < 0}
+     * @see #getFlushDepth()
+     */
+    public final void setFlushDepth(int flushDepth) {
+        if (flushDepth < 0) {
+            throw new IllegalArgumentException("Invalid flush depth: " + flushDepth);
+        }
+        this.flushDepth = flushDepth;
+    }
+
+    /**
+     * Returns the minimum encoded length, in bytes, of the elements whose end position a
+     * {@link BxmlStreamWriter} records in a trailing index, so that a {@link BxmlStreamReader}
+     * supporting random access can {@link BxmlStreamReader#skipElement() skip} them with a single
+     * seek instead of walking over their content.
+     * <p>
+     * Smaller elements are cheap to walk over and indexing them would only grow the index, so a
+     * threshold in the order of a few kilobytes is usually a good choice. Defaults to {@code 0},
+     * meaning not to index any element.
+     * </p>
+     * 
+     * @return the minimum length of the indexed elements, or {@code 0}
+     */
+    public final int getSkipIndexThreshold() {
+        return skipIndexThreshold;
+    }
+
+    /**
+     * Sets the minimum encoded length, in bytes, of the elements whose end position is indexed.
+     * 
+     * @param skipIndexThreshold
+     *            the minimum length of the indexed elements, or {@code 0} not to index any
+     * @throws IllegalArgumentException
+     *             if {@code skipIndexThreshold < 0}
+     * @see #getSkipIndexThreshold()
+     */
+    public final void setSkipIndexThreshold(int skipIndexThreshold) {
+        if (skipIndexThreshold < 0) {
+            throw new IllegalArgumentException("Invalid skip index threshold: "
+                    + skipIndexThreshold);
+        }
+        this.skipIndexThreshold = skipIndexThreshold;
+    }
+
     /**
      * TODO: describe
      * <p>
@@ -306,7 +573,10 @@ public class EncodingOptions implements Cloneable {
      * </p>
      * <p>
      * The allowable XPath expressions are a subset of the XPath specification as defined in the OGC
-     * Filter encoding specification. TODO: specify more the
+     * Filter encoding specification. The default implementation supports absolute location paths
+     * of child steps, either qualified names or {@code *}, optionally ending in an attribute step,
+     * like in {@code /wfs:FeatureCollection/gml:featureMember/*}{@code /@gml:id}, and ignores the
+     * other ones.
      * </p>
      * 
      * @return
@@ -373,6 +643,18 @@ public class EncodingOptions implements Cloneable {
             return false;
         if (useCompression != other.useCompression)
             return false;
+        if (compressionLevel != other.compressionLevel)
+            return false;
+        if (compressionBlockSize != other.compressionBlockSize)
+            return false;
+        if (stringTableFragmentSize != other.stringTableFragmentSize)
+            return false;
+        if (flushThreshold != other.flushThreshold)
+            return false;
+        if (flushDepth != other.flushDepth)
+            return false;
+        if (skipIndexThreshold != other.skipIndexThreshold)
+            return false;
         if (useStrictXmlStrings != other.useStrictXmlStrings)
             return false;
         if (isValidated != other.isValidated)
@@ -393,6 +675,12 @@ public class EncodingOptions implements Cloneable {
         hash *= ByteOrder.BIG_ENDIAN == byteOrder ? 7 : 9;
         hash *= charactersEncoding.hashCode();
         hash *= useCompression ? 1 : 2;
+        hash *= 31 + compressionLevel;
+        hash *= 1 + compressionBlockSize;
+        hash *= stringTableFragmentSize;
+        hash *= 1 + flushThreshold;
+        hash *= 1 + flushDepth;
+        hash *= 1 + skipIndexThreshold;
         hash *= useStrictXmlStrings ? 11 : 13;
         hash *= isValidated ? 17 : 21;
         hash *= xmlVersion.hashCode();
@@ -68,4 +68,12 @@ public class FakeBxmlInputFacotry implements BxmlInputFactory {
     public void setNamespaceAware(boolean namespaceAware) {
         throw new UnsupportedOperationException("This is a fake factory to test the factory finder");
     }
+
+    public boolean isMemoryMapped() {
+        throw new UnsupportedOperationException("This is a fake factory to test the factory finder");
+    }
+
+    public void setMemoryMapped(boolean memoryMapped) {
+        throw new UnsupportedOperationException("This is a fake factory to test the factory finder");
+    }
 }
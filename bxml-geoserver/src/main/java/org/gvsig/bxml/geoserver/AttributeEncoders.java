@@ -1,109 +1,137 @@
 package org.gvsig.bxml.geoserver;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.logging.Logger;
+import java.util.List;
 
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.NameImpl;
 import org.geotools.feature.type.FeatureTypeFactoryImpl;
 import org.geotools.gml3.GML;
-import org.geotools.util.logging.Logging;
 import org.gvsig.bxml.geoserver.Gml3Encoder.AttributeEncoder;
 import org.gvsig.bxml.stream.BxmlStreamWriter;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.AttributeType;
-import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.FeatureTypeFactory;
 import org.opengis.feature.type.Name;
-import org.opengis.feature.type.PropertyDescriptor;
 import org.opengis.geometry.BoundingBox;
 
+/**
+ * A compiled encoding plan for the attributes of a {@link SimpleFeatureType}.
+ * <p>
+ * The plan is a flat array of {@link AttributeEncoderExecutor executors}, one per attribute in the
+ * feature type's order, each one holding the attribute index, its element name and the
+ * {@link Gml3Encoder#getAttributeEncoder(Class) value encoder} for its binding. The element names
+ * are resolved once per writer to {@link BxmlStreamWriter#getNameReference name references}. So
+ * encoding a feature takes no name or binding lookups, the attribute values are read by index.
+ * </p>
+ * <p>
+ * Plans hold no per writer state, so they're {@link Gml3Encoder#getAttributeEncoders cached} per
+ * feature type and shared by all the threads encoding features.
+ * </p>
+ * 
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
 public class AttributeEncoders {
 
-    private static final Logger LOGGER = Logging.getLogger("org.gvsig.bxml.geoserver");
-
     private final AttributeEncoderExecutor BOUNDED_BY_ENCODER;
 
-    private final Map<Name, AttributeEncoderExecutor> executors;
+    private final SimpleFeatureType featureType;
 
     private final String defaultNamespaceURI;
 
-    private final Gml3Encoder gmlEncoder;
+    private final AttributeEncoderExecutor[] plan;
 
     /**
      * 
      * @param featureType
-     *            the type to build the initial set of encoders for
+     *            the type to compile the encoding plan for
      * @param defaultNamespaceURI
      *            the namespace to use for attribtue names whose {@link AttributeDescriptor
      *            descriptor} name has no namespace
      */
-    public AttributeEncoders(final Gml3Encoder gmlEncoder, final FeatureType featureType,
+    public AttributeEncoders(final Gml3Encoder gmlEncoder, final SimpleFeatureType featureType,
             final String defaultNamespaceURI) {
-        this.gmlEncoder = gmlEncoder;
+        this.featureType = featureType;
         this.defaultNamespaceURI = defaultNamespaceURI;
-        this.executors = buildAttributeEncoderExecutors(featureType);
+        this.plan = buildAttributeEncoderExecutors(gmlEncoder, featureType, defaultNamespaceURI);
         this.BOUNDED_BY_ENCODER = new BoundedByEncoderExecutor(gmlEncoder);
     }
 
+    /**
+     * @return the feature type this plan was compiled for
+     */
+    public SimpleFeatureType getFeatureType() {
+        return featureType;
+    }
+
+    /**
+     * @return the namespace this plan was compiled with for the attributes with no namespace
+     */
+    public String getDefaultNamespaceURI() {
+        return defaultNamespaceURI;
+    }
+
     public AttributeEncoderExecutor getBoundedByEncoder() {
         return BOUNDED_BY_ENCODER;
     }
 
     /**
-     * @param attribute
-     * @return
+     * Resolves the attribute element names of this plan to name references of {@code writer}.
+     * 
+     * @return the name references, in the feature type's order, {@code -1} for the names that
+     *         can't be referenced
+     * @see #encodeAttributes(SimpleFeature, BxmlStreamWriter, long[])
      */
-    public AttributeEncoderExecutor getEncoder(final AttributeDescriptor attribute) {
-        final Name name = attribute.getName();
-        AttributeEncoderExecutor attEncoder = executors.get(name);
-        if (attEncoder == null) {
-            attEncoder = new DefaultAttributeEncoderExecutor(gmlEncoder, defaultNamespaceURI,
-                    attribute);
-            executors.put(name, attEncoder);
+    public long[] getNameReferences(final BxmlStreamWriter writer) throws IOException {
+        final long[] names = new long[plan.length];
+        for (int i = 0; i < plan.length; i++) {
+            names[i] = plan[i].getNameReference(writer);
         }
-        return attEncoder;
+        return names;
     }
 
     /**
-     * Creates an ordered list of attribute encoder executors for a given feature type.
-     * <p>
-     * If the WFS configuration {@link EncoderConfig#isFeatureBounding() isFeatureBounding} property
-     * is {@code true}, also appends to the list an attribute encoder for the feature bounds (ie,
-     * gml:boundedBy).
-     * </p>
+     * Encodes all the attributes of {@code feature}, in the feature type's order.
+     * 
+     * @param feature
+     *            a feature of the {@link #getFeatureType() feature type} this plan was compiled
+     *            for
+     * @param encoder
+     * @param names
+     *            the {@link #getNameReferences name references} of the attribute elements,
+     *            resolved on {@code encoder} or on the writer that created it as a fragment writer
+     * @throws IOException
+     */
+    public void encodeAttributes(final SimpleFeature feature, final BxmlStreamWriter encoder,
+            final long[] names) throws IOException {
+        final AttributeEncoderExecutor[] plan = this.plan;
+        for (int i = 0; i < plan.length; i++) {
+            plan[i].encode(feature, encoder, names[i]);
+        }
+    }
+
+    /**
+     * Creates the ordered list of attribute encoder executors for a given feature type.
      * 
      * @param featureType
      * @return
      */
-    private Map<Name, AttributeEncoderExecutor> buildAttributeEncoderExecutors(
-            final FeatureType featureType) {
-
-        Map<Name, AttributeEncoderExecutor> executors;
-        executors = new HashMap<Name, AttributeEncoderExecutor>();
-
-        Collection<PropertyDescriptor> descriptors = featureType.getDescriptors();
+    private static AttributeEncoderExecutor[] buildAttributeEncoderExecutors(
+            final Gml3Encoder gmlEncoder, final SimpleFeatureType featureType,
+            final String defaultNamespaceURI) {
 
-        Name name;
-        AttributeEncoderExecutor executor;
+        final List<AttributeDescriptor> descriptors = featureType.getAttributeDescriptors();
+        final AttributeEncoderExecutor[] executors;
+        executors = new AttributeEncoderExecutor[descriptors.size()];
 
-        for (PropertyDescriptor descriptor : descriptors) {
-            name = descriptor.getName();
-            if (descriptor instanceof AttributeDescriptor) {
-                AttributeDescriptor attDescriptor = (AttributeDescriptor) descriptor;
-                executor = new DefaultAttributeEncoderExecutor(gmlEncoder, defaultNamespaceURI,
-                        attDescriptor);
-                executors.put(name, executor);
-            } else {
-                LOGGER.info("Ignoring property " + name + " as it is not an AttributeDescriptor");
-            }
+        for (int index = 0; index < executors.length; index++) {
+            executors[index] = new DefaultAttributeEncoderExecutor(gmlEncoder,
+                    defaultNamespaceURI, descriptors.get(index), index);
         }
-
         return executors;
     }
 
@@ -130,10 +158,20 @@ public class AttributeEncoders {
          *            the feature from which to encode the attribute this executors especializes in.
          * @param encoder
          *            the binary xml encoder used to encode the feature attribute for this executor
+         * @param nameReference
+         *            the element name as returned by {@link #getNameReference}
          * @throws IOException
          */
-        public abstract void encode(final SimpleFeature feature, final BxmlStreamWriter encoder)
-                throws IOException;
+        public abstract void encode(final SimpleFeature feature, final BxmlStreamWriter encoder,
+                final long nameReference) throws IOException;
+
+        /**
+         * Resolves the element name this executor writes to a name reference of {@code writer}.
+         * 
+         * @return the name reference, or {@code -1} if it can't be referenced
+         * @see BxmlStreamWriter#getNameReference(String, String)
+         */
+        public abstract long getNameReference(final BxmlStreamWriter writer) throws IOException;
 
     }
 
@@ -154,6 +192,12 @@ public class AttributeEncoders {
 
         protected final Name attributeName;
 
+        /**
+         * Index of the attribute in the feature type, or {@code -1} if it is not a feature type
+         * attribute
+         */
+        protected final int attributeIndex;
+
         protected final AttributeDescriptor descriptor;
 
         protected final Gml3Encoder gmlEncoder;
@@ -161,14 +205,17 @@ public class AttributeEncoders {
         /**
          * 
          * @param defaultNamespaceURI
-         * @param attributeName
-         * @param binding
+         * @param descriptor
+         * @param attributeIndex
+         *            the index of the attribute in the feature type
          */
         public DefaultAttributeEncoderExecutor(final Gml3Encoder gmlEncoder,
-                final String defaultNamespaceURI, final AttributeDescriptor descriptor) {
+                final String defaultNamespaceURI, final AttributeDescriptor descriptor,
+                final int attributeIndex) {
             this.gmlEncoder = gmlEncoder;
             this.descriptor = descriptor;
             this.attributeName = descriptor.getName();
+            this.attributeIndex = attributeIndex;
 
             this.encodedMamespaceURI = attributeName.getNamespaceURI() == null ? defaultNamespaceURI
                     : attributeName.getNamespaceURI();
@@ -178,13 +225,27 @@ public class AttributeEncoders {
             attributeValueEncoder = Gml3Encoder.getAttributeEncoder(binding);
         }
 
+        /**
+         * @see AttributeEncoderExecutor#getNameReference
+         */
+        public long getNameReference(final BxmlStreamWriter writer) throws IOException {
+            if (encodedMamespaceURI == null) {
+                return -1;
+            }
+            return writer.getNameReference(encodedMamespaceURI, localName);
+        }
+
         /**
          * @see AttributeEncoderExecutor#encode
          */
-        public final void encode(final SimpleFeature feature, final BxmlStreamWriter encoder)
-                throws IOException {
-            // namespaceUri may be null
-            encoder.writeStartElement(encodedMamespaceURI, localName);
+        public final void encode(final SimpleFeature feature, final BxmlStreamWriter encoder,
+                final long nameReference) throws IOException {
+            if (nameReference == -1) {
+                // namespaceUri may be null
+                encoder.writeStartElement(encodedMamespaceURI, localName);
+            } else {
+                encoder.writeStartElement(nameReference);
+            }
 
             encodeValue(feature, encoder);
 
@@ -209,7 +270,7 @@ public class AttributeEncoders {
          */
         protected void encodeValue(final SimpleFeature feature, final BxmlStreamWriter encoder)
                 throws IOException {
-            Object value = feature.getAttribute(attributeName);
+            Object value = feature.getAttribute(attributeIndex);
             attributeValueEncoder.encode(gmlEncoder, value, descriptor, encoder);
         }
     }
@@ -227,7 +288,7 @@ public class AttributeEncoders {
          * Fake attribute type used to encode the boundedBy feature property only if the
          * {@link #wfs} configuration is explicitly set to do that.
          * 
-         * @see #encode(Feature, BxmlStreamWriter)
+         * @see #encode(SimpleFeature, BxmlStreamWriter, long)
          */
         private static final AttributeDescriptor boundedByAttribute;
 
@@ -247,7 +308,7 @@ public class AttributeEncoders {
          * Default constructor, uses the special {@code boundedByAttributeType} AttributeType
          */
         public BoundedByEncoderExecutor(final Gml3Encoder gmlEncoder) {
-            super(gmlEncoder, GML.NAMESPACE, boundedByAttribute);
+            super(gmlEncoder, GML.NAMESPACE, boundedByAttribute, -1);
         }
 
         /**
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
@@ -14,6 +15,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
@@ -35,10 +45,12 @@ import org.geotools.feature.type.DateUtil;
 import org.geotools.gml3.GML;
 import org.geotools.xml.Configuration;
 import org.geotools.xml.XSD;
+import org.gvsig.bxml.geoserver.SimpleFeatureEncoder.FeatureNames;
 import org.gvsig.bxml.stream.BxmlFactoryFinder;
 import org.gvsig.bxml.stream.BxmlOutputFactory;
 import org.gvsig.bxml.stream.BxmlStreamWriter;
 import org.gvsig.bxml.stream.EncodingOptions;
+import org.gvsig.bxml.stream.io.DefaultStreamFactory;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
@@ -68,6 +80,34 @@ public final class BinaryGml3OutputFormat extends WFSGetFeatureOutputFormat {
 
     private final Gml3Encoder gmlEncoder;
 
+    /**
+     * How many features per encoding thread may be queued up or waiting to be written down when
+     * encoding in parallel
+     */
+    private static final int PIPELINE_DEPTH = 4;
+
+    /**
+     * How long idle encoding threads are kept around
+     */
+    private static final long EXECUTOR_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Per encoding thread feature encoder, as SimpleFeatureEncoder caches the attribute encoders
+     * for the last feature type and is not thread safe
+     * 
+     * @see #getWorkerEncoder()
+     */
+    private static final ThreadLocal<SimpleFeatureEncoder> WORKER_ENCODERS = new ThreadLocal<SimpleFeatureEncoder>();
+
+    /**
+     * Lazily created thread pool to encode features in parallel, shared by all requests and resized
+     * whenever the number of configured encoding threads changes. Its threads time out when idle.
+     * 
+     * @see #getEncodingExecutor(int)
+     * @see #dispose()
+     */
+    private ThreadPoolExecutor encodingExecutor;
+
     /**
      * Creates a new WFS output format encoder that generates GML 3.1.1 documents encoded as per the
      * OGC BinaryXML 0.0.8 Best Practices Document.
@@ -299,6 +339,14 @@ public final class BinaryGml3OutputFormat extends WFSGetFeatureOutputFormat {
      * Encodes a GeoTools FeatureCollection by first building a set of per attribute encoder
      * executors (a sort of execution chain) and then applying the encoding chain for the feature
      * attributes.
+     * <p>
+     * If the configured number of {@link EncoderConfig#getEncodingThreads() encoding threads} is
+     * greater than one and {@code writer} supports
+     * {@link BxmlStreamWriter#canWriteFragments() fragments}, the features are encoded
+     * {@link #encodePipelined in parallel}. That's opt in, through
+     * {@link GeoServerEncoderConfig#ENCODING_THREADS_PROPERTY}, as its speed up has not been
+     * measured on multi core hosts yet.
+     * </p>
      * 
      * @param fc
      * @param writer
@@ -307,6 +355,11 @@ public final class BinaryGml3OutputFormat extends WFSGetFeatureOutputFormat {
     void encode(final FeatureCollection<SimpleFeatureType, SimpleFeature> fc,
             final BxmlStreamWriter writer) throws IOException {
 
+        final int encodingThreads = config.getEncodingThreads();
+        if (encodingThreads > 1 && writer.canWriteFragments()) {
+            encodePipelined(fc, writer, encodingThreads);
+            return;
+        }
         final SimpleFeatureEncoder sfEncoder = new SimpleFeatureEncoder(gmlEncoder);
         final FeatureIterator<SimpleFeature> features = fc.features();
         try {
@@ -319,4 +372,171 @@ public final class BinaryGml3OutputFormat extends WFSGetFeatureOutputFormat {
             features.close();
         }
     }
+
+    /**
+     * Encodes the features of {@code fc} in parallel, keeping their order.
+     * <p>
+     * The calling thread reads the features and hands each one, along with a
+     * {@link BxmlStreamWriter#createFragmentWriter() fragment writer}, to the encoding
+     * thread pool, which encodes the feature to BXML into the fragment's memory buffer. Up to
+     * {@link #PIPELINE_DEPTH} features per thread are in flight at any time, after which the
+     * calling thread waits for the oldest one and {@link BxmlStreamWriter#writeFragment
+     * writes down} its bytes before reading the next feature.
+     * </p>
+     * <p>
+     * Fragment writers share a snapshot of {@code writer}'s string table, so a feature is rejected
+     * if encoding it needed a name or string not known at the time its fragment writer was
+     * created. The calling thread then encodes it again directly on {@code writer}, which makes
+     * the new strings known to the next fragment writers. Either way the document is the same as
+     * if the features had been encoded serially. The feature and attribute names are resolved on
+     * {@code writer} beforehand, so they're always known, and the first feature is encoded
+     * directly on {@code writer}, so that the geometry names and common strings it adds are known
+     * to the first fragment writers instead of getting all of them rejected, and so that the
+     * geometry start templates it creates can be written by the fragment writers.
+     * </p>
+     */
+    private void encodePipelined(final FeatureCollection<SimpleFeatureType, SimpleFeature> fc,
+            final BxmlStreamWriter writer, final int encodingThreads) throws IOException {
+
+        final ExecutorService executor = getEncodingExecutor(encodingThreads);
+        // for the first feature and the rejected fragments
+        final SimpleFeatureEncoder sfEncoder = new SimpleFeatureEncoder(gmlEncoder);
+        final int maxInFlight = PIPELINE_DEPTH * encodingThreads;
+        final ArrayDeque<EncodedFeature> inFlight = new ArrayDeque<EncodedFeature>(maxInFlight);
+
+        final FeatureIterator<SimpleFeature> features = fc.features();
+        try {
+            if (features.hasNext()) {
+                sfEncoder.encode(features.next(), writer);
+            }
+            while (features.hasNext()) {
+                if (inFlight.size() == maxInFlight) {
+                    writeDown(inFlight.removeFirst(), writer, sfEncoder);
+                }
+                final SimpleFeature feature = features.next();
+                // resolved on writer, hence known to the fragment writer
+                final FeatureNames names = sfEncoder.getNames(feature, writer);
+                final BxmlStreamWriter fragment = writer.createFragmentWriter();
+                final Future<BxmlStreamWriter> encoded = executor
+                        .submit(new Callable<BxmlStreamWriter>() {
+                            public BxmlStreamWriter call() throws IOException {
+                                getWorkerEncoder().encode(feature, fragment, names);
+                                return fragment;
+                            }
+                        });
+                inFlight.addLast(new EncodedFeature(feature, encoded));
+            }
+            while (!inFlight.isEmpty()) {
+                writeDown(inFlight.removeFirst(), writer, sfEncoder);
+            }
+        } finally {
+            // only non empty if something failed, do not keep on encoding features nobody awaits
+            for (EncodedFeature pending : inFlight) {
+                pending.fragment.cancel(true);
+            }
+            features.close();
+        }
+    }
+
+    /**
+     * A feature handed to the encoding threads and the future fragment writer it's encoded with
+     */
+    private static final class EncodedFeature {
+        final SimpleFeature feature;
+
+        final Future<BxmlStreamWriter> fragment;
+
+        EncodedFeature(final SimpleFeature feature,
+                final Future<BxmlStreamWriter> fragment) {
+            this.feature = feature;
+            this.fragment = fragment;
+        }
+    }
+
+    /**
+     * Waits for {@code encoded} to finish and writes its fragment down to {@code writer}, or
+     * encodes the feature again directly on {@code writer} with {@code sfEncoder} if the fragment
+     * was rejected.
+     */
+    private static void writeDown(final EncodedFeature encoded,
+            final BxmlStreamWriter writer, final SimpleFeatureEncoder sfEncoder)
+            throws IOException {
+        final BxmlStreamWriter fragment;
+        try {
+            fragment = encoded.fragment.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a feature to be encoded", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+        if (!writer.writeFragment(fragment)) {
+            sfEncoder.encode(encoded.feature, writer);
+        }
+    }
+
+    /**
+     * Returns the calling encoding thread's feature encoder, creating it if needed.
+     */
+    private SimpleFeatureEncoder getWorkerEncoder() {
+        SimpleFeatureEncoder sfEncoder = WORKER_ENCODERS.get();
+        if (sfEncoder == null || sfEncoder.getGmlEncoder() != gmlEncoder) {
+            sfEncoder = new SimpleFeatureEncoder(gmlEncoder);
+            WORKER_ENCODERS.set(sfEncoder);
+        }
+        return sfEncoder;
+    }
+
+    /**
+     * Returns the encoding thread pool, creating it or resizing it to {@code encodingThreads} as
+     * needed. Resizing does not disturb the requests being encoded with the pool.
+     */
+    private synchronized ExecutorService getEncodingExecutor(final int encodingThreads) {
+        if (encodingExecutor == null) {
+            encodingExecutor = new ThreadPoolExecutor(encodingThreads, encodingThreads,
+                    EXECUTOR_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger threadNumber = new AtomicInteger();
+
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread(r, "BinaryGML3-encoder-"
+                                    + threadNumber.incrementAndGet());
+                            // do not prevent the container from shutting down
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            encodingExecutor.allowCoreThreadTimeOut(true);
+        } else if (encodingExecutor.getMaximumPoolSize() < encodingThreads) {
+            encodingExecutor.setMaximumPoolSize(encodingThreads);
+            encodingExecutor.setCorePoolSize(encodingThreads);
+        } else if (encodingExecutor.getMaximumPoolSize() > encodingThreads) {
+            encodingExecutor.setCorePoolSize(encodingThreads);
+            encodingExecutor.setMaximumPoolSize(encodingThreads);
+        }
+        return encodingExecutor;
+    }
+
+    /**
+     * Shuts down the encoding thread pool, if any, and drops the buffers pooled by the BXML
+     * streams so the container's request threads don't hold them after an undeploy. Called by the
+     * application context when this output format is destroyed.
+     */
+    public synchronized void dispose() {
+        if (encodingExecutor != null) {
+            encodingExecutor.shutdownNow();
+            encodingExecutor = null;
+        }
+        DefaultStreamFactory.releasePooledBuffers();
+    }
 }
@@ -0,0 +1,205 @@
+package org.gvsig.bxml.geoserver;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.xml.XMLConstants;
+
+import org.gvsig.bxml.stream.BxmlStreamWriter;
+
+/**
+ * Encodes the ordinates of a coordinate sequence with one of the compact
+ * {@link CoordinateEncoding}s.
+ * <p>
+ * The ordinates are first {@link #prepare prepared}, which may fail if they can't be represented
+ * with the encoding, and then the element's {@link #writeAttributes attributes} recording the
+ * encoding and the {@link #writeOrdinates ordinates} themselves are written down.
+ * </p>
+ * <p>
+ * For the delta encodings each ordinate is quantized to {@code resolution} units relative to the
+ * first coordinate, which goes as the {@code coordinateOffset} attribute, and written as the
+ * difference to the previous ordinate of the same dimension. So the ordinate {@code i} of
+ * dimension {@code d} decodes as {@code offset[d] + resolution * sum(delta[d], 0..i)}. Note the
+ * BXML GPE reader decodes this layout, so changing it breaks reading older documents.
+ * </p>
+ * <p>
+ * Instances hold reusable buffers and are not thread safe.
+ * </p>
+ *
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+final class CompactCoordinates {
+
+    static final String ENCODING_ATTRIBUTE = "coordinateEncoding";
+
+    static final String RESOLUTION_ATTRIBUTE = "coordinateResolution";
+
+    static final String OFFSET_ATTRIBUTE = "coordinateOffset";
+
+    private CoordinateEncoding encoding;
+
+    private double resolution;
+
+    private int dimensions;
+
+    private double[] offsets = new double[3];
+
+    private long[] previous = new long[3];
+
+    /**
+     * Number of values prepared, ordinates for {@link #floats} and {@link #ints}, bytes for
+     * {@link #bytes}
+     */
+    private int count;
+
+    private float[] floats = new float[0];
+
+    private int[] ints = new int[0];
+
+    private byte[] bytes = new byte[0];
+
+    /**
+     * Resolution for the delta encodings of the geometry the owning thread is encoding, set when
+     * its CRS is known as its members are encoded without one, {@code NaN} if the delta
+     * encodings shall not be used for it
+     */
+    double geometryResolution = Double.NaN;
+
+    /**
+     * Prepares {@code ordinates} to be written down with {@code encoding}.
+     *
+     * @param encoding
+     *            a compact encoding, not {@link CoordinateEncoding#DOUBLE}
+     * @param resolution
+     *            the quantization step for the delta encodings, in CRS units
+     * @param ordinates
+     *            the ordinates, coordinate after coordinate
+     * @param length
+     *            the number of ordinates in {@code ordinates}, a multiple of {@code dimensions}
+     * @param dimensions
+     *            the number of ordinates per coordinate
+     * @return {@code false} if there are no ordinates or they can't be encoded with
+     *         {@code encoding}, like NaN ordinates or deltas that overflow an int, in which case
+     *         the caller shall write them as doubles.
+     */
+    public boolean prepare(final CoordinateEncoding encoding, final double resolution,
+            final double[] ordinates, final int length, final int dimensions) {
+        if (CoordinateEncoding.DOUBLE == encoding) {
+            throw new IllegalArgumentException("DOUBLE is not a compact encoding");
+        }
+        this.encoding = encoding;
+        this.resolution = resolution;
+        this.dimensions = dimensions;
+        this.count = 0;
+        if (length == 0) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Double.isNaN(ordinates[i]) || Double.isInfinite(ordinates[i])) {
+                return false;
+            }
+        }
+        if (CoordinateEncoding.FLOAT == encoding) {
+            if (floats.length < length) {
+                floats = new float[length];
+            }
+            for (int i = 0; i < length; i++) {
+                floats[i] = (float) ordinates[i];
+            }
+            count = length;
+            return true;
+        }
+
+        if (offsets.length < dimensions) {
+            offsets = new double[dimensions];
+            previous = new long[dimensions];
+        }
+        System.arraycopy(ordinates, 0, offsets, 0, dimensions);
+        Arrays.fill(previous, 0, dimensions, 0L);
+
+        final boolean varint = CoordinateEncoding.VARINT_DELTA == encoding;
+        if (varint) {
+            // worst case is 10 bytes per ordinate, grow as needed below instead
+            if (bytes.length < 2 * length) {
+                bytes = new byte[2 * length];
+            }
+        } else if (ints.length < length) {
+            ints = new int[length];
+        }
+
+        int dimension = 0;
+        long quantized, delta;
+        for (int i = 0; i < length; i++) {
+            quantized = Math.round((ordinates[i] - offsets[dimension]) / resolution);
+            delta = quantized - previous[dimension];
+            previous[dimension] = quantized;
+            if (varint) {
+                writeVarint((delta << 1) ^ (delta >> 63));
+            } else {
+                if (delta < Integer.MIN_VALUE || delta > Integer.MAX_VALUE) {
+                    return false;
+                }
+                ints[count++] = (int) delta;
+            }
+            if (++dimension == dimensions) {
+                dimension = 0;
+            }
+        }
+        return true;
+    }
+
+    private void writeVarint(long zigzag) {
+        if (bytes.length - count < 10) {
+            bytes = Arrays.copyOf(bytes, 2 * bytes.length + 10);
+        }
+        while ((zigzag & ~0x7FL) != 0) {
+            bytes[count++] = (byte) ((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        bytes[count++] = (byte) zigzag;
+    }
+
+    /**
+     * Writes down the attributes recording the encoding of the {@link #prepare prepared}
+     * ordinates, without ending the attribute list.
+     */
+    public void writeAttributes(final BxmlStreamWriter encoder) throws IOException {
+        encoder.writeStartAttribute(XMLConstants.NULL_NS_URI, ENCODING_ATTRIBUTE);
+        encoder.writeValue(encoding.getAttributeValue());
+        if (CoordinateEncoding.FLOAT == encoding) {
+            return;
+        }
+        encoder.writeStartAttribute(XMLConstants.NULL_NS_URI, RESOLUTION_ATTRIBUTE);
+        encoder.writeValue(resolution);
+
+        final StringBuilder offset = new StringBuilder();
+        for (int d = 0; d < dimensions; d++) {
+            if (d > 0) {
+                offset.append(' ');
+            }
+            offset.append(offsets[d]);
+        }
+        encoder.writeStartAttribute(XMLConstants.NULL_NS_URI, OFFSET_ATTRIBUTE);
+        encoder.writeValue(offset.toString());
+    }
+
+    /**
+     * Writes down the {@link #prepare prepared} ordinates as a typed array
+     */
+    public void writeOrdinates(final BxmlStreamWriter encoder) throws IOException {
+        switch (encoding) {
+        case FLOAT:
+            encoder.writeValue(floats, 0, count);
+            break;
+        case SCALED_DELTA:
+            encoder.writeValue(ints, 0, count);
+            break;
+        case VARINT_DELTA:
+            encoder.writeValue(bytes, 0, count);
+            break;
+        default:
+            throw new IllegalStateException("Unexpected encoding: " + encoding);
+        }
+    }
+}
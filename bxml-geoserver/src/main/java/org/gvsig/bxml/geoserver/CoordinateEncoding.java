@@ -0,0 +1,48 @@
+package org.gvsig.bxml.geoserver;
+
+/**
+ * The ways coordinates can be encoded as, as set by {@link EncoderConfig#getCoordinateEncoding()}.
+ * <p>
+ * Except for {@link #DOUBLE}, the {@code gml:pos} and {@code gml:posList} elements get a
+ * {@code coordinateEncoding} attribute recording the scheme, plus the {@code coordinateResolution}
+ * and {@code coordinateOffset} ones for the delta encodings. The BXML GPE reader decodes them back
+ * to doubles transparently.
+ * </p>
+ *
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ * @see CompactCoordinates
+ */
+public enum CoordinateEncoding {
+    /**
+     * 8 byte doubles, lossless. The default.
+     */
+    DOUBLE("double"),
+    /**
+     * 4 byte floats, loses precision beyond about seven significant digits
+     */
+    FLOAT("float"),
+    /**
+     * 4 byte ints, each one the difference to the previous ordinate of the same dimension in
+     * {@link EncoderConfig#getCoordinateResolution() resolution} units. Lossy up to the resolution.
+     */
+    SCALED_DELTA("scaledDelta"),
+    /**
+     * Same as {@link #SCALED_DELTA} but each difference zigzag encoded as a variable length
+     * integer in a byte array, so small differences take one or two bytes
+     */
+    VARINT_DELTA("varintDelta");
+
+    private final String attributeValue;
+
+    private CoordinateEncoding(final String attributeValue) {
+        this.attributeValue = attributeValue;
+    }
+
+    /**
+     * @return the value of the {@code coordinateEncoding} attribute for this encoding
+     */
+    public String getAttributeValue() {
+        return attributeValue;
+    }
+}
@@ -32,4 +32,22 @@ public interface EncoderConfig {
 
     SrsNameStyle getSrsNameStyle();
 
+    /*
+     * Number of threads features are encoded with, 1 meaning the request thread encodes them
+     * serially
+     */
+    int getEncodingThreads();
+
+    /*
+     * How coordinates are encoded, CoordinateEncoding.DOUBLE unless a compact encoding is opted in
+     */
+    CoordinateEncoding getCoordinateEncoding();
+
+    /*
+     * Quantization step in CRS units for the delta coordinate encodings, like 0.01 for centimetre
+     * precision on a metric CRS, or NaN if not set, in which case geographic CRSs are not delta
+     * encoded and the others use Gml3Encoder.DEFAULT_COORDINATE_RESOLUTION
+     */
+    double getCoordinateResolution();
+
 }
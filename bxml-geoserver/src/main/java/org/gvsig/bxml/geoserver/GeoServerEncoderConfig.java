@@ -13,6 +13,12 @@ import org.geotools.xml.Configuration;
 
 public class GeoServerEncoderConfig implements EncoderConfig {
 
+    /**
+     * System property to set the default number of {@link #getEncodingThreads() encoding threads}
+     */
+    public static final String ENCODING_THREADS_PROPERTY =
+            "org.gvsig.bxml.geoserver.encodingThreads";
+
     private final GeoServer gs;
 
     private final Configuration wfsConfiguration;
@@ -23,6 +29,12 @@ public class GeoServerEncoderConfig implements EncoderConfig {
 
     private SrsNameStyle srsNameStyle;
 
+    private int encodingThreads = Integer.getInteger(ENCODING_THREADS_PROPERTY, 1).intValue();
+
+    private CoordinateEncoding coordinateEncoding = CoordinateEncoding.DOUBLE;
+
+    private double coordinateResolution = Double.NaN;
+
     public GeoServerEncoderConfig(final GeoServer geoserverConfig,
             final Configuration wfsConfiguration, final Version version) {
         this.gs = geoserverConfig;
@@ -55,4 +67,54 @@ public class GeoServerEncoderConfig implements EncoderConfig {
         return srsNameStyle;
     }
 
+    public int getEncodingThreads() {
+        return encodingThreads;
+    }
+
+    /**
+     * @param encodingThreads
+     *            number of threads to encode features with, defaults to the
+     *            {@link #ENCODING_THREADS_PROPERTY} system property or {@code 1} if not set
+     */
+    public void setEncodingThreads(final int encodingThreads) {
+        if (encodingThreads < 1) {
+            throw new IllegalArgumentException("encodingThreads shall be >= 1: "
+                    + encodingThreads);
+        }
+        this.encodingThreads = encodingThreads;
+    }
+
+    public CoordinateEncoding getCoordinateEncoding() {
+        return coordinateEncoding;
+    }
+
+    /**
+     * @param coordinateEncoding
+     *            how to encode coordinates, defaults to {@link CoordinateEncoding#DOUBLE}
+     */
+    public void setCoordinateEncoding(final CoordinateEncoding coordinateEncoding) {
+        if (coordinateEncoding == null) {
+            throw new NullPointerException("coordinateEncoding");
+        }
+        this.coordinateEncoding = coordinateEncoding;
+    }
+
+    public double getCoordinateResolution() {
+        return coordinateResolution;
+    }
+
+    /**
+     * @param coordinateResolution
+     *            quantization step in CRS units for the delta coordinate encodings, used for all
+     *            CRSs. Unset by default, in which case geographic CRSs are not delta encoded and
+     *            the others use {@link Gml3Encoder#DEFAULT_COORDINATE_RESOLUTION}
+     */
+    public void setCoordinateResolution(final double coordinateResolution) {
+        if (!(coordinateResolution > 0) || Double.isInfinite(coordinateResolution)) {
+            throw new IllegalArgumentException("coordinateResolution shall be > 0: "
+                    + coordinateResolution);
+        }
+        this.coordinateResolution = coordinateResolution;
+    }
+
 }
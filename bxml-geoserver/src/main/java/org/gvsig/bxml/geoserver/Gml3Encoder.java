@@ -1,15 +1,18 @@
 package org.gvsig.bxml.geoserver;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.TreeMap;
+
+import javax.xml.namespace.QName;
 
 import org.geoserver.wfs.GMLInfo.SrsNameStyle;
 import org.geotools.feature.type.DateUtil;
@@ -21,6 +24,7 @@ import org.geotools.util.Converters;
 import org.geotools.util.Range;
 import org.gvsig.bxml.stream.BxmlStreamWriter;
 import org.gvsig.bxml.stream.EventType;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.geometry.BoundingBox;
@@ -29,6 +33,7 @@ import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.crs.GeographicCRS;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryCollection;
@@ -38,6 +43,8 @@ import com.vividsolutions.jts.geom.MultiPoint;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
 
 /**
  * Pure utility class to help in encoding common gml constructs, such as geometries, envelope,
@@ -50,32 +57,124 @@ public final class Gml3Encoder {
 
     private final SrsNameStyle srsNameStyle;
 
-    private final Map<CoordinateReferenceSystem, String> srsNameUris;
+    /**
+     * Maximum number of {@link CrsFragment}s to cache, the least recently used ones are evicted
+     */
+    private static final int MAX_CRS_FRAGMENTS = 32;
+
+    /**
+     * Copy on write array of the CRS fragments of the CRS instances last seen, so that features
+     * encoded by several threads at once (see BinaryGml3OutputFormat) look them up by identity
+     * without locking
+     */
+    private volatile CrsFragment[] recentCrsFragments = new CrsFragment[0];
+
+    /**
+     * Slot of {@link #recentCrsFragments} to replace next once full
+     */
+    private int nextRecentCrsFragment;
+
+    /**
+     * CRS fragments keyed by CRS equality, in access order, for the CRS instances not found in
+     * {@link #recentCrsFragments}. Guarded by itself.
+     */
+    private final Map<CoordinateReferenceSystem, CrsFragment> crsFragments;
+
+    /**
+     * Maximum number of compiled {@link AttributeEncoders attribute encoding plans} to cache, the
+     * least recently used ones are evicted
+     */
+    private static final int MAX_ENCODING_PLANS = 32;
+
+    /**
+     * Compiled attribute encoding plans keyed by feature type, in access order, shared by all the
+     * requests and encoding threads. Guarded by itself.
+     */
+    private final Map<SimpleFeatureType, AttributeEncoders> encodingPlans;
 
     private static final Map<Class<?>, AttributeEncoder> encodingBindings;
 
     private final EncoderConfig config;
 
+    /**
+     * Per thread as features may be encoded by several threads at once
+     */
+    private final ThreadLocal<CompactCoordinates> compactCoordinates;
+
+    /**
+     * The templates of the document each thread is encoding a feature to, if any
+     * 
+     * @see #setStartTemplates(StartTemplates)
+     */
+    private final ThreadLocal<StartTemplates> startTemplates;
+
     public Gml3Encoder(final EncoderConfig config) {
         this.config = config;
+        this.crsFragments = new LinkedHashMap<CoordinateReferenceSystem, CrsFragment>(16, 0.75f,
+                true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<CoordinateReferenceSystem, CrsFragment> eldest) {
+                return size() > MAX_CRS_FRAGMENTS;
+            }
+        };
+        this.encodingPlans = new LinkedHashMap<SimpleFeatureType, AttributeEncoders>(16, 0.75f,
+                true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<SimpleFeatureType, AttributeEncoders> eldest) {
+                return size() > MAX_ENCODING_PLANS;
+            }
+        };
+        this.compactCoordinates = new ThreadLocal<CompactCoordinates>() {
+            @Override
+            protected CompactCoordinates initialValue() {
+                return new CompactCoordinates();
+            }
+        };
+        this.startTemplates = new ThreadLocal<StartTemplates>();
         SrsNameStyle srsNameStyle = config.getSrsNameStyle();
         this.srsNameStyle = srsNameStyle;
-        srsNameUris = new TreeMap<CoordinateReferenceSystem, String>(
-                new Comparator<CoordinateReferenceSystem>() {
-                    public int compare(CoordinateReferenceSystem crs1,
-                            CoordinateReferenceSystem crs2) {
-                        if (crs1 == crs2) {
-                            return 0;
-                        }
-                        return 1;
-                    }
-                });
     }
 
     public EncoderConfig getConfig() {
         return config;
     }
 
+    /**
+     * Returns the cached attribute encoding plan for {@code featureType}, compiling it if needed.
+     * <p>
+     * Plans are looked up by feature type equality among the {@link #MAX_ENCODING_PLANS} most
+     * recently used ones, so the types GeoServer builds again for every request share their plan.
+     * </p>
+     * 
+     * @param featureType
+     *            the type to get the plan for
+     * @param defaultNamespaceURI
+     *            the namespace for the attributes with no namespace, see
+     *            {@link AttributeEncoders#AttributeEncoders(Gml3Encoder, SimpleFeatureType, String)}
+     */
+    AttributeEncoders getAttributeEncoders(final SimpleFeatureType featureType,
+            final String defaultNamespaceURI) {
+        AttributeEncoders plan;
+        synchronized (encodingPlans) {
+            plan = encodingPlans.get(featureType);
+        }
+        if (plan == null
+                || !(defaultNamespaceURI == null ? plan.getDefaultNamespaceURI() == null
+                        : defaultNamespaceURI.equals(plan.getDefaultNamespaceURI()))) {
+            plan = new AttributeEncoders(this, featureType, defaultNamespaceURI);
+            synchronized (encodingPlans) {
+                encodingPlans.put(featureType, plan);
+            }
+        }
+        return plan;
+    }
+
     private static final AttributeEncoder UNKNOWN_ATT_TYPE_ENCODER = new AttributeEncoder() {
         @Override
         public void encode(final Gml3Encoder gmlEncoder, Object value,
@@ -156,6 +255,7 @@ public final class Gml3Encoder {
                     + " is not a GeometryEncoder");
         }
         final AbstractGeometryEncoder geomEncoder = (AbstractGeometryEncoder) geometryAttEncoder;
+        startGeometry(crs);
         geomEncoder.encode(this, geometry, encoder, crs);
     }
 
@@ -176,10 +276,7 @@ public final class Gml3Encoder {
             return;
         }
 
-        String srsUri = getSrsUri(crs);
-        if (srsUri == null) {
-            return;
-        }
+        final String srsUri = getCrsFragment(crs).srsUri;
 
         if (encoder.supportsStringTableValues()) {
             final long srsUriStringTableEntryId = encoder.getStringTableReference(srsUri);
@@ -191,32 +288,255 @@ public final class Gml3Encoder {
         }
     }
 
-    private String getSrsUri(final CoordinateReferenceSystem crs) throws IOException {
+    /**
+     * The parts of the encoding of geometries and envelopes that only depend on their CRS, computed
+     * once per CRS instance instead of once per geometry.
+     * 
+     * @author Gabriel Roldan (OpenGeo)
+     * @version $Id$
+     */
+    static final class CrsFragment {
+
+        final CoordinateReferenceSystem crs;
+
+        /**
+         * The {@code gml:srsName} attribute value
+         */
+        final String srsUri;
+
+        /**
+         * The {@code srsDimension}, as the dimension of the CRS's coordinate system
+         */
+        final int dimension;
+
+        CrsFragment(final CoordinateReferenceSystem crs, final String srsUri, final int dimension) {
+            this.crs = crs;
+            this.srsUri = srsUri;
+            this.dimension = dimension;
+        }
+    }
+
+    /**
+     * Sets the templates the current thread shall start geometries and envelopes with, those of
+     * the document it is about to encode a feature to.
+     * 
+     * @param templates
+     *            the document's templates, or {@code null} once done with the feature
+     */
+    void setStartTemplates(final StartTemplates templates) {
+        if (templates == null) {
+            startTemplates.remove();
+        } else {
+            startTemplates.set(templates);
+        }
+    }
+
+    /**
+     * Starts {@code element} with the {@code gml:srsName} attribute for {@code crs} and ends its
+     * attribute list, or just starts {@code element} if {@code crs} is {@code null}.
+     * <p>
+     * If the current thread has {@link #setStartTemplates templates} set, the element start is
+     * written as the template for {@code element} and {@code crs}, which is created once the
+     * element was written directly on a writer that can create it.
+     * </p>
+     */
+    private void startElement(final BxmlStreamWriter encoder, final QName element,
+            final CoordinateReferenceSystem crs) throws IOException {
         if (crs == null) {
+            encoder.writeStartElement(element);
+            return;
+        }
+        final StartTemplates templates = startTemplates.get();
+        final String srsUri = templates == null ? null : getCrsFragment(crs).srsUri;
+        if (templates != null) {
+            final BxmlStreamWriter template = templates.get(element, srsUri);
+            if (template != null && encoder.writeTemplate(template)) {
+                return;
+            }
+        }
+        encoder.writeStartElement(element);
+        encodeSrsName(encoder, crs);
+        encoder.writeEndAttributes();
+        if (templates != null && encoder.canWriteFragments()) {
+            // the element name and srsName are known to encoder by now
+            final BxmlStreamWriter template = encoder.createFragmentWriter();
+            template.writeStartElement(element);
+            encodeSrsName(template, crs);
+            template.writeEndAttributes();
+            templates.put(element, srsUri, template);
+        }
+    }
+
+    /**
+     * The starts of the geometry and envelope elements with their {@code gml:srsName} attribute
+     * written to a single document, pre-encoded once per element and srsName as
+     * {@link BxmlStreamWriter#writeTemplate templates} and then copied as they are, instead of
+     * encoding the element name and srsName again for each geometry. Templates are created by
+     * the document writer and also written by its fragment writers, so they're looked up without
+     * locking.
+     * 
+     * @author Gabriel Roldan (OpenGeo)
+     * @version $Id$
+     */
+    static final class StartTemplates {
+
+        /**
+         * Maximum number of templates per document, no more are created once reached
+         */
+        private static final int MAX_TEMPLATES = 32;
+
+        private static final class Entry {
+            final QName element;
+
+            final String srsUri;
+
+            final BxmlStreamWriter template;
+
+            Entry(final QName element, final String srsUri, final BxmlStreamWriter template) {
+                this.element = element;
+                this.srsUri = srsUri;
+                this.template = template;
+            }
+        }
+
+        /**
+         * Copy on write
+         */
+        private volatile Entry[] entries = new Entry[0];
+
+        /**
+         * @return the template for {@code element} and {@code srsUri}, or {@code null}
+         */
+        public BxmlStreamWriter get(final QName element, final String srsUri) {
+            final Entry[] entries = this.entries;
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].element.equals(element) && entries[i].srsUri.equals(srsUri)) {
+                    return entries[i].template;
+                }
+            }
             return null;
         }
-        String srsUri = srsNameUris.get(crs);
-        if (srsUri == null) {
-            boolean simple = false;
-            if (crs instanceof GeographicCRS) {
-                final AxisOrder axisOrder = CRS.getAxisOrder(crs);
-                simple = AxisOrder.EAST_NORTH.equals(axisOrder);
+
+        /**
+         * Sets the template for {@code element} and {@code srsUri}, replacing the one that could
+         * no longer be written, if any
+         */
+        public synchronized void put(final QName element, final String srsUri,
+                final BxmlStreamWriter template) {
+            Entry[] entries = this.entries;
+            int index = 0;
+            while (index < entries.length
+                    && !(entries[index].element.equals(element) && entries[index].srsUri
+                            .equals(srsUri))) {
+                index++;
             }
-            final Integer epsgCode;
-            try {
-                epsgCode = CRS.lookupEpsgCode(crs, true);
-            } catch (FactoryException e) {
-                throw new IOException(e);
+            if (index == entries.length) {
+                if (index == MAX_TEMPLATES) {
+                    return;
+                }
+                entries = Arrays.copyOf(entries, index + 1);
+            } else {
+                entries = entries.clone();
             }
-            srsUri = (simple ? "EPSG:" : "urn:ogc:def:crs:EPSG::") + epsgCode;
-            srsNameUris.put(crs, srsUri);
+            entries[index] = new Entry(element, srsUri, template);
+            this.entries = entries;
         }
-        return srsUri;
     }
 
+    /**
+     * Returns the cached {@link CrsFragment} for {@code crs}, creating it if needed.
+     * <p>
+     * CRS instances are first looked up by identity among the last ones seen, as feature types and
+     * geometries of a same data source share them, and then by equality among the
+     * {@link #MAX_CRS_FRAGMENTS} most recently used ones.
+     * </p>
+     * 
+     * @param crs
+     *            non null
+     */
+    CrsFragment getCrsFragment(final CoordinateReferenceSystem crs) throws IOException {
+        CrsFragment[] recent = recentCrsFragments;
+        for (int i = 0; i < recent.length; i++) {
+            if (recent[i].crs == crs) {
+                return recent[i];
+            }
+        }
+        CrsFragment fragment;
+        synchronized (crsFragments) {
+            fragment = crsFragments.get(crs);
+        }
+        if (fragment == null) {
+            fragment = new CrsFragment(crs, lookupSrsUri(crs), crs.getCoordinateSystem()
+                    .getDimension());
+            synchronized (crsFragments) {
+                crsFragments.put(crs, fragment);
+            }
+        }
+        final CrsFragment found = fragment.crs == crs ? fragment : new CrsFragment(crs,
+                fragment.srsUri, fragment.dimension);
+        synchronized (this) {
+            recent = recentCrsFragments;
+            if (recent.length < MAX_CRS_FRAGMENTS) {
+                recent = Arrays.copyOf(recent, recent.length + 1);
+                recent[recent.length - 1] = found;
+            } else {
+                recent = recent.clone();
+                recent[nextRecentCrsFragment] = found;
+                nextRecentCrsFragment = (nextRecentCrsFragment + 1) % MAX_CRS_FRAGMENTS;
+            }
+            recentCrsFragments = recent;
+        }
+        return found;
+    }
+
+    private String lookupSrsUri(final CoordinateReferenceSystem crs) throws IOException {
+        boolean simple = false;
+        if (crs instanceof GeographicCRS) {
+            final AxisOrder axisOrder = CRS.getAxisOrder(crs);
+            simple = AxisOrder.EAST_NORTH.equals(axisOrder);
+        }
+        final Integer epsgCode;
+        try {
+            epsgCode = CRS.lookupEpsgCode(crs, true);
+        } catch (FactoryException e) {
+            throw new IOException(e);
+        }
+        return (simple ? "EPSG:" : "urn:ogc:def:crs:EPSG::") + epsgCode;
+    }
+
+    /**
+     * Size of the per thread buffer ordinates are gathered in before being written down
+     */
+    private static final int ORDINATES_BUFFER_SIZE = 3 * 1024;
+
+    /**
+     * Resolution of the delta coordinate encodings for CRSs with linear units when none is
+     * configured, centimetres for a metric CRS
+     */
+    static final double DEFAULT_COORDINATE_RESOLUTION = 0.01;
+
+    /**
+     * Per thread as features may be encoded by several threads at once
+     */
+    private static final ThreadLocal<double[]> ORDINATES_BUFFER = new ThreadLocal<double[]>() {
+        @Override
+        protected double[] initialValue() {
+            return new double[ORDINATES_BUFFER_SIZE];
+        }
+    };
+
     /**
      * Writes the {@code coordinates} as an array of doubles, does not write any element, but just
      * the array contents.
+     * <p>
+     * The ordinates are gathered in a reusable buffer and written down in bulk with
+     * {@link BxmlStreamWriter#writeValue(double[], int, int)}, rather than with one
+     * {@link BxmlStreamWriter#writeValue(double)} call per ordinate. The {@link Coordinate}s of a
+     * {@link CoordinateArraySequence} and the {@link #getRawCoordinates raw ordinates} of a
+     * {@link PackedCoordinateSequence} are read directly, and the ordinates of a
+     * {@link PackedCoordinateSequence.Double} of the written dimension are written straight from
+     * its array, without copying them.
+     * </p>
      * 
      * @param coordinates
      * @param encoder
@@ -234,17 +554,189 @@ public final class Gml3Encoder {
             final int dimensions = Math.min(crsDimension, coordinates.getDimension());
 
             encoder.startArray(EventType.VALUE_DOUBLE, dimensions * nCoords);
-            double ordinate;
-            for (int coordN = 0; coordN < nCoords; coordN++) {
-                for (int dimN = 0; dimN < dimensions; dimN++) {
-                    ordinate = coordinates.getOrdinate(coordN, dimN);
-                    encoder.writeValue(ordinate);
+            final double[] buffer = ORDINATES_BUFFER.get();
+            int count = 0;
+            Object raw;
+            if (coordinates instanceof CoordinateArraySequence && dimensions <= 3) {
+                final Coordinate[] coords = ((CoordinateArraySequence) coordinates)
+                        .toCoordinateArray();
+                Coordinate coord;
+                for (int coordN = 0; coordN < nCoords; coordN++) {
+                    if (count + dimensions > buffer.length) {
+                        encoder.writeValue(buffer, 0, count);
+                        count = 0;
+                    }
+                    coord = coords[coordN];
+                    buffer[count++] = coord.x;
+                    if (dimensions > 1) {
+                        buffer[count++] = coord.y;
+                        if (dimensions > 2) {
+                            buffer[count++] = coord.z;
+                        }
+                    }
+                }
+            } else if ((raw = getRawCoordinates(coordinates)) instanceof double[]) {
+                final double[] ordinates = (double[]) raw;
+                final int stride = coordinates.getDimension();
+                if (stride == dimensions) {
+                    encoder.writeValue(ordinates, 0, dimensions * nCoords);
+                } else {
+                    for (int coordN = 0, offset = 0; coordN < nCoords; coordN++, offset += stride) {
+                        if (count + dimensions > buffer.length) {
+                            encoder.writeValue(buffer, 0, count);
+                            count = 0;
+                        }
+                        System.arraycopy(ordinates, offset, buffer, count, dimensions);
+                        count += dimensions;
+                    }
+                }
+            } else if (raw instanceof float[]) {
+                final float[] ordinates = (float[]) raw;
+                final int stride = coordinates.getDimension();
+                for (int coordN = 0, offset = 0; coordN < nCoords; coordN++, offset += stride) {
+                    if (count + dimensions > buffer.length) {
+                        encoder.writeValue(buffer, 0, count);
+                        count = 0;
+                    }
+                    for (int dimN = 0; dimN < dimensions; dimN++) {
+                        buffer[count++] = ordinates[offset + dimN];
+                    }
                 }
+            } else {
+                for (int coordN = 0; coordN < nCoords; coordN++) {
+                    if (count + dimensions > buffer.length) {
+                        encoder.writeValue(buffer, 0, count);
+                        count = 0;
+                    }
+                    for (int dimN = 0; dimN < dimensions; dimN++) {
+                        buffer[count++] = coordinates.getOrdinate(coordN, dimN);
+                    }
+                }
+            }
+            if (count > 0) {
+                encoder.writeValue(buffer, 0, count);
             }
             encoder.endArray();
         }
     }
 
+    /**
+     * {@code PackedCoordinateSequence.Double.getRawCoordinates()} and
+     * {@code PackedCoordinateSequence.Float.getRawCoordinates()}, resolved once as they're only
+     * available from JTS 1.13 on. {@code null} with older JTS versions.
+     */
+    private static final Method RAW_DOUBLE_COORDINATES =
+            getRawCoordinatesMethod(PackedCoordinateSequence.Double.class);
+
+    private static final Method RAW_FLOAT_COORDINATES =
+            getRawCoordinatesMethod(PackedCoordinateSequence.Float.class);
+
+    private static Method getRawCoordinatesMethod(final Class<?> sequenceClass) {
+        try {
+            return sequenceClass.getMethod("getRawCoordinates");
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the {@code double[]} or {@code float[]} array backing {@code coordinates}, with
+     * {@code coordinates.getDimension()} ordinates per coordinate, or {@code null} if it's not a
+     * {@link PackedCoordinateSequence} or the JTS version in use does not give access to it.
+     */
+    private static Object getRawCoordinates(final CoordinateSequence coordinates) {
+        final Method getter;
+        if (coordinates instanceof PackedCoordinateSequence.Double) {
+            getter = RAW_DOUBLE_COORDINATES;
+        } else if (coordinates instanceof PackedCoordinateSequence.Float) {
+            getter = RAW_FLOAT_COORDINATES;
+        } else {
+            return null;
+        }
+        if (getter == null) {
+            return null;
+        }
+        try {
+            return getter.invoke(coordinates);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sets the resolution the delta coordinate encodings use for the geometry about to be encoded
+     * in {@code crs} and its members, which are encoded with no CRS.
+     * 
+     * @param crs
+     *            the geometry CRS, {@code null} if unknown
+     */
+    private void startGeometry(final CoordinateReferenceSystem crs) {
+        compactCoordinates.get().geometryResolution = getCoordinateResolution(crs);
+    }
+
+    /**
+     * Returns the quantization step of the delta coordinate encodings for coordinates in
+     * {@code crs}: the {@link EncoderConfig#getCoordinateResolution() configured} one if set, or
+     * else {@link #DEFAULT_COORDINATE_RESOLUTION}, which is meant for linear units. A geographic
+     * CRS has no default as the default would quantize its degrees to about a kilometre, nor has
+     * an unknown CRS.
+     * 
+     * @return the resolution, or {@code NaN} if the delta encodings shall not be used
+     */
+    double getCoordinateResolution(final CoordinateReferenceSystem crs) {
+        final double resolution = config.getCoordinateResolution();
+        if (!Double.isNaN(resolution)) {
+            return resolution;
+        }
+        if (crs == null || CRS.getHorizontalCRS(crs) instanceof GeographicCRS) {
+            return Double.NaN;
+        }
+        return DEFAULT_COORDINATE_RESOLUTION;
+    }
+
+    /**
+     * Prepares {@code coordinates} to be written with the configured
+     * {@link EncoderConfig#getCoordinateEncoding() coordinate encoding}.
+     * 
+     * @return the prepared coordinates, or {@code null} if they shall be written as doubles with
+     *         {@link #encodeCoordinates}, either because no compact encoding is configured, or
+     *         it is a delta encoding and there's no resolution for the geometry being encoded,
+     *         or it can't represent them
+     */
+    private CompactCoordinates prepareCompactCoordinates(final CoordinateSequence coordinates,
+            final int crsDimension) {
+        final CoordinateEncoding coordinateEncoding = config.getCoordinateEncoding();
+        if (CoordinateEncoding.DOUBLE == coordinateEncoding || coordinates == null) {
+            return null;
+        }
+        final CompactCoordinates compact = compactCoordinates.get();
+        final double resolution = compact.geometryResolution;
+        if (CoordinateEncoding.FLOAT != coordinateEncoding && Double.isNaN(resolution)) {
+            return null;
+        }
+        final int dimensions = Math.min(crsDimension, coordinates.getDimension());
+        if (dimensions == 0) {
+            return null;
+        }
+        final int length = coordinates.size() * dimensions;
+        double[] ordinates = ORDINATES_BUFFER.get();
+        if (ordinates.length < length) {
+            // not kept, so the per thread buffer stays bounded
+            ordinates = new double[length];
+        }
+        final int nCoords = coordinates.size();
+        for (int coordN = 0, count = 0; coordN < nCoords; coordN++) {
+            for (int dimN = 0; dimN < dimensions; dimN++) {
+                ordinates[count++] = coordinates.getOrdinate(coordN, dimN);
+            }
+        }
+
+        if (compact.prepare(coordinateEncoding, resolution, ordinates, length, dimensions)) {
+            return compact;
+        }
+        return null;
+    }
+
     /**
      * Encodes a {@code gml:posList} element for the given coordinates and srs.
      * <p>
@@ -266,8 +758,9 @@ public final class Gml3Encoder {
 
         final int crsDimension;
         if (crs != null) {
+            startGeometry(crs);
             encodeSrsName(encoder, crs);
-            crsDimension = crs.getCoordinateSystem().getDimension();
+            crsDimension = getCrsFragment(crs).dimension;
         } else {
             crsDimension = 2;
         }
@@ -278,9 +771,15 @@ public final class Gml3Encoder {
         encoder.writeStartAttribute(GML.NAMESPACE, "count");
         encoder.writeValue(positionsList.size());
 
-        encoder.writeEndAttributes();
-
-        encodeCoordinates(positionsList, encoder, crsDimension);
+        final CompactCoordinates compact = prepareCompactCoordinates(positionsList, crsDimension);
+        if (compact == null) {
+            encoder.writeEndAttributes();
+            encodeCoordinates(positionsList, encoder, crsDimension);
+        } else {
+            compact.writeAttributes(encoder);
+            encoder.writeEndAttributes();
+            compact.writeOrdinates(encoder);
+        }
 
         encoder.writeEndElement();
     }
@@ -324,10 +823,11 @@ public final class Gml3Encoder {
         } else {
             final CoordinateReferenceSystem crs = bounds.getCoordinateReferenceSystem();
 
-            encoder.writeStartElement(GML.Envelope);
-            // srsName attribute
-            encodeSrsName(encoder, crs);
-            encoder.writeEndAttributes();
+            // with its srsName attribute
+            startElement(encoder, GML.Envelope, crs);
+            if (crs == null) {
+                encoder.writeEndAttributes();
+            }
 
             // lowerCorner
             DirectPosition directPosition = bounds.getLowerCorner();
@@ -361,11 +861,10 @@ public final class Gml3Encoder {
 
     public void encode(final BxmlStreamWriter encoder, final CoordinateReferenceSystem crs,
             final Polygon poly) throws IOException {
-        encoder.writeStartElement(GML.Polygon);
         if (crs != null) {
-            encodeSrsName(encoder, crs);
-            encoder.writeEndAttributes();
+            startGeometry(crs);
         }
+        startElement(encoder, GML.Polygon, crs);
 
         CoordinateSequence linearRing;
         linearRing = poly.getExteriorRing().getCoordinateSequence();
@@ -385,11 +884,10 @@ public final class Gml3Encoder {
 
     public void encode(final BxmlStreamWriter encoder, final CoordinateReferenceSystem crs,
             final MultiPolygon mpoly) throws IOException {
-        encoder.writeStartElement(GML.MultiSurface);
         if (crs != null) {
-            encodeSrsName(encoder, crs);
-            encoder.writeEndAttributes();
+            startGeometry(crs);
         }
+        startElement(encoder, GML.MultiSurface, crs);
 
         final int numGeoms = mpoly.getNumGeometries();
         Polygon poly;
@@ -407,11 +905,10 @@ public final class Gml3Encoder {
 
     public void encode(final BxmlStreamWriter encoder, final CoordinateReferenceSystem crs,
             LineString line) throws IOException {
-        encoder.writeStartElement(GML.LineString);
         if (crs != null) {
-            encodeSrsName(encoder, crs);
-            encoder.writeEndAttributes();
+            startGeometry(crs);
         }
+        startElement(encoder, GML.LineString, crs);
 
         CoordinateSequence coordinates = (line).getCoordinateSequence();
         encodePosList(encoder, coordinates, null);
@@ -420,11 +917,10 @@ public final class Gml3Encoder {
 
     public void encode(final BxmlStreamWriter encoder, final CoordinateReferenceSystem crs,
             final MultiLineString mline) throws IOException {
-        encoder.writeStartElement(GML.MultiLineString);
         if (crs != null) {
-            encodeSrsName(encoder, crs);
-            encoder.writeEndAttributes();
+            startGeometry(crs);
         }
+        startElement(encoder, GML.MultiLineString, crs);
 
         final int nGeoms = mline.getNumGeometries();
         LineString member;
@@ -442,17 +938,24 @@ public final class Gml3Encoder {
     public void encode(final BxmlStreamWriter encoder, final CoordinateReferenceSystem crs,
             Point point) throws IOException {
 
-        encoder.writeStartElement(GML.Point);
         if (crs != null) {
-            encodeSrsName(encoder, crs);
-            encoder.writeEndAttributes();
+            startGeometry(crs);
         }
+        startElement(encoder, GML.Point, crs);
         {
             final CoordinateSequence coordinates = (point).getCoordinateSequence();
             encoder.writeStartElement(GML.pos);
             {
-                int dimension = crs == null ? 2 : crs.getCoordinateSystem().getDimension();
-                encodeCoordinates(coordinates, encoder, dimension);
+                int dimension = crs == null ? 2 : getCrsFragment(crs).dimension;
+                final CompactCoordinates compact = prepareCompactCoordinates(coordinates,
+                        dimension);
+                if (compact == null) {
+                    encodeCoordinates(coordinates, encoder, dimension);
+                } else {
+                    compact.writeAttributes(encoder);
+                    encoder.writeEndAttributes();
+                    compact.writeOrdinates(encoder);
+                }
             }
             encoder.writeEndElement();
         }
@@ -461,11 +964,10 @@ public final class Gml3Encoder {
 
     public void encode(final BxmlStreamWriter encoder, final CoordinateReferenceSystem crs,
             final MultiPoint mpoint) throws IOException {
-        encoder.writeStartElement(GML.MultiPoint);
         if (crs != null) {
-            encodeSrsName(encoder, crs);
-            encoder.writeEndAttributes();
+            startGeometry(crs);
         }
+        startElement(encoder, GML.MultiPoint, crs);
 
         final int nGeoms = mpoint.getNumGeometries();
         Geometry member;
@@ -500,6 +1002,7 @@ public final class Gml3Encoder {
                 GeometryDescriptor geomDescriptor = (GeometryDescriptor) descriptor;
                 crs = geomDescriptor.getCoordinateReferenceSystem();
             }
+            gmlEncoder.startGeometry(crs);
             encode(gmlEncoder, value, encoder, crs);
         }
 
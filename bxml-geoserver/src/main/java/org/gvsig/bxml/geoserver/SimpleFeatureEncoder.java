@@ -1,14 +1,10 @@
 package org.gvsig.bxml.geoserver;
 
 import java.io.IOException;
-import java.util.logging.Logger;
 
 import org.geotools.gml3.GML;
-import org.geotools.util.logging.Logging;
-import org.gvsig.bxml.geoserver.AttributeEncoders.AttributeEncoderExecutor;
+import org.gvsig.bxml.geoserver.Gml3Encoder.StartTemplates;
 import org.gvsig.bxml.stream.BxmlStreamWriter;
-import org.opengis.feature.Attribute;
-import org.opengis.feature.Property;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
@@ -16,71 +12,150 @@ import org.opengis.feature.type.Name;
 
 public class SimpleFeatureEncoder {
 
-    private static final Logger LOGGER = Logging.getLogger(SimpleFeatureEncoder.class);
-
     private final Gml3Encoder gmlEncoder;
 
-    // lazily created so we have the actual Feature namespace as the default for attribtues that
-    // have no ns declared (quite common in geotools SimpleFeatures)
-    private AttributeEncoders encoders;
+    // the names for the type of the last feature encoded, lazily resolved on the last writer
+    private FeatureNames names;
 
     public SimpleFeatureEncoder(final Gml3Encoder gmlEncoder) {
         this.gmlEncoder = gmlEncoder;
     }
 
+    public Gml3Encoder getGmlEncoder() {
+        return gmlEncoder;
+    }
+
+    /**
+     * Returns the names to encode features of the type of {@code feature} with, resolved to name
+     * references of {@code writer}. They're also valid for the fragment writers {@code writer}
+     * creates afterwards.
+     * 
+     * @see #encode(SimpleFeature, BxmlStreamWriter, FeatureNames)
+     */
+    public FeatureNames getNames(final SimpleFeature feature, final BxmlStreamWriter writer)
+            throws IOException {
+        final SimpleFeatureType featureType = feature.getFeatureType();
+        if (names == null || names.writer != writer || names.featureType != featureType) {
+            // compiled with the actual Feature namespace as the default for attributes that have
+            // no ns declared (quite common in geotools SimpleFeatures)
+            final AttributeDescriptor descriptor = feature.getDescriptor();
+            final Name featureName = descriptor == null ? featureType.getName() : descriptor
+                    .getName();
+            final AttributeEncoders encoders = gmlEncoder.getAttributeEncoders(featureType,
+                    featureName.getNamespaceURI());
+            // the templates belong to the document, not to the feature type
+            final StartTemplates templates = names != null && names.writer == writer
+                    ? names.templates : new StartTemplates();
+            names = new FeatureNames(featureType, encoders, writer, templates);
+        }
+        return names;
+    }
+
     public void encode(final SimpleFeature feature, final BxmlStreamWriter encoder)
             throws IOException {
+        encode(feature, encoder, getNames(feature, encoder));
+    }
+
+    /**
+     * Encodes {@code feature} with the names resolved by {@link #getNames} on {@code encoder}, or
+     * on the writer that created {@code encoder} as a fragment writer.
+     */
+    public void encode(final SimpleFeature feature, final BxmlStreamWriter encoder,
+            FeatureNames names) throws IOException {
         // final FeatureType fType = fc.getSchema();
         // final XSDSchema schema = configuration.schema();
         // TODO: traverse gathering properties in the schema defined order...
         // by now using the FeatureType declared order
 
-        final SimpleFeatureType featureType = feature.getFeatureType();
+        if (names.featureType != feature.getFeatureType()) {
+            names = getNames(feature, encoder);
+        }
+        gmlEncoder.setStartTemplates(names.templates);
+        try {
+            encodeFeature(feature, encoder, names);
+        } finally {
+            gmlEncoder.setStartTemplates(null);
+        }
+    }
+
+    private void encodeFeature(final SimpleFeature feature, final BxmlStreamWriter encoder,
+            final FeatureNames names) throws IOException {
+        final AttributeEncoders encoders = names.encoders;
         final EncoderConfig config = gmlEncoder.getConfig();
         final boolean featureBounding = config.isFeatureBounding();
 
-        AttributeDescriptor descriptor;
-        Name featureName;
-        String featureNamespaceURI, featureLocalName;
-        {
-            descriptor = feature.getDescriptor();
+        final AttributeDescriptor descriptor = feature.getDescriptor();
+        if (descriptor == null && names.featureName != -1) {
+            encoder.writeStartElement(names.featureName);
+        } else {
+            Name featureName;
             if (descriptor == null) {
                 featureName = feature.getFeatureType().getName();
             } else {
                 featureName = descriptor.getName();
             }
-            featureNamespaceURI = featureName.getNamespaceURI();
-            featureLocalName = featureName.getLocalPart();
-
-            encoder.writeStartElement(featureNamespaceURI, featureLocalName);
+            encoder.writeStartElement(featureName.getNamespaceURI(), featureName.getLocalPart());
+        }
+        if (names.featureId == -1) {
+            encoder.writeStartAttribute(GML.id);
+        } else {
+            encoder.writeStartAttribute(names.featureId);
         }
-        encoder.writeStartAttribute(GML.id);
         encoder.writeValue(feature.getIdentifier().getID());
         encoder.writeEndAttributes();
 
-        if (encoders == null) {
-            encoders = new AttributeEncoders(gmlEncoder, featureType, featureNamespaceURI);
-        }
-
         if (featureBounding) {
-            final AttributeEncoderExecutor boundedByEncoder = encoders.getBoundedByEncoder();
-            boundedByEncoder.encode(feature, encoder);
+            encoders.getBoundedByEncoder().encode(feature, encoder, names.boundedBy);
         }
 
-        AttributeEncoderExecutor attEncoder;
-        AttributeDescriptor attDescriptor;
-        for (Property prop : feature.getProperties()) {
-            if (prop instanceof Attribute) {
-                attDescriptor = ((Attribute) prop).getDescriptor();
-                attEncoder = encoders.getEncoder(attDescriptor);
-                attEncoder.encode(feature, encoder);
-            } else {
-                LOGGER.info("Ignoring property " + prop.getName()
-                        + " as it is not an Attribute instance");
-            }
-        }
+        encoders.encodeAttributes(feature, encoder, names.attributes);
 
         encoder.writeEndElement();
     }
 
+    /**
+     * The compiled {@link AttributeEncoders encoding plan} for a feature type, which may have
+     * been compiled for an equal type, and the names it writes, resolved to
+     * {@link BxmlStreamWriter#getNameReference name references} of a writer, along with the
+     * {@link StartTemplates templates} of the writer's document. Instances are
+     * immutable, so the names resolved by the thread using a document writer can be handed to the
+     * threads encoding features on its fragment writers.
+     * 
+     * @author Gabriel Roldan (OpenGeo)
+     * @version $Id$
+     */
+    public static final class FeatureNames {
+
+        private final SimpleFeatureType featureType;
+
+        private final AttributeEncoders encoders;
+
+        private final BxmlStreamWriter writer;
+
+        private final long featureName;
+
+        private final long featureId;
+
+        private final long boundedBy;
+
+        private final long[] attributes;
+
+        private final StartTemplates templates;
+
+        FeatureNames(final SimpleFeatureType featureType, final AttributeEncoders encoders,
+                final BxmlStreamWriter writer, final StartTemplates templates) throws IOException {
+            this.featureType = featureType;
+            this.encoders = encoders;
+            this.writer = writer;
+            this.templates = templates;
+            final Name typeName = featureType.getName();
+            this.featureName = typeName.getNamespaceURI() == null ? -1 : writer.getNameReference(
+                    typeName.getNamespaceURI(), typeName.getLocalPart());
+            this.featureId = writer.getNameReference(GML.id.getNamespaceURI(), GML.id
+                    .getLocalPart());
+            this.boundedBy = writer.getNameReference(GML.boundedBy.getNamespaceURI(),
+                    GML.boundedBy.getLocalPart());
+            this.attributes = encoders.getNameReferences(writer);
+        }
+    }
 }
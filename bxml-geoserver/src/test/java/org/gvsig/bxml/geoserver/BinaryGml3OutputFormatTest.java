@@ -39,6 +39,19 @@ public class BinaryGml3OutputFormatTest extends WFSTestSupport {
         testFullRequest(request);
     }
 
+    public void testFullRequestPipelined() throws Exception {
+        GeoServerEncoderConfig config = (GeoServerEncoderConfig) applicationContext
+                .getBean("binaryGml3Config");
+        final int encodingThreads = config.getEncodingThreads();
+        config.setEncodingThreads(4);
+        try {
+            String request = "wfs?version=1.1.0&request=GetFeature&typeName=sf:PrimitiveGeoFeature&outputFormat=BinaryGML3&";
+            testFullRequest(request);
+        } finally {
+            config.setEncodingThreads(encodingThreads);
+        }
+    }
+
     private void testFullRequest(String request) throws Exception, IOException,
             ParserConfigurationException, SAXException {
         MockHttpServletResponse resp = getAsServletResponse(request);
@@ -0,0 +1,121 @@
+package org.gvsig.bxml.geoserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.xml.XMLConstants;
+
+import org.gvsig.bxml.stream.BxmlStreamReader;
+import org.gvsig.bxml.stream.BxmlStreamWriter;
+import org.gvsig.bxml.stream.EventType;
+import org.gvsig.bxml.stream.impl.DefaultBxmlInputFactory;
+import org.gvsig.bxml.stream.impl.DefaultBxmlOutputFactory;
+import org.junit.Test;
+
+/**
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+public class CompactCoordinatesTest {
+
+    private static final double[] ORDINATES = { 500000.25, 4300000.5, 500001.26, 4299999.49,
+            499998.0, 4300003.01 };
+
+    /**
+     * Writes {@code compact} as the content of a {@code posList} element and returns a reader
+     * positioned at it
+     */
+    private BxmlStreamReader writeAndRead(final CompactCoordinates compact) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BxmlStreamWriter writer = new DefaultBxmlOutputFactory().createSerializer(out);
+        writer.writeStartDocument();
+        writer.writeStartElement(XMLConstants.NULL_NS_URI, "posList");
+        compact.writeAttributes(writer);
+        writer.writeEndAttributes();
+        compact.writeOrdinates(writer);
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+
+        final BxmlStreamReader reader = new DefaultBxmlInputFactory()
+                .createScanner(new ByteArrayInputStream(out.toByteArray()));
+        reader.nextTag();
+        return reader;
+    }
+
+    @Test
+    public void testFloat() throws IOException {
+        final CompactCoordinates compact = new CompactCoordinates();
+        assertTrue(compact.prepare(CoordinateEncoding.FLOAT, 0.01, ORDINATES, 6, 2));
+
+        final BxmlStreamReader reader = writeAndRead(compact);
+        assertEquals(1, reader.getAttributeCount());
+        assertEquals("float", reader.getAttributeValue(XMLConstants.NULL_NS_URI,
+                CompactCoordinates.ENCODING_ATTRIBUTE));
+        assertEquals(EventType.VALUE_FLOAT, reader.next());
+        final float[] values = new float[6];
+        reader.getValue(values, 0, 6);
+        for (int i = 0; i < 6; i++) {
+            assertEquals((float) ORDINATES[i], values[i], 0F);
+        }
+    }
+
+    @Test
+    public void testScaledDelta() throws IOException {
+        final CompactCoordinates compact = new CompactCoordinates();
+        assertTrue(compact.prepare(CoordinateEncoding.SCALED_DELTA, 0.01, ORDINATES, 6, 2));
+
+        final BxmlStreamReader reader = writeAndRead(compact);
+        assertEquals("scaledDelta", reader.getAttributeValue(XMLConstants.NULL_NS_URI,
+                CompactCoordinates.ENCODING_ATTRIBUTE));
+        assertEquals(0.01, Double.parseDouble(reader.getAttributeValue(XMLConstants.NULL_NS_URI,
+                CompactCoordinates.RESOLUTION_ATTRIBUTE)), 0D);
+        assertEquals("500000.25 4300000.5", reader.getAttributeValue(XMLConstants.NULL_NS_URI,
+                CompactCoordinates.OFFSET_ATTRIBUTE));
+
+        assertEquals(EventType.VALUE_INT, reader.next());
+        final int[] deltas = new int[6];
+        reader.getValue(deltas, 0, 6);
+        assertTrue(Arrays.toString(deltas),
+                Arrays.equals(new int[] { 0, 0, 101, -101, -326, 352 }, deltas));
+    }
+
+    @Test
+    public void testVarintDelta() throws IOException {
+        final CompactCoordinates compact = new CompactCoordinates();
+        assertTrue(compact.prepare(CoordinateEncoding.VARINT_DELTA, 0.01, ORDINATES, 6, 2));
+
+        final BxmlStreamReader reader = writeAndRead(compact);
+        assertEquals("varintDelta", reader.getAttributeValue(XMLConstants.NULL_NS_URI,
+                CompactCoordinates.ENCODING_ATTRIBUTE));
+        assertEquals(EventType.VALUE_BYTE, reader.next());
+        final byte[] bytes = new byte[reader.getValueCount()];
+        reader.getValue(bytes, 0, bytes.length);
+        // zigzag: 0, 0, 202, 201, 651, 704, as varints
+        final byte[] expected = { 0, 0, (byte) 0xCA, 0x01, (byte) 0xC9, 0x01, (byte) 0x8B, 0x05,
+                (byte) 0xC0, 0x05 };
+        assertTrue(Arrays.toString(bytes), Arrays.equals(expected, bytes));
+    }
+
+    @Test
+    public void testFallback() {
+        final CompactCoordinates compact = new CompactCoordinates();
+        assertFalse(compact.prepare(CoordinateEncoding.SCALED_DELTA, 0.01, ORDINATES, 0, 2));
+
+        final double[] nan = { 1, 2, 3, Double.NaN };
+        assertFalse(compact.prepare(CoordinateEncoding.FLOAT, 0.01, nan, 4, 2));
+        assertFalse(compact.prepare(CoordinateEncoding.VARINT_DELTA, 0.01, nan, 4, 2));
+
+        // a delta of 4e10 resolution units does not fit in an int, but does in a varint
+        final double[] far = { 0, 0, 4E8, 0 };
+        assertFalse(compact.prepare(CoordinateEncoding.SCALED_DELTA, 0.01, far, 4, 2));
+        assertTrue(compact.prepare(CoordinateEncoding.VARINT_DELTA, 0.01, far, 4, 2));
+    }
+}
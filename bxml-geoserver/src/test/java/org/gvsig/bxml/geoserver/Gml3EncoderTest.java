@@ -0,0 +1,284 @@
+package org.gvsig.bxml.geoserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.gvsig.bxml.stream.BxmlStreamWriter;
+import org.gvsig.bxml.stream.EventType;
+import org.gvsig.bxml.stream.impl.DefaultBxmlOutputFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.crs.GeographicCRS;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+
+/**
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+public class Gml3EncoderTest {
+
+    private static final String NS = "http://www.example.com/test";
+
+    private GeometryFactory geometryFactory;
+
+    private MockEncoderConfig config;
+
+    private Gml3Encoder gmlEncoder;
+
+    @Before
+    public void setUp() {
+        geometryFactory = new GeometryFactory();
+        config = new MockEncoderConfig();
+        gmlEncoder = new Gml3Encoder(config);
+    }
+
+    /**
+     * Encodes {@code geometry} as the content of a {@code geom} element with {@code encoder}
+     */
+    private byte[] encode(final Gml3Encoder encoder, final CoordinateReferenceSystem crs,
+            final Geometry geometry) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BxmlStreamWriter writer = new DefaultBxmlOutputFactory().createSerializer(out);
+        writer.writeStartDocument();
+        writer.writeDefaultNamespace(NS);
+        writer.writeStartElement(NS, "geom");
+        encoder.encodeGeometry(writer, crs, geometry);
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Fills the CRS fragments cache with {@code count} other CRSs
+     */
+    private void fillCrsCache(final int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            gmlEncoder.getCrsFragment(CRS.decode("EPSG:" + (32601 + i)));
+        }
+    }
+
+    /**
+     * CRSs equal to a cached one shall reuse its fragment, and the least recently used ones be
+     * evicted instead of no longer caching new ones
+     */
+    @Test
+    public void testCrsFragmentCache() throws Exception {
+        final CoordinateReferenceSystem crs = CRS.decode("EPSG:4326");
+        final CoordinateReferenceSystem equalCrs = new DefaultGeographicCRS((GeographicCRS) crs);
+        assertTrue(crs != equalCrs && crs.equals(equalCrs));
+
+        final Gml3Encoder.CrsFragment fragment = gmlEncoder.getCrsFragment(crs);
+        assertSame(fragment, gmlEncoder.getCrsFragment(crs));
+        final Gml3Encoder.CrsFragment equalFragment = gmlEncoder.getCrsFragment(equalCrs);
+        assertSame(equalCrs, equalFragment.crs);
+        // the srsName was not looked up again
+        assertSame(fragment.srsUri, equalFragment.srsUri);
+        assertEquals(fragment.dimension, equalFragment.dimension);
+
+        // more distinct CRSs than the cache holds
+        fillCrsCache(40);
+        assertNotSame(fragment.srsUri, gmlEncoder.getCrsFragment(crs).srsUri);
+        final CoordinateReferenceSystem newCrs = CRS.decode("EPSG:3857");
+        final String srsUri = gmlEncoder.getCrsFragment(newCrs).srsUri;
+        assertSame(srsUri, gmlEncoder.getCrsFragment(newCrs).srsUri);
+    }
+
+    /**
+     * Geometries shall encode the same whether their CRS fragment is computed or cached
+     */
+    @Test
+    public void testCrsFragmentCacheOutput() throws Exception {
+        final CoordinateReferenceSystem crs = CRS.decode("EPSG:4326");
+        final CoordinateReferenceSystem equalCrs = new DefaultGeographicCRS((GeographicCRS) crs);
+        final Geometry line = geometryFactory.createLineString(new Coordinate[] {
+                new Coordinate(1, 2), new Coordinate(3, 4) });
+
+        final byte[] uncached = encode(gmlEncoder, crs, line);
+        assertTrue(Arrays.equals(uncached, encode(gmlEncoder, crs, line)));
+        assertTrue(Arrays.equals(uncached, encode(gmlEncoder, equalCrs, line)));
+        assertTrue(Arrays.equals(uncached, encode(new Gml3Encoder(config), equalCrs, line)));
+        fillCrsCache(40);
+        assertTrue(Arrays.equals(uncached, encode(gmlEncoder, crs, line)));
+    }
+
+    /**
+     * Writes {@code coordinates} as the content of a {@code posList} element, either through
+     * {@link Gml3Encoder#encodeCoordinates} or, if {@code perOrdinate}, one ordinate at a time
+     */
+    private byte[] encodeCoordinates(final CoordinateSequence coordinates, final int dimensions,
+            final boolean perOrdinate) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BxmlStreamWriter writer = new DefaultBxmlOutputFactory().createSerializer(out);
+        writer.writeStartDocument();
+        writer.writeDefaultNamespace(NS);
+        writer.writeStartElement(NS, "posList");
+        if (perOrdinate) {
+            writer.startArray(EventType.VALUE_DOUBLE, coordinates.size() * dimensions);
+            for (int coordN = 0; coordN < coordinates.size(); coordN++) {
+                for (int dimN = 0; dimN < dimensions; dimN++) {
+                    writer.writeValue(coordinates.getOrdinate(coordN, dimN));
+                }
+            }
+            writer.endArray();
+        } else {
+            gmlEncoder.encodeCoordinates(coordinates, writer, dimensions);
+        }
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static Coordinate[] createCoordinates(final int count) {
+        final Coordinate[] coordinates = new Coordinate[count];
+        for (int i = 0; i < count; i++) {
+            coordinates[i] = new Coordinate(500000 + i * 0.25, 4300000 - i * 0.5, i);
+        }
+        return coordinates;
+    }
+
+    /**
+     * Writing the ordinates in bulk shall produce the same bytes than writing them one by one
+     */
+    @Test
+    public void testEncodeCoordinatesBulk() throws IOException {
+        final CoordinateSequence coordinates = new CoordinateArraySequence(createCoordinates(10));
+        for (int dimensions = 1; dimensions <= 3; dimensions++) {
+            assertTrue(Arrays.equals(encodeCoordinates(coordinates, dimensions, true),
+                    encodeCoordinates(coordinates, dimensions, false)));
+        }
+        final CoordinateSequence empty = new CoordinateArraySequence(new Coordinate[0]);
+        assertTrue(Arrays.equals(encodeCoordinates(empty, 2, true), encodeCoordinates(empty, 2,
+                false)));
+    }
+
+    /**
+     * Sequences with more ordinates than the per thread buffer holds shall be written in several
+     * chunks, with 2D and 3D coordinates not evenly splitting the buffer
+     */
+    @Test
+    public void testEncodeCoordinatesChunked() throws IOException {
+        // 3072 ordinates buffer, so 1536 2D and 1024 3D coordinates per chunk
+        for (int count : new int[] { 1535, 1536, 1537, 1024, 1025, 5000 }) {
+            final CoordinateSequence coordinates = new CoordinateArraySequence(
+                    createCoordinates(count));
+            for (int dimensions = 2; dimensions <= 3; dimensions++) {
+                assertTrue(count + "x" + dimensions, Arrays.equals(encodeCoordinates(
+                        coordinates, dimensions, true), encodeCoordinates(coordinates,
+                        dimensions, false)));
+            }
+        }
+    }
+
+    /**
+     * The {@link CoordinateArraySequence} and {@link PackedCoordinateSequence} fast paths shall
+     * write the same than any other {@link CoordinateSequence} implementation, whether the
+     * sequence has more dimensions than the written ones or not
+     */
+    @Test
+    public void testEncodeCoordinatesSequenceTypes() throws IOException {
+        final Coordinate[] coords = createCoordinates(4000);
+        final CoordinateSequence arraySequence = new CoordinateArraySequence(coords);
+        final double[] packed = new double[3 * coords.length];
+        final double[] packed2D = new double[2 * coords.length];
+        // the test ordinates are exact as floats
+        final float[] packedFloats = new float[3 * coords.length];
+        for (int i = 0; i < coords.length; i++) {
+            packed[3 * i] = packed2D[2 * i] = packedFloats[3 * i] = (float) coords[i].x;
+            packed[3 * i + 1] = packed2D[2 * i + 1] = packedFloats[3 * i + 1] = (float) coords[i].y;
+            packed[3 * i + 2] = packedFloats[3 * i + 2] = (float) coords[i].z;
+        }
+        final CoordinateSequence[] packedSequences = {
+                new PackedCoordinateSequence.Double(packed, 3),
+                new PackedCoordinateSequence.Float(packedFloats, 3) };
+        for (int dimensions = 2; dimensions <= 3; dimensions++) {
+            final byte[] expected = encodeCoordinates(arraySequence, dimensions, true);
+            assertTrue(Arrays.equals(expected, encodeCoordinates(arraySequence, dimensions,
+                    false)));
+            for (CoordinateSequence packedSequence : packedSequences) {
+                assertTrue(packedSequence + "x" + dimensions, Arrays.equals(expected,
+                        encodeCoordinates(packedSequence, dimensions, false)));
+            }
+        }
+        final CoordinateSequence packedSequence2D = new PackedCoordinateSequence.Double(packed2D,
+                2);
+        assertTrue(Arrays.equals(encodeCoordinates(arraySequence, 2, true), encodeCoordinates(
+                packedSequence2D, 2, false)));
+    }
+
+    /**
+     * The coordinate encoding and resolution shall be read from the configuration on each call,
+     * so changing them applies to encoders already created
+     */
+    @Test
+    public void testCoordinateEncodingConfigChange() throws Exception {
+        final CoordinateReferenceSystem crs = CRS.decode("EPSG:32631");
+        final Geometry line = geometryFactory.createLineString(new Coordinate[] {
+                new Coordinate(1, 2), new Coordinate(3, 4) });
+        final byte[] doubles = encode(gmlEncoder, crs, line);
+
+        config.setCoordinateEncoding(CoordinateEncoding.SCALED_DELTA);
+        final byte[] scaled = encode(gmlEncoder, crs, line);
+        assertFalse(Arrays.equals(doubles, scaled));
+        assertTrue(Arrays.equals(scaled, encode(new Gml3Encoder(config), crs, line)));
+
+        config.setCoordinateResolution(0.001);
+        final byte[] finer = encode(gmlEncoder, crs, line);
+        assertFalse(Arrays.equals(scaled, finer));
+        assertTrue(Arrays.equals(finer, encode(new Gml3Encoder(config), crs, line)));
+
+        config.setCoordinateEncoding(CoordinateEncoding.DOUBLE);
+        assertTrue(Arrays.equals(doubles, encode(gmlEncoder, crs, line)));
+    }
+
+    /**
+     * Geographic CRSs shall not be delta encoded with the default resolution, meant for linear
+     * units, neither their members, which are encoded with no CRS
+     */
+    @Test
+    public void testGeographicCoordinateResolution() throws Exception {
+        final CoordinateReferenceSystem geographic = CRS.decode("EPSG:4326");
+        final CoordinateReferenceSystem projected = CRS.decode("EPSG:32631");
+        final Coordinate[] coordinates = { new Coordinate(1.123456, 2.654321),
+                new Coordinate(3.5, 4.25) };
+        final Geometry line = geometryFactory.createLineString(coordinates);
+        final Geometry lines = geometryFactory.createMultiLineString(new LineString[] {
+                geometryFactory.createLineString(coordinates) });
+
+        final byte[] geographicLine = encode(gmlEncoder, geographic, line);
+        final byte[] geographicLines = encode(gmlEncoder, geographic, lines);
+        final byte[] projectedLines = encode(gmlEncoder, projected, lines);
+
+        config.setCoordinateEncoding(CoordinateEncoding.SCALED_DELTA);
+        assertTrue(Arrays.equals(geographicLine, encode(gmlEncoder, geographic, line)));
+        assertTrue(Arrays.equals(geographicLines, encode(gmlEncoder, geographic, lines)));
+        assertFalse(Arrays.equals(projectedLines, encode(gmlEncoder, projected, lines)));
+        // nor are geometries of unknown CRS
+        assertTrue(Arrays.equals(encode(gmlEncoder, null, lines), encode(new Gml3Encoder(
+                new MockEncoderConfig()), null, lines)));
+
+        config.setCoordinateResolution(1E-7);
+        assertFalse(Arrays.equals(geographicLine, encode(gmlEncoder, geographic, line)));
+        assertFalse(Arrays.equals(geographicLines, encode(gmlEncoder, geographic, lines)));
+    }
+}
@@ -0,0 +1,59 @@
+package org.gvsig.bxml.geoserver;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.wfs.GMLInfo.SrsNameStyle;
+import org.geotools.xml.Configuration;
+
+/**
+ * An {@link EncoderConfig} for the unit tests that do not need a running GeoServer, with settable
+ * coordinate encoding options.
+ * 
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+class MockEncoderConfig implements EncoderConfig {
+
+    private CoordinateEncoding coordinateEncoding = CoordinateEncoding.DOUBLE;
+
+    private double coordinateResolution = Double.NaN;
+
+    public Configuration getConfiguration() {
+        return null;
+    }
+
+    public FeatureTypeInfo getFeatureTypeByName(String namespaceURI, String localPart) {
+        return null;
+    }
+
+    public String getCharSet() {
+        return "UTF-8";
+    }
+
+    public boolean isFeatureBounding() {
+        return false;
+    }
+
+    public SrsNameStyle getSrsNameStyle() {
+        return SrsNameStyle.URN;
+    }
+
+    public int getEncodingThreads() {
+        return 1;
+    }
+
+    public CoordinateEncoding getCoordinateEncoding() {
+        return coordinateEncoding;
+    }
+
+    public void setCoordinateEncoding(final CoordinateEncoding coordinateEncoding) {
+        this.coordinateEncoding = coordinateEncoding;
+    }
+
+    public double getCoordinateResolution() {
+        return coordinateResolution;
+    }
+
+    public void setCoordinateResolution(final double coordinateResolution) {
+        this.coordinateResolution = coordinateResolution;
+    }
+}
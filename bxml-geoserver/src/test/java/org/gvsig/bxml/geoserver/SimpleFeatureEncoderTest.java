@@ -0,0 +1,333 @@
+package org.gvsig.bxml.geoserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.gml3.GML;
+import org.geotools.referencing.CRS;
+import org.gvsig.bxml.stream.BxmlStreamReader;
+import org.gvsig.bxml.stream.BxmlStreamWriter;
+import org.gvsig.bxml.stream.BxmlStreamWriterAdapter;
+import org.gvsig.bxml.stream.EventType;
+import org.gvsig.bxml.stream.impl.DefaultBxmlInputFactory;
+import org.gvsig.bxml.stream.impl.DefaultBxmlOutputFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+public class SimpleFeatureEncoderTest {
+
+    private static final String NS = "http://www.example.com/test";
+
+    private SimpleFeatureType roadType;
+
+    private SimpleFeatureType riverType;
+
+    private SimpleFeatureEncoder sfEncoder;
+
+    /**
+     * Whether {@link #encode} lets the writer resolve name references
+     */
+    private boolean nameReferences = true;
+
+    /**
+     * Number of elements and attributes {@link #encode} wrote through name references
+     */
+    private int referencedNames;
+
+    /**
+     * Whether {@link #encode} lets the writer create fragment writers, and hence templates
+     */
+    private boolean fragments = true;
+
+    /**
+     * Number of templates {@link #encode} wrote
+     */
+    private int writtenTemplates;
+
+    @Before
+    public void setUp() {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName("road");
+        builder.setNamespaceURI(NS);
+        builder.add("name", String.class);
+        builder.add("lanes", Integer.class);
+        builder.add("geom", Point.class);
+        builder.add("length", Double.class);
+        builder.add("paved", Boolean.class);
+        roadType = builder.buildFeatureType();
+
+        builder = new SimpleFeatureTypeBuilder();
+        builder.setName("river");
+        builder.setNamespaceURI(NS);
+        builder.add("flow", Double.class);
+        builder.add("navigable", Boolean.class);
+        riverType = builder.buildFeatureType();
+
+        sfEncoder = new SimpleFeatureEncoder(new Gml3Encoder(new MockEncoderConfig()));
+    }
+
+    /**
+     * Wraps {@code feature} so that reading attributes by name fails and the indexes of the ones
+     * read by index are recorded to {@code readIndexes}
+     */
+    private static SimpleFeature indexedAccessOnly(final SimpleFeature feature,
+            final List<Integer> readIndexes) {
+        InvocationHandler handler = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                final String name = method.getName();
+                if ("getAttribute".equals(name) && int.class == method.getParameterTypes()[0]) {
+                    readIndexes.add((Integer) args[0]);
+                } else if ("getAttribute".equals(name) || "getAttributes".equals(name)
+                        || "getProperty".equals(name) || "getProperties".equals(name)) {
+                    throw new AssertionError(method + " shall not be called");
+                }
+                try {
+                    return method.invoke(feature, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+        return (SimpleFeature) Proxy.newProxyInstance(SimpleFeature.class.getClassLoader(),
+                new Class<?>[] { SimpleFeature.class }, handler);
+    }
+
+    /**
+     * Counts the names written through references and the templates written, or refuses to
+     * resolve names and create fragment writers
+     */
+    private class ReferenceCountingWriter extends BxmlStreamWriterAdapter {
+        public ReferenceCountingWriter(final BxmlStreamWriter impl) {
+            super(impl);
+        }
+
+        @Override
+        public long getNameReference(final String namespaceUri, final String localName)
+                throws IOException {
+            return nameReferences ? super.getNameReference(namespaceUri, localName) : -1;
+        }
+
+        @Override
+        public void writeStartElement(final long nameReference) throws IOException {
+            referencedNames++;
+            super.writeStartElement(nameReference);
+        }
+
+        @Override
+        public void writeStartAttribute(final long nameReference) throws IOException {
+            referencedNames++;
+            super.writeStartAttribute(nameReference);
+        }
+
+        @Override
+        public boolean canWriteFragments() {
+            return fragments && super.canWriteFragments();
+        }
+
+        @Override
+        public boolean writeTemplate(final BxmlStreamWriter template) throws IOException {
+            final boolean written = super.writeTemplate(template);
+            if (written) {
+                writtenTemplates++;
+            }
+            return written;
+        }
+    }
+
+    /**
+     * Encodes {@code features} and returns the feature elements as {@code "[localName"} and their
+     * attribute elements as {@code "localName=value"}, with an empty value for empty elements
+     */
+    private List<String> encode(final SimpleFeature... features) throws IOException {
+        final byte[] encoded = encodeDocument(features);
+        final DefaultBxmlInputFactory inputFactory = new DefaultBxmlInputFactory();
+        inputFactory.setNamespaceAware(true);
+        final BxmlStreamReader reader = inputFactory.createScanner(new ByteArrayInputStream(
+                encoded));
+        final List<String> elements = new ArrayList<String>();
+        reader.nextTag();
+        while (reader.nextTag() == EventType.START_ELEMENT) {
+            assertEquals(NS, reader.getElementName().getNamespaceURI());
+            elements.add("[" + reader.getElementName().getLocalPart());
+            while (reader.nextTag() == EventType.START_ELEMENT) {
+                final String localName = reader.getElementName().getLocalPart();
+                String value = "";
+                if (reader.next().isValue()) {
+                    value = reader.getStringValue();
+                    reader.nextTag();
+                }
+                reader.require(EventType.END_ELEMENT, null, localName);
+                elements.add(localName + "=" + value);
+            }
+        }
+        reader.close();
+        return elements;
+    }
+
+    /**
+     * Encodes {@code features} in a document and returns it
+     */
+    private byte[] encodeDocument(final SimpleFeature... features) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BxmlStreamWriter writer = new ReferenceCountingWriter(
+                new DefaultBxmlOutputFactory().createSerializer(out));
+        writer.writeStartDocument();
+        writer.writeDefaultNamespace(NS);
+        writer.writeNamespace("gml", GML.NAMESPACE);
+        writer.writeStartElement(NS, "features");
+        for (SimpleFeature feature : features) {
+            sfEncoder.encode(feature, writer);
+        }
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Attributes shall be written in the feature type's order and read by index
+     */
+    @Test
+    public void testAttributeOrder() throws IOException {
+        SimpleFeature road = SimpleFeatureBuilder.build(roadType, new Object[] { "Main St",
+                Integer.valueOf(2), null, Double.valueOf(1.5), Boolean.TRUE }, "road.1");
+        final List<Integer> readIndexes = new ArrayList<Integer>();
+        road = indexedAccessOnly(road, readIndexes);
+
+        assertEquals(Arrays.asList("[road", "name=Main St", "lanes=2", "geom=", "length=1.5",
+                "paved=true"), encode(road));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), readIndexes);
+    }
+
+    /**
+     * The encoding plan shall be compiled again whenever a feature of another type shows up
+     */
+    @Test
+    public void testFeatureTypeChange() throws IOException {
+        final SimpleFeature road1 = SimpleFeatureBuilder.build(roadType, new Object[] { "A",
+                Integer.valueOf(1), null, Double.valueOf(1), Boolean.TRUE }, "road.1");
+        final SimpleFeature river = SimpleFeatureBuilder.build(riverType, new Object[] {
+                Double.valueOf(10), Boolean.FALSE }, "river.1");
+        final SimpleFeature road2 = SimpleFeatureBuilder.build(roadType, new Object[] { "B",
+                Integer.valueOf(3), null, Double.valueOf(2), Boolean.FALSE }, "road.2");
+
+        assertEquals(Arrays.asList("[road", "name=A", "lanes=1", "geom=", "length=1.0",
+                "paved=true", "[river", "flow=10.0", "navigable=false", "[road", "name=B",
+                "lanes=3", "geom=", "length=2.0", "paved=false"), encode(road1, river, road2));
+    }
+
+    /**
+     * Null attributes shall be written as empty elements, keeping the elements after them in place
+     */
+    @Test
+    public void testNullAttributes() throws IOException {
+        final SimpleFeature road = SimpleFeatureBuilder.build(roadType, new Object[] { null,
+                null, null, null, Boolean.FALSE }, "road.1");
+
+        assertEquals(Arrays.asList("[road", "name=", "lanes=", "geom=", "length=",
+                "paved=false"), encode(road));
+    }
+
+    /**
+     * The feature, gml:id and attribute names shall be written through name references, and as
+     * usual by writers that can't resolve them
+     */
+    @Test
+    public void testNameReferences() throws IOException {
+        final SimpleFeature road1 = SimpleFeatureBuilder.build(roadType, new Object[] { "A",
+                Integer.valueOf(1), null, Double.valueOf(1), Boolean.TRUE }, "road.1");
+        final SimpleFeature road2 = SimpleFeatureBuilder.build(roadType, new Object[] { "B",
+                Integer.valueOf(3), null, Double.valueOf(2), Boolean.FALSE }, "road.2");
+
+        final List<String> expected = Arrays.asList("[road", "name=A", "lanes=1", "geom=",
+                "length=1.0", "paved=true", "[road", "name=B", "lanes=3", "geom=", "length=2.0",
+                "paved=false");
+        assertEquals(expected, encode(road1, road2));
+        assertEquals(2 * 7, referencedNames);
+
+        nameReferences = false;
+        referencedNames = 0;
+        assertEquals(expected, encode(road1, road2));
+        assertEquals(0, referencedNames);
+    }
+
+    /**
+     * Encoding plans shall be compiled once per feature type and shared by all the feature
+     * encoders
+     */
+    @Test
+    public void testEncodingPlanCache() throws IOException {
+        final Gml3Encoder gmlEncoder = sfEncoder.getGmlEncoder();
+        final AttributeEncoders plan = gmlEncoder.getAttributeEncoders(roadType, NS);
+        final SimpleFeature road = SimpleFeatureBuilder.build(roadType, new Object[] { "A",
+                Integer.valueOf(1), null, Double.valueOf(1), Boolean.TRUE }, "road.1");
+        encode(road);
+        sfEncoder = new SimpleFeatureEncoder(gmlEncoder);
+        encode(road);
+
+        assertSame(plan, gmlEncoder.getAttributeEncoders(roadType, NS));
+        assertNotSame(plan, gmlEncoder.getAttributeEncoders(riverType, NS));
+        assertNotSame(plan, new Gml3Encoder(new MockEncoderConfig()).getAttributeEncoders(
+                roadType, NS));
+    }
+
+    /**
+     * The geometry start elements shall be written as templates once the first one was written
+     * directly, producing the same document
+     */
+    @Test
+    public void testStartTemplates() throws Exception {
+        final SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName("site");
+        builder.setNamespaceURI(NS);
+        builder.setCRS(CRS.decode("EPSG:32631"));
+        builder.add("name", String.class);
+        builder.add("location", Point.class);
+        final SimpleFeatureType siteType = builder.buildFeatureType();
+
+        final GeometryFactory geometryFactory = new GeometryFactory();
+        final SimpleFeature[] sites = new SimpleFeature[4];
+        for (int i = 0; i < sites.length; i++) {
+            final Point location = geometryFactory.createPoint(new Coordinate(500000 + i,
+                    4300000 - i));
+            sites[i] = SimpleFeatureBuilder.build(siteType, new Object[] { "site " + i,
+                    location }, "site." + i);
+        }
+
+        fragments = false;
+        final byte[] expected = encodeDocument(sites);
+        assertEquals(0, writtenTemplates);
+
+        fragments = true;
+        sfEncoder = new SimpleFeatureEncoder(sfEncoder.getGmlEncoder());
+        final byte[] actual = encodeDocument(sites);
+        assertEquals(sites.length - 1, writtenTemplates);
+        assertTrue(Arrays.equals(expected, actual));
+    }
+}
@@ -2,10 +2,12 @@ package org.gvsig.gpe.bxml;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 
 import org.gvsig.bxml.stream.BxmlFactoryFinder;
@@ -16,8 +18,16 @@ import org.gvsig.gpe.xml.stream.IXmlStreamReader;
 import org.gvsig.gpe.xml.stream.XmlStreamException;
 
 /**
+ * Adapts a {@link BxmlStreamReader} to the GPE {@link IXmlStreamReader} interface.
+ * <p>
+ * Coordinates written with one of the compact coordinate encodings of the BXML GeoServer output
+ * format are decoded transparently: the encoding attributes are hidden and the coordinates value
+ * is reported as a {@link EventType#VALUE_DOUBLE VALUE_DOUBLE} array.
+ * </p>
+ * 
  * @author Gabriel Roldan (OpenGeo)
  * @version $Id$
+ * @see CompactCoordinatesDecoder
  */
 class BxmlStreamReaderAdapter implements IXmlStreamReader {
 
@@ -64,6 +74,30 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
 
     private BxmlStreamReader reader;
 
+    /**
+     * Decoder for the current element's coordinates, if compact encoded
+     */
+    private CompactCoordinatesDecoder coordinatesDecoder;
+
+    /**
+     * The decoded coordinates, if the current event is a compact encoded coordinates value
+     */
+    private double[] decodedOrdinates;
+
+    private int decodedReadCount;
+
+    private static final QName ENCODING_ATTRIBUTE_NAME = new QName(XMLConstants.NULL_NS_URI,
+            CompactCoordinatesDecoder.ENCODING_ATTRIBUTE);
+
+    private static final byte UNKNOWN_NAME = 0, ENCODING_NAME = 1, OTHER_NAME = 2;
+
+    /**
+     * Whether the attribute name identifiers found so far are the one of the
+     * {@link #ENCODING_ATTRIBUTE_NAME coordinate encoding attribute}, indexed by name identifier,
+     * so that each attribute name is resolved once per document instead of once per element
+     */
+    private byte[] attributeNames = new byte[64];
+
     /**
      * Creates a new bxml to IXmlStreamReader adapter
      * 
@@ -84,11 +118,81 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
             this.reader = inputFactory.createScanner(inputStream);
             EventType current = reader.next();
             assert current != EventType.NONE;
+            checkCompactCoordinates();
         } catch (IOException e) {
             throw new XmlStreamException(e);
         }
     }
 
+    /**
+     * Called after each move of the reader to check whether it got to an element with compact
+     * encoded coordinates, or to its value, which is then decoded as a whole.
+     */
+    private void checkCompactCoordinates() throws IOException {
+        decodedOrdinates = null;
+        final EventType event = reader.getEventType();
+        if (EventType.START_ELEMENT == event) {
+            coordinatesDecoder = hasEncodingAttribute() ? CompactCoordinatesDecoder
+                    .forElement(reader) : null;
+        } else if (event.isValue() && coordinatesDecoder != null) {
+            decodedOrdinates = coordinatesDecoder.decode(reader);
+            decodedReadCount = 0;
+            coordinatesDecoder = null;
+        } else if (event.isTag()) {
+            coordinatesDecoder = null;
+        }
+    }
+
+    /**
+     * Returns whether the current element has the coordinate encoding attribute, comparing the
+     * attribute name identifiers
+     */
+    private boolean hasEncodingAttribute() {
+        final int attributeCount = reader.getAttributeCount();
+        for (int i = 0; i < attributeCount; i++) {
+            final int nameId = reader.getAttributeNameId(i);
+            if (nameId >= attributeNames.length) {
+                attributeNames = Arrays.copyOf(attributeNames, Math.max(nameId + 1,
+                        2 * attributeNames.length));
+            }
+            byte kind = attributeNames[nameId];
+            if (UNKNOWN_NAME == kind) {
+                kind = ENCODING_ATTRIBUTE_NAME.equals(reader.getAttributeName(i)) ? ENCODING_NAME
+                        : OTHER_NAME;
+                attributeNames[nameId] = kind;
+            }
+            if (ENCODING_NAME == kind) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double nextDecodedOrdinate() {
+        if (decodedReadCount == decodedOrdinates.length) {
+            throw new IllegalStateException("All the " + decodedOrdinates.length
+                    + " coordinate values have already been read");
+        }
+        return decodedOrdinates[decodedReadCount++];
+    }
+
+    private void checkNotDecoded() {
+        if (decodedOrdinates != null) {
+            throw new IllegalStateException("Current event is VALUE_DOUBLE");
+        }
+    }
+
+    /**
+     * Maps the index of an attribute as seen by client code to the reader's one, as the
+     * coordinate encoding attributes are hidden
+     */
+    private int attributeIndex(final int index) {
+        if (coordinatesDecoder != null && EventType.START_ELEMENT == reader.getEventType()) {
+            return coordinatesDecoder.getAttributeIndex(index);
+        }
+        return index;
+    }
+
     /**
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#require(org.gvsig.gpe.xml.stream.EventType,
      *      javax.xml.namespace.QName)
@@ -158,6 +262,9 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getAttributeCount()
      */
     public int getAttributeCount() throws XmlStreamException {
+        if (coordinatesDecoder != null && EventType.START_ELEMENT == reader.getEventType()) {
+            return coordinatesDecoder.getAttributeCount();
+        }
         return reader.getAttributeCount();
     }
 
@@ -165,14 +272,14 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getAttributeName(int)
      */
     public QName getAttributeName(int i) throws XmlStreamException {
-        return reader.getAttributeName(i);
+        return reader.getAttributeName(attributeIndex(i));
     }
 
     /**
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getAttributeValue(int)
      */
     public String getAttributeValue(int i) throws XmlStreamException {
-        return reader.getAttributeValue(i);
+        return reader.getAttributeValue(attributeIndex(i));
     }
 
     /**
@@ -210,6 +317,11 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      */
     public org.gvsig.gpe.xml.stream.EventType setPosition(final long position) throws IOException {
         EventType bxmlEvent = reader.setPosition(position);
+        coordinatesDecoder = null;
+        checkCompactCoordinates();
+        if (decodedOrdinates != null) {
+            return org.gvsig.gpe.xml.stream.EventType.VALUE_DOUBLE;
+        }
         return bxmlToGpeEventMappings.get(bxmlEvent);
     }
 
@@ -217,6 +329,9 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getEventType()
      */
     public org.gvsig.gpe.xml.stream.EventType getEventType() throws XmlStreamException {
+        if (decodedOrdinates != null) {
+            return org.gvsig.gpe.xml.stream.EventType.VALUE_DOUBLE;
+        }
         final EventType bxmlEventType = reader.getEventType();
         final org.gvsig.gpe.xml.stream.EventType eventType = bxmlToGpeEventMappings
                 .get(bxmlEventType);
@@ -238,6 +353,16 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getText()
      */
     public String getText() throws XmlStreamException {
+        if (decodedOrdinates != null) {
+            final StringBuilder text = new StringBuilder();
+            for (int i = 0; i < decodedOrdinates.length; i++) {
+                if (i > 0) {
+                    text.append(' ');
+                }
+                text.append(decodedOrdinates[i]);
+            }
+            return text.toString();
+        }
         try {
             String stringValue = reader.getStringValue();
             return stringValue;
@@ -259,6 +384,7 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
     public org.gvsig.gpe.xml.stream.EventType next() throws XmlStreamException {
         try {
             reader.next();
+            checkCompactCoordinates();
         } catch (IOException e) {
             throw new XmlStreamException(e);
         }
@@ -271,6 +397,7 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
     public org.gvsig.gpe.xml.stream.EventType nextTag() throws XmlStreamException {
         try {
             reader.nextTag();
+            checkCompactCoordinates();
         } catch (IOException e) {
             throw new XmlStreamException(e);
         }
@@ -281,6 +408,7 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getBooleanValue()
      */
     public boolean getBooleanValue() throws XmlStreamException {
+        checkNotDecoded();
         try {
             return reader.getBooleanValue();
         } catch (IOException e) {
@@ -292,6 +420,7 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getByteValue()
      */
     public int getByteValue() throws XmlStreamException {
+        checkNotDecoded();
         try {
             return reader.getByteValue();
         } catch (IOException e) {
@@ -303,6 +432,9 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getDoubleValue()
      */
     public double getDoubleValue() throws XmlStreamException {
+        if (decodedOrdinates != null) {
+            return nextDecodedOrdinate();
+        }
         try {
             return reader.getDoubleValue();
         } catch (IOException e) {
@@ -314,6 +446,9 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getFloatValue()
      */
     public float getFloatValue() throws XmlStreamException {
+        if (decodedOrdinates != null) {
+            return (float) nextDecodedOrdinate();
+        }
         try {
             return reader.getFloatValue();
         } catch (IOException e) {
@@ -325,6 +460,7 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getIntValue()
      */
     public int getIntValue() throws XmlStreamException {
+        checkNotDecoded();
         try {
             return reader.getIntValue();
         } catch (IOException e) {
@@ -336,6 +472,7 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getLongValue()
      */
     public long getLongValue() throws XmlStreamException {
+        checkNotDecoded();
         try {
             return reader.getLongValue();
         } catch (IOException e) {
@@ -347,6 +484,7 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getValue(boolean[], int, int)
      */
     public void getValue(boolean[] dst, int offset, int length) throws XmlStreamException {
+        checkNotDecoded();
         try {
             reader.getValue(dst, offset, length);
         } catch (IOException e) {
@@ -358,6 +496,7 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getValue(byte[], int, int)
      */
     public void getValue(byte[] dst, int offset, int length) throws XmlStreamException {
+        checkNotDecoded();
         try {
             reader.getValue(dst, offset, length);
         } catch (IOException e) {
@@ -369,6 +508,7 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getValue(int[], int, int)
      */
     public void getValue(int[] dst, int offset, int length) throws XmlStreamException {
+        checkNotDecoded();
         try {
             reader.getValue(dst, offset, length);
         } catch (IOException e) {
@@ -380,6 +520,7 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getValue(long[], int, int)
      */
     public void getValue(long[] dst, int offset, int length) throws XmlStreamException {
+        checkNotDecoded();
         try {
             reader.getValue(dst, offset, length);
         } catch (IOException e) {
@@ -391,6 +532,12 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getValue(float[], int, int)
      */
     public void getValue(float[] dst, int offset, int length) throws XmlStreamException {
+        if (decodedOrdinates != null) {
+            for (int i = 0; i < length; i++) {
+                dst[offset + i] = (float) nextDecodedOrdinate();
+            }
+            return;
+        }
         try {
             reader.getValue(dst, offset, length);
         } catch (IOException e) {
@@ -402,6 +549,15 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getValue(double[], int, int)
      */
     public void getValue(double[] dst, int offset, int length) throws XmlStreamException {
+        if (decodedOrdinates != null) {
+            if (decodedReadCount + length > decodedOrdinates.length) {
+                throw new IllegalStateException("Requested " + length + " coordinate values but only "
+                        + (decodedOrdinates.length - decodedReadCount) + " are left");
+            }
+            System.arraycopy(decodedOrdinates, decodedReadCount, dst, offset, length);
+            decodedReadCount += length;
+            return;
+        }
         try {
             reader.getValue(dst, offset, length);
         } catch (IOException e) {
@@ -413,6 +569,9 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getValueCount()
      */
     public int getValueCount() {
+        if (decodedOrdinates != null) {
+            return decodedOrdinates.length;
+        }
         return reader.getValueCount();
     }
 
@@ -420,6 +579,9 @@ class BxmlStreamReaderAdapter implements IXmlStreamReader {
      * @see org.gvsig.gpe.xml.stream.IXmlStreamReader#getValueReadCount()
      */
     public int getValueReadCount() {
+        if (decodedOrdinates != null) {
+            return decodedReadCount;
+        }
         return reader.getValueReadCount();
     }
 
@@ -0,0 +1,225 @@
+package org.gvsig.gpe.bxml;
+
+import java.io.IOException;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import org.gvsig.bxml.stream.BxmlStreamReader;
+import org.gvsig.bxml.stream.EventType;
+
+/**
+ * Decodes the coordinates of the {@code gml:pos} and {@code gml:posList} elements encoded with one
+ * of the compact coordinate encodings of the BXML GeoServer output format back to doubles.
+ * <p>
+ * The encoding is recorded in the element's {@code coordinateEncoding} attribute, one of:
+ * <ul>
+ * <li>{@code float}: a float array</li>
+ * <li>{@code scaledDelta}: an int array of deltas</li>
+ * <li>{@code varintDelta}: a byte array of zigzag encoded variable length deltas</li>
+ * </ul>
+ * For the delta encodings, the ordinate {@code i} of dimension {@code d} is
+ * {@code offset[d] + resolution * sum(delta[d], 0..i)}, where {@code resolution} is the
+ * {@code coordinateResolution} attribute and {@code offset} the space separated
+ * {@code coordinateOffset} one, which also gives the number of dimensions.
+ * </p>
+ *
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+final class CompactCoordinatesDecoder {
+
+    static final String ENCODING_ATTRIBUTE = "coordinateEncoding";
+
+    static final String RESOLUTION_ATTRIBUTE = "coordinateResolution";
+
+    static final String OFFSET_ATTRIBUTE = "coordinateOffset";
+
+    private static final String FLOAT = "float";
+
+    private static final String SCALED_DELTA = "scaledDelta";
+
+    private static final String VARINT_DELTA = "varintDelta";
+
+    private final String encoding;
+
+    private final double resolution;
+
+    private final double[] offsets;
+
+    /**
+     * Indexes of the element attributes that are not part of the encoding
+     */
+    private final int[] visibleAttributes;
+
+    private CompactCoordinatesDecoder(final String encoding, final double resolution,
+            final double[] offsets, final int[] visibleAttributes) {
+        this.encoding = encoding;
+        this.resolution = resolution;
+        this.offsets = offsets;
+        this.visibleAttributes = visibleAttributes;
+    }
+
+    /**
+     * Returns a decoder for the element {@code reader} is positioned at, or {@code null} if its
+     * coordinates are not compact encoded.
+     *
+     * @param reader
+     *            a reader positioned at a {@link EventType#START_ELEMENT}
+     */
+    public static CompactCoordinatesDecoder forElement(final BxmlStreamReader reader) {
+        final int attributeCount = reader.getAttributeCount();
+        String encoding = null;
+        String resolution = null;
+        String offset = null;
+        int encodingAttributes = 0;
+        for (int i = 0; i < attributeCount; i++) {
+            final QName name = reader.getAttributeName(i);
+            if (!XMLConstants.NULL_NS_URI.equals(name.getNamespaceURI())) {
+                continue;
+            }
+            final String localName = name.getLocalPart();
+            if (ENCODING_ATTRIBUTE.equals(localName)) {
+                encoding = reader.getAttributeValue(i);
+            } else if (RESOLUTION_ATTRIBUTE.equals(localName)) {
+                resolution = reader.getAttributeValue(i);
+            } else if (OFFSET_ATTRIBUTE.equals(localName)) {
+                offset = reader.getAttributeValue(i);
+            } else {
+                continue;
+            }
+            encodingAttributes++;
+        }
+        if (encoding == null) {
+            return null;
+        }
+
+        final int[] visibleAttributes = new int[attributeCount - encodingAttributes];
+        for (int i = 0, visible = 0; i < attributeCount; i++) {
+            final QName name = reader.getAttributeName(i);
+            final String localName = name.getLocalPart();
+            if (XMLConstants.NULL_NS_URI.equals(name.getNamespaceURI())
+                    && (ENCODING_ATTRIBUTE.equals(localName)
+                            || RESOLUTION_ATTRIBUTE.equals(localName) || OFFSET_ATTRIBUTE
+                            .equals(localName))) {
+                continue;
+            }
+            visibleAttributes[visible++] = i;
+        }
+
+        if (FLOAT.equals(encoding)) {
+            return new CompactCoordinatesDecoder(encoding, 0, null, visibleAttributes);
+        }
+        if (!SCALED_DELTA.equals(encoding) && !VARINT_DELTA.equals(encoding)) {
+            throw new IllegalStateException("Unknown coordinate encoding: " + encoding);
+        }
+        if (resolution == null || offset == null) {
+            throw new IllegalStateException("Coordinate encoding " + encoding + " requires the "
+                    + RESOLUTION_ATTRIBUTE + " and " + OFFSET_ATTRIBUTE + " attributes");
+        }
+        final String[] offsetValues = offset.trim().split("\\s+");
+        final double[] offsets = new double[offsetValues.length];
+        for (int d = 0; d < offsets.length; d++) {
+            offsets[d] = Double.parseDouble(offsetValues[d]);
+        }
+        return new CompactCoordinatesDecoder(encoding, Double.parseDouble(resolution), offsets,
+                visibleAttributes);
+    }
+
+    /**
+     * @return the number of element attributes that are not part of the coordinate encoding
+     */
+    public int getAttributeCount() {
+        return visibleAttributes.length;
+    }
+
+    /**
+     * @return the reader's index of the {@code index}'th attribute not part of the coordinate
+     *         encoding
+     */
+    public int getAttributeIndex(final int index) {
+        return visibleAttributes[index];
+    }
+
+    /**
+     * Decodes the whole value {@code reader} is positioned at.
+     *
+     * @param reader
+     *            a reader positioned at the value event of the element this decoder was created
+     *            for
+     * @return the decoded ordinates
+     * @throws IOException
+     */
+    public double[] decode(final BxmlStreamReader reader) throws IOException {
+        final EventType valueType = reader.getEventType();
+        final int count = reader.getValueCount() - reader.getValueReadCount();
+        if (FLOAT.equals(encoding)) {
+            requireValueType(EventType.VALUE_FLOAT, valueType);
+            final float[] floats = new float[count];
+            reader.getValue(floats, 0, count);
+            final double[] ordinates = new double[count];
+            for (int i = 0; i < count; i++) {
+                ordinates[i] = floats[i];
+            }
+            return ordinates;
+        }
+
+        final int dimensions = offsets.length;
+        final long[] quantized = new long[dimensions];
+        if (SCALED_DELTA.equals(encoding)) {
+            requireValueType(EventType.VALUE_INT, valueType);
+            final int[] deltas = new int[count];
+            reader.getValue(deltas, 0, count);
+            final double[] ordinates = new double[count];
+            for (int i = 0, d = 0; i < count; i++) {
+                quantized[d] += deltas[i];
+                ordinates[i] = offsets[d] + resolution * quantized[d];
+                if (++d == dimensions) {
+                    d = 0;
+                }
+            }
+            return ordinates;
+        }
+
+        requireValueType(EventType.VALUE_BYTE, valueType);
+        final byte[] bytes = new byte[count];
+        reader.getValue(bytes, 0, count);
+        double[] ordinates = new double[count];
+        int length = 0;
+        long zigzag, delta;
+        int shift;
+        for (int i = 0, d = 0; i < count;) {
+            zigzag = 0;
+            shift = 0;
+            byte b;
+            do {
+                b = bytes[i++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0 && i < count);
+            if ((b & 0x80) != 0) {
+                throw new IllegalStateException("Coordinate encoding " + encoding
+                        + " value ends in the middle of a varint");
+            }
+            delta = (zigzag >>> 1) ^ -(zigzag & 1);
+            quantized[d] += delta;
+            ordinates[length++] = offsets[d] + resolution * quantized[d];
+            if (++d == dimensions) {
+                d = 0;
+            }
+        }
+        if (length < ordinates.length) {
+            final double[] trimmed = new double[length];
+            System.arraycopy(ordinates, 0, trimmed, 0, length);
+            ordinates = trimmed;
+        }
+        return ordinates;
+    }
+
+    private void requireValueType(final EventType expected, final EventType actual) {
+        if (expected != actual) {
+            throw new IllegalStateException("Coordinate encoding " + encoding + " expects "
+                    + expected + " values but got " + actual);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.gvsig.gpe.bxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+
+import org.gvsig.bxml.stream.BxmlStreamWriter;
+import org.gvsig.bxml.stream.impl.DefaultBxmlOutputFactory;
+import org.gvsig.gpe.xml.stream.EventType;
+import org.gvsig.gpe.xml.stream.XmlStreamException;
+import org.junit.Test;
+
+/**
+ * Reads documents with compact encoded coordinates through the {@link BxmlStreamReaderAdapter}.
+ * <p>
+ * The documents are written here the same way the BXML GeoServer output format does: the encoding
+ * attributes go among the element's own ones, followed by a float, int or byte array.
+ * </p>
+ *
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+public class CompactCoordinatesDecoderTest {
+
+    private static final String GML = "http://www.opengis.net/gml";
+
+    /**
+     * Starts a document with a {@code gml:posList} element and its {@code srsDimension} attribute
+     */
+    private BxmlStreamWriter startPosList(final ByteArrayOutputStream out,
+            final int srsDimension) throws IOException {
+        final BxmlStreamWriter writer = new DefaultBxmlOutputFactory().createSerializer(out);
+        writer.writeStartDocument();
+        writer.setPrefix("gml", GML);
+        writer.writeStartElement(GML, "LineString");
+        writer.writeNamespace("gml", GML);
+        writer.writeStartElement(GML, "posList");
+        writer.writeStartAttribute(XMLConstants.NULL_NS_URI, "srsDimension");
+        writer.writeValue(srsDimension);
+        return writer;
+    }
+
+    private void writeAttribute(final BxmlStreamWriter writer, final String name,
+            final String value) throws IOException {
+        writer.writeStartAttribute(XMLConstants.NULL_NS_URI, name);
+        writer.writeValue(value);
+    }
+
+    private BxmlStreamReaderAdapter endPosList(final ByteArrayOutputStream out,
+            final BxmlStreamWriter writer) throws IOException, XmlStreamException {
+        writer.writeEndElement();
+        // a plain element after the compact encoded one
+        writer.writeStartElement(GML, "count");
+        writer.writeValue(7);
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+
+        final BxmlStreamReaderAdapter reader = new BxmlStreamReaderAdapter(
+                new ByteArrayInputStream(out.toByteArray()));
+        reader.nextTag();
+        reader.require(EventType.START_ELEMENT, GML, "LineString");
+        reader.nextTag();
+        reader.require(EventType.START_ELEMENT, GML, "posList");
+        return reader;
+    }
+
+    /**
+     * Asserts the visible attributes of the current {@code posList} element are
+     * {@code srsDimension} and, if not {@code null}, {@code count}
+     */
+    private void assertAttributes(final BxmlStreamReaderAdapter reader, final int srsDimension,
+            final String count) throws XmlStreamException {
+        final Map<String, String> expected = new HashMap<String, String>();
+        expected.put("srsDimension", String.valueOf(srsDimension));
+        if (count != null) {
+            expected.put("count", count);
+        }
+        final Map<String, String> actual = new HashMap<String, String>();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            actual.put(reader.getAttributeName(i).getLocalPart(), reader.getAttributeValue(i));
+        }
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Reads the current coordinates value, which shall be reported as doubles, and checks the
+     * element that follows is read as usual
+     */
+    private double[] readOrdinates(final BxmlStreamReaderAdapter reader)
+            throws XmlStreamException {
+        assertEquals(EventType.VALUE_DOUBLE, reader.next());
+        final double[] ordinates = new double[reader.getValueCount()];
+        reader.getValue(ordinates, 0, ordinates.length);
+        assertEquals(ordinates.length, reader.getValueReadCount());
+
+        assertEquals(EventType.END_ELEMENT, reader.next());
+        reader.nextTag();
+        reader.require(EventType.START_ELEMENT, GML, "count");
+        assertEquals(0, reader.getAttributeCount());
+        assertEquals(EventType.VALUE_INT, reader.next());
+        assertEquals(7, reader.getIntValue());
+        return ordinates;
+    }
+
+    private void assertOrdinates(final double[] expected, final double[] actual,
+            final double tolerance) {
+        assertEquals(Arrays.toString(actual), expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], tolerance);
+        }
+    }
+
+    @Test
+    public void testFloat() throws Exception {
+        final float[] floats = { 500000.25F, 4300000.5F, 500001.26F, 4299999.5F };
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BxmlStreamWriter writer = startPosList(out, 2);
+        writeAttribute(writer, CompactCoordinatesDecoder.ENCODING_ATTRIBUTE, "float");
+        writer.writeEndAttributes();
+        writer.writeValue(floats, 0, floats.length);
+
+        final BxmlStreamReaderAdapter reader = endPosList(out, writer);
+        assertAttributes(reader, 2, null);
+        final double[] ordinates = readOrdinates(reader);
+        assertEquals(floats.length, ordinates.length);
+        for (int i = 0; i < floats.length; i++) {
+            assertEquals(floats[i], ordinates[i], 0D);
+        }
+    }
+
+    @Test
+    public void testScaledDelta2D() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BxmlStreamWriter writer = startPosList(out, 2);
+        writeAttribute(writer, CompactCoordinatesDecoder.ENCODING_ATTRIBUTE, "scaledDelta");
+        writeAttribute(writer, CompactCoordinatesDecoder.RESOLUTION_ATTRIBUTE, "0.01");
+        writeAttribute(writer, "count", "3");
+        writeAttribute(writer, CompactCoordinatesDecoder.OFFSET_ATTRIBUTE, "500000.25 4300000.5");
+        writer.writeEndAttributes();
+        final int[] deltas = { 0, 0, 101, -101, -326, 352 };
+        writer.writeValue(deltas, 0, deltas.length);
+
+        final BxmlStreamReaderAdapter reader = endPosList(out, writer);
+        assertAttributes(reader, 2, "3");
+        final double[] expected = { 500000.25, 4300000.5, 500001.26, 4299999.49, 499998.0,
+                4300003.01 };
+        assertOrdinates(expected, readOrdinates(reader), 1E-6);
+    }
+
+    @Test
+    public void testVarintDelta3D() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BxmlStreamWriter writer = startPosList(out, 3);
+        writeAttribute(writer, "count", "3");
+        writeAttribute(writer, CompactCoordinatesDecoder.ENCODING_ATTRIBUTE, "varintDelta");
+        writeAttribute(writer, CompactCoordinatesDecoder.RESOLUTION_ATTRIBUTE, "0.5");
+        writeAttribute(writer, CompactCoordinatesDecoder.OFFSET_ATTRIBUTE, "1.0 2.0 3.0");
+        writer.writeEndAttributes();
+        // deltas 0, 0, 0, 2, 1, -4, 198, -1, 4, zigzag: 0, 0, 0, 4, 2, 7, 396, 1, 8, as varints
+        final byte[] bytes = { 0, 0, 0, 4, 2, 7, (byte) 0x8C, 0x03, 1, 8 };
+        writer.writeValue(bytes, 0, bytes.length);
+
+        final BxmlStreamReaderAdapter reader = endPosList(out, writer);
+        assertAttributes(reader, 3, "3");
+        final double[] expected = { 1, 2, 3, 2, 2.5, 1, 101, 2, 3 };
+        assertOrdinates(expected, readOrdinates(reader), 0D);
+    }
+
+    /**
+     * Coordinates not compact encoded shall be read as they are
+     */
+    @Test
+    public void testDouble() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BxmlStreamWriter writer = startPosList(out, 2);
+        writeAttribute(writer, "count", "2");
+        writer.writeEndAttributes();
+        final double[] doubles = { 500000.25, 4300000.5, 500001.26, 4299999.49 };
+        writer.writeValue(doubles, 0, doubles.length);
+
+        final BxmlStreamReaderAdapter reader = endPosList(out, writer);
+        assertAttributes(reader, 2, "2");
+        assertTrue(Arrays.equals(doubles, readOrdinates(reader)));
+    }
+
+    /**
+     * Only the unqualified coordinate encoding attribute tells the coordinates are compact encoded
+     */
+    @Test
+    public void testQualifiedEncodingAttribute() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BxmlStreamWriter writer = startPosList(out, 2);
+        writer.writeStartAttribute(GML, CompactCoordinatesDecoder.ENCODING_ATTRIBUTE);
+        writer.writeValue("float");
+        writer.writeEndAttributes();
+        final double[] doubles = { 500000.25, 4300000.5, 500001.26, 4299999.49 };
+        writer.writeValue(doubles, 0, doubles.length);
+
+        final BxmlStreamReaderAdapter reader = endPosList(out, writer);
+        assertEquals(2, reader.getAttributeCount());
+        assertTrue(Arrays.equals(doubles, readOrdinates(reader)));
+    }
+
+    /**
+     * A varint delta value shall not end in the middle of a varint
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testTruncatedVarint() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BxmlStreamWriter writer = startPosList(out, 2);
+        writeAttribute(writer, CompactCoordinatesDecoder.ENCODING_ATTRIBUTE, "varintDelta");
+        writeAttribute(writer, CompactCoordinatesDecoder.RESOLUTION_ATTRIBUTE, "0.5");
+        writeAttribute(writer, CompactCoordinatesDecoder.OFFSET_ATTRIBUTE, "1.0 2.0");
+        writer.writeEndAttributes();
+        final byte[] bytes = { 0, 0, 4, (byte) 0x8C };
+        writer.writeValue(bytes, 0, bytes.length);
+
+        final BxmlStreamReaderAdapter reader = endPosList(out, writer);
+        reader.next();
+    }
+}
@@ -39,9 +39,11 @@ import java.net.URL;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.util.logging.Level;
 
 import org.gvsig.bxml.stream.BxmlInputFactory;
 import org.gvsig.bxml.stream.BxmlStreamReader;
+import org.gvsig.bxml.stream.impl.workers.StringTable;
 import org.gvsig.bxml.stream.io.BxmlInputStream;
 import org.gvsig.bxml.stream.io.BxmlStreamFactory;
 import org.gvsig.bxml.stream.io.DefaultStreamFactory;
@@ -59,6 +61,8 @@ public class DefaultBxmlInputFactory implements BxmlInputFactory {
 
     private boolean namespaceAware;
 
+    private boolean memoryMapped;
+
     public DefaultBxmlInputFactory() {
         synchronized (DefaultBxmlInputFactory.class) {
             if (defaultStreamFactory == null) {
@@ -71,31 +75,52 @@ public class DefaultBxmlInputFactory implements BxmlInputFactory {
     /**
      * @param reader
      *            the low level reader for the {@link BxmlStreamReader} implementation to return
-     * @return a default implementation of BxmlStreamReader wrapped by a contract enforcement
-     *         wrapper
+     * @return a default implementation of BxmlStreamReader, decorated by a
+     *         {@link LoggingBxmlStreamReader} if debug logging is enabled
      * @throws IOException
      *             if thrown by the implementation constructor
      * @see BxmlStreamReader_Contract
      */
     public synchronized BxmlStreamReader createScanner(final BxmlInputStream reader)
             throws IOException {
+        return createScanner(reader, new StringTable(false));
+    }
+
+    /**
+     * @param reader
+     *            the low level reader for the {@link BxmlStreamReader} implementation to return
+     * @param stringTable
+     *            the string table to resolve string references against, either empty or complete
+     * @see #createScanner(BxmlInputStream)
+     * @see DefaultBxmlStreamReader#DefaultBxmlStreamReader(BxmlInputStream, NamesResolver,
+     *      StringTable)
+     */
+    synchronized BxmlStreamReader createScanner(final BxmlInputStream reader,
+            final StringTable stringTable) throws IOException {
         if (reader == null) {
             throw new NullPointerException("reader");
         }
 
-        final NamesResolver namesResolver;
-        if (namespaceAware) {
-            namesResolver = new NamespaceAwareNameResolver();
-        } else {
-            namesResolver = new NotNamespaceAwareNameResolver();
-        }
-
         final DefaultBxmlStreamReader implementation;
-        implementation = new DefaultBxmlStreamReader(reader, namesResolver);
+        implementation = new DefaultBxmlStreamReader(reader, createNamesResolver(), stringTable);
 
+        if (LoggingBxmlStreamReader.LOGGER.isLoggable(Level.FINEST)) {
+            return new LoggingBxmlStreamReader(implementation);
+        }
         return implementation;
     }
 
+    /**
+     * @return a names resolver for the {@link #isNamespaceAware() namespace awareness} of this
+     *         factory
+     */
+    synchronized NamesResolver createNamesResolver() {
+        if (namespaceAware) {
+            return new NamespaceAwareNameResolver();
+        }
+        return new NotNamespaceAwareNameResolver();
+    }
+
     /**
      * @param input
      * @return
@@ -134,9 +159,41 @@ public class DefaultBxmlInputFactory implements BxmlInputFactory {
         return createScanner(channel);
     }
 
+    /**
+     * @param in
+     * @return
+     * @throws IOException
+     * @see org.gvsig.bxml.stream.BxmlInputFactory#createScanner(java.nio.channels.ReadableByteChannel)
+     * @see #setMemoryMapped(boolean)
+     */
     public BxmlStreamReader createScanner(final ReadableByteChannel in) throws IOException {
-        BxmlInputStream reader = streamFactory.createInputStream(in);
-        return createScanner(reader);
+        return createScanner(createInputStream(in));
+    }
+
+    /**
+     * Creates a reader for each range of a BXML file split at element boundaries, to be decoded
+     * concurrently.
+     * 
+     * @param bxmlFile
+     *            the file to split, shall have been encoded with a string table index
+     * @return a scanner to split {@code bxmlFile} with, to be closed once all its range readers are
+     *         done
+     * @throws IOException
+     * @see ParallelBxmlScanner
+     */
+    public ParallelBxmlScanner createParallelScanner(final File bxmlFile) throws IOException {
+        return new ParallelBxmlScanner(this, new FileInputStream(bxmlFile).getChannel());
+    }
+
+    /**
+     * @return a memory mapped input stream if {@link #isMemoryMapped() requested} and {@code in}
+     *         is a {@link FileChannel}, a regular one otherwise
+     */
+    BxmlInputStream createInputStream(final ReadableByteChannel in) throws IOException {
+        if (memoryMapped && in instanceof FileChannel) {
+            return streamFactory.createMappedInputStream((FileChannel) in);
+        }
+        return streamFactory.createInputStream(in);
     }
 
     public void setStreamFactory(BxmlStreamFactory streamFactory) {
@@ -156,4 +213,18 @@ public class DefaultBxmlInputFactory implements BxmlInputFactory {
     public synchronized void setNamespaceAware(boolean namespaceAware) {
         this.namespaceAware = namespaceAware;
     }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlInputFactory#isMemoryMapped()
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlInputFactory#setMemoryMapped(boolean)
+     */
+    public synchronized void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
 }
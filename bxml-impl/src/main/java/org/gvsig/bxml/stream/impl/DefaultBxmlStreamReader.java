@@ -35,6 +35,9 @@ import static org.gvsig.bxml.stream.io.TokenType.XmlDeclaration;
 import java.io.IOException;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.namespace.QName;
@@ -48,6 +51,7 @@ import org.gvsig.bxml.stream.impl.workers.StringTable;
 import org.gvsig.bxml.stream.io.BxmlInputStream;
 import org.gvsig.bxml.stream.io.Header;
 import org.gvsig.bxml.stream.io.Header.Flags;
+import org.gvsig.bxml.stream.io.IndexTableIndexEntry;
 import org.gvsig.bxml.stream.io.StringTableIndexEntry;
 import org.gvsig.bxml.stream.io.TokenType;
 import org.gvsig.bxml.stream.io.TrailerToken;
@@ -68,6 +72,12 @@ import org.gvsig.bxml.stream.io.ValueType;
  */
 class DefaultBxmlStreamReader implements BxmlStreamReader {
 
+    /**
+     * Upper bound for presizing the collections read from an IndexTable token after the counts it
+     * states, they grow past it as entries are actually read
+     */
+    private static final int MAX_INITIAL_INDEX_CAPACITY = 1024;
+
     private final BxmlInputStream reader;
 
     private final Header header;
@@ -91,8 +101,32 @@ class DefaultBxmlStreamReader implements BxmlStreamReader {
 
     private TrailerToken trailer;
 
+    /**
+     * The index tables loaded so far, keyed by XPath expression, with a {@code null} value for the
+     * expressions the document has no index table for
+     * 
+     * @see #lookup(String, Object)
+     */
+    private final Map<String, Map<String, long[]>> indexTables = new HashMap<String, Map<String, long[]>>();
+
     private int tagDepth;
 
+    /**
+     * Resolved names indexed by string table index, saves from going through the names resolver
+     * for every element and attribute name
+     * 
+     * @see #resolveName(int, boolean)
+     */
+    private QName[] resolvedNames = new QName[64];
+
+    /**
+     * The current string value being read through {@link #getValue(char[], int, int)}, reset at
+     * each {@link #next()}, and how many of its characters were already returned
+     */
+    private CharSequence charsValue;
+
+    private int charsValueReadCount;
+
     /**
      * Creates a new, non namespace aware, DefaultBxmlStreamReader.
      * 
@@ -113,9 +147,27 @@ class DefaultBxmlStreamReader implements BxmlStreamReader {
      */
     public DefaultBxmlStreamReader(final BxmlInputStream reader, final NamesResolver namesResolver)
             throws IOException {
+        this(reader, namesResolver, new StringTable(false));
+    }
+
+    /**
+     * Creates a new DefaultBxmlStreamReader that resolves string references against the given
+     * string table.
+     * 
+     * @param reader
+     * @param namesResolver
+     * @param stringTable
+     *            the document's string table, either empty or {@link StringTable#isComplete()
+     *            complete}, in which case it's shared read only and the StringTable tokens found
+     *            while parsing are skipped
+     * @throws IOException
+     * @see ParallelBxmlScanner
+     */
+    public DefaultBxmlStreamReader(final BxmlInputStream reader,
+            final NamesResolver namesResolver, final StringTable stringTable) throws IOException {
         this.reader = reader;
         this.namesResolver = namesResolver;
-        this.parseState = new ParseState(namesResolver);
+        this.parseState = new ParseState(namesResolver, stringTable);
 
         // // this.processingState = new ProcessingState();
         this.header = reader.getHeader();
@@ -218,6 +270,7 @@ class DefaultBxmlStreamReader implements BxmlStreamReader {
      * @see org.gvsig.bxml.stream.BxmlStreamReader#next()
      */
     public EventType next() throws IOException {
+        this.charsValue = null;
         this.worker = worker.next(reader, parseState);
         EventType eventType = worker.getEventType(parseState);
         if (EventType.START_ELEMENT.equals(eventType)) {
@@ -228,6 +281,46 @@ class DefaultBxmlStreamReader implements BxmlStreamReader {
         return eventType;
     }
 
+    /**
+     * Seeks straight to the element's end if it's in the document's skip index, otherwise lets the
+     * current worker walk over the element tokens without producing any event.
+     * 
+     * @pre {getEventType() == START_ELEMENT}
+     * @see BxmlStreamReader#skipElement()
+     * @see EventTypeWorker#skipElement(BxmlInputStream, ParseState)
+     */
+    public void skipElement() throws IOException {
+        this.charsValue = null;
+        final long endPosition = getIndexedElementEnd();
+        if (endPosition == -1) {
+            this.worker = worker.skipElement(reader, parseState);
+        } else {
+            this.worker = worker.skipElement(reader, parseState, endPosition);
+        }
+        tagDepth--;
+    }
+
+    /**
+     * Returns the position of the current element's ElementEnd token as recorded in the skip
+     * index, if {@link #supportsRandomAccess() random access} is supported and the element was
+     * indexed.
+     * 
+     * @return the position of the current element's ElementEnd token, or {@code -1}
+     * @see org.gvsig.bxml.stream.EncodingOptions#getSkipIndexThreshold()
+     */
+    private long getIndexedElementEnd() throws IOException {
+        if (EventType.START_ELEMENT != getEventType() || !supportsRandomAccess()) {
+            return -1;
+        }
+        final Map<String, long[]> skipIndex = getIndexTable(SkipIndexBuilder.EXPRESSION);
+        if (skipIndex == null) {
+            return -1;
+        }
+        final long[] endPositions = skipIndex.get(String.valueOf(parseState
+                .getCurrentElementPosition()));
+        return endPositions == null ? -1 : endPositions[0];
+    }
+
     /**
      * @see BxmlStreamReader#nextTag()
      */
@@ -311,6 +404,22 @@ class DefaultBxmlStreamReader implements BxmlStreamReader {
         return parseState.getAttributeValue(index);
     }
 
+    /**
+     * @pre {getEventType() == START_ELEMENT}
+     * @see BxmlStreamReader#getAttributeIntValue(int)
+     */
+    public int getAttributeIntValue(int index) {
+        return parseState.getAttributeIntValue(index);
+    }
+
+    /**
+     * @pre {getEventType() == START_ELEMENT}
+     * @see BxmlStreamReader#getAttributeDoubleValue(int)
+     */
+    public double getAttributeDoubleValue(int index) {
+        return parseState.getAttributeDoubleValue(index);
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeValue(java.lang.String,
      *      java.lang.String)
@@ -333,16 +442,81 @@ class DefaultBxmlStreamReader implements BxmlStreamReader {
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeName(int)
      */
     public QName getAttributeName(final int index) {
-        final String currentAttributeName = parseState.getAttributeName(index);
-        return this.namesResolver.resolve(currentAttributeName, true);
+        return resolveName(parseState.getAttributeNameId(index), true);
+    }
+
+    /**
+     * @pre {getEventType() == START_ELEMENT}
+     * @see BxmlStreamReader#getAttributeNameId(int)
+     */
+    public int getAttributeNameId(final int index) {
+        return parseState.getAttributeNameId(index);
     }
 
     /**
      * @see BxmlStreamReader#getElementName()
      */
     public QName getElementName() {
-        final String currentElementName = parseState.getCurrentElementName();
-        return this.namesResolver.resolve(currentElementName, false);
+        return resolveName(parseState.getCurrentElementNameId(), false);
+    }
+
+    /**
+     * Returns the string table index of the current element name.
+     * 
+     * @see BxmlStreamReader#getElementNameId()
+     */
+    public int getElementNameId() {
+        return parseState.getCurrentElementNameId();
+    }
+
+    /**
+     * Looks up the string table for an entry that resolves to {@code name}. The lookup is linear
+     * on the size of the string table, with entries whose local part doesn't match discarded
+     * before resolving them.
+     * 
+     * @see BxmlStreamReader#getNameId(QName)
+     */
+    public int getNameId(final QName name) {
+        final String localName = name.getLocalPart();
+        final StringTable stringTable = getStringTable();
+        final int size = stringTable.size();
+        String entry;
+        int prefixLength;
+        for (int nameId = 0; nameId < size; nameId++) {
+            entry = stringTable.get(nameId);
+            prefixLength = entry.length() - localName.length();
+            if (!entry.endsWith(localName)
+                    || (prefixLength > 0 && entry.charAt(prefixLength - 1) != ':')) {
+                continue;
+            }
+            try {
+                if (name.equals(resolveName(nameId, false))) {
+                    return nameId;
+                }
+            } catch (IllegalStateException unboundPrefix) {
+                // not a name but a string value with a colon, keep looking
+                continue;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the name at the {@code nameId} index of the string table, resolving it through the
+     * names resolver only the first time it's requested.
+     */
+    private QName resolveName(final int nameId, final boolean isAttribute) {
+        if (nameId >= resolvedNames.length) {
+            final QName[] expanded = new QName[Math.max(2 * resolvedNames.length, nameId + 1)];
+            System.arraycopy(resolvedNames, 0, expanded, 0, resolvedNames.length);
+            resolvedNames = expanded;
+        }
+        QName name = resolvedNames[nameId];
+        if (name == null) {
+            name = namesResolver.resolve(getStringTable().get(nameId), isAttribute);
+            resolvedNames[nameId] = name;
+        }
+        return name;
     }
 
     /**
@@ -428,11 +602,23 @@ class DefaultBxmlStreamReader implements BxmlStreamReader {
         TokenType tokenType;
         String string;
 
+        if (stringTable.isComplete()) {
+            return;
+        }
+        // the StringTable tokens parsed so far are a prefix of the ones in the index
+        final int alreadyLoaded = stringTable.size();
+        long indexedStrings = 0;
+
         for (StringTableIndexEntry entry : stringTableIndex) {
 
             nIndexStrings = entry.getStringCount();
             fileOffset = entry.getFileOffset();
 
+            indexedStrings += nIndexStrings;
+            if (indexedStrings <= alreadyLoaded) {
+                continue;
+            }
+
             reader.setPosition(fileOffset);
             tokenType = reader.readTokenType();
 
@@ -455,6 +641,7 @@ class DefaultBxmlStreamReader implements BxmlStreamReader {
                 stringTable.add(string, fileOffset);
             }
         }
+        stringTable.setComplete(true);
     }
 
     /**
@@ -482,6 +669,103 @@ class DefaultBxmlStreamReader implements BxmlStreamReader {
         return nextTag();
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#lookup(java.lang.String, java.lang.Object)
+     */
+    public long[] lookup(final String xpathExpression, final Object value) throws IOException {
+        final Map<String, long[]> indexTable = getIndexTable(xpathExpression);
+        if (indexTable == null) {
+            return null;
+        }
+        final long[] positions = indexTable.get(String.valueOf(value));
+        return positions == null ? new long[0] : positions.clone();
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#seekToMatch(java.lang.String, java.lang.Object)
+     */
+    public EventType seekToMatch(final String xpathExpression, final Object value)
+            throws IOException {
+        final long[] positions = lookup(xpathExpression, value);
+        if (positions == null || positions.length == 0) {
+            return EventType.NONE;
+        }
+        return setPosition(positions[0]);
+    }
+
+    private Map<String, long[]> getIndexTable(final String xpathExpression) throws IOException {
+        if (indexTables.containsKey(xpathExpression)) {
+            return indexTables.get(xpathExpression);
+        }
+        if (this.trailer == null) {
+            this.trailer = readTrailer();
+        }
+        Map<String, long[]> indexTable = null;
+        final Set<IndexTableIndexEntry> indexTableIndex = trailer == null ? null : trailer
+                .getIndexTableIndex();
+        if (indexTableIndex != null) {
+            for (IndexTableIndexEntry entry : indexTableIndex) {
+                if (xpathExpression.equals(entry.getXpathExpression())) {
+                    indexTable = readIndexTable(entry);
+                    break;
+                }
+            }
+        }
+        indexTables.put(xpathExpression, indexTable);
+        return indexTable;
+    }
+
+    private Map<String, long[]> readIndexTable(final IndexTableIndexEntry entry)
+            throws IOException {
+        final long currPosition = reader.getPosition();
+        final long fileOffset = entry.getFileOffset();
+        try {
+            reader.setPosition(fileOffset);
+            final TokenType tokenType = reader.readTokenType();
+            if (TokenType.IndexTable != tokenType) {
+                throw new IllegalStateException("Expected IndexTable token at position "
+                        + fileOffset + " but found " + tokenType);
+            }
+            reader.readCount();// skipSize
+            final String xpathExpression = reader.readString();
+            if (!xpathExpression.equals(entry.getXpathExpression())) {
+                throw new IllegalStateException("XPath expression declared in trailer index ("
+                        + entry.getXpathExpression() + ") and at the IndexTable token at "
+                        + fileOffset + " (" + xpathExpression + ") do not match");
+            }
+            final long nEntries = reader.readCount();
+            // the counts come from the file, so don't trust them to presize anything
+            final Map<String, long[]> indexTable = new HashMap<String, long[]>(
+                    (int) Math.min(MAX_INITIAL_INDEX_CAPACITY, 1 + nEntries * 4 / 3));
+            for (long i = 0; i < nEntries; i++) {
+                final int valueType = reader.readByte();
+                if (ValueType.StringCode.getCode() != valueType) {
+                    throw new IllegalStateException("Unsupported IndexTable value type: "
+                            + ValueType.valueOf(valueType));
+                }
+                final String value = reader.readString();
+                final long nPositions = reader.readCount();
+                if (nPositions > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("Corrupt IndexTable at position "
+                            + fileOffset + ": " + nPositions + " positions for value " + value);
+                }
+                long[] positions = new long[(int) Math.min(MAX_INITIAL_INDEX_CAPACITY,
+                        nPositions)];
+                for (int p = 0; p < nPositions; p++) {
+                    if (p == positions.length) {
+                        positions = Arrays.copyOf(positions, (int) Math.min(nPositions,
+                                2L * positions.length));
+                    }
+                    positions[p] = reader.readCount();
+                }
+                indexTable.put(value, positions);
+            }
+            return indexTable;
+        } finally {
+            reader.setPosition(currPosition);
+        }
+    }
+
     protected StringTable getStringTable() {
         return parseState.getStringTable();
     }
@@ -571,6 +855,46 @@ class DefaultBxmlStreamReader implements BxmlStreamReader {
         return value;
     }
 
+    /**
+     * Returns the internal input stream buffer the value is decoded into for string value and
+     * comment tokens, and falls back to {@link #getStringValue()} for any other value token.
+     * 
+     * @see BxmlStreamReader#getCharSequenceValue()
+     * @see BxmlInputStream#readCharSequence()
+     */
+    public CharSequence getCharSequenceValue() throws IOException {
+        final TokenType tokenType = parseState.getCurrentTokenType();
+        if (TokenType.Comment == tokenType
+                || (TokenType.CharContent == tokenType && ValueType.StringCode == parseState
+                        .getCurrentValueType())) {
+            final CharSequence value = reader.readCharSequence();
+            parseState.notifyValueRead(1);
+            return value;
+        }
+        return getStringValue();
+    }
+
+    /**
+     * @see BxmlStreamReader#getValue(char[], int, int)
+     */
+    public int getValue(final char[] dst, final int offset, final int length) throws IOException {
+        if (charsValue == null) {
+            if (parseState.getValueElementsReadCount() > 0) {
+                throw new IllegalStateException("The current value was already read");
+            }
+            charsValue = getCharSequenceValue();
+            charsValueReadCount = 0;
+        }
+        final int count = Math.min(length, charsValue.length() - charsValueReadCount);
+        final CharSequence value = charsValue;
+        final int start = charsValueReadCount;
+        for (int i = 0; i < count; i++) {
+            dst[offset + i] = value.charAt(start + i);
+        }
+        charsValueReadCount += count;
+        return count;
+    }
+
     /**
      * Delegates to the internal {@link BxmlInputStream#readBoolean(boolean[], int, int)} method
      * <p>
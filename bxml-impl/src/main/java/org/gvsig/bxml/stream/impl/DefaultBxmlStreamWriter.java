@@ -64,7 +64,9 @@ import static org.gvsig.bxml.stream.io.ValueType.IntCode;
 import static org.gvsig.bxml.stream.io.ValueType.LongCode;
 import static org.gvsig.bxml.stream.io.ValueType.StringCode;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -74,6 +76,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
@@ -84,6 +89,7 @@ import org.gvsig.bxml.stream.EventType;
 import org.gvsig.bxml.stream.impl.workers.StringTable;
 import org.gvsig.bxml.stream.io.BxmlOutputStream;
 import org.gvsig.bxml.stream.io.CommentPositionHint;
+import org.gvsig.bxml.stream.io.DefaultStreamFactory;
 import org.gvsig.bxml.stream.io.Header;
 import org.gvsig.bxml.stream.io.Header.Compression;
 import org.gvsig.bxml.stream.io.Header.Flags;
@@ -96,13 +102,93 @@ import org.gvsig.bxml.stream.io.ValueType;
  */
 public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
 
+    private static final Logger LOGGER = Logger.getLogger("org.gvsig.bxml.stream.impl");
+
     private final EncodingOptions encodingOptions;
 
     private final BxmlOutputStream writer;
 
     private final NamesResolver namesResolver;
 
-    private final StringTable stringTable;
+    private StringTable stringTable;
+
+    /**
+     * Whether {@link #stringTable} is the parent writer's snapshot this fragment writer was seeded
+     * with, which is shared with other fragment writers and hence copied before adding entries
+     * 
+     * @see #createFragmentWriter()
+     */
+    private boolean sharedStringTable;
+
+    /**
+     * Copy of {@link #stringTable} last handed to the fragment writers, replaced once the string
+     * table grows
+     */
+    private StringTable stringTableSnapshot;
+
+    /**
+     * The bytes written by this writer if it is a {@link #createFragmentWriter() fragment writer},
+     * {@code null} otherwise
+     */
+    private final FragmentBuffer fragmentBuffer;
+
+    /**
+     * The namespace prefixes in scope the fragment writers are seeded with, {@code null} until
+     * needed and whenever the namespace context changes
+     */
+    private Map<String, String> fragmentNamespaces;
+
+    /**
+     * Whether this fragment writer was {@link #finishTemplate() finished} as a template
+     */
+    private volatile boolean templateFinished;
+
+    /**
+     * The element starts this fragment writer holds, once {@link #templateFinished finished} as a
+     * template, {@code null} if it does not hold a template
+     */
+    private Template template;
+
+    /**
+     * Index of the first {@link #stringTable} entry not yet written down to a StringTable token
+     * 
+     * @see #writeStringTable()
+     */
+    private int pendingStringsIndex;
+
+    /**
+     * The names resolved by {@link #getNameReference(String, String)}, shared with the fragment
+     * writers
+     */
+    private final NameReferences nameReferences;
+
+    /**
+     * Identifies the namespace prefixes in scope, changed whenever a prefix is declared and
+     * whenever the element that declared it ends. A name reference resolved with other prefixes
+     * in scope is written as a plain name.
+     */
+    private int namespaceGeneration;
+
+    /**
+     * Number of leading {@link #stringTable} entries name references may point to, all of them for
+     * a document writer and the ones of its string table snapshot for a fragment writer
+     */
+    private final int referenceableStrings;
+
+    /**
+     * Maximum number of strings per StringTable token
+     */
+    private final int stringTableFragmentSize;
+
+    /**
+     * Number of buffered bytes at or above which {@link #writeEndElement()} flushes
+     */
+    private final int flushThreshold;
+
+    /**
+     * Depth of the elements whose end triggers a flush, {@code 0} if none
+     */
+    private final int flushDepth;
 
     /**
      * A placeholder to pass to {@link NamespaceAwareNameResolver#toQName} in order to reuse the
@@ -153,6 +239,23 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      */
     private boolean pendingNamespacesJustWritten;
 
+    /**
+     * The index tables to write down before the trailer, as requested by
+     * {@link EncodingOptions#getIndexableXpathExpressionsHint()}
+     */
+    private final IndexTableBuilder[] indexTables;
+
+    /**
+     * Whether there are {@link #indexTables} to feed with the document events
+     */
+    private final boolean indexing;
+
+    /**
+     * Collects the end positions of the elements to skip through the skip index, {@code null} if
+     * no {@link EncodingOptions#getSkipIndexThreshold() skip index} was requested
+     */
+    private final SkipIndexBuilder skipIndex;
+
     /**
      * @param encodingOptions
      * @param writer
@@ -166,14 +269,94 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
 
         openElements = new ElementStack();
         stringTable = new StringTable();
+        stringTableFragmentSize = encodingOptions.getStringTableFragmentSize();
+        flushThreshold = encodingOptions.getFlushThreshold();
+        flushDepth = encodingOptions.getFlushDepth();
         qNamesPlaceHolder = new StringBuilder();
         namesResolver = new NamespaceAwareNameResolver();
         pendingNamespaces = new HashMap<String, String>();
         schemaLocations = new HashMap<String, String>();
+        indexTables = createIndexTables(encodingOptions.getIndexableXpathExpressionsHint(),
+                namesResolver);
+        indexing = indexTables.length > 0;
+        final int skipIndexThreshold = encodingOptions.getSkipIndexThreshold();
+        skipIndex = skipIndexThreshold > 0 ? new SkipIndexBuilder(skipIndexThreshold) : null;
+        fragmentBuffer = null;
+        nameReferences = new NameReferences();
+        referenceableStrings = Integer.MAX_VALUE;
         this.lastEvent = EventType.NONE;
         // NOTE: writer's endianess and charset will be set when writeStartDocument is called
     }
 
+    /**
+     * Creates a fragment writer for {@code parent}, writing to {@code writer}, which is backed by
+     * {@code fragmentBuffer}.
+     * 
+     * @see #createFragmentWriter()
+     */
+    private DefaultBxmlStreamWriter(final DefaultBxmlStreamWriter parent,
+            final BxmlOutputStream writer, final FragmentBuffer fragmentBuffer) {
+        this.encodingOptions = parent.encodingOptions;
+        this.writer = writer;
+        this.fragmentBuffer = fragmentBuffer;
+
+        openElements = new ElementStack();
+        if (parent.stringTableSnapshot == null
+                || parent.stringTableSnapshot.size() != parent.stringTable.size()) {
+            parent.stringTableSnapshot = parent.stringTable.copy();
+        }
+        stringTable = parent.stringTableSnapshot;
+        sharedStringTable = true;
+        // the parent writes down its own pending entries before the fragment
+        pendingStringsIndex = stringTable.size();
+        nameReferences = parent.nameReferences;
+        namespaceGeneration = parent.namespaceGeneration;
+        referenceableStrings = stringTable.size();
+        stringTableFragmentSize = parent.stringTableFragmentSize;
+        flushThreshold = parent.flushThreshold;
+        flushDepth = parent.flushDepth;
+        qNamesPlaceHolder = new StringBuilder();
+        namesResolver = new NamespaceAwareNameResolver();
+        if (parent.fragmentNamespaces == null) {
+            parent.fragmentNamespaces = parent.namesResolver.getPrefixToNamespaceMap();
+            final String defaultNamespace = parent.namesResolver
+                    .getNamespace(XMLConstants.DEFAULT_NS_PREFIX);
+            if (defaultNamespace != null) {
+                parent.fragmentNamespaces.put(XMLConstants.DEFAULT_NS_PREFIX, defaultNamespace);
+            }
+        }
+        for (Map.Entry<String, String> entry : parent.fragmentNamespaces.entrySet()) {
+            namesResolver.declarePrefix(entry.getKey(), entry.getValue());
+        }
+        pendingNamespaces = new HashMap<String, String>();
+        schemaLocations = new HashMap<String, String>();
+        autoReferenceableAttributes.addAll(parent.autoReferenceableAttributes);
+        indexTables = new IndexTableBuilder[0];
+        indexing = false;
+        skipIndex = null;
+        this.lastEvent = EventType.NONE;
+    }
+
+    /**
+     * Creates the index table builders for the supported {@code xpathExpressions}, the unsupported
+     * ones are ignored as allowed by {@link EncodingOptions#getIndexableXpathExpressionsHint()}.
+     */
+    private static IndexTableBuilder[] createIndexTables(final Set<String> xpathExpressions,
+            final NamesResolver namespaceContext) {
+        final List<IndexTableBuilder> builders = new ArrayList<IndexTableBuilder>();
+        if (xpathExpressions != null) {
+            for (String xpathExpression : xpathExpressions) {
+                try {
+                    builders.add(IndexTableBuilder.valueOf(xpathExpression, namespaceContext));
+                } catch (IllegalArgumentException e) {
+                    LOGGER.log(Level.WARNING, "Ignoring index table XPath expression: "
+                            + e.getMessage());
+                }
+            }
+        }
+        return builders.toArray(new IndexTableBuilder[builders.size()]);
+    }
+
     /**
      * @see BxmlStreamWriter#getEncodingOptions()
      */
@@ -231,6 +414,8 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      */
     public void setPrefix(String prefix, String uri) {
         namesResolver.declarePrefix(prefix, uri);
+        fragmentNamespaces = null;
+        namespaceGeneration = nameReferences.nextGeneration();
     }
 
     /**
@@ -247,6 +432,8 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      */
     public void writeNamespace(final String prefix, final String namespaceUri) throws IOException {
         this.namesResolver.declarePrefix(prefix, namespaceUri);
+        fragmentNamespaces = null;
+        namespaceGeneration = nameReferences.nextGeneration();
         this.pendingNamespaces.put(prefix, namespaceUri);
         writePendingNamespaces();
         lastEvent = NAMESPACE_DECL;
@@ -256,7 +443,10 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeStartDocument()
      */
     public final void writeStartDocument() throws IOException {
+        requireDocumentWriter();
         Header header = toHeader(encodingOptions);
+        writer.setCompressionLevel(encodingOptions.getCompressionLevel());
+        writer.setCompressionBlockSize(encodingOptions.getCompressionBlockSize());
         writer.writeHeader(header);
         // write xml declaration
         writer.writeTokenType(TokenType.XmlDeclaration);
@@ -305,6 +495,7 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
                 writer.setAutoFlushing(true);
             }
             flush();
+            writer.close();
         }
     }
 
@@ -315,6 +506,179 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
         writer.flush();
     }
 
+    /**
+     * Returns whether {@link #createFragmentWriter() fragment writers} can be created and
+     * {@link #writeFragment written} at the current position.
+     * <p>
+     * That is the case for document writers that are inside the root element and neither build
+     * {@link EncodingOptions#getIndexableXpathExpressionsHint() index tables} nor a
+     * {@link EncodingOptions#getSkipIndexThreshold() skip index}, as both record stream positions
+     * a fragment writer can't know of.
+     * </p>
+     * 
+     * @see BxmlStreamWriter#canWriteFragments()
+     */
+    public boolean canWriteFragments() {
+        return fragmentBuffer == null && !indexing && skipIndex == null
+                && openElements.size() > 0;
+    }
+
+    /**
+     * Creates a writer to encode the next child element of the current element into memory, so
+     * that several children can be encoded at once by different threads and then
+     * {@link #writeFragment written down} in order by the thread using this writer.
+     * <p>
+     * The fragment writer is seeded with the namespace prefixes in scope and a snapshot of the
+     * string table, so as long as it only uses names and strings already known to this writer, the
+     * bytes it produces are the ones this writer would have produced for the same events. This
+     * method is to be called from the thread using this writer, the fragment writer can then be
+     * used from any other thread.
+     * </p>
+     * 
+     * @return a writer to write a single element, start to end, with
+     * @throws IllegalStateException
+     *             if {@link #canWriteFragments()} is false
+     * @see #writeFragment(BxmlStreamWriter)
+     */
+    public DefaultBxmlStreamWriter createFragmentWriter() throws IOException {
+        if (!canWriteFragments()) {
+            throw new IllegalStateException("Fragments can't be written at this point");
+        }
+        final Header header = toHeader(encodingOptions);
+        final FragmentBuffer buffer = new FragmentBuffer();
+        final BxmlOutputStream out = new DefaultStreamFactory().createOutputStream(buffer);
+        out.setEndianess(header.getFlags().getEndianess());
+        out.setCharactersEncoding(header.getCharactersEncoding());
+        return new DefaultBxmlStreamWriter(this, out, buffer);
+    }
+
+    /**
+     * Writes down the element encoded by {@code fragment} as the next child of the current
+     * element, and closes {@code fragment}.
+     * <p>
+     * The fragment is rejected, and nothing is written, if it does not hold exactly one complete
+     * element or it added strings to its string table snapshot, since the indexes of those would
+     * clash with the ones this writer assigned in the meantime. The caller shall then write the
+     * element again directly to this writer.
+     * </p>
+     * 
+     * @param fragmentWriter
+     *            a writer {@link #createFragmentWriter() created} by this one
+     * @return whether the fragment was written down
+     * @throws IOException
+     */
+    public boolean writeFragment(final BxmlStreamWriter fragmentWriter) throws IOException {
+        if (!(fragmentWriter instanceof DefaultBxmlStreamWriter)
+                || ((DefaultBxmlStreamWriter) fragmentWriter).fragmentBuffer == null) {
+            throw new IllegalArgumentException("Not a fragment writer");
+        }
+        final DefaultBxmlStreamWriter fragment = (DefaultBxmlStreamWriter) fragmentWriter;
+        fragment.close();
+        if (!fragment.sharedStringTable || fragment.openElements.size() > 0
+                || fragment.lastEvent != END_ELEMENT || !canWriteFragments()) {
+            return false;
+        }
+        startChildElement();
+        // entries the fragment may reference that are still pending, if any
+        writeStringTable();
+        writer.setAutoFlushing(true);
+        fragment.fragmentBuffer.writeTo(writer);
+
+        lastEvent = lastTagEvent = END_ELEMENT;
+        this.writtenValueLength = 0;
+        this.valueLength = 0;
+        this.currentValueType = null;
+        if (openElements.size() + 1 == flushDepth || writer.getCachedSize() >= flushThreshold) {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * Writes down the start of the elements encoded by {@code template} and makes them the open
+     * elements, as if they had been started on this writer.
+     * <p>
+     * The template is rejected, and nothing is written, if it does not end right after the start
+     * or the attribute list of its last element, or it added strings to its string table snapshot.
+     * It's also rejected if it was created for another document or with other namespace prefixes in
+     * scope, or it may reference strings this writer does not know of, as a fragment writer
+     * created before the template, or if index tables are being built, since the template's events
+     * would be missed.
+     * </p>
+     * 
+     * @param templateWriter
+     *            a fragment writer {@link #createFragmentWriter() created} by this writer or by the
+     *            writer this one is a fragment writer of
+     * @return whether the template was written down
+     * @throws IOException
+     */
+    public boolean writeTemplate(final BxmlStreamWriter templateWriter) throws IOException {
+        if (!(templateWriter instanceof DefaultBxmlStreamWriter)
+                || ((DefaultBxmlStreamWriter) templateWriter).fragmentBuffer == null) {
+            throw new IllegalArgumentException("Not a fragment writer");
+        }
+        final Template template = ((DefaultBxmlStreamWriter) templateWriter).finishTemplate();
+        if (template == null || template.nameReferences != nameReferences
+                || template.namespaceGeneration != namespaceGeneration
+                || template.referencedStrings > referenceableStrings || indexing
+                || (openElements.size() == 0 && fragmentBuffer == null)) {
+            return false;
+        }
+        startChildElement();
+        // entries the template may reference that are still pending, if any
+        ensureStringTableWritten(template.referencedStrings - 1);
+        // the last element's token is to be patched once its type is known
+        writer.pin();
+        final long position = writer.getPosition();
+        writer.writeByte(template.bytes, 0, template.bytes.length);
+
+        for (int i = 0; i < template.elementTypes.length; i++) {
+            namesResolver.pushContext();
+            openElements.newElement(EmptyElement, position + template.elementPositions[i],
+                    template.namespaceUris[i], template.localNames[i]);
+            openElements.setCurrentElementType(template.elementTypes[i]);
+            openElements.getCurrentElement().namespaceGeneration = namespaceGeneration;
+        }
+        fragmentNamespaces = null;
+        processingAttributes = false;
+        pendingNamespacesJustWritten = false;
+        lastEvent = template.lastEvent;
+        lastTagEvent = START_ELEMENT;
+        this.writtenValueLength = 0;
+        this.valueLength = 0;
+        this.currentValueType = null;
+        return true;
+    }
+
+    /**
+     * Closes this fragment writer, on its first call, and captures the element starts it holds as
+     * a {@link Template}.
+     * 
+     * @return the template, or {@code null} if this writer does not hold one
+     */
+    private Template finishTemplate() throws IOException {
+        if (!templateFinished) {
+            synchronized (this) {
+                if (!templateFinished) {
+                    final boolean isTemplate = sharedStringTable && openElements.size() > 0
+                            && !processingAttributes
+                            && (lastEvent == START_ELEMENT || lastEvent == ATTRIBUTES_END);
+                    // writes the buffered bytes down to the fragment buffer
+                    close();
+                    template = isTemplate ? new Template(this) : null;
+                    templateFinished = true;
+                }
+            }
+        }
+        return template;
+    }
+
+    private void requireDocumentWriter() {
+        if (fragmentBuffer != null) {
+            throw new IllegalStateException("Fragment writers do not write documents");
+        }
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamWriter#getCurrentElementName()
      */
@@ -354,6 +718,11 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeEndDocument()
      */
     public final void writeEndDocument() throws IOException {
+        requireDocumentWriter();
+        // strings acquired through getStringTableReference but never referenced
+        writeStringTable();
+        final long[] indexTablePositions = writeIndexTables();
+
         final long initialPosition = writer.getPosition();
         // Write the trailer token
         writer.writeTokenType(TokenType.Trailer);
@@ -361,7 +730,7 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
         writer.writeByte(id, 0, 4);
 
         writeStringTableIndex();
-        writeIndexTableIndex();
+        writeIndexTableIndex(indexTablePositions);
 
         final long endPosition = writer.getPosition();
 
@@ -373,33 +742,91 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
         lastEvent = END_DOCUMENT;
     }
 
+    /**
+     * Writes one StringTableIndexEntry per StringTable fragment, that is, per run of consecutive
+     * string table entries sharing the same offset.
+     * <p>
+     * An empty index is written as just the unused flag, without the zero {@code nFragments} count
+     * the format requires, see the format deviation documented at {@link TokenType#Trailer}.
+     * </p>
+     * 
+     * @throws IOException
+     */
     private void writeStringTableIndex() throws IOException {
-        final boolean isUsed = true;
+        final int nStrings = stringTable.size();
+        int nFragments = 0;
+        for (int entry = 0; entry < nStrings; entry++) {
+            if (entry == 0 || stringTable.getOffset(entry) != stringTable.getOffset(entry - 1)) {
+                nFragments++;
+            }
+        }
+        final boolean isUsed = nFragments > 0;
         writer.writeBoolean(isUsed);
-        final int nFragments = stringTable.size();
+        if (!isUsed) {
+            return;
+        }
         writer.writeCount(nFragments);
 
+        int fragmentStart = 0;
         long offset;
-        for (int entry = 0; entry < nFragments; entry++) {
-            /*
-             * write one StringTableIndexEntry per string, not optimal, but the way our StringTables
-             * work thanks for #getForceStringTableName
-             */
-            writer.writeCount(1);
-            offset = stringTable.getOffset(entry);
-            writer.writeCount(offset);
+        for (int entry = 1; entry <= nStrings; entry++) {
+            offset = stringTable.getOffset(fragmentStart);
+            if (entry == nStrings || stringTable.getOffset(entry) != offset) {
+                writer.writeCount(entry - fragmentStart);
+                writer.writeCount(offset);
+                fragmentStart = entry;
+            }
         }
+    }
 
+    /**
+     * Writes down an IndexTable token for each of the {@link #indexTables}, followed by the
+     * {@link #skipIndex} one if any element was indexed.
+     * 
+     * @return the positions of the IndexTable tokens written
+     * @throws IOException
+     */
+    private long[] writeIndexTables() throws IOException {
+        final boolean writeSkipIndex = skipIndex != null && skipIndex.size() > 0;
+        final long[] positions = new long[indexTables.length + (writeSkipIndex ? 1 : 0)];
+        final Charset charset = encodingOptions.getCharactersEncoding();
+        for (int i = 0; i < indexTables.length; i++) {
+            positions[i] = writer.getPosition();
+            indexTables[i].write(writer, charset);
+        }
+        if (writeSkipIndex) {
+            positions[indexTables.length] = writer.getPosition();
+            skipIndex.write(writer, charset);
+        }
+        return positions;
     }
 
     /**
+     * Writes one IndexTableIndexEntry per IndexTable token.
+     * <p>
+     * An empty index is written as just the unused flag, without the zero {@code nEntries} count
+     * the format requires, see the format deviation documented at {@link TokenType#Trailer}.
+     * </p>
+     * 
+     * @param indexTablePositions
+     *            the positions of the IndexTable tokens as returned by {@link #writeIndexTables()}
      * @throws IOException
      */
-    private void writeIndexTableIndex() throws IOException {
-        final boolean isUsed = false;
-        final int nEntries = 0;
+    private void writeIndexTableIndex(final long[] indexTablePositions) throws IOException {
+        final int nEntries = indexTablePositions.length;
+        final boolean isUsed = nEntries > 0;
         writer.writeBoolean(isUsed);
-        writer.writeCount(nEntries);
+        if (isUsed) {
+            writer.writeCount(nEntries);
+            for (int entry = 0; entry < nEntries; entry++) {
+                if (entry < indexTables.length) {
+                    writer.writeString(indexTables[entry].getXpathExpression());
+                } else {
+                    writer.writeString(SkipIndexBuilder.EXPRESSION);
+                }
+                writer.writeCount(indexTablePositions[entry]);
+            }
+        }
     }
 
     /**
@@ -420,14 +847,41 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      */
     public final void writeStartAttribute(final String namespaceUri, final String localName)
             throws IOException {
-        processingAttributes = true;
-
         namesResolver.toQName(namespaceUri, localName, qNamesPlaceHolder);
         long nameIndex = getForceStringTableName(qNamesPlaceHolder);
+        startAttribute(nameIndex, qNamesPlaceHolder.toString(), namespaceUri, localName);
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeStartAttribute(long)
+     */
+    public final void writeStartAttribute(final long nameReference) throws IOException {
+        final NameReference name = nameReferences.get(nameReference);
+        if (!isValid(name)) {
+            writeStartAttribute(name.namespaceUri, name.localName);
+            return;
+        }
+        startAttribute(name.nameIndex, name.qName, name.namespaceUri, name.localName);
+    }
+
+    /**
+     * Writes down the start of an attribute whose prefixed name is the string table entry at
+     * {@code nameIndex}
+     */
+    private void startAttribute(final long nameIndex, final String qName,
+            final String namespaceUri, final String localName) throws IOException {
+        processingAttributes = true;
+
+        ensureStringTableWritten(nameIndex);
         writer.writeTokenType(AttributeStart);
         writer.writeCount(nameIndex);
 
-        currentAttributeQName = qNamesPlaceHolder.toString();
+        currentAttributeQName = qName;
+        if (indexing) {
+            for (IndexTableBuilder indexTable : indexTables) {
+                indexTable.startAttribute(namespaceUri, localName);
+            }
+        }
 
         // no more need to check for auto closing the attribute list, the user is now responsible
         this.pendingNamespacesJustWritten = false;
@@ -449,6 +903,7 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
         namesResolver.toQName(prefixNamespaceUri, prefix, qNamesPlaceHolder);
         final long nameIndex = getForceStringTableName(qNamesPlaceHolder);
         final long nsUriIndex = getForceStringTableName(namespaceUri);
+        ensureStringTableWritten(Math.max(nameIndex, nsUriIndex));
         writer.writeTokenType(AttributeStart);
         writer.writeCount(nameIndex);
 
@@ -477,6 +932,11 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
             this.writtenValueLength = 0;
             this.valueLength = 0;
         }
+        if (indexing) {
+            for (IndexTableBuilder indexTable : indexTables) {
+                indexTable.endAttributes();
+            }
+        }
         lastEvent = ATTRIBUTES_END;
     }
 
@@ -494,39 +954,20 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      */
     public final void writeStartElement(final String namespaceUri, final String localName)
             throws IOException {
-        if (openElements.size() > 0) {
-            // Got a start element directly after another one and there are pending namespaces for
-            // the previous element?
-            if (pendingNamespacesJustWritten) {
-                writeEndNamespaces();
-                setCurrentElementType(ContentAttrElement);
-            } else {
-                TokenType currentElementType = openElements.getCurrentElementType();
-                if (currentElementType == TokenType.EmptyElement) {
-                    setCurrentElementType(ContentElement);
-                } else if (currentElementType == EmptyAttrElement) {
-                    setCurrentElementType(ContentAttrElement);
-                }
-            }
-        }
+        startChildElement();
         // new element, new namespace context
         namesResolver.pushContext();
+        fragmentNamespaces = null;
 
-        // do not flush content until we know the exact token type for this element (that is,
-        // whether its an EmptyElement, ContentAttrElement, etc)
-        writer.setAutoFlushing(false);
+        // the parent element type is final, only this element's token is to be patched. Do not
+        // flush content from here on until we know the exact token type for this element (that
+        // is, whether its an EmptyElement, ContentAttrElement, etc)
+        writer.pin();
 
         namesResolver.toQName(namespaceUri, localName, qNamesPlaceHolder);
         final long nameIndex = getForceStringTableName(qNamesPlaceHolder);
-
-        // start a new current element
-        {
-            long fileOffset = writer.getPosition();
-            openElements.newElement(EmptyElement, fileOffset, namespaceUri, localName);
-        }
-
-        writer.writeTokenType(EmptyElement);
-        writer.writeCount(nameIndex);
+        registerStartElementNames(namespaceUri);
+        writeElementStart(nameIndex, namespaceUri, localName);
 
         if (!XMLConstants.NULL_NS_URI.equals(namespaceUri)
                 && !namespaceUri.equals(namesResolver.getNamespace(XMLConstants.DEFAULT_NS_PREFIX))) {
@@ -553,6 +994,157 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
         this.currentValueType = null;
     }
 
+    /**
+     * Starts an element through its name reference. Only the root element of a document, which
+     * gets the pending namespace declarations and schema locations, needs to go through
+     * {@link #writeStartElement(String, String)}, as the referenced names have a prefix bound.
+     * 
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeStartElement(long)
+     */
+    public final void writeStartElement(final long nameReference) throws IOException {
+        final NameReference name = nameReferences.get(nameReference);
+        if (!isValid(name) || (openElements.size() == 0 && fragmentBuffer == null)) {
+            writeStartElement(name.namespaceUri, name.localName);
+            return;
+        }
+        startChildElement();
+        namesResolver.pushContext();
+        fragmentNamespaces = null;
+        writer.pin();
+
+        writeElementStart(name.nameIndex, name.namespaceUri, name.localName);
+
+        lastEvent = lastTagEvent = START_ELEMENT;
+        this.writtenValueLength = 0;
+        this.valueLength = 0;
+        this.currentValueType = null;
+    }
+
+    /**
+     * Makes the element whose prefixed name is the string table entry at {@code nameIndex} the
+     * current one and writes down its token, which is patched once its type is known.
+     */
+    private void writeElementStart(final long nameIndex, final String namespaceUri,
+            final String localName) throws IOException {
+        ensureStringTableWritten(nameIndex);
+
+        final long fileOffset = writer.getPosition();
+        openElements.newElement(EmptyElement, fileOffset, namespaceUri, localName);
+        openElements.getCurrentElement().namespaceGeneration = namespaceGeneration;
+        if (indexing) {
+            for (IndexTableBuilder indexTable : indexTables) {
+                indexTable.startElement(namespaceUri, localName, fileOffset);
+            }
+        }
+
+        writer.writeTokenType(EmptyElement);
+        writer.writeCount(nameIndex);
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#getNameReference(java.lang.String,
+     *      java.lang.String)
+     */
+    public long getNameReference(final String namespaceUri, final String localName)
+            throws IOException {
+        if (!XMLConstants.NULL_NS_URI.equals(namespaceUri)
+                && !namespaceUri.equals(namesResolver.getNamespace(XMLConstants.DEFAULT_NS_PREFIX))
+                && namesResolver.getPrefix(namespaceUri) == null) {
+            // would need an inline namespace declaration
+            return -1;
+        }
+        namesResolver.toQName(namespaceUri, localName, qNamesPlaceHolder);
+        final long nameIndex;
+        if (fragmentBuffer == null) {
+            nameIndex = getForceStringTableName(qNamesPlaceHolder);
+        } else {
+            // the references are shared with the document writer, so only names it knows of
+            nameIndex = stringTable.get(qNamesPlaceHolder);
+            if (nameIndex == -1 || nameIndex >= referenceableStrings) {
+                return -1;
+            }
+        }
+        return nameReferences.add(new NameReference(namespaceUri, localName, qNamesPlaceHolder
+                .toString(), nameIndex, namespaceGeneration));
+    }
+
+    /**
+     * Returns whether {@code name} can be written as its string table entry, that is, it was
+     * resolved with the namespace prefixes currently in scope and this writer knows its entry
+     */
+    private boolean isValid(final NameReference name) {
+        return name.namespaceGeneration == namespaceGeneration
+                && name.nameIndex < referenceableStrings;
+    }
+
+    /**
+     * Settles the token type of the current element, if any, as it is getting a child element.
+     */
+    private void startChildElement() throws IOException {
+        if (openElements.size() > 0) {
+            // Got a start element directly after another one and there are pending namespaces for
+            // the previous element?
+            if (pendingNamespacesJustWritten) {
+                writeEndNamespaces();
+                setCurrentElementType(ContentAttrElement);
+            } else {
+                TokenType currentElementType = openElements.getCurrentElementType();
+                if (currentElementType == TokenType.EmptyElement) {
+                    setCurrentElementType(ContentElement);
+                } else if (currentElementType == EmptyAttrElement) {
+                    setCurrentElementType(ContentAttrElement);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds to the string table the names and values of the namespace declarations and schema
+     * location attribute {@link #writeStartElement(String, String)} is about to write, so that they
+     * go in the same StringTable fragment than the element name instead of one fragment each.
+     * 
+     * @param namespaceUri
+     *            the namespace of the element being started
+     * @see #writeNamespaceInternal(String, String, String)
+     * @see #writePendingNamespaces()
+     * @see #declareSchemaLocations()
+     */
+    private void registerStartElementNames(final String namespaceUri) throws IOException {
+        if (!XMLConstants.NULL_NS_URI.equals(namespaceUri)
+                && !namespaceUri.equals(namesResolver.getNamespace(XMLConstants.DEFAULT_NS_PREFIX))
+                && namesResolver.getPrefix(namespaceUri) == null) {
+            namesResolver.toQName(XMLConstants.NULL_NS_URI, XMLConstants.XMLNS_ATTRIBUTE,
+                    qNamesPlaceHolder);
+            getForceStringTableName(qNamesPlaceHolder);
+            getForceStringTableName(namespaceUri);
+        }
+        if (openElements.size() > 0) {
+            // only the root element gets the pending namespaces and schema locations
+            return;
+        }
+        String prefix;
+        for (Map.Entry<String, String> entry : pendingNamespaces.entrySet()) {
+            prefix = entry.getKey();
+            if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+                continue;
+            }
+            if (XMLConstants.DEFAULT_NS_PREFIX.equals(prefix)) {
+                namesResolver.toQName(XMLConstants.NULL_NS_URI, XMLConstants.XMLNS_ATTRIBUTE,
+                        qNamesPlaceHolder);
+            } else {
+                namesResolver.toQName(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, prefix,
+                        qNamesPlaceHolder);
+            }
+            getForceStringTableName(qNamesPlaceHolder);
+            getForceStringTableName(entry.getValue());
+        }
+        if (schemaLocations.size() > 0) {
+            namesResolver.toQName(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation",
+                    qNamesPlaceHolder);
+            getForceStringTableName(qNamesPlaceHolder);
+        }
+    }
+
     private void writePendingNamespaces() throws IOException {
         if (pendingNamespaces.size() == 0) {
             return;
@@ -607,7 +1199,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
     }
 
     /**
-     * Closes the current element if needed and flushes any buffered write that might be pending.
+     * Closes the current element if needed and flushes any buffered write that might be pending if
+     * the {@link EncodingOptions#getFlushThreshold() flush threshold} has been reached or the
+     * element is at the {@link EncodingOptions#getFlushDepth() flush depth}.
      * 
      * @see BxmlStreamWriter#writeEndElement()
      */
@@ -617,6 +1211,7 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
         writePendingNamespaces();
 
         final TokenType elementType = openElements.getCurrentElementType();
+        final int depth = openElements.size();
 
         if (this.pendingNamespacesJustWritten) {
             writeEndNamespaces();
@@ -626,13 +1221,29 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
 
         // we only need to write down an EndElement token if its a content element
         if (elementType == ContentElement || elementType == ContentAttrElement) {
+            if (skipIndex != null) {
+                skipIndex.endElement(openElements.getCurrentElementPosition(), writer
+                        .getPosition());
+            }
             writer.writeTokenType(ElementEnd);
         }
 
+        if (openElements.getCurrentElement().namespaceGeneration != namespaceGeneration) {
+            // the prefixes declared in the meantime may go out of scope with the element
+            namespaceGeneration = nameReferences.nextGeneration();
+        }
         openElements.popCurrentElement();
         namesResolver.popContext();
+        fragmentNamespaces = null;
+        if (indexing) {
+            for (IndexTableBuilder indexTable : indexTables) {
+                indexTable.endElement();
+            }
+        }
         lastEvent = lastTagEvent = END_ELEMENT;
-        flush();
+        if (depth == flushDepth || writer.getCachedSize() >= flushThreshold) {
+            flush();
+        }
     }
 
     private void writeEndNamespaces() throws IOException {
@@ -648,6 +1259,12 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
     /**
      * Returns the string table index corresponding to the given string, creating the string table
      * entry if needed.
+     * <p>
+     * New entries are not written down right away but buffered, so that they're written as a single
+     * StringTable token {@link #ensureStringTableWritten(long) before the first reference} to any
+     * of them, or as soon as {@link EncodingOptions#getStringTableFragmentSize()} entries are
+     * buffered.
+     * </p>
      * 
      * @param qName
      * @return
@@ -658,15 +1275,47 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
 
         long stringIndex = stringTable.get(stringToHandle);
         if (-1 == stringIndex) {
-            final long position = writer.getPosition();
-            stringIndex = stringTable.add(stringToHandle, position);
-            writer.writeTokenType(TokenType.StringTable);
-            writer.writeCount(1L);
-            writer.writeString(stringToHandle);
+            if (sharedStringTable) {
+                stringTable = stringTable.copy();
+                sharedStringTable = false;
+            }
+            // the actual offset is set once the fragment is written down
+            stringIndex = stringTable.add(stringToHandle, -1L);
+            if (stringTable.size() - pendingStringsIndex >= stringTableFragmentSize) {
+                writeStringTable();
+            }
         }
         return stringIndex;
     }
 
+    /**
+     * Makes sure the string table entry at {@code stringIndex} has been written down before
+     * writing a reference to it.
+     */
+    private void ensureStringTableWritten(final long stringIndex) throws IOException {
+        if (stringIndex >= pendingStringsIndex) {
+            writeStringTable();
+        }
+    }
+
+    /**
+     * Writes down the buffered string table entries, if any, as a single StringTable token.
+     */
+    private void writeStringTable() throws IOException {
+        final int size = stringTable.size();
+        if (pendingStringsIndex == size) {
+            return;
+        }
+        final long position = writer.getPosition();
+        writer.writeTokenType(TokenType.StringTable);
+        writer.writeCount(size - pendingStringsIndex);
+        for (int entry = pendingStringsIndex; entry < size; entry++) {
+            stringTable.setOffset(entry, position);
+            writer.writeString(stringTable.get(entry));
+        }
+        pendingStringsIndex = size;
+    }
+
     /**
      * Writes the provided String value.
      * <p>
@@ -692,6 +1341,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
 
         startValue(StringCode);
         writer.writeString(value);
+        if (indexing) {
+            indexValue(value);
+        }
         writtenValueLength++;
         lastEvent = VALUE_STRING;
     }
@@ -723,23 +1375,29 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
         // // ignore, being called from a writeValue(primitiveType) while encoding an array
         // return;
         // }
-        // if (pendingNamespacesJustWritten) {
-        // writeEndNamespaces();
-        // }
-        // if (!processingAttributes) {
-        final TokenType elementType = openElements.getCurrentElementType();
-        if (elementType == EmptyAttrElement) {
-            setCurrentElementType(ContentAttrElement);
-        } else if (elementType == EmptyAttrElement || elementType == EmptyElement) {
-            setCurrentElementType(ContentElement);
+        if (pendingNamespacesJustWritten) {
+            writeEndNamespaces();
+        }
+        // an attribute value does not settle the element type, the element token is to be
+        // patched yet
+        if (!processingAttributes) {
+            final TokenType elementType = openElements.getCurrentElementType();
+            if (elementType == EmptyAttrElement) {
+                setCurrentElementType(ContentAttrElement);
+            } else if (elementType == EmptyAttrElement || elementType == EmptyElement) {
+                setCurrentElementType(ContentElement);
+            }
+            // Got the final current element type, can go back to auto flush mode
+            writer.setAutoFlushing(true);
         }
-        // Got the final current element type, can go back to auto flush mode
-        writer.setAutoFlushing(true);
-        // }
         // /
 
+        ensureStringTableWritten(stringTableEntryId);
         writer.writeTokenType(TokenType.CharContentRef);
         writer.writeCount(stringTableEntryId);
+        if (indexing) {
+            indexValue(stringTable.get(stringTableEntryId));
+        }
         valueLength = 1;
         writtenValueLength = 1;
         lastEvent = VALUE_STRING;
@@ -752,6 +1410,13 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
             throws IOException {
         startValue(StringCode);
         writer.writeString(chars, offset, length);
+        if (indexing) {
+            for (IndexTableBuilder indexTable : indexTables) {
+                if (indexTable.isCapturing()) {
+                    indexTable.value(chars, offset, length);
+                }
+            }
+        }
         writtenValueLength++;
         lastEvent = VALUE_STRING;
     }
@@ -760,6 +1425,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeValue(byte)
      */
     public final void writeValue(byte value) throws IOException {
+        if (indexing) {
+            indexScalarValue(value);
+        }
         startValue(ByteCode);
         writer.writeByte(value);
         writtenValueLength++;
@@ -776,6 +1444,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
             startArray(VALUE_BYTE, length);
         }
         writer.writeByte(value, offset, length);
+        if (indexing) {
+            indexArrayValue(value, offset, length);
+        }
         if (!arrayAlreadyInProgress) {
             endArray();
             valueLength = length;
@@ -788,6 +1459,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeValue(int)
      */
     public final void writeValue(int value) throws IOException {
+        if (indexing) {
+            indexScalarValue(value);
+        }
         startValue(IntCode);
         writer.writeInt(value);
         writtenValueLength++;
@@ -798,6 +1472,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeValue(long)
      */
     public final void writeValue(long value) throws IOException {
+        if (indexing) {
+            indexScalarValue(value);
+        }
         startValue(LongCode);
         writer.writeLong(value);
         writtenValueLength++;
@@ -808,6 +1485,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeValue(float)
      */
     public final void writeValue(float value) throws IOException {
+        if (indexing) {
+            indexScalarValue(value);
+        }
         startValue(FloatCode);
         writer.writeFloat(value);
         writtenValueLength++;
@@ -818,6 +1498,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeValue(double)
      */
     public final void writeValue(double value) throws IOException {
+        if (indexing) {
+            indexScalarValue(value);
+        }
         startValue(DoubleCode);
         writer.writeDouble(value);
         writtenValueLength++;
@@ -828,6 +1511,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
      * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeValue(boolean)
      */
     public final void writeValue(boolean value) throws IOException {
+        if (indexing) {
+            indexScalarValue(value);
+        }
         startValue(BoolCode);
         writer.writeBoolean(value);
         writtenValueLength++;
@@ -844,6 +1530,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
             startArray(VALUE_BOOL, length);
         }
         writer.writeBoolean(value, offset, length);
+        if (indexing) {
+            indexArrayValue(value, offset, length);
+        }
         if (!arrayAlreadyInProgress) {
             endArray();
             valueLength = length;
@@ -862,6 +1551,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
             startArray(VALUE_INT, length);
         }
         writer.writeInt(value, offset, length);
+        if (indexing) {
+            indexArrayValue(value, offset, length);
+        }
         if (!arrayAlreadyInProgress) {
             endArray();
             valueLength = length;
@@ -880,6 +1572,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
             startArray(VALUE_LONG, length);
         }
         writer.writeLong(value, offset, length);
+        if (indexing) {
+            indexArrayValue(value, offset, length);
+        }
         if (!arrayAlreadyInProgress) {
             endArray();
             valueLength = length;
@@ -898,6 +1593,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
             startArray(VALUE_FLOAT, length);
         }
         writer.writeFloat(value, offset, length);
+        if (indexing) {
+            indexArrayValue(value, offset, length);
+        }
         if (!arrayAlreadyInProgress) {
             endArray();
             valueLength = length;
@@ -916,6 +1614,9 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
             startArray(VALUE_DOUBLE, length);
         }
         writer.writeDouble(value, offset, length);
+        if (indexing) {
+            indexArrayValue(value, offset, length);
+        }
         if (!arrayAlreadyInProgress) {
             endArray();
             valueLength = length;
@@ -934,6 +1635,36 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
         lastEvent = COMMENT;
     }
 
+    private void indexValue(final CharSequence value) {
+        for (IndexTableBuilder indexTable : indexTables) {
+            if (indexTable.isCapturing()) {
+                indexTable.value(value);
+            }
+        }
+    }
+
+    private void indexScalarValue(final Object value) {
+        for (IndexTableBuilder indexTable : indexTables) {
+            if (indexTable.isCapturing()) {
+                indexTable.scalarValue(value);
+            }
+        }
+    }
+
+    /**
+     * @param array
+     *            a primitive array whose elements are indexed as individual scalar values
+     */
+    private void indexArrayValue(final Object array, final int offset, final int length) {
+        for (IndexTableBuilder indexTable : indexTables) {
+            if (indexTable.isCapturing()) {
+                for (int i = offset; i < offset + length; i++) {
+                    indexTable.scalarValue(Array.get(array, i));
+                }
+            }
+        }
+    }
+
     private void startValue(ValueType valueTypeCode) throws IOException {
         if (currentValueType == ValueType.ArrayCode) {
             // ignore, being called from a writeValue(primitiveType) while encoding an array
@@ -1040,6 +1771,130 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
         return arrayInProgress;
     }
 
+    /**
+     * The in memory target of a fragment writer
+     */
+    private static final class FragmentBuffer extends ByteArrayOutputStream {
+        public FragmentBuffer() {
+            super(DefaultStreamFactory.DEFAULT_BUFFER_SIZE);
+        }
+
+        public void writeTo(final BxmlOutputStream out) throws IOException {
+            out.writeByte(buf, 0, count);
+        }
+    }
+
+    /**
+     * The start of the elements a closed fragment writer holds, to be
+     * {@link DefaultBxmlStreamWriter#writeTemplate written down} as a template
+     */
+    private static final class Template {
+        final NameReferences nameReferences;
+
+        final int namespaceGeneration;
+
+        /**
+         * Number of leading string table entries {@link #bytes} may reference
+         */
+        final int referencedStrings;
+
+        final byte[] bytes;
+
+        /**
+         * The open elements, outermost first, with their token positions relative to
+         * {@link #bytes}
+         */
+        final TokenType[] elementTypes;
+
+        final long[] elementPositions;
+
+        final String[] namespaceUris, localNames;
+
+        final EventType lastEvent;
+
+        Template(final DefaultBxmlStreamWriter fragment) {
+            nameReferences = fragment.nameReferences;
+            namespaceGeneration = fragment.namespaceGeneration;
+            referencedStrings = fragment.referenceableStrings;
+            bytes = fragment.fragmentBuffer.toByteArray();
+            final int depth = fragment.openElements.size();
+            elementTypes = new TokenType[depth];
+            elementPositions = new long[depth];
+            namespaceUris = new String[depth];
+            localNames = new String[depth];
+            for (int i = 0; i < depth; i++) {
+                final ElementStack.OpenElement element = fragment.openElements.get(i);
+                elementTypes[i] = element.elementType;
+                elementPositions[i] = element.tokenPosition;
+                namespaceUris[i] = element.namespaceUri;
+                localNames[i] = element.localName;
+            }
+            lastEvent = fragment.lastEvent;
+        }
+    }
+
+    /**
+     * A name resolved by {@link DefaultBxmlStreamWriter#getNameReference(String, String)}
+     */
+    private static final class NameReference {
+        final String namespaceUri, localName;
+
+        /**
+         * The prefixed name
+         */
+        final String qName;
+
+        /**
+         * Index of {@link #qName} in the string table
+         */
+        final long nameIndex;
+
+        /**
+         * The namespace generation of the writer that resolved the name
+         */
+        final int namespaceGeneration;
+
+        NameReference(final String namespaceUri, final String localName, final String qName,
+                final long nameIndex, final int namespaceGeneration) {
+            this.namespaceUri = namespaceUri;
+            this.localName = localName;
+            this.qName = qName;
+            this.nameIndex = nameIndex;
+            this.namespaceGeneration = namespaceGeneration;
+        }
+    }
+
+    /**
+     * The name references of a document writer and its fragment writers, which may resolve and
+     * write names from several threads. Also hands out the namespace generations, so that no two
+     * writers sharing the references use the same generation for different prefixes.
+     */
+    private static final class NameReferences {
+        private volatile NameReference[] references = new NameReference[0];
+
+        private final AtomicInteger generations = new AtomicInteger();
+
+        public synchronized long add(final NameReference name) {
+            final NameReference[] grown = new NameReference[references.length + 1];
+            System.arraycopy(references, 0, grown, 0, references.length);
+            grown[references.length] = name;
+            references = grown;
+            return references.length - 1;
+        }
+
+        public NameReference get(final long nameReference) {
+            final NameReference[] references = this.references;
+            if (nameReference < 0 || nameReference >= references.length) {
+                throw new IllegalArgumentException("Unknown name reference: " + nameReference);
+            }
+            return references[(int) nameReference];
+        }
+
+        public int nextGeneration() {
+            return generations.incrementAndGet();
+        }
+    }
+
     /**
      * Represents a stack of open elements.
      * 
@@ -1054,6 +1909,11 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
 
             String namespaceUri, localName;
 
+            /**
+             * The writer's namespace generation when the element started
+             */
+            int namespaceGeneration;
+
             @Override
             public String toString() {
                 return "[" + elementType + ":" + tokenPosition + namespaceUri + "#" + localName
@@ -1112,6 +1972,13 @@ public final class DefaultBxmlStreamWriter implements BxmlStreamWriter {
             return openElements.size();
         }
 
+        /**
+         * @return the open element at {@code index}, the outermost one being at {@code 0}
+         */
+        public OpenElement get(final int index) {
+            return openElements.get(index);
+        }
+
         public void setCurrentElementType(TokenType elementType) {
             currentElement.elementType = elementType;
         }
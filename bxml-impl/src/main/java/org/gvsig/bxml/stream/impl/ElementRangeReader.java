@@ -0,0 +1,175 @@
+/* gvSIG. Sistem a de Información Geográfica de la Generalitat Valenciana
+ *
+ * Copyright (C) 2007 Generalitat Valenciana.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,USA.
+ *
+ * For more information, contact:
+ *
+ *  Generalitat Valenciana
+ *   Conselleria d'Infraestructures i Transport
+ *   Av. Blasco Ibáñez, 50
+ *   46010 VALENCIA
+ *   SPAIN
+ *
+ *      +34 9638 62 495
+ *      gvsig@gva.es
+ *      www.gvsig.gva.es
+ */
+package org.gvsig.bxml.stream.impl;
+
+import java.io.IOException;
+
+import org.gvsig.bxml.stream.BxmlStreamReader;
+import org.gvsig.bxml.stream.BxmlStreamReaderAdapter;
+import org.gvsig.bxml.stream.EventType;
+
+/**
+ * A {@link BxmlStreamReader} over a range of elements of a document, as created by
+ * {@link ParallelBxmlScanner#split(long[], int)}.
+ * <p>
+ * The elements are presented one after the other as if they were the top level elements of a
+ * document with no root element: the first {@link #next()} call seeks to the first element and
+ * returns its START_ELEMENT event at {@link #getTagDepth() tag depth} {@code 1}, and once an element
+ * ends the next call seeks to the following one, until END_DOCUMENT is returned after the last
+ * one's END_ELEMENT event.
+ * </p>
+ * 
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+final class ElementRangeReader extends BxmlStreamReaderAdapter {
+
+    private final long[] elementPositions;
+
+    private int nextElement;
+
+    private int tagDepth;
+
+    private EventType eventType;
+
+    /**
+     * @param reader
+     *            the reader to seek to each element with, supporting random access
+     * @param elementPositions
+     *            the sorted positions of the elements in the range, none of them nested inside
+     *            another one
+     */
+    public ElementRangeReader(final BxmlStreamReader reader, final long[] elementPositions) {
+        super(reader);
+        this.elementPositions = elementPositions;
+        this.eventType = EventType.START_DOCUMENT;
+    }
+
+    /**
+     * @return the position of the first element in the range
+     */
+    public long getStartPosition() {
+        return elementPositions[0];
+    }
+
+    /**
+     * @return the number of elements in the range
+     */
+    public int getElementCount() {
+        return elementPositions.length;
+    }
+
+    @Override
+    public EventType getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public int getTagDepth() {
+        return tagDepth;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        return EventType.END_DOCUMENT != eventType;
+    }
+
+    /**
+     * Seeks to the next element in the range when the current one ended, otherwise advances to the
+     * next event of the current element.
+     * 
+     * @see BxmlStreamReader#next()
+     */
+    @Override
+    public EventType next() throws IOException {
+        if (tagDepth > 0) {
+            eventType = impl.next();
+            if (EventType.START_ELEMENT == eventType) {
+                tagDepth++;
+            } else if (EventType.END_ELEMENT == eventType) {
+                tagDepth--;
+            }
+        } else if (nextElement < elementPositions.length) {
+            final long position = elementPositions[nextElement++];
+            eventType = impl.setPosition(position);
+            if (EventType.START_ELEMENT != eventType) {
+                throw new IllegalStateException("Expected an element at position " + position
+                        + " but found " + eventType);
+            }
+            tagDepth = 1;
+        } else {
+            eventType = EventType.END_DOCUMENT;
+        }
+        return eventType;
+    }
+
+    /**
+     * @see BxmlStreamReader#nextTag()
+     */
+    @Override
+    public EventType nextTag() throws IOException {
+        do {
+            next();
+        } while (!eventType.isTag() && EventType.END_DOCUMENT != eventType);
+        return eventType;
+    }
+
+    /**
+     * @see BxmlStreamReader#skipElement()
+     */
+    @Override
+    public void skipElement() throws IOException {
+        impl.skipElement();
+        eventType = EventType.END_ELEMENT;
+        tagDepth--;
+    }
+
+    /**
+     * Not supported, a range reader only moves forward through its elements
+     * 
+     * @throws UnsupportedOperationException
+     */
+    @Override
+    public EventType setPosition(final long position) throws IOException {
+        throw new UnsupportedOperationException("Range readers can't seek");
+    }
+
+    /**
+     * Not supported, a range reader only moves forward through its elements
+     * 
+     * @throws UnsupportedOperationException
+     */
+    @Override
+    public EventType seekToMatch(final String xpathExpression, final Object value)
+            throws IOException {
+        throw new UnsupportedOperationException("Range readers can't seek");
+    }
+}
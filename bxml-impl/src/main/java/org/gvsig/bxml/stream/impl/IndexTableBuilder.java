@@ -0,0 +1,521 @@
+/* gvSIG. Sistem a de Información Geográfica de la Generalitat Valenciana
+ *
+ * Copyright (C) 2007 Generalitat Valenciana.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,USA.
+ *
+ * For more information, contact:
+ *
+ *  Generalitat Valenciana
+ *   Conselleria d'Infraestructures i Transport
+ *   Av. Blasco Ibáñez, 50
+ *   46010 VALENCIA
+ *   SPAIN
+ *
+ *      +34 9638 62 495
+ *      gvsig@gva.es
+ *      www.gvsig.gva.es
+ */
+package org.gvsig.bxml.stream.impl;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+
+import org.gvsig.bxml.stream.io.BxmlOutputStream;
+import org.gvsig.bxml.stream.io.TokenType;
+import org.gvsig.bxml.stream.io.ValueType;
+
+/**
+ * Collects the {@code value -> element offsets} entries of an {@link TokenType#IndexTable
+ * IndexTable} token while a document is being encoded, by evaluating a streaming friendly subset of
+ * XPath against the {@link DefaultBxmlStreamWriter writer} events.
+ * <p>
+ * The supported expressions are absolute location paths made of child steps, each one being either
+ * a qualified name or the {@code *} wildcard, optionally ending in an attribute step. For example:
+ * <ul>
+ * <li>{@code /wfs:FeatureCollection/gml:featureMembers/*}{@code /@gml:id} indexes the elements
+ * under {@code gml:featureMembers} by the value of their {@code gml:id} attribute
+ * <li>{@code /wfs:FeatureCollection/gml:featureMember/*}{@code /topp:STATE_NAME} indexes the
+ * {@code topp:STATE_NAME} elements by their text content
+ * </ul>
+ * Names are matched by namespace and local name, the prefixes used in the expression being resolved
+ * through the writer's {@link NamesResolver namespace context} at the time a matching node is found,
+ * so that the namespace declarations written right after the root element apply to it too.
+ * Unprefixed names stand for no namespace, as in XPath. When the expression does not end in an
+ * attribute step, the indexed value is the text content written directly inside the matched
+ * element. Values are indexed by their string representation, with the elements of arrays
+ * separated by a space, as they'd be in XML.
+ * </p>
+ * <p>
+ * Matching costs a constant time per writer event: since only child steps from the root are
+ * supported, an element matches if its parent matched the previous step.
+ * </p>
+ * 
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+final class IndexTableBuilder {
+
+    private static final String WILDCARD = "*";
+
+    private final String xpathExpression;
+
+    private final NamesResolver namespaceContext;
+
+    /**
+     * The element steps' prefixes, {@code null} for the {@link #WILDCARD} ones
+     */
+    private final String[] elementPrefixes;
+
+    /**
+     * The element steps' local names, {@code null} for the {@link #WILDCARD} ones
+     */
+    private final String[] elementNames;
+
+    /**
+     * Namespaces of the elements matching {@link #elementNames}, to check them against
+     * {@link #elementPrefixes} once the value to index is known
+     */
+    private final String[] elementNamespaces;
+
+    /**
+     * The attribute step prefix and local name, or {@code null} if the element text content is
+     * indexed
+     */
+    private final String attributePrefix, attributeName;
+
+    private String attributeNamespace;
+
+    /**
+     * Depth of the current element, {@code 0} meaning no element is open
+     */
+    private int depth;
+
+    /**
+     * Number of leading element steps matched by the current element path
+     */
+    private int matchedDepth;
+
+    /**
+     * Whether attributes, rather than element content, are being written
+     */
+    private boolean inAttributes;
+
+    /**
+     * Whether the values being written are the ones to index
+     */
+    private boolean capturing;
+
+    /**
+     * Position of the start token of the element being captured
+     */
+    private long elementPosition;
+
+    private final StringBuilder value;
+
+    private boolean valueWritten;
+
+    /**
+     * Whether the last value appended was a scalar, so the next one needs a separator
+     */
+    private boolean lastValueScalar;
+
+    private final Map<String, Offsets> entries;
+
+    private IndexTableBuilder(final String xpathExpression, final NamesResolver namespaceContext,
+            final String[] elementSteps, final String attributeStep) {
+        this.xpathExpression = xpathExpression;
+        this.namespaceContext = namespaceContext;
+        final int steps = elementSteps.length;
+        this.elementPrefixes = new String[steps];
+        this.elementNames = new String[steps];
+        this.elementNamespaces = new String[steps];
+        for (int i = 0; i < steps; i++) {
+            if (!WILDCARD.equals(elementSteps[i])) {
+                elementPrefixes[i] = prefix(elementSteps[i]);
+                elementNames[i] = localName(elementSteps[i]);
+            }
+        }
+        this.attributePrefix = attributeStep == null ? null : prefix(attributeStep);
+        this.attributeName = attributeStep == null ? null : localName(attributeStep);
+        this.value = new StringBuilder();
+        this.entries = new LinkedHashMap<String, Offsets>();
+    }
+
+    private static String prefix(final String qName) {
+        final int colon = qName.indexOf(':');
+        return colon == -1 ? XMLConstants.DEFAULT_NS_PREFIX : qName.substring(0, colon);
+    }
+
+    private static String localName(final String qName) {
+        return qName.substring(qName.indexOf(':') + 1);
+    }
+
+    /**
+     * Parses {@code xpathExpression} and creates an index table builder for it.
+     * 
+     * @param xpathExpression
+     *            an absolute location path as described in the class' javadoc
+     * @param namespaceContext
+     *            the namespace context to resolve the prefixes used in {@code xpathExpression}
+     *            against
+     * @return the index table builder for {@code xpathExpression}
+     * @throws IllegalArgumentException
+     *             if {@code xpathExpression} is not of the supported XPath subset
+     */
+    public static IndexTableBuilder valueOf(final String xpathExpression,
+            final NamesResolver namespaceContext) throws IllegalArgumentException {
+        if (xpathExpression == null || !xpathExpression.startsWith("/")
+                || xpathExpression.startsWith("//")) {
+            throw new IllegalArgumentException("Only absolute location paths are supported: "
+                    + xpathExpression);
+        }
+        final String[] steps = xpathExpression.substring(1).split("/", -1);
+        String attributeStep = null;
+        int elementStepCount = steps.length;
+        if (steps[steps.length - 1].startsWith("@")) {
+            attributeStep = steps[steps.length - 1].substring(1);
+            elementStepCount--;
+            checkName(attributeStep, xpathExpression);
+        }
+        if (elementStepCount == 0) {
+            throw new IllegalArgumentException("No element steps in " + xpathExpression);
+        }
+        final String[] elementSteps = new String[elementStepCount];
+        for (int i = 0; i < elementStepCount; i++) {
+            final String step = steps[i];
+            if (!WILDCARD.equals(step)) {
+                checkName(step, xpathExpression);
+            }
+            elementSteps[i] = step;
+        }
+        return new IndexTableBuilder(xpathExpression, namespaceContext, elementSteps,
+                attributeStep);
+    }
+
+    private static void checkName(final String step, final String xpathExpression) {
+        final int colon = step.indexOf(':');
+        final boolean valid = step.length() > 0 && colon != 0 && colon != step.length() - 1
+                && step.indexOf(':', colon + 1) == -1;
+        if (!valid) {
+            throw new IllegalArgumentException("Unsupported location step '" + step + "' in "
+                    + xpathExpression);
+        }
+        for (int i = 0; i < step.length(); i++) {
+            final char c = step.charAt(i);
+            if (c != ':' && c != '-' && c != '.' && c != '_' && !Character.isLetterOrDigit(c)) {
+                throw new IllegalArgumentException("Unsupported location step '" + step
+                        + "' in " + xpathExpression);
+            }
+        }
+    }
+
+    /**
+     * @return the XPath expression this builder indexes
+     */
+    public String getXpathExpression() {
+        return xpathExpression;
+    }
+
+    /**
+     * @return the number of distinct values indexed so far
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the offsets of the elements indexed by {@code value}, or {@code null} if none
+     */
+    long[] getOffsets(final String value) {
+        final Offsets offsets = entries.get(value);
+        return offsets == null ? null : offsets.toArray();
+    }
+
+    /**
+     * Notifies an element has been started.
+     * 
+     * @param namespaceUri
+     *            the element's namespace
+     * @param localName
+     *            the element's local name
+     * @param position
+     *            the position of the element's start token
+     */
+    public void startElement(final String namespaceUri, final String localName,
+            final long position) {
+        endAttribute();
+        inAttributes = false;
+        depth++;
+        final int steps = elementNames.length;
+        if (matchedDepth == depth - 1 && depth <= steps) {
+            final String name = elementNames[depth - 1];
+            if (name == null || name.equals(localName)) {
+                matchedDepth = depth;
+                elementNamespaces[depth - 1] = namespaceUri;
+                if (depth == steps) {
+                    elementPosition = position;
+                    if (attributeName == null) {
+                        startCapture();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Notifies the current element has been closed.
+     */
+    public void endElement() {
+        endAttribute();
+        inAttributes = false;
+        if (attributeName == null && capturing && depth == elementNames.length) {
+            commit();
+        }
+        if (matchedDepth == depth) {
+            matchedDepth--;
+        }
+        depth--;
+    }
+
+    /**
+     * Notifies an attribute of the current element has been started.
+     * 
+     * @param namespaceUri
+     *            the attribute's namespace
+     * @param localName
+     *            the attribute's local name
+     */
+    public void startAttribute(final String namespaceUri, final String localName) {
+        endAttribute();
+        inAttributes = true;
+        if (attributeName != null && matchedDepth == elementNames.length
+                && depth == elementNames.length && attributeName.equals(localName)) {
+            attributeNamespace = namespaceUri;
+            startCapture();
+        }
+    }
+
+    /**
+     * Notifies the current element's attribute list has been closed.
+     */
+    public void endAttributes() {
+        endAttribute();
+        inAttributes = false;
+    }
+
+    /**
+     * @return whether the value being written shall be passed to this builder
+     */
+    public boolean isCapturing() {
+        return capturing && (attributeName == null ? !inAttributes && depth == elementNames.length
+                : inAttributes);
+    }
+
+    /**
+     * Appends a string value chunk to the value being indexed.
+     * 
+     * @pre {isCapturing() == true}
+     */
+    public void value(final CharSequence chunk) {
+        value.append(chunk);
+        valueWritten = true;
+        lastValueScalar = false;
+    }
+
+    /**
+     * Appends a character array value chunk to the value being indexed.
+     * 
+     * @pre {isCapturing() == true}
+     */
+    public void value(final char[] chars, final int offset, final int length) {
+        value.append(chars, offset, length);
+        valueWritten = true;
+        lastValueScalar = false;
+    }
+
+    /**
+     * Appends a scalar value to the value being indexed, separating it from a previous scalar by a
+     * space.
+     * 
+     * @pre {isCapturing() == true}
+     */
+    public void scalarValue(final Object scalar) {
+        if (lastValueScalar) {
+            value.append(' ');
+        }
+        value.append(scalar);
+        valueWritten = true;
+        lastValueScalar = true;
+    }
+
+    private void startCapture() {
+        capturing = true;
+        value.setLength(0);
+        valueWritten = false;
+        lastValueScalar = false;
+    }
+
+    private void endAttribute() {
+        if (attributeName != null && capturing) {
+            commit();
+        }
+    }
+
+    private void commit() {
+        capturing = false;
+        if (!valueWritten || !namespacesMatch()) {
+            return;
+        }
+        final String key = value.toString();
+        Offsets offsets = entries.get(key);
+        if (offsets == null) {
+            offsets = new Offsets();
+            entries.put(key, offsets);
+        }
+        offsets.add(elementPosition);
+    }
+
+    /**
+     * Checks the namespaces of the matched nodes against the ones the step prefixes are bound to,
+     * done at the last possible moment so that all the namespace declarations are in scope
+     */
+    private boolean namespacesMatch() {
+        for (int i = 0; i < elementNames.length; i++) {
+            if (elementNames[i] != null
+                    && !namespaceMatches(elementPrefixes[i], elementNamespaces[i])) {
+                return false;
+            }
+        }
+        return attributeName == null || namespaceMatches(attributePrefix, attributeNamespace);
+    }
+
+    private boolean namespaceMatches(final String prefix, final String namespaceUri) {
+        final String nodeNamespace = namespaceUri == null ? XMLConstants.NULL_NS_URI
+                : namespaceUri;
+        if (XMLConstants.DEFAULT_NS_PREFIX.equals(prefix)) {
+            return XMLConstants.NULL_NS_URI.equals(nodeNamespace);
+        }
+        return nodeNamespace.equals(namespaceContext.getNamespace(prefix));
+    }
+
+    /**
+     * Writes down the {@link TokenType#IndexTable IndexTable} token for the entries collected so
+     * far.
+     * 
+     * @param writer
+     *            where to write the token to
+     * @param charset
+     *            the charset {@code writer} encodes strings with, needed to compute the token's
+     *            {@code skipSize}
+     * @throws IOException
+     */
+    public void write(final BxmlOutputStream writer, final Charset charset) throws IOException {
+        final CharsetEncoder encoder = charset.newEncoder();
+        encoder.onMalformedInput(CodingErrorAction.REPLACE);
+        encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        long skipSize = stringSize(xpathExpression, encoder) + countSize(entries.size());
+        for (Map.Entry<String, Offsets> entry : entries.entrySet()) {
+            final Offsets offsets = entry.getValue();
+            skipSize += 1 + stringSize(entry.getKey(), encoder) + countSize(offsets.size);
+            for (int i = 0; i < offsets.size; i++) {
+                skipSize += countSize(offsets.values[i]);
+            }
+        }
+
+        writer.writeTokenType(TokenType.IndexTable);
+        writer.writeCount(skipSize);
+        final long start = writer.getPosition();
+        writer.writeString(xpathExpression);
+        writer.writeCount(entries.size());
+        for (Map.Entry<String, Offsets> entry : entries.entrySet()) {
+            final Offsets offsets = entry.getValue();
+            writer.writeByte(ValueType.StringCode.getCode());
+            writer.writeString(entry.getKey());
+            writer.writeCount(offsets.size);
+            for (int i = 0; i < offsets.size; i++) {
+                writer.writeCount(offsets.values[i]);
+            }
+        }
+        final long written = writer.getPosition() - start;
+        if (written != skipSize) {
+            throw new IllegalStateException("IndexTable for " + xpathExpression
+                    + " expected to be " + skipSize + " bytes long but is " + written);
+        }
+    }
+
+    /**
+     * @return the number of bytes {@link BxmlOutputStream#writeString(CharSequence)} uses to
+     *         encode {@code string} with {@code encoder}'s charset
+     */
+    static long stringSize(final String string, final CharsetEncoder encoder)
+            throws CharacterCodingException {
+        final int byteLength;
+        if (string.length() == 0) {
+            byteLength = 0;
+        } else {
+            byteLength = encoder.encode(CharBuffer.wrap(string)).remaining();
+        }
+        return countSize(byteLength) + byteLength;
+    }
+
+    /**
+     * @return the number of bytes {@link BxmlOutputStream#writeCount(long)} uses to encode
+     *         {@code count}
+     */
+    static int countSize(final long count) {
+        if (count <= ValueType.SmallNum.getUpperLimit().longValue()) {
+            return 1;
+        } else if (count <= ValueType.UShortCode.getUpperLimit().longValue()) {
+            return 3;
+        } else if (count <= ValueType.IntCode.getUpperLimit().longValue()) {
+            return 5;
+        }
+        return 9;
+    }
+
+    /**
+     * A growable list of primitive longs, to avoid boxing every offset
+     */
+    private static final class Offsets {
+        long[] values = new long[1];
+
+        int size;
+
+        void add(final long offset) {
+            if (size == values.length) {
+                final long[] expanded = new long[2 * size];
+                System.arraycopy(values, 0, expanded, 0, size);
+                values = expanded;
+            }
+            values[size++] = offset;
+        }
+
+        long[] toArray() {
+            final long[] array = new long[size];
+            System.arraycopy(values, 0, array, 0, size);
+            return array;
+        }
+    }
+}
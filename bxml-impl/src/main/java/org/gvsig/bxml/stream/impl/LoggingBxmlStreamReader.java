@@ -0,0 +1,104 @@
+/* gvSIG. Sistem a de Información Geográfica de la Generalitat Valenciana
+ *
+ * Copyright (C) 2007 Generalitat Valenciana.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,USA.
+ *
+ * For more information, contact:
+ *
+ *  Generalitat Valenciana
+ *   Conselleria d'Infraestructures i Transport
+ *   Av. Blasco Ibáñez, 50
+ *   46010 VALENCIA
+ *   SPAIN
+ *
+ *      +34 9638 62 495
+ *      gvsig@gva.es
+ *      www.gvsig.gva.es
+ */
+package org.gvsig.bxml.stream.impl;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gvsig.bxml.stream.BxmlStreamReader;
+import org.gvsig.bxml.stream.BxmlStreamReaderAdapter;
+import org.gvsig.bxml.stream.EventType;
+
+/**
+ * A {@link BxmlStreamReader} decorator that logs the parsing events at {@link Level#FINEST}.
+ * <p>
+ * {@link DefaultBxmlInputFactory} decorates the readers it creates with this one only if
+ * {@link #LOGGER} is loggable at {@code FINEST} level by the time the reader is created, so that
+ * the default reader does not pay for checking the log level on every event.
+ * </p>
+ * 
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+final class LoggingBxmlStreamReader extends BxmlStreamReaderAdapter {
+
+    static final Logger LOGGER = Logger.getLogger("org.gvsig.bxml.stream.impl.workers");
+
+    public LoggingBxmlStreamReader(final BxmlStreamReader wrapped) {
+        super(wrapped);
+    }
+
+    private EventType log(final String method, final EventType event) {
+        final StringBuilder message = new StringBuilder(method);
+        message.append(": ").append(event);
+        if (EventType.START_ELEMENT == event || EventType.END_ELEMENT == event) {
+            message.append(' ').append(impl.getElementName());
+            message.append(", depth ").append(impl.getTagDepth());
+        }
+        LOGGER.finest(message.toString());
+        return event;
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#next()
+     */
+    @Override
+    public EventType next() throws IOException {
+        return log("next", impl.next());
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#nextTag()
+     */
+    @Override
+    public EventType nextTag() throws IOException {
+        return log("nextTag", impl.nextTag());
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#setPosition(long)
+     */
+    @Override
+    public EventType setPosition(final long position) throws IOException {
+        return log("setPosition " + position, impl.setPosition(position));
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#seekToMatch(String, Object)
+     */
+    @Override
+    public EventType seekToMatch(final String xpathExpression, final Object value)
+            throws IOException {
+        return log("seekToMatch " + xpathExpression + " = " + value, impl.seekToMatch(
+                xpathExpression, value));
+    }
+}
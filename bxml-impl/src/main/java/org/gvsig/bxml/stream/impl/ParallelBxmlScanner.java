@@ -0,0 +1,229 @@
+/* gvSIG. Sistem a de Información Geográfica de la Generalitat Valenciana
+ *
+ * Copyright (C) 2007 Generalitat Valenciana.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,USA.
+ *
+ * For more information, contact:
+ *
+ *  Generalitat Valenciana
+ *   Conselleria d'Infraestructures i Transport
+ *   Av. Blasco Ibáñez, 50
+ *   46010 VALENCIA
+ *   SPAIN
+ *
+ *      +34 9638 62 495
+ *      gvsig@gva.es
+ *      www.gvsig.gva.es
+ */
+package org.gvsig.bxml.stream.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gvsig.bxml.stream.BxmlStreamReader;
+import org.gvsig.bxml.stream.EventType;
+import org.gvsig.bxml.stream.impl.workers.StringTable;
+import org.gvsig.bxml.stream.io.FileChannelView;
+
+/**
+ * Splits a BXML file in ranges of elements, like the members of a feature collection, each one
+ * read by its own {@link BxmlStreamReader} so that they can be decoded concurrently by different
+ * threads.
+ * <p>
+ * All the readers share the file through a {@link FileChannelView} each, with its own buffer, and
+ * the document's string table, which is loaded once out of the trailer's StringTableIndex and only
+ * read afterwards. So the file shall support random access, that is, it shall have a
+ * StringTableIndex and be either uncompressed or block compressed.
+ * </p>
+ * <p>
+ * The element positions to split at can be gathered with
+ * {@link #scanElementPositions(int) a quick scan} of the elements at a given depth, which walks
+ * over them without decoding their content, or out of an IndexTable through
+ * {@link BxmlStreamReader#lookup(String, Object)}. For example:
+ * 
+ * <pre>
+ * <code>
+ * ParallelBxmlScanner scanner = inputFactory.createParallelScanner(file);
+ * try {
+ *     long[] features = scanner.scanElementPositions(3);
+ *     for (BxmlStreamReader range : scanner.split(features, nThreads)) {
+ *         executor.submit(new FeatureDecoder(range));
+ *     }
+ *     ...wait for the decoders to finish...
+ * } finally {
+ *     scanner.close();
+ * }
+ * </code>
+ * </pre>
+ * 
+ * </p>
+ * 
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ * @see DefaultBxmlInputFactory#createParallelScanner(java.io.File)
+ */
+public class ParallelBxmlScanner {
+
+    private final DefaultBxmlInputFactory factory;
+
+    private final FileChannel file;
+
+    private final StringTable stringTable;
+
+    /**
+     * @param factory
+     *            the factory to create the readers with
+     * @param file
+     *            the channel to share among the readers, closed by {@link #close()}
+     * @throws IllegalArgumentException
+     *             if the document does not support random access
+     * @throws IOException
+     */
+    ParallelBxmlScanner(final DefaultBxmlInputFactory factory, final FileChannel file)
+            throws IOException {
+        this.factory = factory;
+        this.file = file;
+        boolean initialized = false;
+        try {
+            final DefaultBxmlStreamReader reader = new DefaultBxmlStreamReader(factory
+                    .createInputStream(new FileChannelView(file)), factory.createNamesResolver());
+            try {
+                if (!reader.supportsRandomAccess() || !reader.getStringTable().isComplete()) {
+                    throw new IllegalArgumentException("Can't split a document with no random "
+                            + "access support. It needs a StringTableIndex and, if "
+                            + "compressed, to be block compressed");
+                }
+                this.stringTable = reader.getStringTable();
+            } finally {
+                reader.close();
+            }
+            initialized = true;
+        } finally {
+            if (!initialized) {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Creates a reader over the whole document, sharing the file and string table with the other
+     * readers of this scanner.
+     * 
+     * @return a new reader, to be closed by the calling code
+     * @throws IOException
+     */
+    public BxmlStreamReader createReader() throws IOException {
+        return factory.createScanner(factory.createInputStream(new FileChannelView(file)),
+                stringTable);
+    }
+
+    /**
+     * Returns the positions of all the elements at the given tag depth, walking over them with
+     * {@link BxmlStreamReader#skipElement()} instead of decoding their content.
+     * 
+     * @param tagDepth
+     *            the depth of the elements to gather, where the root element is at depth
+     *            {@code 1}
+     * @return the positions of the elements at {@code tagDepth}, in document order
+     * @throws IOException
+     */
+    public long[] scanElementPositions(final int tagDepth) throws IOException {
+        if (tagDepth < 1) {
+            throw new IllegalArgumentException("tagDepth shall be > 0: " + tagDepth);
+        }
+        long[] positions = new long[64];
+        int size = 0;
+        final BxmlStreamReader reader = createReader();
+        try {
+            while (reader.hasNext()) {
+                if (EventType.START_ELEMENT == reader.next() && reader.getTagDepth() == tagDepth) {
+                    if (size == positions.length) {
+                        positions = Arrays.copyOf(positions, 2 * size);
+                    }
+                    positions[size++] = reader.getElementPosition();
+                    reader.skipElement();
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return Arrays.copyOf(positions, size);
+    }
+
+    /**
+     * Splits the given elements in at most {@code nRanges} ranges of consecutive elements spanning
+     * a similar number of bytes, and returns a reader for each one.
+     * <p>
+     * Each reader presents the elements in its range one after the other, starting with the
+     * START_ELEMENT event of the first one at {@link BxmlStreamReader#getTagDepth() tag depth}
+     * {@code 1} and returning END_DOCUMENT after the last one ends. The readers can't
+     * {@link BxmlStreamReader#setPosition(long) seek}, are independent of each other, and shall be
+     * closed by the calling code before this scanner is.
+     * </p>
+     * 
+     * @param elementPositions
+     *            the positions of the elements to split, none of them nested inside another one
+     * @param nRanges
+     *            the maximum number of ranges to split the elements in, fewer readers are
+     *            returned if there are not enough elements
+     * @return the readers over each range of elements, in document order
+     * @throws IOException
+     */
+    public List<BxmlStreamReader> split(final long[] elementPositions, final int nRanges)
+            throws IOException {
+        if (nRanges < 1) {
+            throw new IllegalArgumentException("nRanges shall be > 0: " + nRanges);
+        }
+        final long[] positions = elementPositions.clone();
+        Arrays.sort(positions);
+        final List<BxmlStreamReader> ranges = new ArrayList<BxmlStreamReader>(nRanges);
+        if (positions.length == 0) {
+            return ranges;
+        }
+        final long first = positions[0];
+        final long rangeSpan = (positions[positions.length - 1] - first) / nRanges;
+        int from = 0;
+        int to = 0;
+        for (int range = 1; range <= nRanges; range++) {
+            if (range == nRanges) {
+                to = positions.length;
+            } else {
+                final long limit = first + range * rangeSpan;
+                while (to < positions.length && positions[to] < limit) {
+                    to++;
+                }
+            }
+            if (to > from) {
+                final long[] rangePositions = Arrays.copyOfRange(positions, from, to);
+                ranges.add(new ElementRangeReader(createReader(), rangePositions));
+                from = to;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Closes the file shared by the readers of this scanner
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,156 @@
+/* gvSIG. Sistem a de Información Geográfica de la Generalitat Valenciana
+ *
+ * Copyright (C) 2007 Generalitat Valenciana.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,USA.
+ *
+ * For more information, contact:
+ *
+ *  Generalitat Valenciana
+ *   Conselleria d'Infraestructures i Transport
+ *   Av. Blasco Ibáñez, 50
+ *   46010 VALENCIA
+ *   SPAIN
+ *
+ *      +34 9638 62 495
+ *      gvsig@gva.es
+ *      www.gvsig.gva.es
+ */
+package org.gvsig.bxml.stream.impl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+import org.gvsig.bxml.stream.EncodingOptions;
+import org.gvsig.bxml.stream.io.BxmlOutputStream;
+import org.gvsig.bxml.stream.io.TokenType;
+import org.gvsig.bxml.stream.io.ValueType;
+
+/**
+ * Collects the end positions of the elements at least
+ * {@link EncodingOptions#getSkipIndexThreshold() skip index threshold} bytes long while a document
+ * is being encoded, and writes them down as an {@link TokenType#IndexTable IndexTable} token under
+ * the reserved {@link #EXPRESSION} name.
+ * <p>
+ * The BXML tokens have no room for an element's length, and patching one in would need every
+ * element token to reserve it, so the skip index is stored like any other index table: each entry
+ * maps the position of an element token, as a string value, to the position of its
+ * {@link TokenType#ElementEnd ElementEnd} token. Readers unaware of it just skip it as any other
+ * index table, while {@link DefaultBxmlStreamReader#skipElement()} uses it to jump straight to the
+ * end of the indexed elements.
+ * </p>
+ * 
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+final class SkipIndexBuilder {
+
+    /**
+     * The name the skip index is listed with in the trailer's IndexTableIndex. Not being an
+     * absolute location path, it can't clash with the name of an XPath index table.
+     */
+    static final String EXPRESSION = "#elementEnds";
+
+    private final int threshold;
+
+    private long[] elementPositions = new long[16];
+
+    private long[] endPositions = new long[16];
+
+    private int size;
+
+    /**
+     * @param threshold
+     *            the minimum length of the elements to index, as given by
+     *            {@link EncodingOptions#getSkipIndexThreshold()}
+     */
+    public SkipIndexBuilder(final int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Indexes an element if it's at least {@code threshold} bytes long.
+     * 
+     * @param elementPosition
+     *            the position of the element token
+     * @param endPosition
+     *            the position of the element's ElementEnd token
+     */
+    public void endElement(final long elementPosition, final long endPosition) {
+        if (endPosition - elementPosition < threshold) {
+            return;
+        }
+        if (size == elementPositions.length) {
+            final long[] expandedElements = new long[2 * size];
+            final long[] expandedEnds = new long[2 * size];
+            System.arraycopy(elementPositions, 0, expandedElements, 0, size);
+            System.arraycopy(endPositions, 0, expandedEnds, 0, size);
+            elementPositions = expandedElements;
+            endPositions = expandedEnds;
+        }
+        elementPositions[size] = elementPosition;
+        endPositions[size] = endPosition;
+        size++;
+    }
+
+    /**
+     * @return the number of elements indexed so far
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes down the IndexTable token holding the indexed elements.
+     * 
+     * @param writer
+     * @param charset
+     *            the charset the strings are encoded with, to compute the token's skip size
+     * @throws IOException
+     */
+    public void write(final BxmlOutputStream writer, final Charset charset) throws IOException {
+        final CharsetEncoder encoder = charset.newEncoder();
+        encoder.onMalformedInput(CodingErrorAction.REPLACE);
+        encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        final String[] values = new String[size];
+        long skipSize = IndexTableBuilder.stringSize(EXPRESSION, encoder)
+                + IndexTableBuilder.countSize(size);
+        for (int i = 0; i < size; i++) {
+            values[i] = String.valueOf(elementPositions[i]);
+            skipSize += 1 + IndexTableBuilder.stringSize(values[i], encoder)
+                    + IndexTableBuilder.countSize(1) + IndexTableBuilder.countSize(endPositions[i]);
+        }
+
+        writer.writeTokenType(TokenType.IndexTable);
+        writer.writeCount(skipSize);
+        final long start = writer.getPosition();
+        writer.writeString(EXPRESSION);
+        writer.writeCount(size);
+        for (int i = 0; i < size; i++) {
+            writer.writeByte(ValueType.StringCode.getCode());
+            writer.writeString(values[i]);
+            writer.writeCount(1);
+            writer.writeCount(endPositions[i]);
+        }
+        final long written = writer.getPosition() - start;
+        if (written != skipSize) {
+            throw new IllegalStateException("Skip index expected to be " + skipSize
+                    + " bytes long but is " + written);
+        }
+    }
+}
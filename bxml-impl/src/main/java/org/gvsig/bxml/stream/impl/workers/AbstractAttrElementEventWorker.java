@@ -31,7 +31,6 @@
 package org.gvsig.bxml.stream.impl.workers;
 
 import java.io.IOException;
-import java.util.ListIterator;
 
 import javax.xml.XMLConstants;
 
@@ -75,24 +74,24 @@ abstract class AbstractAttrElementEventWorker extends StartElementTypeWorker {
 
         if (namesResolver.isNamespaceAware()) {
 
-            ParseState.Attribute plainAttribute;
             String attQname;
             String attValue;
 
-            ListIterator<ParseState.Attribute> plainAtts;
-            for (plainAtts = sharedState.getPlainAttributes(); plainAtts.hasNext();) {
-                plainAttribute = plainAtts.next();
-                attQname = plainAttribute.name;
-                attValue = plainAttribute.value;
+            for (int index = 0; index < sharedState.getAttributeCount();) {
+                attQname = sharedState.getAttributeName(index);
 
                 if (XMLConstants.XMLNS_ATTRIBUTE.equals(attQname)) {
+                    attValue = sharedState.getAttributeValue(index);
                     namesResolver.declarePrefix(XMLConstants.DEFAULT_NS_PREFIX, attValue);
-                    plainAtts.remove();
+                    sharedState.removeAttribute(index);
                 } else if (attQname.startsWith(NSPREFIX_DECLARATION)) {
+                    attValue = sharedState.getAttributeValue(index);
                     final int colonIndex = attQname.indexOf(':');
                     final String prefix = attQname.substring(colonIndex + 1);
                     namesResolver.declarePrefix(prefix, attValue);
-                    plainAtts.remove();
+                    sharedState.removeAttribute(index);
+                } else {
+                    index++;
                 }
             }
         }
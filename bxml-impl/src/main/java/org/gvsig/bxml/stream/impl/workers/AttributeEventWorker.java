@@ -35,6 +35,7 @@ import java.io.IOException;
 import org.gvsig.bxml.stream.EventType;
 import org.gvsig.bxml.stream.io.BxmlInputStream;
 import org.gvsig.bxml.stream.io.TokenType;
+import org.gvsig.bxml.stream.io.ValueType;
 
 /**
  * TODO: document AttributeEventWorker
@@ -55,8 +56,13 @@ final class AttributeEventWorker extends EventTypeWorker {
 
     /**
      * Reads the String table reference from the stream and sets the current attribute name, and
-     * then parses the coalesced attribute value and stores the name/value pair in the
-     * {@code sharedState}
+     * then parses the attribute value and stores the name/value pair in the {@code sharedState}.
+     * <p>
+     * Values made of a single primitive value token are stored as is, and only formatted as String
+     * if requested. Values made of a single string or string table reference token are stored as
+     * read. Only values made of several value tokens, or of arrays, are coalesced into a new
+     * String.
+     * </p>
      * 
      * @pre {sharedState.getCurrentTokenType() == AttributeStart}
      * @param stream
@@ -75,42 +81,121 @@ final class AttributeEventWorker extends EventTypeWorker {
             throw new IllegalStateException("Expected current token AttributeStart, got "
                     + sharedState.getCurrentTokenType());
         }
-        final long nameRef = stream.readCount();
+        final int nameRef = (int) stream.readCount();
         final String currentAttributeName = sharedState.getStringTable().get(nameRef);
-        StringBuilder valueHolder = new StringBuilder();
 
-        final EventTypeWorker worker = parseAttributeValue(stream, sharedState, valueHolder);
+        EventTypeWorker nextWorker = next(stream, sharedState);
+        if (!nextWorker.getEventType(sharedState).isValue()) {
+            sharedState.addAttribute(nameRef, currentAttributeName, "");
+            return checkAttributeEnd(nextWorker, sharedState);
+        }
 
-        final String coalescedAttributeValue = valueHolder.toString();
+        final ValueType valueType = sharedState.getCurrentValueType();
+        final boolean isScalar = nextWorker instanceof CharContentEventWorker
+                && ValueType.StringCode != valueType && sharedState.getValueLength() == 1;
+        final boolean isFloating = ValueType.FloatCode == valueType
+                || ValueType.DoubleCode == valueType;
+        long longValue = 0;
+        double doubleValue = 0;
+        String value = null;
+        if (!isScalar) {
+            value = ((CharContentValueConverter) nextWorker).getValueAsString(stream, sharedState);
+        } else {
+            if (ValueType.FloatCode == valueType) {
+                doubleValue = stream.readFloat();
+            } else if (ValueType.DoubleCode == valueType) {
+                doubleValue = stream.readDouble();
+            } else {
+                longValue = readIntegral(stream, valueType, sharedState);
+            }
+            sharedState.notifyValueRead(1);
+        }
 
-        sharedState.addAttribute(currentAttributeName, coalescedAttributeValue);
+        nextWorker = next(stream, sharedState);
+        if (nextWorker.getEventType(sharedState).isValue()) {
+            // more than one value token, coalesce them
+            final StringBuilder valueHolder = new StringBuilder();
+            valueHolder.append(isScalar ? ParseState.toString(valueType, longValue, doubleValue)
+                    : value);
+            nextWorker = parseAttributeValue(stream, sharedState, nextWorker, valueHolder);
+            sharedState.addAttribute(nameRef, currentAttributeName, valueHolder.toString());
+        } else if (!isScalar) {
+            sharedState.addAttribute(nameRef, currentAttributeName, value);
+        } else if (isFloating) {
+            sharedState.addAttribute(nameRef, currentAttributeName, valueType, doubleValue);
+        } else {
+            sharedState.addAttribute(nameRef, currentAttributeName, valueType, longValue);
+        }
+        return checkAttributeEnd(nextWorker, sharedState);
+    }
 
-        return worker;
+    /**
+     * Reads a single integral or boolean value of the given type, booleans as {@code 1} or
+     * {@code 0}
+     */
+    private long readIntegral(final BxmlInputStream stream, final ValueType valueType,
+            final ParseState sharedState) throws IOException {
+        switch (valueType) {
+        case SmallNum:
+            // the value is the value type code itself
+            return sharedState.getSmallNumValue();
+        case ByteCode:
+            return stream.readByte();
+        case ShortCode:
+            return stream.readShort();
+        case UShortCode:
+            return stream.readUShort();
+        case IntCode:
+            return stream.readInt();
+        case LongCode:
+            return stream.readLong();
+        case BoolCode:
+            return stream.readBoolean() ? 1 : 0;
+        default:
+            throw new IllegalStateException("Unexpected value type for a single value: "
+                    + valueType);
+        }
     }
 
+    /**
+     * Appends the String representation of {@code valueWorker}'s value token and any following
+     * ones to {@code valueHolder}
+     * 
+     * @return the worker for the first non value token after the attribute value
+     */
     private EventTypeWorker parseAttributeValue(final BxmlInputStream stream,
-            final ParseState sharedState, final StringBuilder valueHolder) throws IOException {
+            final ParseState sharedState, final EventTypeWorker valueWorker,
+            final StringBuilder valueHolder) throws IOException {
         EventType eventType;
-        EventTypeWorker nextWorker;
+        EventTypeWorker nextWorker = valueWorker;
 
-        nextWorker = next(stream, sharedState);
         eventType = nextWorker.getEventType(sharedState);
         while (eventType.isValue()) {
             // parse value...
-            CharContentValueConverter valueWorker = (CharContentValueConverter) nextWorker;
-            String valueAsString = valueWorker.getValueAsString(stream, sharedState);
+            CharContentValueConverter converter = (CharContentValueConverter) nextWorker;
+            String valueAsString = converter.getValueAsString(stream, sharedState);
             valueHolder.append(valueAsString);
             // get next, may or may not be a value token
             nextWorker = next(stream, sharedState);
             eventType = nextWorker.getEventType(sharedState);
         }
+        return nextWorker;
+    }
+
+    /**
+     * @return {@code nextWorker}
+     * @throws IllegalStateException
+     *             if {@code nextWorker} is not for an ATTRIBUTE or ATTRIBUTES_END token
+     */
+    private EventTypeWorker checkAttributeEnd(final EventTypeWorker nextWorker,
+            final ParseState sharedState) {
         // got the worker for the next non value token, may be an attribute or attributes_end token
+        final EventType eventType = nextWorker.getEventType(sharedState);
         if (eventType != EventType.ATTRIBUTE && eventType != EventType.ATTRIBUTES_END) {
             throw new IllegalStateException(
                     "After an attribute only an ATTRIBUTE or ATTRIBUTES_END event may appear, got "
                             + eventType);
         }
-
         return nextWorker;
     }
 }
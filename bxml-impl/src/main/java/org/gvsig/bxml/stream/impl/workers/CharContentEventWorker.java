@@ -128,7 +128,7 @@ public final class CharContentEventWorker extends AbstractContentEventWorker {
      *            of a single element of this type in case it represents a primitive type
      * @throws IOException
      */
-    private void skipRemainingValues(final BxmlInputStream stream, final int elementsToSkip,
+    private static void skipRemainingValues(final BxmlInputStream stream, final int elementsToSkip,
             final ValueType currentValueType) throws IOException {
         if (ValueType.StringCode == currentValueType) {
             if (elementsToSkip != 1) {
@@ -146,6 +146,23 @@ public final class CharContentEventWorker extends AbstractContentEventWorker {
         }
     }
 
+    /**
+     * Skips the whole value of the {@link org.gvsig.bxml.stream.io.TokenType#CharContent
+     * CharContent} token the stream is positioned at, right after its token type, without decoding
+     * it.
+     */
+    static void skipValue(final BxmlInputStream stream) throws IOException {
+        final int valueTypeCode = stream.readByte();
+        final ValueType valueType = ValueType.valueOf(valueTypeCode);
+        if (ValueType.ArrayCode == valueType) {
+            final ValueType arrayValueType = ValueType.valueOf(stream.readByte());
+            final int valueLength = (int) stream.readCount();
+            skipRemainingValues(stream, valueLength, arrayValueType);
+        } else {
+            skipRemainingValues(stream, 1, valueType);
+        }
+    }
+
     /**
      * Returns the mapping {@code EventType.VALUE_XXX} for the current
      * {@link ParseState#getCurrentValueType() value type}.
@@ -31,10 +31,6 @@
 package org.gvsig.bxml.stream.impl.workers;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import org.gvsig.bxml.stream.EventType;
 import org.gvsig.bxml.stream.io.BxmlInputStream;
@@ -47,41 +43,51 @@ import org.gvsig.bxml.stream.io.TokenType;
  * A single instance of each specific EventTypeWorker will be maintained for each
  * DefaultBxmlStreamReader. This instances contain its own state.
  * </p>
+ * <p>
+ * Workers are looked up by {@link TokenType#getCode() token code} in a plain array, and do not
+ * log, since they're in the hot path of every parsing event. Debug logging of the parsing events
+ * is provided by the {@code LoggingBxmlStreamReader} decorator instead.
+ * </p>
  * 
  * @author Gabriel Roldan (OpenGeo)
  * @version $Id$
  */
 public abstract class EventTypeWorker {
 
-    /** Package logger */
-    private static final Logger LOGGER = Logger.getLogger("org.gvsig.bxml.stream.impl.workers");
-
-    private static final Map<TokenType, EventTypeWorker> workerMappings;
+    /**
+     * Workers indexed by the {@link TokenType#getCode() code} of the token they map to
+     */
+    private static final EventTypeWorker[] workerMappings;
     static {
-        HashMap<TokenType, EventTypeWorker> workers = new HashMap<TokenType, EventTypeWorker>();
-        workers.put(TokenType.AttributeStart, new AttributeEventWorker());
-        workers.put(TokenType.AttributeListEnd, new AttributesEndEventWorker());
-        workers.put(TokenType.Comment, new CommentEventWorker());
-        workers.put(TokenType.Trailer, new EndDocumentEventWorker());
-        workers.put(TokenType.ElementEnd, new EndElementEventWorker());
-        workers.put(TokenType.Whitespace, new SpaceEventWorker());
-        workers.put(TokenType.XmlDeclaration, new StartDocumentEventWorker());
-
-        workers.put(TokenType.ContentElement, new ContentElementEventWorker());
-        workers.put(TokenType.ContentAttrElement, new ContentAttrElementEventWorker());
-        workers.put(TokenType.EmptyElement, new EmptyElementEventWorker());
-        workers.put(TokenType.EmptyAttrElement, new EmptyAttrElementEventWorker());
-        workers.put(TokenType.ElementEnd, new EndElementEventWorker());
-
-        workers.put(TokenType.CDataSection, new CDataSectionEventWorker());
-        workers.put(TokenType.CharContent, new CharContentEventWorker());
-        workers.put(TokenType.CharContentRef, new CharContentRefEventWorker());
-        workers.put(TokenType.CharEntityRef, new CharEntityRefEventWorker());
-        workers.put(TokenType.Comment, new CommentEventWorker());
-        workers.put(TokenType.EntityRef, new EntityRefEventWorker());
-        workers.put(TokenType.ProcessingInstr, new ProcessingInstructionEventWorker());
-
-        workers.put(TokenType.StringTable, new StringTableWorker());
+        int maxCode = 0;
+        for (TokenType tokenType : TokenType.values()) {
+            maxCode = Math.max(maxCode, tokenType.getCode());
+        }
+        EventTypeWorker[] workers = new EventTypeWorker[maxCode + 1];
+        workers[TokenType.AttributeStart.getCode()] = new AttributeEventWorker();
+        workers[TokenType.AttributeListEnd.getCode()] = new AttributesEndEventWorker();
+        workers[TokenType.Comment.getCode()] = new CommentEventWorker();
+        workers[TokenType.Trailer.getCode()] = new EndDocumentEventWorker();
+        workers[TokenType.ElementEnd.getCode()] = new EndElementEventWorker();
+        workers[TokenType.Whitespace.getCode()] = new SpaceEventWorker();
+        workers[TokenType.XmlDeclaration.getCode()] = new StartDocumentEventWorker();
+
+        workers[TokenType.ContentElement.getCode()] = new ContentElementEventWorker();
+        workers[TokenType.ContentAttrElement.getCode()] = new ContentAttrElementEventWorker();
+        workers[TokenType.EmptyElement.getCode()] = new EmptyElementEventWorker();
+        workers[TokenType.EmptyAttrElement.getCode()] = new EmptyAttrElementEventWorker();
+        workers[TokenType.ElementEnd.getCode()] = new EndElementEventWorker();
+
+        workers[TokenType.CDataSection.getCode()] = new CDataSectionEventWorker();
+        workers[TokenType.CharContent.getCode()] = new CharContentEventWorker();
+        workers[TokenType.CharContentRef.getCode()] = new CharContentRefEventWorker();
+        workers[TokenType.CharEntityRef.getCode()] = new CharEntityRefEventWorker();
+        workers[TokenType.Comment.getCode()] = new CommentEventWorker();
+        workers[TokenType.EntityRef.getCode()] = new EntityRefEventWorker();
+        workers[TokenType.ProcessingInstr.getCode()] = new ProcessingInstructionEventWorker();
+
+        workers[TokenType.StringTable.getCode()] = new StringTableWorker();
+        workers[TokenType.IndexTable.getCode()] = new IndexTableWorker();
         workerMappings = workers;
     }
 
@@ -100,20 +106,7 @@ public abstract class EventTypeWorker {
      */
     public final EventTypeWorker init(final BxmlInputStream stream, final ParseState sharedState)
             throws IOException {
-        if (LOGGER.isLoggable(Level.FINEST)) {
-            LOGGER.finest("Init EventTypeWorker " + this.getClass().getSimpleName() + " for token "
-                    + sharedState.getCurrentTokenType());
-        }
-
-        final EventTypeWorker initializedWorker = initImpl(stream, sharedState);
-
-        if (LOGGER.isLoggable(Level.FINEST)) {
-            LOGGER.finest("Returned initialized EventTypeWorker "
-                    + initializedWorker.getClass().getSimpleName() + " for token "
-                    + sharedState.getCurrentTokenType());
-        }
-
-        return initializedWorker;
+        return initImpl(stream, sharedState);
     }
 
     /**
@@ -150,18 +143,7 @@ public abstract class EventTypeWorker {
      */
     public final EventTypeWorker next(final BxmlInputStream stream, final ParseState state)
             throws IOException {
-        if (LOGGER.isLoggable(Level.FINEST)) {
-            LOGGER.finest("Getting next event worker from " + this.getClass().getSimpleName()
-                    + " for token " + state.getCurrentTokenType());
-        }
-
-        final EventTypeWorker nextWorker = nextImpl(stream, state);
-
-        if (LOGGER.isLoggable(Level.FINEST)) {
-            LOGGER.finest("Got EventTypeWorker " + nextWorker.getClass().getSimpleName());
-        }
-
-        return nextWorker;
+        return nextImpl(stream, state);
     }
 
     /**
@@ -185,6 +167,47 @@ public abstract class EventTypeWorker {
         return nextWorker;
     }
 
+    /**
+     * Skips the content of the element whose START_ELEMENT event this worker is at, and returns the
+     * worker for its END_ELEMENT event.
+     * <p>
+     * This default implementation throws an {@link IllegalStateException}, only the workers for
+     * START_ELEMENT events override it.
+     * </p>
+     * 
+     * @param stream
+     * @param state
+     * @return the worker for the END_ELEMENT event of the skipped element
+     * @throws IOException
+     */
+    public EventTypeWorker skipElement(final BxmlInputStream stream, final ParseState state)
+            throws IOException {
+        throw new IllegalStateException("Can only skip an element at a START_ELEMENT event: "
+                + getEventType(state));
+    }
+
+    /**
+     * Skips the content of the element whose START_ELEMENT event this worker is at by seeking
+     * straight to its ElementEnd token, and returns the worker for its END_ELEMENT event.
+     * <p>
+     * This default implementation throws an {@link IllegalStateException}, only the workers for
+     * START_ELEMENT events override it.
+     * </p>
+     * 
+     * @param stream
+     * @param state
+     * @param endPosition
+     *            the position of the element's ElementEnd token, as recorded in the document's
+     *            skip index
+     * @return the worker for the END_ELEMENT event of the skipped element
+     * @throws IOException
+     */
+    public EventTypeWorker skipElement(final BxmlInputStream stream, final ParseState state,
+            final long endPosition) throws IOException {
+        throw new IllegalStateException("Can only skip an element at a START_ELEMENT event: "
+                + getEventType(state));
+    }
+
     /**
      * Looks up for the EventTypeWorker that maps to the given tokenType.
      * 
@@ -195,7 +218,7 @@ public abstract class EventTypeWorker {
      *             if there's no EventTypeWorker that maps to the given tokenType
      */
     public static final EventTypeWorker getWorker(final TokenType tokenType) {
-        final EventTypeWorker worker = workerMappings.get(tokenType);
+        final EventTypeWorker worker = workerMappings[tokenType.getCode()];
         if (worker == null) {
             throw new IllegalArgumentException("There's no mapping worker for token " + tokenType);
         }
@@ -30,9 +30,6 @@
  */
 package org.gvsig.bxml.stream.impl.workers;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.ListIterator;
 import java.util.Stack;
 
 import org.gvsig.bxml.stream.impl.NamesResolver;
@@ -52,6 +49,8 @@ import org.gvsig.bxml.stream.io.ValueType;
 public final class ParseState {
 
     private static class ElementInfo {
+        public int nameId;
+
         public String name;
 
         public TokenType type;
@@ -101,7 +100,10 @@ public final class ParseState {
      */
     private TokenType currentTokenType;
 
-    private StringTable stringtable = new StringTable();
+    /**
+     * Readers only look up strings by index, so no reverse index is needed
+     */
+    private final StringTable stringtable;
 
     private TrailerToken trailer;
 
@@ -125,7 +127,19 @@ public final class ParseState {
     private long currentTokenPosition;
 
     public ParseState(final NamesResolver namesResolver) {
+        this(namesResolver, new StringTable(false));
+    }
+
+    /**
+     * @param namesResolver
+     * @param stringTable
+     *            the string table to resolve string references against. If it's
+     *            {@link StringTable#isComplete() complete} it's only read, so it may be shared by
+     *            the parse states of several readers of the same document
+     */
+    public ParseState(final NamesResolver namesResolver, final StringTable stringTable) {
         this.namesResolver = namesResolver;
+        this.stringtable = stringTable;
         // for (int i = 0; i < elementInfoPool.capacity; i++) {
         // elementInfoPool.push(new ElementInfo());
         // }
@@ -194,6 +208,15 @@ public final class ParseState {
         return currentElement.name;
     }
 
+    /**
+     * Returns the string table index of the current element name.
+     * 
+     * @see #getCurrentElementName()
+     */
+    public int getCurrentElementNameId() {
+        return currentElement.nameId;
+    }
+
     /**
      * @see AttributesEndEventWorker#nextImpl(BxmlInputStream, ParseState)
      */
@@ -275,14 +298,17 @@ public final class ParseState {
      * Adds an element to the stack of currently open elements and sets {@code elementName} as the
      * {@link #getCurrentElementName() current element} name.
      * 
+     * @param nameId
+     *            the string table index of {@code currentElementName}
      * @param currentElementName
      * @param currentTokenType
      * @param startElementTokenPosition
      */
-    public void pushElement(final String currentElementName, final TokenType currentTokenType,
-            final long startElementTokenPosition) {
+    public void pushElement(final int nameId, final String currentElementName,
+            final TokenType currentTokenType, final long startElementTokenPosition) {
 
         ElementInfo info = new ElementInfo();
+        info.nameId = nameId;
         info.name = currentElementName;
         info.type = currentTokenType;
         info.position = startElementTokenPosition;
@@ -326,46 +352,222 @@ public final class ParseState {
         return commentPositionHint;
     }
 
-    static class Attribute {
-        String name;
+    /*
+     * The current element attributes, held in parallel arrays reused from element to element.
+     * Attributes whose value is a single primitive value token keep the value in
+     * attributeLongValues or attributeDoubleValues, with a null entry in attributeValues until
+     * its String representation is requested.
+     */
+
+    private int attributeCount;
 
-        String value;
+    private int[] attributeNameIds = new int[8];
 
-        public Attribute(String name, String value) {
-            this.name = name;
-            this.value = value;
-        }
-    }
+    private String[] attributeNames = new String[8];
 
-    private List<Attribute> attributes = new ArrayList<Attribute>();
+    private String[] attributeValues = new String[8];
+
+    /**
+     * The value type of each attribute value, {@link ValueType#StringCode} for the ones stored as
+     * Strings
+     */
+    private ValueType[] attributeValueTypes = new ValueType[8];
+
+    private long[] attributeLongValues = new long[8];
+
+    private double[] attributeDoubleValues = new double[8];
 
     private int smallNumvalue;
 
     public int getAttributeCount() {
-        return attributes.size();
+        return attributeCount;
     }
 
     public String getAttributeName(int index) {
-        return attributes.get(index).name;
+        checkAttributeIndex(index);
+        return attributeNames[index];
+    }
+
+    /**
+     * Returns the string table index of the name of the attribute at {@code index}
+     */
+    public int getAttributeNameId(int index) {
+        checkAttributeIndex(index);
+        return attributeNameIds[index];
     }
 
+    /**
+     * Returns the String value of the attribute at {@code index}, formatting primitive values
+     * the same way {@link XmlStreamUtils#parseStringValue} does the first time it's requested.
+     */
     public String getAttributeValue(int index) {
-        return attributes.get(index).value;
+        checkAttributeIndex(index);
+        String value = attributeValues[index];
+        if (value == null) {
+            value = toString(attributeValueTypes[index], attributeLongValues[index],
+                    attributeDoubleValues[index]);
+            attributeValues[index] = value;
+        }
+        return value;
     }
 
-    ListIterator<Attribute> getPlainAttributes() {
-        return this.attributes.listIterator();
+    /**
+     * Formats a single primitive value as String
+     * 
+     * @param valueType
+     *            the value type the value was encoded as
+     * @param longValue
+     *            the value if {@code valueType} is integral or boolean ({@code 0} for false)
+     * @param doubleValue
+     *            the value if {@code valueType} is {@link ValueType#FloatCode} or
+     *            {@link ValueType#DoubleCode}
+     */
+    static String toString(final ValueType valueType, final long longValue,
+            final double doubleValue) {
+        if (ValueType.FloatCode == valueType) {
+            return String.valueOf((float) doubleValue);
+        } else if (ValueType.DoubleCode == valueType) {
+            return String.valueOf(doubleValue);
+        } else if (ValueType.BoolCode == valueType) {
+            return String.valueOf(longValue != 0);
+        }
+        return String.valueOf(longValue);
+    }
+
+    /**
+     * Returns the value of the attribute at {@code index} as an int, without going through its
+     * String representation if it was encoded as a single integral value.
+     * 
+     * @throws NumberFormatException
+     *             if the attribute value is not an integral number in the int range
+     */
+    public int getAttributeIntValue(int index) {
+        checkAttributeIndex(index);
+        if (isIntegral(attributeValueTypes[index])) {
+            final long value = attributeLongValues[index];
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Attribute value out of int range: " + value);
+            }
+            return (int) value;
+        }
+        return Integer.parseInt(getAttributeValue(index).trim());
+    }
+
+    /**
+     * Returns the value of the attribute at {@code index} as a double, without going through its
+     * String representation if it was encoded as a single numeric value.
+     * 
+     * @throws NumberFormatException
+     *             if the attribute value is not a number
+     */
+    public double getAttributeDoubleValue(int index) {
+        checkAttributeIndex(index);
+        final ValueType valueType = attributeValueTypes[index];
+        if (ValueType.FloatCode == valueType || ValueType.DoubleCode == valueType) {
+            return attributeDoubleValues[index];
+        }
+        if (isIntegral(valueType)) {
+            return attributeLongValues[index];
+        }
+        return Double.parseDouble(getAttributeValue(index));
+    }
+
+    private static boolean isIntegral(final ValueType valueType) {
+        switch (valueType) {
+        case SmallNum:
+        case ByteCode:
+        case ShortCode:
+        case UShortCode:
+        case IntCode:
+        case LongCode:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private void checkAttributeIndex(final int index) {
+        if (index < 0 || index >= attributeCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + attributeCount);
+        }
     }
 
     /**
      * Clears the attribute list and lets the state ready to add new element attributes
      */
     void clearAttributes() {
-        attributes.clear();
+        for (int i = 0; i < attributeCount; i++) {
+            attributeValues[i] = null;
+        }
+        attributeCount = 0;
+    }
+
+    void addAttribute(final int nameId, final String stringTableName, final String coalescedValue) {
+        final int index = newAttribute(nameId, stringTableName, ValueType.StringCode);
+        attributeValues[index] = coalescedValue;
+    }
+
+    /**
+     * Adds an attribute whose value is a single integral or boolean value of the given type
+     */
+    void addAttribute(final int nameId, final String stringTableName, final ValueType valueType, final long value) {
+        final int index = newAttribute(nameId, stringTableName, valueType);
+        attributeLongValues[index] = value;
     }
 
-    void addAttribute(final String stringTableName, final String coalescedValue) {
-        attributes.add(new Attribute(stringTableName, coalescedValue));
+    /**
+     * Adds an attribute whose value is a single float or double value of the given type
+     */
+    void addAttribute(final int nameId, final String stringTableName, final ValueType valueType, final double value) {
+        final int index = newAttribute(nameId, stringTableName, valueType);
+        attributeDoubleValues[index] = value;
+    }
+
+    private int newAttribute(final int nameId, final String name, final ValueType valueType) {
+        if (attributeCount == attributeNames.length) {
+            final int capacity = 2 * attributeCount;
+            final int[] nameIds = new int[capacity];
+            System.arraycopy(attributeNameIds, 0, nameIds, 0, attributeCount);
+            attributeNameIds = nameIds;
+            final String[] names = new String[capacity];
+            System.arraycopy(attributeNames, 0, names, 0, attributeCount);
+            attributeNames = names;
+            final String[] values = new String[capacity];
+            System.arraycopy(attributeValues, 0, values, 0, attributeCount);
+            attributeValues = values;
+            final ValueType[] valueTypes = new ValueType[capacity];
+            System.arraycopy(attributeValueTypes, 0, valueTypes, 0, attributeCount);
+            attributeValueTypes = valueTypes;
+            final long[] longValues = new long[capacity];
+            System.arraycopy(attributeLongValues, 0, longValues, 0, attributeCount);
+            attributeLongValues = longValues;
+            final double[] doubleValues = new double[capacity];
+            System.arraycopy(attributeDoubleValues, 0, doubleValues, 0, attributeCount);
+            attributeDoubleValues = doubleValues;
+        }
+        final int index = attributeCount++;
+        attributeNameIds[index] = nameId;
+        attributeNames[index] = name;
+        attributeValueTypes[index] = valueType;
+        return index;
+    }
+
+    /**
+     * Removes the attribute at {@code index}, shifting any subsequent attributes to the left
+     */
+    void removeAttribute(final int index) {
+        checkAttributeIndex(index);
+        final int moved = attributeCount - index - 1;
+        if (moved > 0) {
+            System.arraycopy(attributeNameIds, index + 1, attributeNameIds, index, moved);
+            System.arraycopy(attributeNames, index + 1, attributeNames, index, moved);
+            System.arraycopy(attributeValues, index + 1, attributeValues, index, moved);
+            System.arraycopy(attributeValueTypes, index + 1, attributeValueTypes, index, moved);
+            System.arraycopy(attributeLongValues, index + 1, attributeLongValues, index, moved);
+            System.arraycopy(attributeDoubleValues, index + 1, attributeDoubleValues, index, moved);
+        }
+        attributeCount--;
+        attributeValues[attributeCount] = null;
     }
 
     void setSmallNumValue(int smallNumValue) {
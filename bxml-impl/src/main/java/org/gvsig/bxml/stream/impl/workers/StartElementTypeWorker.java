@@ -69,7 +69,7 @@ abstract class StartElementTypeWorker extends EventTypeWorker {
         // and read all attributes
         sharedState.clearAttributes();
 
-        final long elemNameStrRef = stream.readCount();
+        final int elemNameStrRef = (int) stream.readCount();
         final String currentElementName = sharedState.getStringTable().get(elemNameStrRef);
         final TokenType currentTokenType = sharedState.getCurrentTokenType();
         final long currentTokenPosition = sharedState.getCurrentTokenPosition();
@@ -79,7 +79,7 @@ abstract class StartElementTypeWorker extends EventTypeWorker {
                 || TokenType.EmptyAttrElement == currentTokenType
                 || TokenType.EmptyElement == currentTokenType) {
 
-            sharedState.pushElement(currentElementName, currentTokenType, currentTokenPosition);
+            sharedState.pushElement(elemNameStrRef, currentElementName, currentTokenType, currentTokenPosition);
             /*
              * NOTE I'm not pushing/poping context anymore when parsing because the introduction of
              * random access support may lead to opening lots (thousands) of elements without
@@ -96,4 +96,136 @@ abstract class StartElementTypeWorker extends EventTypeWorker {
                 + " ContentElement, EmptyAttrElement or EmptyElement: " + currentTokenType);
     }
 
+    /**
+     * Walks the tokens up to the matching {@link TokenType#ElementEnd ElementEnd} at the byte
+     * level, just keeping track of the nesting level. Attribute and content values are skipped
+     * without being decoded, and only {@link TokenType#StringTable StringTable} tokens are parsed,
+     * since the strings they define may be referenced after the skipped element.
+     * <p>
+     * Empty elements have no content to skip, so they just advance to their END_ELEMENT event.
+     * </p>
+     * 
+     * @see EventTypeWorker#skipElement(BxmlInputStream, ParseState)
+     */
+    @Override
+    public EventTypeWorker skipElement(final BxmlInputStream stream, final ParseState state)
+            throws IOException {
+        final TokenType elementType = state.getCurrentElementType();
+        if (TokenType.EmptyElement == elementType || TokenType.EmptyAttrElement == elementType) {
+            return next(stream, state);
+        }
+        int depth = 1;
+        long tokenPosition;
+        TokenType tokenType;
+        while (true) {
+            tokenPosition = stream.getPosition();
+            tokenType = stream.readTokenType();
+            switch (tokenType) {
+            case ContentElement:
+                stream.readCount();
+                depth++;
+                break;
+            case ContentAttrElement:
+                stream.readCount();
+                skipAttributes(stream, state);
+                depth++;
+                break;
+            case EmptyElement:
+                stream.readCount();
+                break;
+            case EmptyAttrElement:
+                stream.readCount();
+                skipAttributes(stream, state);
+                break;
+            case ElementEnd:
+                depth--;
+                if (depth == 0) {
+                    state.setCurrentTokenType(tokenType);
+                    state.setCurrentTokenPosition(tokenPosition);
+                    return getWorker(tokenType).init(stream, state);
+                }
+                break;
+            case CharContent:
+            case CDataSection:
+                CharContentEventWorker.skipValue(stream);
+                break;
+            case CharContentRef:
+                stream.readCount();
+                break;
+            case Whitespace:
+                stream.readCount();
+                stream.skipString();
+                break;
+            case Comment:
+                // comment position hint
+                stream.readByte();
+                stream.skipString();
+                break;
+            case StringTable:
+                StringTableWorker.readStringTable(stream, state);
+                break;
+            case IndexTable:
+                IndexTableWorker.skipIndexTable(stream);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected token inside an element: " + tokenType
+                        + " at position " + tokenPosition);
+            }
+        }
+    }
+
+    /**
+     * Seeks to the element's ElementEnd token at {@code endPosition} and returns the worker for
+     * it. The string table needs to be complete already, as the StringTable tokens in between are
+     * not parsed.
+     * 
+     * @see EventTypeWorker#skipElement(BxmlInputStream, ParseState, long)
+     */
+    @Override
+    public EventTypeWorker skipElement(final BxmlInputStream stream, final ParseState state,
+            final long endPosition) throws IOException {
+        stream.setPosition(endPosition);
+        final TokenType tokenType = stream.readTokenType();
+        if (TokenType.ElementEnd != tokenType) {
+            throw new IllegalStateException("Expected ElementEnd token at position "
+                    + endPosition + " but found " + tokenType);
+        }
+        state.setCurrentTokenType(tokenType);
+        state.setCurrentTokenPosition(endPosition);
+        return getWorker(tokenType).init(stream, state);
+    }
+
+    /**
+     * Skips the attribute tokens up to and including the {@link TokenType#AttributeListEnd
+     * AttributeListEnd} token, parsing any string table fragment found in between
+     */
+    private static void skipAttributes(final BxmlInputStream stream, final ParseState state)
+            throws IOException {
+        TokenType tokenType;
+        while (true) {
+            tokenType = stream.readTokenType();
+            switch (tokenType) {
+            case AttributeStart:
+            case CharContentRef:
+                stream.readCount();
+                break;
+            case CharContent:
+            case CDataSection:
+                CharContentEventWorker.skipValue(stream);
+                break;
+            case StringTable:
+                StringTableWorker.readStringTable(stream, state);
+                break;
+            case IndexTable:
+                IndexTableWorker.skipIndexTable(stream);
+                break;
+            case AttributeListEnd:
+                return;
+            default:
+                throw new IllegalStateException("Unexpected token inside an attribute list: "
+                        + tokenType);
+            }
+        }
+    }
+
 }
@@ -30,66 +30,99 @@
  */
 package org.gvsig.bxml.stream.impl.workers;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.TreeMap;
-
 /**
+ * The strings defined by the StringTable tokens of a BXML document, along with the position of
+ * the StringTable token each one was defined at.
+ * <p>
+ * Entries and offsets are held in plain arrays. Writers need to look up the index of a string
+ * for every name and string table referenced value they write, so by default a StringTable also
+ * maintains an open addressing hash index keyed on the {@link CharSequence} contents, which allows
+ * to look up {@code StringBuilder}s and the like without converting them to {@code String} first.
+ * Readers only ever need {@link #get(long)}, so they use a table
+ * {@link #StringTable(boolean) without the reverse index}, whose {@link #add(CharSequence, long)}
+ * just appends.
+ * </p>
+ * 
  * @author Gabriel Roldan (OpenGeo)
  * @version $Id$
  */
 public final class StringTable {
 
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] strings;
+
+    private long[] offsets;
+
+    private int size;
+
     /**
-     * A comparator for charsequences.
+     * Hash codes of the entries, {@code null} if the table has no reverse index
      */
-    private static final Comparator<? super CharSequence> CHARSEQUENCE_COMPARATOR = new Comparator<CharSequence>() {
-        public int compare(CharSequence o1, CharSequence o2) {
-            if (o1 == o2) {
-                return 0;
-            }
+    private int[] hashes;
 
-            final int len1 = o1.length();
-            final int len2 = o2.length();
-
-            if (len1 == len2) {
-                char c1;
-                char c2;
-                int lim = Math.min(len1, len2);
-                int k = 0;
-                while (k < lim) {
-                    c1 = o1.charAt(k);
-                    c2 = o2.charAt(k);
-                    if (c1 != c2) {
-                        return c1 - c2;
-                    }
-                    k++;
-                }
-            }
-            return len1 - len2;
-        }
-    };
+    /**
+     * Open addressing hash slots, holding the index of the entry plus one, or zero for empty slots.
+     * Its length is a power of two and it is kept at most half full. {@code null} if the table has
+     * no reverse index
+     */
+    private int[] slots;
 
-    private final List<String> strings;
+    /**
+     * Whether all the strings in the document have already been loaded
+     */
+    private boolean complete;
 
-    private final List<Long> offsets;
+    /**
+     * Creates a StringTable with a reverse index of entries
+     */
+    public StringTable() {
+        this(true);
+    }
 
     /**
-     * Map string entry/index for faster look ups of string index by name. As charsequence equals is
-     * not consistent across implementations we use a special comparator.
+     * @param indexed
+     *            whether to maintain a reverse index of entries, so that
+     *            {@link #get(CharSequence)} can be called and {@link #add(CharSequence, long)}
+     *            does not add duplicate entries
      */
-    private TreeMap<CharSequence, Long> indexMap = new TreeMap<CharSequence, Long>(
-            CHARSEQUENCE_COMPARATOR);
+    public StringTable(final boolean indexed) {
+        strings = new String[INITIAL_CAPACITY];
+        offsets = new long[INITIAL_CAPACITY];
+        if (indexed) {
+            hashes = new int[INITIAL_CAPACITY];
+            slots = new int[2 * INITIAL_CAPACITY];
+        }
+    }
 
-    public StringTable() {
-        strings = new ArrayList<String>(100);
-        offsets = new ArrayList<Long>(100);
+    private StringTable(final StringTable source) {
+        strings = source.strings.clone();
+        offsets = source.offsets.clone();
+        size = source.size;
+        if (source.slots != null) {
+            hashes = source.hashes.clone();
+            slots = source.slots.clone();
+        }
+        complete = source.complete;
+    }
+
+    /**
+     * Returns an independent copy of this table, with the same entries, offsets and reverse index.
+     * <p>
+     * A table that is no longer modified can be read from several threads at once, so a copy can
+     * be handed to other threads while the original keeps growing.
+     * </p>
+     */
+    public StringTable copy() {
+        return new StringTable(this);
     }
 
     /**
      * Adds a string to the string table, if not already present, and returns the string table entry
      * index.
+     * <p>
+     * If this table has no reverse index the string is always appended.
+     * </p>
      * 
      * @param string
      * @param position
@@ -97,27 +130,110 @@ public final class StringTable {
      * @return the index, >= 0, corresponding to the given string
      */
     public long add(final CharSequence string, final long position) {
-        long index = get(string);
-        if (index == -1) {
-            index = Integer.valueOf(strings.size());
-
-            // ensure we store a COPY of the charsequence
-            final String entry = string.toString();
-            strings.add(entry);
-            offsets.add(Long.valueOf(position));
-            indexMap.put(entry, Long.valueOf(index));
+        if (slots == null) {
+            return append(string.toString(), position);
+        }
+        final int hash = hash(string);
+        int slot = hash & (slots.length - 1);
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (hashes[entry - 1] == hash && contentEquals(strings[entry - 1], string)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        // ensure we store a COPY of the charsequence
+        final int index = append(string.toString(), position);
+        hashes[index] = hash;
+        if (2 * size > slots.length) {
+            rehash();
+        } else {
+            slots[slot] = index + 1;
         }
         return index;
     }
 
+    private int append(final String string, final long position) {
+        if (size == strings.length) {
+            final int capacity = 2 * size;
+            final String[] newStrings = new String[capacity];
+            System.arraycopy(strings, 0, newStrings, 0, size);
+            strings = newStrings;
+            final long[] newOffsets = new long[capacity];
+            System.arraycopy(offsets, 0, newOffsets, 0, size);
+            offsets = newOffsets;
+            if (hashes != null) {
+                final int[] newHashes = new int[capacity];
+                System.arraycopy(hashes, 0, newHashes, 0, size);
+                hashes = newHashes;
+            }
+        }
+        strings[size] = string;
+        offsets[size] = position;
+        return size++;
+    }
+
+    private void rehash() {
+        slots = new int[2 * slots.length];
+        final int mask = slots.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = hashes[index] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = index + 1;
+        }
+    }
+
+    /**
+     * Same as {@link String#hashCode()}, so that any {@link CharSequence} with the same content
+     * hashes to the same value, with the higher bits spread to the lower ones used to pick a slot.
+     */
+    private static int hash(final CharSequence string) {
+        int hash = 0;
+        final int length = string.length();
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + string.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean contentEquals(final String entry, final CharSequence string) {
+        final int length = entry.length();
+        if (length != string.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (entry.charAt(i) != string.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public String get(final long index) throws IndexOutOfBoundsException {
-        String string = strings.get((int) index);
-        return string;
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return strings[(int) index];
     }
 
     public long getOffset(final int index) {
-        Long offset = offsets.get(index);
-        return offset.longValue();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return offsets[index];
+    }
+
+    /**
+     * Sets the position in the stream where the string table entry at {@code index} is stored, for
+     * entries added before knowing it.
+     */
+    public void setOffset(final int index, final long position) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        offsets[index] = position;
     }
 
     /**
@@ -126,13 +242,41 @@ public final class StringTable {
      * @param stringToHandle
      * @return the index of the given string in the StringTable, or {@code -1} if there are no entry
      *         for the string
+     * @throws IllegalStateException
+     *             if this table has no reverse index
      */
     public long get(final CharSequence stringToHandle) {
-        Long index = indexMap.get(stringToHandle);
-        return index == null ? -1 : index.longValue();
+        if (slots == null) {
+            throw new IllegalStateException("StringTable created without a reverse index");
+        }
+        final int hash = hash(stringToHandle);
+        int slot = hash & (slots.length - 1);
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (hashes[entry - 1] == hash && contentEquals(strings[entry - 1], stringToHandle)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        return -1;
     }
 
     public int size() {
-        return strings.size();
+        return size;
+    }
+
+    /**
+     * Returns whether all the strings in the document have been loaded, for example out of the
+     * trailer's StringTableIndex, and hence further StringTable tokens shall be skipped
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @see #isComplete()
+     */
+    public void setComplete(final boolean complete) {
+        this.complete = complete;
     }
-}
\ No newline at end of file
+}
@@ -70,14 +70,30 @@ final class StringTableWorker extends EventTypeWorker {
     @Override
     public EventTypeWorker initImpl(BxmlInputStream stream, final ParseState sharedState)
             throws IOException {
+        readStringTable(stream, sharedState);
+        return super.nextImpl(stream, sharedState);
+    }
+
+    /**
+     * Reads the content of the {@link TokenType#StringTable StringTable} token the stream is
+     * positioned at, right after its token type, into the shared state's {@link StringTable}.
+     */
+    static void readStringTable(final BxmlInputStream stream, final ParseState sharedState)
+            throws IOException {
         final long position = stream.getPosition();
         final long nStrings = stream.readCount();
         final StringTable stringTable = sharedState.getStringTable();
-        for (long i = 0; i < nStrings; i++) {
-            String str = stream.readString();
-            stringTable.add(str, position);
+        if (stringTable.isComplete()) {
+            // already loaded out of the trailer's StringTableIndex
+            for (long i = 0; i < nStrings; i++) {
+                stream.skipString();
+            }
+        } else {
+            for (long i = 0; i < nStrings; i++) {
+                String str = stream.readString();
+                stringTable.add(str, position);
+            }
         }
-        return super.nextImpl(stream, sharedState);
     }
 
 }
@@ -0,0 +1,434 @@
+package org.gvsig.bxml.stream.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+/**
+ * A channel that decompresses a block compressed GZIP stream, as described in {@link BlockGzip}.
+ * <p>
+ * When created through {@link #open(FileChannel, long)} the block index is read from the end of
+ * the file, and {@link #position(long)} allows to seek to any uncompressed position by
+ * decompressing only the block that contains it. Otherwise the blocks are decompressed
+ * sequentially as they're read.
+ * </p>
+ *
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ * @see BlockCompressedOutputChannel
+ */
+final class BlockCompressedInputChannel implements ReadableByteChannel {
+
+    /**
+     * The file to read blocks from, if random access is supported, {@code null} otherwise
+     */
+    private final FileChannel file;
+
+    /**
+     * The offset in {@link #file} of the first member
+     */
+    private final long bodyOffset;
+
+    /**
+     * The stream to read blocks from sequentially, if random access is not supported, {@code null}
+     * otherwise
+     */
+    private final InputStream in;
+
+    private final Inflater inflater;
+
+    private final CRC32 crc;
+
+    /**
+     * Buffer the compressed members are read into
+     */
+    private byte[] member;
+
+    /**
+     * Uncompressed content of the current block
+     */
+    private byte[] block;
+
+    private int blockLength;
+
+    /**
+     * Index of the current block if random access is supported, {@code -1} if no block is loaded
+     */
+    private int blockIndex;
+
+    /**
+     * The read position inside {@link #block}
+     */
+    private int blockPosition;
+
+    /**
+     * The uncompressed size of the blocks, or {@code -1} if unknown (random access not supported)
+     */
+    private final int blockSize;
+
+    /**
+     * The uncompressed size, or {@code -1} if unknown (random access not supported)
+     */
+    private final long size;
+
+    private final long[] blockOffsets;
+
+    private final long indexOffset;
+
+    /**
+     * The uncompressed position
+     */
+    private long position;
+
+    private boolean endOfData;
+
+    /**
+     * Offset of the next member to read sequentially, relative to the start of the body
+     */
+    private long memberOffset;
+
+    private boolean open;
+
+    /**
+     * Creates a channel that decompresses the blocks read sequentially from {@code compressed}.
+     *
+     * @param compressed
+     *            the channel to read the compressed data from
+     * @param pending
+     *            compressed data already read from {@code compressed} (for example, while parsing
+     *            the header), may be {@code null}
+     */
+    public BlockCompressedInputChannel(final ReadableByteChannel compressed, final byte[] pending) {
+        InputStream in = Channels.newInputStream(compressed);
+        if (pending != null && pending.length > 0) {
+            in = new SequenceInputStream(new ByteArrayInputStream(pending), in);
+        }
+        this.in = in;
+        this.file = null;
+        this.bodyOffset = -1L;
+        this.blockSize = -1;
+        this.size = -1L;
+        this.blockOffsets = null;
+        this.indexOffset = -1L;
+        this.inflater = new Inflater(true);
+        this.crc = new CRC32();
+        this.member = new byte[BlockGzip.HEADER_LENGTH];
+        this.block = new byte[0];
+        this.blockIndex = -1;
+        this.open = true;
+    }
+
+    private BlockCompressedInputChannel(final FileChannel file, final long bodyOffset,
+            final int blockSize, final long size, final long[] blockOffsets, final long indexOffset) {
+        this.in = null;
+        this.file = file;
+        this.bodyOffset = bodyOffset;
+        this.blockSize = blockSize;
+        this.size = size;
+        this.blockOffsets = blockOffsets;
+        this.indexOffset = indexOffset;
+        this.inflater = new Inflater(true);
+        this.crc = new CRC32();
+        this.member = new byte[BlockGzip.HEADER_LENGTH];
+        this.block = new byte[blockSize];
+        this.blockIndex = -1;
+        this.open = true;
+    }
+
+    /**
+     * Creates a random access channel over the block compressed GZIP stream that starts at
+     * {@code bodyOffset} and spans until the end of {@code file}, by reading its block index.
+     *
+     * @throws IOException
+     *             if the block index can't be read
+     */
+    public static BlockCompressedInputChannel open(final FileChannel file, final long bodyOffset)
+            throws IOException {
+        final long fileSize = file.size();
+        final long tailOffset = fileSize - BlockGzip.TAIL_DISTANCE;
+        if (tailOffset - BlockGzip.HEADER_LENGTH < bodyOffset) {
+            throw new IOException("Block compressed GZIP stream has no block index");
+        }
+        final byte[] tail = new byte[BlockGzip.SUBFIELD_HEADER_LENGTH + BlockGzip.TAIL_LENGTH];
+        readFully(file, tailOffset, tail, 0, tail.length);
+        final ByteBuffer tailBuffer = BlockGzip.wrap(tail, 0, tail.length);
+        if (tail[0] != BlockGzip.SI1 || tail[1] != BlockGzip.TAIL_SI2
+                || tailBuffer.getShort(2) != BlockGzip.TAIL_LENGTH) {
+            throw new IOException("Block compressed GZIP stream has no block index");
+        }
+        tailBuffer.position(BlockGzip.SUBFIELD_HEADER_LENGTH);
+        final int blockSize = tailBuffer.getInt();
+        final long size = tailBuffer.getLong();
+        final long indexOffset = tailBuffer.getLong();
+        if (blockSize <= 0 || blockSize > BlockGzip.MAX_BLOCK_SIZE) {
+            throw new IOException("Corrupt block compressed GZIP stream index, block size: "
+                    + blockSize);
+        }
+        final long blockCount = size / blockSize + (size % blockSize == 0 ? 0 : 1);
+        if (size < 0 || blockCount > Integer.MAX_VALUE || indexOffset < 0
+                || bodyOffset + indexOffset > tailOffset) {
+            throw new IOException("Corrupt block compressed GZIP stream index");
+        }
+
+        final long[] blockOffsets = new long[(int) blockCount];
+        int read = 0;
+        long memberOffset = bodyOffset + indexOffset;
+        boolean last = false;
+        while (!last) {
+            final byte[] header = new byte[BlockGzip.HEADER_LENGTH];
+            readFully(file, memberOffset, header, 0, header.length);
+            final int xlen = BlockGzip.getExtraLength(header);
+            final byte[] index = new byte[BlockGzip.HEADER_LENGTH + xlen];
+            readFully(file, memberOffset, index, 0, index.length);
+
+            final int entriesOffset = BlockGzip.findSubfield(index, xlen, BlockGzip.INDEX_SI2);
+            if (entriesOffset == -1) {
+                throw new IOException("Corrupt block compressed GZIP stream index");
+            }
+            final int entries = BlockGzip.getSubfieldLength(index, entriesOffset) / 8;
+            if (read + entries > blockOffsets.length) {
+                throw new IOException("Corrupt block compressed GZIP stream index");
+            }
+            final ByteBuffer entriesBuffer = BlockGzip.wrap(index, 0, index.length);
+            entriesBuffer.position(entriesOffset);
+            for (int i = 0; i < entries; i++) {
+                blockOffsets[read++] = entriesBuffer.getLong();
+            }
+            last = BlockGzip.findSubfield(index, xlen, BlockGzip.TAIL_SI2) != -1;
+            memberOffset += BlockGzip.getMemberSize(index);
+        }
+        if (read != blockOffsets.length) {
+            throw new IOException("Corrupt block compressed GZIP stream index");
+        }
+        return new BlockCompressedInputChannel(file, bodyOffset, blockSize, size, blockOffsets,
+                indexOffset);
+    }
+
+    /**
+     * @see java.nio.channels.Channel#isOpen()
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Closes this channel and the one the compressed data is read from.
+     *
+     * @see java.nio.channels.Channel#close()
+     */
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        inflater.end();
+        if (file == null) {
+            in.close();
+        } else {
+            file.close();
+        }
+    }
+
+    /**
+     * @return whether {@link #position(long)} and {@link #size()} are supported
+     */
+    public boolean supportsRandomAccess() {
+        return file != null;
+    }
+
+    /**
+     * @return the uncompressed size of the stream
+     * @throws UnsupportedOperationException
+     *             if random access is not supported
+     */
+    public long size() {
+        if (file == null) {
+            throw new UnsupportedOperationException("Random access is not supported");
+        }
+        return size;
+    }
+
+    /**
+     * @return the uncompressed position
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Sets the uncompressed position, the block containing it is decompressed at the next read.
+     *
+     * @throws UnsupportedOperationException
+     *             if random access is not supported
+     * @throws IllegalArgumentException
+     *             if {@code newPosition} is negative or greater than {@link #size()}
+     */
+    public void position(final long newPosition) {
+        if (file == null) {
+            throw new UnsupportedOperationException("Random access is not supported");
+        }
+        if (newPosition < 0 || newPosition > size) {
+            throw new IllegalArgumentException("Can't set position to " + newPosition
+                    + ", size is " + size);
+        }
+        this.position = newPosition;
+    }
+
+    /**
+     * @see java.nio.channels.ReadableByteChannel#read(java.nio.ByteBuffer)
+     */
+    public int read(final ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        final boolean available;
+        if (file == null) {
+            available = blockPosition < blockLength || readNextBlock();
+        } else {
+            available = position < size && seekBlock();
+        }
+        if (!available) {
+            return -1;
+        }
+        final int count = Math.min(dst.remaining(), blockLength - blockPosition);
+        dst.put(block, blockPosition, count);
+        blockPosition += count;
+        position += count;
+        return count;
+    }
+
+    /**
+     * Makes sure the block containing {@link #position} is loaded and sets {@link #blockPosition}
+     */
+    private boolean seekBlock() throws IOException {
+        final int index = (int) (position / blockSize);
+        if (index != blockIndex) {
+            final long start = blockOffsets[index];
+            final long end = index + 1 < blockOffsets.length ? blockOffsets[index + 1]
+                    : indexOffset;
+            final long memberSize = end - start;
+            if (memberSize < BlockGzip.HEADER_LENGTH + BlockGzip.TRAILER_LENGTH
+                    || memberSize > BlockGzip.MAX_MEMBER_SIZE) {
+                throw new IOException("Corrupt block compressed GZIP member at offset " + start
+                        + ", member size: " + memberSize);
+            }
+            ensureMemberCapacity((int) memberSize);
+            readFully(file, bodyOffset + start, member, 0, (int) memberSize);
+            final int uncompressedSize = BlockGzip.getUncompressedSize(member, (int) memberSize);
+            if (uncompressedSize < 0 || uncompressedSize > blockSize) {
+                throw new IOException("Corrupt block compressed GZIP member at offset " + start
+                        + ", uncompressed size: " + (uncompressedSize & 0xFFFFFFFFL));
+            }
+            blockIndex = -1;
+            blockLength = BlockGzip.inflate(member, (int) memberSize, block, inflater, crc);
+            blockIndex = index;
+        }
+        blockPosition = (int) (position - (long) index * blockSize);
+        return blockPosition < blockLength;
+    }
+
+    /**
+     * Reads and decompresses the next data member from {@link #in}
+     *
+     * @return {@code false} if there are no more data members
+     */
+    private boolean readNextBlock() throws IOException {
+        if (endOfData) {
+            return false;
+        }
+        do {
+            final int headerRead = readFully(in, member, 0, BlockGzip.HEADER_LENGTH);
+            if (headerRead == 0) {
+                endOfData = true;
+                return false;
+            }
+            if (headerRead < BlockGzip.HEADER_LENGTH) {
+                throw new EOFException("Premature end of block compressed GZIP stream");
+            }
+            final int xlen = BlockGzip.getExtraLength(member);
+            ensureMemberCapacity(BlockGzip.HEADER_LENGTH + xlen);
+            readFullyOrFail(in, member, BlockGzip.HEADER_LENGTH, xlen);
+            if (BlockGzip.findSubfield(member, xlen, BlockGzip.INDEX_SI2) != -1) {
+                // reached the block index, no more data
+                endOfData = true;
+                return false;
+            }
+            final int memberSize = BlockGzip.getMemberSize(member);
+            final int headerLength = BlockGzip.HEADER_LENGTH + xlen;
+            if (memberSize < headerLength + BlockGzip.TRAILER_LENGTH
+                    || memberSize > BlockGzip.MAX_MEMBER_SIZE) {
+                throw new IOException("Corrupt block compressed GZIP member at offset "
+                        + memberOffset + ", member size: " + (memberSize & 0xFFFFFFFFL));
+            }
+            ensureMemberCapacity(memberSize);
+            readFullyOrFail(in, member, headerLength, memberSize - headerLength);
+            final int uncompressedSize = BlockGzip.getUncompressedSize(member, memberSize);
+            if (uncompressedSize < 0 || uncompressedSize > BlockGzip.MAX_BLOCK_SIZE) {
+                throw new IOException("Corrupt block compressed GZIP member at offset "
+                        + memberOffset + ", uncompressed size: "
+                        + (uncompressedSize & 0xFFFFFFFFL));
+            }
+            memberOffset += memberSize;
+            if (block.length < uncompressedSize) {
+                block = new byte[uncompressedSize];
+            }
+            blockLength = BlockGzip.inflate(member, memberSize, block, inflater, crc);
+            blockPosition = 0;
+        } while (blockLength == 0);
+        return true;
+    }
+
+    private void ensureMemberCapacity(final int memberSize) {
+        if (member.length < memberSize) {
+            final byte[] expanded = new byte[Math.max(memberSize, 2 * member.length)];
+            System.arraycopy(member, 0, expanded, 0, member.length);
+            member = expanded;
+        }
+    }
+
+    private static void readFully(final FileChannel file, final long offset, final byte[] target,
+            final int targetOffset, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(target, targetOffset, length);
+        while (buffer.hasRemaining()) {
+            final int read = file.read(buffer, offset + buffer.position() - targetOffset);
+            if (read == -1) {
+                throw new EOFException("Premature end of block compressed GZIP stream");
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes read, less than {@code length} only if EOF was reached
+     */
+    private static int readFully(final InputStream in, final byte[] target,
+            final int targetOffset, final int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            final int read = in.read(target, targetOffset + total, length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static void readFullyOrFail(final InputStream in, final byte[] target,
+            final int targetOffset, final int length) throws IOException {
+        if (readFully(in, target, targetOffset, length) < length) {
+            throw new EOFException("Premature end of block compressed GZIP stream");
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.gvsig.bxml.stream.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A channel that compresses the data written to it into a block compressed GZIP stream, as
+ * described in {@link BlockGzip}.
+ * <p>
+ * {@link #finish()} shall be called once all the data has been written in order to write out the
+ * last block and the block index. Neither {@link #finish()} nor {@link #close()} close the target
+ * channel, that's up to the client code.
+ * </p>
+ *
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ * @see BlockCompressedInputChannel
+ */
+final class BlockCompressedOutputChannel implements WritableByteChannel {
+
+    private static final int DATA_HEADER_LENGTH = BlockGzip.HEADER_LENGTH
+            + BlockGzip.SUBFIELD_HEADER_LENGTH + BlockGzip.MEMBER_SIZE_LENGTH;
+
+    private final WritableByteChannel target;
+
+    private final Deflater deflater;
+
+    private final CRC32 crc;
+
+    /**
+     * Uncompressed content of the block being filled up
+     */
+    private final byte[] block;
+
+    private int blockLength;
+
+    /**
+     * Buffer the compressed members are built into before writing them to {@link #target}
+     */
+    private byte[] member;
+
+    /**
+     * Number of bytes written to {@link #target} so far
+     */
+    private long compressedSize;
+
+    private long uncompressedSize;
+
+    private long[] blockOffsets;
+
+    private int blockCount;
+
+    private boolean open;
+
+    /**
+     * @param target
+     *            the channel to write the compressed data to
+     * @param blockSize
+     *            the uncompressed size of the compressed blocks
+     * @param level
+     *            the compression level, {@code 0-9} or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public BlockCompressedOutputChannel(final WritableByteChannel target, final int blockSize,
+            final int level) {
+        if (blockSize <= 0 || blockSize > BlockGzip.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize shall be > 0 and <= "
+                    + BlockGzip.MAX_BLOCK_SIZE + ": " + blockSize);
+        }
+        this.target = target;
+        this.deflater = new Deflater(level, true);
+        this.crc = new CRC32();
+        this.block = new byte[blockSize];
+        this.member = new byte[DATA_HEADER_LENGTH + blockSize + BlockGzip.TRAILER_LENGTH];
+        this.blockOffsets = new long[16];
+        this.open = true;
+    }
+
+    /**
+     * @see java.nio.channels.Channel#isOpen()
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * @see java.nio.channels.WritableByteChannel#write(java.nio.ByteBuffer)
+     */
+    public int write(final ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        final int count = src.remaining();
+        while (src.hasRemaining()) {
+            final int length = Math.min(block.length - blockLength, src.remaining());
+            src.get(block, blockLength, length);
+            blockLength += length;
+            if (blockLength == block.length) {
+                writeBlock();
+            }
+        }
+        uncompressedSize += count;
+        return count;
+    }
+
+    /**
+     * Writes out the last, possibly partial, block and the block index.
+     */
+    public void finish() throws IOException {
+        if (!open) {
+            return;
+        }
+        if (blockLength > 0) {
+            writeBlock();
+        }
+        writeIndex();
+        deflater.end();
+        open = false;
+    }
+
+    /**
+     * Same as {@link #finish()}, does not close the target channel.
+     *
+     * @see java.nio.channels.Channel#close()
+     */
+    public void close() throws IOException {
+        finish();
+    }
+
+    private void writeBlock() throws IOException {
+        if (blockCount == blockOffsets.length) {
+            final long[] offsets = new long[2 * blockCount];
+            System.arraycopy(blockOffsets, 0, offsets, 0, blockCount);
+            blockOffsets = offsets;
+        }
+        blockOffsets[blockCount++] = compressedSize;
+
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        int memberSize = DATA_HEADER_LENGTH;
+        while (!deflater.finished()) {
+            if (memberSize == member.length - BlockGzip.TRAILER_LENGTH) {
+                final byte[] expanded = new byte[2 * member.length];
+                System.arraycopy(member, 0, expanded, 0, memberSize);
+                member = expanded;
+            }
+            memberSize += deflater.deflate(member, memberSize, member.length
+                    - BlockGzip.TRAILER_LENGTH - memberSize);
+        }
+        memberSize += BlockGzip.TRAILER_LENGTH;
+        crc.reset();
+        crc.update(block, 0, blockLength);
+
+        final ByteBuffer buffer = BlockGzip.wrap(member, 0, memberSize);
+        BlockGzip.putHeader(buffer, BlockGzip.SUBFIELD_HEADER_LENGTH
+                + BlockGzip.MEMBER_SIZE_LENGTH, memberSize);
+        buffer.position(memberSize - BlockGzip.TRAILER_LENGTH);
+        buffer.putInt((int) crc.getValue());
+        buffer.putInt(blockLength);
+        buffer.flip();
+        writeFully(buffer);
+        blockLength = 0;
+    }
+
+    /**
+     * Writes the block offsets in as many index members as needed, the last one containing the
+     * tail.
+     */
+    private void writeIndex() throws IOException {
+        final long indexOffset = compressedSize;
+        int written = 0;
+        do {
+            final int entries = Math.min(BlockGzip.MAX_INDEX_ENTRIES, blockCount - written);
+            final boolean last = written + entries == blockCount;
+            int xlen = BlockGzip.SUBFIELD_HEADER_LENGTH + BlockGzip.MEMBER_SIZE_LENGTH;
+            xlen += BlockGzip.SUBFIELD_HEADER_LENGTH + 8 * entries;
+            if (last) {
+                xlen += BlockGzip.SUBFIELD_HEADER_LENGTH + BlockGzip.TAIL_LENGTH;
+            }
+            final int memberSize = BlockGzip.HEADER_LENGTH + xlen
+                    + BlockGzip.EMPTY_DEFLATE.length + BlockGzip.TRAILER_LENGTH;
+            final ByteBuffer buffer = BlockGzip.wrap(new byte[memberSize], 0, memberSize);
+            BlockGzip.putHeader(buffer, xlen, memberSize);
+            BlockGzip.putSubfieldHeader(buffer, BlockGzip.INDEX_SI2, 8 * entries);
+            for (int i = 0; i < entries; i++) {
+                buffer.putLong(blockOffsets[written + i]);
+            }
+            if (last) {
+                BlockGzip.putSubfieldHeader(buffer, BlockGzip.TAIL_SI2, BlockGzip.TAIL_LENGTH);
+                buffer.putInt(block.length);
+                buffer.putLong(uncompressedSize);
+                buffer.putLong(indexOffset);
+            }
+            buffer.put(BlockGzip.EMPTY_DEFLATE);
+            buffer.putInt(0);// CRC32
+            buffer.putInt(0);// ISIZE
+            buffer.flip();
+            writeFully(buffer);
+            written += entries;
+        } while (written < blockCount);
+    }
+
+    private void writeFully(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            compressedSize += target.write(buffer);
+        }
+    }
+}
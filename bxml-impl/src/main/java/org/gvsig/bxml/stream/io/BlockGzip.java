@@ -0,0 +1,299 @@
+package org.gvsig.bxml.stream.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Constants and helper methods for the block compressed variant of
+ * {@link Header.Compression#GZIP GZIP} compressed BXML document bodies.
+ * <p>
+ * A block compressed body is a regular multi-member GZIP stream (RFC 1952), so any GZIP capable
+ * BXML reader can still decode it sequentially, in which each member contains an independently
+ * compressed, fixed size block of the uncompressed body, much like the BGZF format does. Random
+ * access is achieved by mapping an uncompressed position to the block that contains it (
+ * {@code position / blockSize}) and decompressing only that block.
+ * </p>
+ * <p>
+ * The layout is as follows (all numbers are little endian, as in the rest of the GZIP format):
+ * <ul>
+ * <li>Every member has the {@code FEXTRA} flag set and a {@code 'B','C'} extra subfield whose
+ * four byte payload is the total size of the member in bytes, so that members can be traversed
+ * without inflating them.
+ * <li>Data members: the deflated content of a block. All of them but the last one contain
+ * {@code blockSize} uncompressed bytes.
+ * <li>Index members: one or more members with no content, whose {@code 'B','I'} extra subfield
+ * holds the offsets of the data members, as eight byte numbers relative to the start of the body.
+ * <li>The last index member has a final {@code 'B','T'} extra subfield, the "tail", containing the
+ * block size (four bytes), the uncompressed size of the body (eight bytes) and the offset of the
+ * first index member (eight bytes). Since the content of index members is always
+ * {@link #EMPTY_DEFLATE}, the tail is found at a fixed distance of the end of the file.
+ * </ul>
+ * </p>
+ *
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ * @see BlockCompressedOutputChannel
+ * @see BlockCompressedInputChannel
+ */
+final class BlockGzip {
+
+    private static final int ID1 = 0x1f;
+
+    private static final int ID2 = 0x8b;
+
+    private static final int CM_DEFLATE = 8;
+
+    private static final int FLG_FEXTRA = 0x04;
+
+    private static final int OS_UNKNOWN = 0xff;
+
+    /**
+     * Length of the fixed part of a member header, including the {@code XLEN} field
+     */
+    static final int HEADER_LENGTH = 12;
+
+    /**
+     * Length of the {@code SI1, SI2, LEN} prefix of an extra subfield
+     */
+    static final int SUBFIELD_HEADER_LENGTH = 4;
+
+    /**
+     * Length of the {@code CRC32, ISIZE} member trailer
+     */
+    static final int TRAILER_LENGTH = 8;
+
+    static final byte SI1 = 'B';
+
+    /**
+     * Subfield identifier for the member size
+     */
+    static final byte MEMBER_SIZE_SI2 = 'C';
+
+    static final int MEMBER_SIZE_LENGTH = 4;
+
+    /**
+     * Subfield identifier for the block offsets
+     */
+    static final byte INDEX_SI2 = 'I';
+
+    /**
+     * Subfield identifier for the tail
+     */
+    static final byte TAIL_SI2 = 'T';
+
+    static final int TAIL_LENGTH = 4 + 8 + 8;
+
+    /**
+     * Deflate encoding of no content: a single, final, fixed Huffman block with just the end of
+     * block code
+     */
+    static final byte[] EMPTY_DEFLATE = { 0x03, 0x00 };
+
+    /**
+     * Distance from the start of the tail subfield to the end of the file
+     */
+    static final int TAIL_DISTANCE = SUBFIELD_HEADER_LENGTH + TAIL_LENGTH + EMPTY_DEFLATE.length
+            + TRAILER_LENGTH;
+
+    /**
+     * Maximum number of block offsets per index member, so that its extra field, including the
+     * member size and tail subfields, does not exceed the 65535 bytes allowed by {@code XLEN}
+     */
+    static final int MAX_INDEX_ENTRIES = (0xFFFF - 2 * SUBFIELD_HEADER_LENGTH - MEMBER_SIZE_LENGTH
+            - SUBFIELD_HEADER_LENGTH - TAIL_LENGTH) / 8;
+
+    /**
+     * Maximum uncompressed size of a block. Writers refuse larger blocks, and readers take a member
+     * or tail stating a larger size as corrupt instead of allocating whatever the file says.
+     */
+    static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Maximum size of a member, leaving room for incompressible blocks, which deflate slightly
+     * grows
+     */
+    static final int MAX_MEMBER_SIZE = 2 * MAX_BLOCK_SIZE;
+
+    /**
+     * Length of the prefix needed by {@link #isBlockCompressed(ByteBuffer)}
+     */
+    static final int SIGNATURE_LENGTH = HEADER_LENGTH + SUBFIELD_HEADER_LENGTH;
+
+    private BlockGzip() {
+        // no-op
+    }
+
+    /**
+     * Returns a little endian view of {@code length} bytes of {@code data} starting at
+     * {@code offset}, with its position at {@code offset}.
+     */
+    static ByteBuffer wrap(final byte[] data, final int offset, final int length) {
+        final ByteBuffer buff = ByteBuffer.wrap(data, offset, length);
+        buff.order(ByteOrder.LITTLE_ENDIAN);
+        return buff;
+    }
+
+    /**
+     * Checks whether {@code buffer}'s remaining content starts with a block compressed member
+     * header, without modifying its position.
+     *
+     * @param buffer
+     *            a buffer with at least {@link #SIGNATURE_LENGTH} remaining bytes
+     */
+    static boolean isBlockCompressed(final ByteBuffer buffer) {
+        final int p = buffer.position();
+        if (buffer.remaining() < SIGNATURE_LENGTH) {
+            return false;
+        }
+        return hasExtraField(buffer, p) && buffer.get(p + HEADER_LENGTH) == SI1
+                && buffer.get(p + HEADER_LENGTH + 1) == MEMBER_SIZE_SI2;
+    }
+
+    private static boolean hasExtraField(final ByteBuffer buffer, final int p) {
+        return (buffer.get(p) & 0xFF) == ID1 && (buffer.get(p + 1) & 0xFF) == ID2
+                && buffer.get(p + 2) == CM_DEFLATE && (buffer.get(p + 3) & FLG_FEXTRA) != 0;
+    }
+
+    /**
+     * Puts a member header with an extra field of {@code xlen} bytes, followed by the member size
+     * subfield, which shall be the first one of the extra field.
+     */
+    static void putHeader(final ByteBuffer buffer, final int xlen, final int memberSize) {
+        buffer.put((byte) ID1);
+        buffer.put((byte) ID2);
+        buffer.put((byte) CM_DEFLATE);
+        buffer.put((byte) FLG_FEXTRA);
+        buffer.putInt(0);// MTIME
+        buffer.put((byte) 0);// XFL
+        buffer.put((byte) OS_UNKNOWN);
+        buffer.putShort((short) xlen);
+        putSubfieldHeader(buffer, MEMBER_SIZE_SI2, MEMBER_SIZE_LENGTH);
+        buffer.putInt(memberSize);
+    }
+
+    static void putSubfieldHeader(final ByteBuffer buffer, final byte si2, final int length) {
+        buffer.put(SI1);
+        buffer.put(si2);
+        buffer.putShort((short) length);
+    }
+
+    /**
+     * Returns the length of the extra field of the member header at the start of {@code header}
+     *
+     * @throws IOException
+     *             if {@code header} does not start with a GZIP member header with an extra field
+     */
+    static int getExtraLength(final byte[] header) throws IOException {
+        final ByteBuffer buffer = wrap(header, 0, HEADER_LENGTH);
+        if (!hasExtraField(buffer, 0)) {
+            throw new IOException("Not a block compressed GZIP member");
+        }
+        return buffer.getShort(HEADER_LENGTH - 2) & 0xFFFF;
+    }
+
+    /**
+     * Looks up the subfield identified by {@code si2} in the extra field of the member at the
+     * start of {@code member}.
+     *
+     * @return the offset in {@code member} of the subfield's payload, or {@code -1} if not found
+     */
+    static int findSubfield(final byte[] member, final int xlen, final byte si2) {
+        final ByteBuffer extra = wrap(member, 0, HEADER_LENGTH + xlen);
+        final int end = HEADER_LENGTH + xlen;
+        int offset = HEADER_LENGTH;
+        while (offset + SUBFIELD_HEADER_LENGTH <= end) {
+            final int length = extra.getShort(offset + 2) & 0xFFFF;
+            if (member[offset] == SI1 && member[offset + 1] == si2) {
+                return offset + SUBFIELD_HEADER_LENGTH;
+            }
+            offset += SUBFIELD_HEADER_LENGTH + length;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the length of the payload of the subfield whose payload starts at
+     * {@code payloadOffset}, as returned by {@link #findSubfield(byte[], int, byte)}
+     */
+    static int getSubfieldLength(final byte[] member, final int payloadOffset) {
+        return wrap(member, 0, payloadOffset).getShort(payloadOffset - 2) & 0xFFFF;
+    }
+
+    /**
+     * Returns the member size stored in the header at the start of {@code member}
+     *
+     * @throws IOException
+     *             if the member size is not the first subfield of the extra field
+     */
+    static int getMemberSize(final byte[] member) throws IOException {
+        if (member[HEADER_LENGTH] != SI1 || member[HEADER_LENGTH + 1] != MEMBER_SIZE_SI2) {
+            throw new IOException("Not a block compressed GZIP member");
+        }
+        return wrap(member, 0, HEADER_LENGTH + SUBFIELD_HEADER_LENGTH + MEMBER_SIZE_LENGTH)
+                .getInt(HEADER_LENGTH + SUBFIELD_HEADER_LENGTH);
+    }
+
+    /**
+     * Returns the uncompressed size of the member content as stated by its {@code ISIZE} field
+     */
+    static int getUncompressedSize(final byte[] member, final int memberSize) {
+        return wrap(member, 0, memberSize).getInt(memberSize - 4);
+    }
+
+    /**
+     * Inflates the content of the block compressed {@code member} into {@code target}, verifying
+     * it against the member's {@code CRC32} and {@code ISIZE} fields.
+     *
+     * @param target
+     *            where to inflate the member content to, shall be big enough to hold
+     *            {@link #getUncompressedSize(byte[], int)} bytes
+     * @return the number of uncompressed bytes
+     * @throws IOException
+     *             if the member is corrupt
+     */
+    static int inflate(final byte[] member, final int memberSize, final byte[] target,
+            final Inflater inflater, final CRC32 crc) throws IOException {
+        final int xlen = getExtraLength(member);
+        final int dataOffset = HEADER_LENGTH + xlen;
+        final int dataLength = memberSize - dataOffset - TRAILER_LENGTH;
+        final ByteBuffer trailer = wrap(member, 0, memberSize);
+        final int expectedCrc = trailer.getInt(memberSize - TRAILER_LENGTH);
+        final int expectedSize = trailer.getInt(memberSize - 4);
+        if (dataLength < 0 || expectedSize < 0 || expectedSize > target.length) {
+            throw new IOException("Corrupt block compressed GZIP member");
+        }
+        inflater.reset();
+        inflater.setInput(member, dataOffset, dataLength);
+        int size = 0;
+        try {
+            while (!inflater.finished()) {
+                if (size == target.length) {
+                    // the end of stream marker may still be pending, but nothing else shall be
+                    if (inflater.inflate(new byte[1]) > 0) {
+                        size++;
+                    }
+                    break;
+                }
+                final int count = inflater.inflate(target, size, target.length - size);
+                if (count == 0 && inflater.needsInput()) {
+                    break;
+                }
+                size += count;
+            }
+        } catch (DataFormatException e) {
+            final IOException ioe = new IOException("Corrupt block compressed GZIP member");
+            ioe.initCause(e);
+            throw ioe;
+        }
+        crc.reset();
+        crc.update(target, 0, size);
+        if (!inflater.finished() || size != expectedSize || (int) crc.getValue() != expectedCrc) {
+            throw new IOException("Corrupt block compressed GZIP member");
+        }
+        return size;
+    }
+}
@@ -0,0 +1,388 @@
+package org.gvsig.bxml.stream.io;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool of the {@link ByteBuffer}s and {@code byte[]}s used by the BXML input and output streams.
+ * <p>
+ * Pooled objects are grouped in size classes of power of two capacities, from
+ * {@link #MIN_CAPACITY} to {@link #MAX_POOLED_CAPACITY}. Each thread keeps one object per size
+ * class up to {@link #MAX_THREAD_CACHED_CAPACITY} that's reused without any synchronization, and
+ * the objects that don't fit in it go to a bounded, lock free, global depot per size class shared
+ * by all threads. Objects bigger than {@link #MAX_POOLED_CAPACITY} or returned when the depot is
+ * full are just left to the garbage collector.
+ * </p>
+ * <p>
+ * Buffers are allocated direct as long as the direct memory held by the pool does not exceed
+ * {@link #getMaxDirectMemory()}, and on the heap afterwards, so that running out of pooled buffers
+ * never blocks nor fails. The limit defaults to {@value #DEFAULT_MAX_DIRECT_MEMORY} bytes and can
+ * be set through the {@value #MAX_DIRECT_MEMORY_PROPERTY} system property.
+ * </p>
+ * <p>
+ * The streams use the {@link #DEFAULT} pool. Other instances share nothing with it, and are
+ * meant for tests that need to know what's in the pool.
+ * </p>
+ * <p>
+ * {@link #clear()} empties the depots and the caches of every thread, so that an application
+ * being shut down does not leave pooled buffers behind in the threads of a container that
+ * outlives it.
+ * </p>
+ *
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+final class BufferPool {
+
+    /**
+     * Capacity of the smallest size class, smaller requests get a buffer of this capacity
+     */
+    static final int MIN_CAPACITY = 1024;
+
+    private static final int SIZE_CLASSES = 11;
+
+    /**
+     * Capacity of the biggest size class, bigger objects are not pooled
+     */
+    static final int MAX_POOLED_CAPACITY = MIN_CAPACITY << (SIZE_CLASSES - 1);
+
+    /**
+     * Capacity of the biggest size class cached per thread
+     */
+    static final int MAX_THREAD_CACHED_CAPACITY = 64 * 1024;
+
+    private static final int THREAD_CACHED_SIZE_CLASSES = sizeClassOf(MAX_THREAD_CACHED_CAPACITY)
+            + 1;
+
+    /**
+     * Maximum number of objects per size class in the global depots
+     */
+    static final int DEPOT_DEPTH = 8;
+
+    /**
+     * System property to set the maximum amount of direct memory in bytes used by pooled buffers
+     */
+    public static final String MAX_DIRECT_MEMORY_PROPERTY = "org.gvsig.bxml.maxDirectMemory";
+
+    static final long DEFAULT_MAX_DIRECT_MEMORY = 128L * 1024 * 1024;
+
+    /**
+     * The pool shared by the BXML input and output streams
+     */
+    static final BufferPool DEFAULT = new BufferPool(Long.getLong(MAX_DIRECT_MEMORY_PROPERTY,
+            DEFAULT_MAX_DIRECT_MEMORY).longValue());
+
+    private volatile long maxDirectMemory;
+
+    /**
+     * Capacity of the direct buffers allocated by the pool and not yet discarded
+     */
+    private final AtomicLong directMemory = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private final SizeClassPool<ByteBuffer> buffers = new SizeClassPool<ByteBuffer>() {
+        @Override
+        int capacity(final ByteBuffer buffer) {
+            return buffer.capacity();
+        }
+
+        @Override
+        ByteBuffer allocate(final int capacity) {
+            final long used = directMemory.addAndGet(capacity);
+            if (used <= maxDirectMemory) {
+                return ByteBuffer.allocateDirect(capacity);
+            }
+            directMemory.addAndGet(-capacity);
+            return ByteBuffer.allocate(capacity);
+        }
+
+        @Override
+        void discard(final ByteBuffer buffer) {
+            if (buffer.isDirect()) {
+                directMemory.addAndGet(-buffer.capacity());
+            }
+        }
+    };
+
+    private final SizeClassPool<byte[]> arrays = new SizeClassPool<byte[]>() {
+        @Override
+        int capacity(final byte[] array) {
+            return array.length;
+        }
+
+        @Override
+        byte[] allocate(final int capacity) {
+            return new byte[capacity];
+        }
+
+        @Override
+        void discard(final byte[] array) {
+            // no-op
+        }
+    };
+
+    /**
+     * Creates an empty pool, independent of the {@link #DEFAULT} one
+     *
+     * @param maxDirectMemory
+     *            the maximum amount of direct memory, in bytes, to allocate buffers from
+     */
+    BufferPool(final long maxDirectMemory) {
+        setMaxDirectMemory(maxDirectMemory);
+    }
+
+    /**
+     * Returns a cleared, big endian, buffer of at least {@code minimumCapacity} bytes, to be
+     * given back through {@link #returnToPool(ByteBuffer)} once no longer needed.
+     */
+    public ByteBuffer getByteBuffer(final int minimumCapacity) {
+        final ByteBuffer buffer = buffers.get(minimumCapacity);
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Gives {@code buffer} back to the pool, it shall no longer be used by the calling code.
+     *
+     * @param buffer
+     *            the buffer to return, may be {@code null}. Shall not be a memory mapped one.
+     */
+    public void returnToPool(final ByteBuffer buffer) {
+        if (buffer != null) {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * Returns an array of at least {@code minimumSize} bytes, to be given back through
+     * {@link #returnArray(byte[])} once no longer needed.
+     */
+    public byte[] newByteArray(final int minimumSize) {
+        return arrays.get(minimumSize);
+    }
+
+    /**
+     * Gives {@code array} back to the pool, it shall no longer be used by the calling code.
+     *
+     * @param array
+     *            the array to return, may be {@code null}
+     */
+    public void returnArray(final byte[] array) {
+        if (array != null) {
+            arrays.release(array);
+        }
+    }
+
+    /**
+     * @return the maximum amount of direct memory, in bytes, the pool allocates buffers from
+     */
+    public long getMaxDirectMemory() {
+        return maxDirectMemory;
+    }
+
+    /**
+     * Sets the maximum amount of direct memory, in bytes, the pool allocates buffers from. Buffers
+     * are allocated on the heap when it's exceeded.
+     */
+    public void setMaxDirectMemory(final long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes shall be >= 0: " + maxBytes);
+        }
+        maxDirectMemory = maxBytes;
+    }
+
+    /**
+     * @return the capacity of the direct buffers allocated by the pool and not yet discarded
+     */
+    public long getDirectMemory() {
+        return directMemory.get();
+    }
+
+    /**
+     * @return how many requests were served with a pooled object
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return how many requests needed a new object to be allocated
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of bytes allocated, direct or on the heap, to serve the missed requests
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * Drops every pooled object, from the global depots and from the caches of all threads. The
+     * pool is still usable afterwards, and just allocates new objects as needed.
+     */
+    public void clear() {
+        buffers.clear();
+        arrays.clear();
+    }
+
+    /**
+     * Returns the size class for objects of {@code capacity} bytes, the smallest one whose
+     * capacity is at least {@code capacity}
+     */
+    static int sizeClassOf(final int capacity) {
+        if (capacity <= MIN_CAPACITY) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros((capacity - 1) / MIN_CAPACITY);
+    }
+
+    /**
+     * The thread local caches and global depots for one kind of pooled object
+     */
+    private abstract class SizeClassPool<T> {
+
+        /**
+         * The calling thread's cache. Only its owner thread puts objects in it, but
+         * {@link #clear()} takes them from any thread, hence the atomic array.
+         */
+        private final ThreadLocal<AtomicReferenceArray<Object>> threadCache = new ThreadLocal<AtomicReferenceArray<Object>>() {
+            @Override
+            protected AtomicReferenceArray<Object> initialValue() {
+                final AtomicReferenceArray<Object> cache;
+                cache = new AtomicReferenceArray<Object>(THREAD_CACHED_SIZE_CLASSES);
+                register(cache);
+                return cache;
+            }
+        };
+
+        /**
+         * The caches of all threads, weakly referenced so that the ones of terminated threads can
+         * be garbage collected
+         */
+        private final Queue<WeakReference<AtomicReferenceArray<Object>>> threadCaches = new ConcurrentLinkedQueue<WeakReference<AtomicReferenceArray<Object>>>();
+
+        @SuppressWarnings("unchecked")
+        private final Queue<T>[] depots = (Queue<T>[]) new Queue<?>[SIZE_CLASSES];
+
+        private final AtomicInteger[] depotSizes = new AtomicInteger[SIZE_CLASSES];
+
+        SizeClassPool() {
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                depots[i] = new ConcurrentLinkedQueue<T>();
+                depotSizes[i] = new AtomicInteger();
+            }
+        }
+
+        abstract int capacity(T pooled);
+
+        abstract T allocate(int capacity);
+
+        /**
+         * Called when a pooled object is dropped, so that it can be garbage collected
+         */
+        abstract void discard(T pooled);
+
+        @SuppressWarnings("unchecked")
+        final T get(final int minimumCapacity) {
+            final int sizeClass = sizeClassOf(minimumCapacity);
+            if (sizeClass < SIZE_CLASSES) {
+                T pooled = null;
+                if (sizeClass < THREAD_CACHED_SIZE_CLASSES) {
+                    pooled = (T) threadCache.get().getAndSet(sizeClass, null);
+                }
+                if (pooled == null) {
+                    pooled = depots[sizeClass].poll();
+                    if (pooled != null) {
+                        depotSizes[sizeClass].decrementAndGet();
+                    }
+                }
+                if (pooled != null) {
+                    hits.incrementAndGet();
+                    return pooled;
+                }
+            }
+            misses.incrementAndGet();
+            final int capacity = sizeClass < SIZE_CLASSES ? MIN_CAPACITY << sizeClass
+                    : minimumCapacity;
+            allocatedBytes.addAndGet(capacity);
+            return allocate(capacity);
+        }
+
+        final void release(final T pooled) {
+            final int capacity = capacity(pooled);
+            if (capacity < MIN_CAPACITY) {
+                discard(pooled);
+                return;
+            }
+            // the biggest size class whose capacity is not bigger than the object's
+            final int sizeClass = 31 - Integer.numberOfLeadingZeros(capacity / MIN_CAPACITY);
+            if (sizeClass >= SIZE_CLASSES) {
+                discard(pooled);
+                return;
+            }
+            if (sizeClass < THREAD_CACHED_SIZE_CLASSES) {
+                if (threadCache.get().compareAndSet(sizeClass, null, pooled)) {
+                    return;
+                }
+            }
+            if (depotSizes[sizeClass].incrementAndGet() <= DEPOT_DEPTH) {
+                depots[sizeClass].offer(pooled);
+            } else {
+                depotSizes[sizeClass].decrementAndGet();
+                discard(pooled);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        final void clear() {
+            final Iterator<WeakReference<AtomicReferenceArray<Object>>> caches;
+            for (caches = threadCaches.iterator(); caches.hasNext();) {
+                final AtomicReferenceArray<Object> cache = caches.next().get();
+                if (cache == null) {
+                    caches.remove();
+                    continue;
+                }
+                for (int i = 0; i < THREAD_CACHED_SIZE_CLASSES; i++) {
+                    final T pooled = (T) cache.getAndSet(i, null);
+                    if (pooled != null) {
+                        discard(pooled);
+                    }
+                }
+            }
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                T pooled;
+                while ((pooled = depots[i].poll()) != null) {
+                    depotSizes[i].decrementAndGet();
+                    discard(pooled);
+                }
+            }
+        }
+
+        private void register(final AtomicReferenceArray<Object> cache) {
+            // drop the caches of the threads that terminated since the last one was registered
+            for (Iterator<WeakReference<AtomicReferenceArray<Object>>> caches = threadCaches
+                    .iterator(); caches.hasNext();) {
+                if (caches.next().get() == null) {
+                    caches.remove();
+                }
+            }
+            threadCaches.offer(new WeakReference<AtomicReferenceArray<Object>>(cache));
+        }
+    }
+}
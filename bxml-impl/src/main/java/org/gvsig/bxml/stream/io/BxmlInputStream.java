@@ -142,15 +142,20 @@ public interface BxmlInputStream {
     public String readString() throws IOException;
 
     /**
-     * Reads as much characters as possible and stores them in {@code dst} starting at index
-     * {@code offset}, and returns the number of characters stored or {@code -1} if there are no
-     * more characters for the current string token.
+     * Reads a string into an internal character buffer and returns it without creating a String
+     * object out of it.
+     * <p>
+     * The returned sequence is backed by a buffer that's reused for every string read, so it is
+     * only valid until the next read operation on this stream. Client code needing to hold on to
+     * the value shall make a copy of it, for example through {@code toString()}.
+     * </p>
      * 
-     * @param dst
-     * @param offset
-     * @return
+     * @return the string read, valid until the next read operation
+     * @throws IOException
+     * @see #readString()
      */
-    // public void readString(char[] dst, int offset, int length) throws IOException;
+    public CharSequence readCharSequence() throws IOException;
+
     /**
      * Uses the following {@code byteCount} bytes from the underlying input stream to decode them as
      * a String using the provided {@code charsetDecoder} and store the decoded characters into the
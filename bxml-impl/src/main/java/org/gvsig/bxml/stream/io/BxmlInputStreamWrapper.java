@@ -125,9 +125,9 @@ public abstract class BxmlInputStreamWrapper implements BxmlInputStream {
         return wrapped.readString();
     }
 
-    // public void readString(char[] dst, int offset) throws IOException {
-    // wrapped.readString(dst, offset);
-    // }
+    public CharSequence readCharSequence() throws IOException {
+        return wrapped.readCharSequence();
+    }
 
     public void decode(CharsetDecoder charsetDecoder, CharBuffer charBuffer, int length)
             throws IOException {
@@ -72,6 +72,42 @@ public interface BxmlOutputStream {
      */
     public void setCharactersEncoding(Charset charset);
 
+    /**
+     * Sets the compression level to use if the header given to {@link #writeHeader(Header)} states
+     * the document body shall be {@link Header.Compression#GZIP GZIP} compressed.
+     * <p>
+     * Shall be called before {@link #writeHeader(Header)} in order to take effect. If not
+     * explicitly set, the deflater's default compression level is used.
+     * </p>
+     * 
+     * @param level
+     *            the compression level, from {@code 0} (no compression) to {@code 9} (best
+     *            compression), or {@code -1} for the default compression level
+     * @throws IllegalArgumentException
+     *             if {@code level} is not a valid compression level
+     */
+    public void setCompressionLevel(int level);
+
+    /**
+     * Sets the uncompressed size of the independently compressed blocks the document body shall be
+     * split into if the header given to {@link #writeHeader(Header)} states the document body shall
+     * be {@link Header.Compression#GZIP GZIP} compressed.
+     * <p>
+     * A block compressed body is still a valid GZIP stream, but also carries an index of the block
+     * offsets so that it can be randomly accessed by decompressing a single block. Shall be called
+     * before {@link #writeHeader(Header)} in order to take effect. If not explicitly set, or set to
+     * {@code 0}, the body is compressed as a single GZIP stream and hence does not support random
+     * access.
+     * </p>
+     * 
+     * @param blockSize
+     *            the uncompressed size in bytes of each compressed block, at most 16MB, or
+     *            {@code 0} for no block compression
+     * @throws IllegalArgumentException
+     *             if {@code blockSize < 0} or greater than 16MB
+     */
+    public void setCompressionBlockSize(int blockSize);
+
     /**
      * Closes this stream and releases any system resources associated with it, but does not close
      * the underlying output stream/channel.
@@ -133,14 +169,33 @@ public interface BxmlOutputStream {
      * {@link TokenType#ContentElement}, or {@link TokenType#ContentAttrElement}, and which one
      * might not be known in advance.
      * </p>
+     * <p>
+     * Content written before auto flushing was disabled may still be flushed to make room in the
+     * buffer, so it is only possible to go back to positions at or after the one the stream was at
+     * when {@code setAutoFlushing(false)} was called.
+     * </p>
      * 
      * @param autoFlush
      *            {@code true} for this output stream to decide when to flush content, {@code false}
-     *            to prevent it from flushing content at all until {@code autoFlush} is set to
-     *            {@code true} again.
+     *            to prevent it from flushing content written from the current position on until
+     *            {@code autoFlush} is set to {@code true} again.
      */
     public void setAutoFlushing(boolean autoFlush);
 
+    /**
+     * Disables {@link #setAutoFlushing(boolean) auto flushing}, if not already disabled, and pins
+     * the current position as the one the stream can go back to.
+     * <p>
+     * Unlike {@code setAutoFlushing(false)}, this moves the pinned position forward even if auto
+     * flushing is already disabled, allowing the content written before the current position to be
+     * flushed to make room in the buffer. This is the case of a start element token, whose parent
+     * element token is already final at that point.
+     * </p>
+     * 
+     * @see #setAutoFlushing(boolean)
+     */
+    public void pin();
+
     /**
      * 
      * @return
@@ -81,10 +81,22 @@ public abstract class BxmlOutputStreamWrapper implements BxmlOutputStream {
         wrapped.setAutoFlushing(autoFlush);
     }
 
+    public void pin() {
+        wrapped.pin();
+    }
+
     public void setCharactersEncoding(Charset charset) {
         wrapped.setCharactersEncoding(charset);
     }
 
+    public void setCompressionLevel(int level) {
+        wrapped.setCompressionLevel(level);
+    }
+
+    public void setCompressionBlockSize(int blockSize) {
+        wrapped.setCompressionBlockSize(blockSize);
+    }
+
     public void setEndianess(ByteOrder byteOrder) {
         wrapped.setEndianess(byteOrder);
     }
@@ -34,6 +34,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 
@@ -43,6 +44,16 @@ public interface BxmlStreamFactory {
 
     public BxmlInputStream createInputStream(ReadableByteChannel in) throws IOException;
 
+    /**
+     * Creates a binary xml input stream that accesses the file contents through read only memory
+     * mapped windows instead of copying them to an intermediate buffer.
+     * 
+     * @param in
+     *            the file channel to read the bxml document from
+     * @return
+     */
+    public BxmlInputStream createMappedInputStream(FileChannel in) throws IOException;
+
     /**
      * Creates a binary xml output stream in {@link ByteOrder#nativeOrder() native} byte order.
      * 
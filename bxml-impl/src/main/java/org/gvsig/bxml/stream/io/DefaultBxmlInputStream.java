@@ -50,6 +50,7 @@ import java.nio.charset.CharsetDecoder;
 import java.util.Arrays;
 import java.util.Set;
 
+import org.gvsig.bxml.stream.io.Header.Compression;
 import org.gvsig.bxml.stream.io.Header.Flags;
 
 /**
@@ -67,6 +68,11 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
      */
     protected static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
 
+    /**
+     * Default size of the inflater input buffer for {@link Compression#GZIP compressed} documents
+     */
+    static final int DEFAULT_INFLATE_BUFFER_SIZE = 8 * 1024;
+
     /**
      * Lazily initialized by {@link #getHeader()}
      */
@@ -86,17 +92,57 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
      */
     private long position;
 
-    private final boolean supportsRandomAccess;
+    /**
+     * Whether the channel is a FileChannel and the body is either not compressed or
+     * {@link BlockGzip block compressed}
+     */
+    private boolean supportsRandomAccess;
+
+    /**
+     * Whether the contents of the (file) channel are accessed through memory mapped windows instead
+     * of being copied to a pooled buffer
+     */
+    private boolean memoryMapped;
+
+    /**
+     * The size of the pooled buffer, or the size of the mapped window if {@link #memoryMapped}
+     */
+    private final int pageSize;
+
+    /**
+     * The file offset {@link #buffer} is mapped at if {@link #memoryMapped}, so that
+     * {@code position == windowStart + buffer.position()}
+     */
+    private long windowStart;
+
+    /**
+     * The file size if known, -1 if unknown (hence supportsRandomAccess == false). If the body is
+     * {@link #blockChannel block compressed} this is the size the file would have if it were not
+     * compressed
+     */
+    private long fileSize;
+
+    /**
+     * The channel that decompresses the document body if it is {@link BlockGzip block compressed}
+     * and random access is supported, {@code null} otherwise
+     */
+    private BlockCompressedInputChannel blockChannel;
+
+    /**
+     * The position at which the document body starts if {@link #blockChannel} is set
+     */
+    private long bodyStart;
 
     /**
-     * Whether channel is a FileChannel and hence the buffer can be memory mapped
+     * Size of the inflater input buffer if the body is {@link Compression#GZIP compressed}
      */
-    private final boolean bufferIsMappeable;
+    private final int inflateBufferSize;
 
     /**
-     * The file size if known, -1 if unknown (hence bufferIsMappeable == false)
+     * Scratch buffer for {@link #readShort(int[], int, int)} and
+     * {@link #readUShort(int[], int, int)}, lazily created and grown up to the chunk size
      */
-    private final long fileSize;
+    private short[] shortBuffer;
 
     /**
      * Initializes this bxml input stream by reading the header.
@@ -116,6 +162,62 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
         this(null, channel, pageSize);
     }
 
+    /**
+     * Initializes this bxml input stream by reading the header, optionally accessing the file
+     * contents through memory mapped windows.
+     * <p>
+     * When {@code memoryMapped == true} the content is not copied to an intermediate buffer but
+     * accessed directly from a read only mapping of a region of the file of up to
+     * {@code pageSize} bytes, which is slid over the file as needed. This allows to read files of
+     * any size (including files bigger than 2GB), while saving the system calls and memory copies
+     * involved in filling the buffer.
+     * </p>
+     * 
+     * @pre {channel != null}
+     * @pre {channel.isOpen() == true}
+     * @pre {pageSize > 0}
+     * @param channel
+     *            input channel from where to read the bxml stream
+     * @param pageSize
+     *            the size in bytes for the internal buffer used to do bulk reads from the channel,
+     *            or the size of the mapped window if {@code memoryMapped == true}
+     * @param memoryMapped
+     *            whether to use memory mapped windows to access the file contents
+     * @throws IOException
+     *             if an I/O exception occurs reading the input channel
+     * @throws IllegalArgumentException
+     *             if the header not well formed
+     */
+    public DefaultBxmlInputStream(FileChannel channel, int pageSize, boolean memoryMapped)
+            throws IOException {
+        this(null, channel, pageSize, memoryMapped, DEFAULT_INFLATE_BUFFER_SIZE);
+    }
+
+    /**
+     * Initializes this bxml input stream by reading the header, as
+     * {@link #DefaultBxmlInputStream(FileChannel, int, boolean)} does, and specifying the size of
+     * the inflater buffer to use if the document body is {@link Compression#GZIP compressed}.
+     * 
+     * @param channel
+     *            input channel from where to read the bxml stream
+     * @param pageSize
+     *            the size in bytes for the internal buffer used to do bulk reads from the channel,
+     *            or the size of the mapped window if {@code memoryMapped == true}
+     * @param memoryMapped
+     *            whether to use memory mapped windows to access the file contents, only taken into
+     *            account if {@code channel} is a {@link FileChannel}
+     * @param inflateBufferSize
+     *            size in bytes of the buffer compressed data is read into before inflating it
+     * @throws IOException
+     *             if an I/O exception occurs reading the input channel
+     * @throws IllegalArgumentException
+     *             if the header not well formed
+     */
+    public DefaultBxmlInputStream(ReadableByteChannel channel, int pageSize,
+            boolean memoryMapped, int inflateBufferSize) throws IOException {
+        this(null, channel, pageSize, memoryMapped, inflateBufferSize);
+    }
+
     /**
      * Package visible constructor <b>only</b> to easy unit testing by providing a Header so it does
      * not have to be parsed.
@@ -129,21 +231,52 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
      */
     DefaultBxmlInputStream(Header header, ReadableByteChannel channel, int pageSize)
             throws IOException {
+        this(header, channel, pageSize, false, DEFAULT_INFLATE_BUFFER_SIZE);
+    }
+
+    /**
+     * Package visible constructor <b>only</b> to easy unit testing by providing a Header so it does
+     * not have to be parsed.
+     * 
+     * @param header
+     *            the parsed file header, may be {@code null}, in which case it'll be parsed from
+     *            the {@code channel} content in order to initialize the stream
+     * @param channel
+     * @param pageSize
+     * @param memoryMapped
+     *            whether to memory map the channel contents, only taken into account if
+     *            {@code channel} is a {@link FileChannel}
+     * @param inflateBufferSize
+     *            size in bytes of the buffer compressed data is read into before inflating it
+     * @throws IOException
+     */
+    DefaultBxmlInputStream(Header header, ReadableByteChannel channel, int pageSize,
+            boolean memoryMapped, int inflateBufferSize) throws IOException {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize shall be > 0: " + pageSize);
+        }
+        if (inflateBufferSize <= 0) {
+            throw new IllegalArgumentException("inflateBufferSize shall be > 0: "
+                    + inflateBufferSize);
+        }
+        this.inflateBufferSize = inflateBufferSize;
         this.readChannel = channel;
         this.supportsRandomAccess = channel instanceof FileChannel;
-        this.bufferIsMappeable = channel instanceof FileChannel;
+        this.memoryMapped = memoryMapped && channel instanceof FileChannel;
+        this.pageSize = pageSize;
 
         ByteBuffer buffer;
-        if (false && bufferIsMappeable) {
-            final FileChannel fileChannel = (FileChannel) channel;
-            final long size = fileChannel.size();
-            final long mapSize = Math.min(size, pageSize);
-            this.fileSize = size;
-            buffer = fileChannel.map(MapMode.READ_ONLY, 0, mapSize);
+        if (supportsRandomAccess) {
+            this.fileSize = ((FileChannel) channel).size();
         } else {
             this.fileSize = -1L;
+        }
+        if (this.memoryMapped) {
+            this.windowStart = 0;
+            buffer = map(0, 0);
+        } else {
             //buffer = ByteBuffer.allocate(pageSize);
-            buffer = ByteBufferPool.getByteBuffer(pageSize);
+            buffer = BufferPool.DEFAULT.getByteBuffer(pageSize);
             // start empty
             buffer.position(0);
             buffer.limit(0);
@@ -154,8 +287,115 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
             theHeader = parseHeader();
         }
         this.header = theHeader;
+        if (Compression.GZIP == this.header.getCompression()) {
+            ensureCapacity(Math.min(BlockGzip.SIGNATURE_LENGTH, maxChunkSize()));
+            if (BlockGzip.isBlockCompressed(this.buffer)) {
+                startBlockInflating();
+            } else {
+                startInflating();
+            }
+        }
         final Flags flags = this.header.getFlags();
-        buffer.order(flags.getEndianess());
+        this.buffer.order(flags.getEndianess());
+    }
+
+    /**
+     * Replaces the read channel by one that inflates the GZIP compressed document body that
+     * follows the header.
+     * <p>
+     * The stream {@link #getPosition() position} keeps counting uncompressed bytes, but random
+     * access is no longer supported since the file offsets do not match the compressed content.
+     * </p>
+     */
+    private void startInflating() throws IOException {
+        final byte[] pending;
+        if (memoryMapped) {
+            // no need to copy the rest of the mapped window, just read from the file
+            final FileChannel fileChannel = (FileChannel) readChannel;
+            fileChannel.position(windowStart + buffer.position());
+            MappedBuffers.unmap(buffer);
+            this.memoryMapped = false;
+            this.buffer = BufferPool.DEFAULT.getByteBuffer(inflateBufferSize);
+            pending = null;
+        } else {
+            // whatever was read ahead of the header belongs to the compressed stream
+            pending = new byte[buffer.remaining()];
+            buffer.get(pending);
+        }
+        buffer.position(0);
+        buffer.limit(0);
+        this.readChannel = GzipChannels.newInflatingChannel(readChannel, pending,
+                inflateBufferSize);
+        this.supportsRandomAccess = false;
+    }
+
+    /**
+     * Replaces the read channel by one that decompresses the {@link BlockGzip block compressed}
+     * document body that follows the header.
+     * <p>
+     * If the channel is a {@link FileChannel} random access is still supported: the block index is
+     * read from the end of the file and {@link #setPosition(long)} decompresses only the block that
+     * contains the requested position.
+     * </p>
+     */
+    private void startBlockInflating() throws IOException {
+        if (!(readChannel instanceof FileChannel)) {
+            final byte[] pending = new byte[buffer.remaining()];
+            buffer.get(pending);
+            buffer.position(0);
+            buffer.limit(0);
+            this.readChannel = new BlockCompressedInputChannel(readChannel, pending);
+            this.supportsRandomAccess = false;
+            return;
+        }
+        if (memoryMapped) {
+            MappedBuffers.unmap(buffer);
+            this.memoryMapped = false;
+            this.buffer = BufferPool.DEFAULT.getByteBuffer(inflateBufferSize);
+        }
+        // the header is not compressed, so the body starts at the same offset in the file
+        this.bodyStart = position;
+        this.blockChannel = BlockCompressedInputChannel.open((FileChannel) readChannel, bodyStart);
+        this.fileSize = bodyStart + blockChannel.size();
+        this.readChannel = blockChannel;
+        buffer.position(0);
+        buffer.limit(0);
+    }
+
+    /**
+     * Maps a read only window of the file starting at {@code fileOffset}, of {@link #pageSize}
+     * bytes or {@code minLength} bytes, whichever is bigger, but not exceeding the end of file.
+     * 
+     * @return the mapped window, with its byte order already set
+     */
+    private ByteBuffer map(final long fileOffset, final int minLength) throws IOException {
+        final long available = Math.max(0, fileSize - fileOffset);
+        final long mapSize = Math.min(available, Math.max(pageSize, minLength));
+        final FileChannel fileChannel = (FileChannel) readChannel;
+        final ByteBuffer mapped;
+        mapped = fileChannel.map(MapMode.READ_ONLY, Math.min(fileOffset, fileSize), mapSize);
+        if (header != null) {
+            mapped.order(header.getFlags().getEndianess());
+        }
+        return mapped;
+    }
+
+    /**
+     * Slides the mapped window to start at {@code fileOffset}, releasing the current one.
+     */
+    private void remap(final long fileOffset, final int minLength) throws IOException {
+        final ByteBuffer mapped = map(fileOffset, minLength);
+        MappedBuffers.unmap(this.buffer);
+        this.buffer = mapped;
+        this.windowStart = fileOffset;
+    }
+
+    /**
+     * Returns the maximum number of bytes that can be requested at once to
+     * {@link #ensureCapacity(int)}
+     */
+    private int maxChunkSize() {
+        return memoryMapped ? pageSize : buffer.capacity();
     }
 
     private Header parseHeader() throws IllegalArgumentException, IOException {
@@ -198,6 +438,10 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
      * {@code length} remaining bytes, and its position will be set to {@code 0}.
      * </p>
      * <p>
+     * If the file is {@link #memoryMapped memory mapped}, the mapped window is slid to start at the
+     * current position instead.
+     * </p>
+     * <p>
      * NOTE: it is the responsibility of the calling code not to request a length greater than the
      * buffer's capacity
      * </p>
@@ -217,14 +461,9 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
         if (buffer.remaining() >= length) {
             return;
         }
-        if (false && bufferIsMappeable) {
-            long mapSize = Math.max(buffer.capacity(), length);
-            long mapFrom = Math.min(position, fileSize - mapSize);
-            buffer = ((FileChannel) readChannel).map(MapMode.READ_ONLY, mapFrom, mapSize);
-            final Flags flags = getHeader().getFlags();
-            buffer.order(flags.getEndianess());
-            long newBufferPosition = position - mapFrom;
-            buffer.position((int) newBufferPosition);
+        if (memoryMapped) {
+            // not just position, the decoder may have left some bytes unconsumed
+            remap(windowStart + buffer.position(), length);
         } else {
             buffer.compact();
             fill(buffer, readChannel);
@@ -236,6 +475,37 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
         }
     }
 
+    /**
+     * Ensures there's at least one element of {@code elementSize} bytes available in
+     * {@link #buffer} and returns how many of the {@code count} elements requested can be read
+     * straight from it, so that array reads can be performed in bulk instead of element by element.
+     * 
+     * @param elementSize
+     *            the size in bytes of the elements to read
+     * @param count
+     *            the number of elements still to be read
+     * @return the number of elements, between {@code 1} and {@code count}, that can be read from
+     *         {@link #buffer} without further calls to {@link #ensureCapacity(int)}
+     * @throws EOFException
+     *             if there are not enough data on the channel
+     */
+    private int ensureElements(final int elementSize, final int count) throws IOException {
+        if (buffer.remaining() < elementSize) {
+            final int maxChunkElements = Math.max(1, maxChunkSize() / elementSize);
+            ensureCapacity(elementSize * Math.min(maxChunkElements, count));
+        }
+        return Math.min(buffer.remaining() / elementSize, count);
+    }
+
+    /**
+     * Advances both the buffer and the stream position by {@code byteCount} after a bulk read
+     * performed on a view of {@link #buffer}, which does not modify the buffer position.
+     */
+    private void advance(final int byteCount) {
+        buffer.position(buffer.position() + byteCount);
+        position += byteCount;
+    }
+
     /**
      * @see ReadStrategy#getPosition()
      */
@@ -257,7 +527,7 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
         int readCount = 0;
         while (readCount < length) {
             final int remainingReadCount = length - readCount;
-            final int fillCount = Math.min(buffer.capacity(), remainingReadCount);
+            final int fillCount = Math.min(maxChunkSize(), remainingReadCount);
             ensureCapacity(fillCount);
             final int useCount = Math.min(buffer.remaining(), remainingReadCount);
             readCount += useCount;
@@ -301,6 +571,21 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
                     "Random access is only supported for FileChannel");
         }
 
+        if (memoryMapped) {
+            if (newPosition < 0 || newPosition > fileSize) {
+                throw new IllegalArgumentException("Can't set position to " + newPosition
+                        + ", file size is " + fileSize);
+            }
+            final long windowEnd = windowStart + buffer.limit();
+            if (newPosition >= windowStart && newPosition <= windowEnd) {
+                buffer.position((int) (newPosition - windowStart));
+            } else {
+                remap(newPosition, 0);
+            }
+            this.position = newPosition;
+            return;
+        }
+
         final long delta = newPosition - position;
         if (delta < 0) {
             if (buffer.position() > Math.abs(delta)) {
@@ -317,15 +602,24 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
 
         // skip directly on the channel, but preserve what might already be available in the
         // buffer to prevent multiple unnecessary subsequent reads
-        FileChannel fileChannel = (FileChannel) readChannel;
-        if (newPosition >= fileSize) {
+        if (newPosition > fileSize) {
             throw new IllegalArgumentException("Can't set position to " + newPosition
                     + ", file size is " + fileSize);
         }
-        try {
-            fileChannel.position(newPosition);
-        } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException("Setting fileChannel position to " + newPosition, e);
+        if (blockChannel != null) {
+            if (newPosition < bodyStart) {
+                throw new IllegalArgumentException("Can't set position to " + newPosition
+                        + ", the compressed document body starts at " + bodyStart);
+            }
+            blockChannel.position(newPosition - bodyStart);
+        } else {
+            FileChannel fileChannel = (FileChannel) readChannel;
+            try {
+                fileChannel.position(newPosition);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Setting fileChannel position to "
+                        + newPosition, e);
+            }
         }
         buffer.position(0).limit(0);
         this.position = newPosition;
@@ -354,7 +648,11 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
         }
         position = -1;
         readChannel = null;
-        ByteBufferPool.returnToPool(buffer);
+        if (memoryMapped) {
+            MappedBuffers.unmap(buffer);
+        } else {
+            BufferPool.DEFAULT.returnToPool(buffer);
+        }
         buffer = EMPTY_BUFFER;
     }
 
@@ -386,8 +684,15 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
      * @see BxmlInputStream#readBoolean(boolean[], int, int)
      */
     public void readBoolean(boolean[] dest, final int offset, final int count) throws IOException {
-        for (int i = 0; i < count; i++) {
-            dest[offset + i] = readBoolean();
+        int readCount = 0;
+        int chunkCount;
+        while (readCount < count) {
+            chunkCount = ensureElements(BYTE_BYTE_COUNT, count - readCount);
+            for (int i = 0; i < chunkCount; i++) {
+                dest[offset + readCount + i] = 0x00 != buffer.get();
+            }
+            position += chunkCount * BYTE_BYTE_COUNT;
+            readCount += chunkCount;
         }
     }
 
@@ -408,7 +713,7 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
         int readCount = 0;
         while (readCount < count) {
             final int remainingReadCount = count - readCount;
-            final int fillCount = Math.min(buffer.capacity(), remainingReadCount);
+            final int fillCount = Math.min(maxChunkSize(), remainingReadCount);
             ensureCapacity(fillCount);
             final int useCount = Math.min(buffer.remaining(), remainingReadCount);
             int oldLimit = buffer.limit();
@@ -451,8 +756,13 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
      * @see BxmlInputStream#readDouble(double[], int, int)
      */
     public void readDouble(double[] dest, final int offset, final int count) throws IOException {
-        for (int i = 0; i < count; i++) {
-            dest[offset + i] = readDouble();
+        int readCount = 0;
+        int chunkCount;
+        while (readCount < count) {
+            chunkCount = ensureElements(DOUBLE_BYTE_COUNT, count - readCount);
+            buffer.asDoubleBuffer().get(dest, offset + readCount, chunkCount);
+            advance(chunkCount * DOUBLE_BYTE_COUNT);
+            readCount += chunkCount;
         }
     }
 
@@ -469,8 +779,13 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
      * @see BxmlInputStream#readFloat(float[], int, int)
      */
     public void readFloat(float[] dest, final int offset, final int count) throws IOException {
-        for (int i = 0; i < count; i++) {
-            dest[offset + i] = readFloat();
+        int readCount = 0;
+        int chunkCount;
+        while (readCount < count) {
+            chunkCount = ensureElements(FLOAT_BYTE_COUNT, count - readCount);
+            buffer.asFloatBuffer().get(dest, offset + readCount, chunkCount);
+            advance(chunkCount * FLOAT_BYTE_COUNT);
+            readCount += chunkCount;
         }
     }
 
@@ -487,8 +802,13 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
      * @see BxmlInputStream#readInt(int[], int, int)
      */
     public void readInt(int[] dest, final int offset, final int count) throws IOException {
-        for (int i = 0; i < count; i++) {
-            dest[offset + i] = readInt();
+        int readCount = 0;
+        int chunkCount;
+        while (readCount < count) {
+            chunkCount = ensureElements(INTEGER_BYTE_COUNT, count - readCount);
+            buffer.asIntBuffer().get(dest, offset + readCount, chunkCount);
+            advance(chunkCount * INTEGER_BYTE_COUNT);
+            readCount += chunkCount;
         }
     }
 
@@ -505,8 +825,13 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
      * @see BxmlInputStream#readLong(long[], int, int)
      */
     public void readLong(long[] dest, final int offset, final int count) throws IOException {
-        for (int i = 0; i < count; i++) {
-            dest[offset + i] = readLong();
+        int readCount = 0;
+        int chunkCount;
+        while (readCount < count) {
+            chunkCount = ensureElements(LONG_BYTE_COUNT, count - readCount);
+            buffer.asLongBuffer().get(dest, offset + readCount, chunkCount);
+            advance(chunkCount * LONG_BYTE_COUNT);
+            readCount += chunkCount;
         }
     }
 
@@ -523,11 +848,33 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
      * @see BxmlInputStream#readShort(int[], int, int)
      */
     public void readShort(int[] dest, final int offset, final int count) throws IOException {
-        for (int i = 0; i < count; i++) {
-            dest[offset + i] = readShort();
+        int readCount = 0;
+        int chunkCount;
+        while (readCount < count) {
+            chunkCount = readShortChunk(count - readCount);
+            for (int i = 0; i < chunkCount; i++) {
+                dest[offset + readCount + i] = shortBuffer[i];
+            }
+            readCount += chunkCount;
         }
     }
 
+    /**
+     * Bulk reads up to {@code count} shorts into {@link #shortBuffer}, as the int arrays the short
+     * readers fill in can't be the target of a {@link java.nio.ShortBuffer} bulk get.
+     *
+     * @return the number of shorts read, between {@code 1} and {@code count}
+     */
+    private int readShortChunk(final int count) throws IOException {
+        final int chunkCount = ensureElements(SHORT_BYTE_COUNT, count);
+        if (shortBuffer == null || shortBuffer.length < chunkCount) {
+            shortBuffer = new short[chunkCount];
+        }
+        buffer.asShortBuffer().get(shortBuffer, 0, chunkCount);
+        advance(chunkCount * SHORT_BYTE_COUNT);
+        return chunkCount;
+    }
+
     /**
      * @see BxmlInputStream#readUShort()
      */
@@ -541,8 +888,14 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
      * @see BxmlInputStream#readUShort(int[], int, int)
      */
     public void readUShort(int[] dest, final int offset, final int count) throws IOException {
-        for (int i = 0; i < count; i++) {
-            dest[offset + i] = readUShort();
+        int readCount = 0;
+        int chunkCount;
+        while (readCount < count) {
+            chunkCount = readShortChunk(count - readCount);
+            for (int i = 0; i < chunkCount; i++) {
+                dest[offset + readCount + i] = shortBuffer[i] & 0xFFFF;
+            }
+            readCount += chunkCount;
         }
     }
 
@@ -556,16 +909,15 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
     }
 
     /**
-     * @see BxmlInputStream#readString(char[], int)
+     * Returns the {@link ParsingUtils}' internal buffer the string was decoded into.
+     * 
+     * @see BxmlInputStream#readCharSequence()
      * @see ParsingUtils#parseString()
      */
-    // public void readString(char[] dst, int offset) throws IOException {
-    // final ParsingUtils parseUtils = getParseUtils();
-    // final CharBuffer parsed = parseUtils.parseString();
-    // int buffRemaining = dst.length - offset;
-    // int strRemaining = parsed.length();
-    // parsed.get(dst, offset, Math.min(buffRemaining, strRemaining));
-    // }
+    public final CharSequence readCharSequence() throws IOException {
+        final ParsingUtils parseUtils = getParseUtils();
+        return parseUtils.parseString();
+    }
 
     public void skip(final int byteCount) throws IOException {
         if (buffer.remaining() >= byteCount) {
@@ -577,6 +929,10 @@ final class DefaultBxmlInputStream implements BxmlInputStream {
         final long finalPosition = position + byteCount;
 
         if (supportsRandomAccess) {
+            if (finalPosition > fileSize) {
+                throw new EOFException("Can't advance to position " + finalPosition
+                        + ", file size is " + fileSize);
+            }
             setPosition(finalPosition);
         } else {
 
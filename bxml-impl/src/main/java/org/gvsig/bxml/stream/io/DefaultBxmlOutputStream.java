@@ -44,6 +44,8 @@ import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import org.gvsig.bxml.stream.io.Header.Compression;
 import org.gvsig.bxml.stream.io.Header.Flags;
@@ -61,8 +63,35 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
      */
     private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
 
+    /**
+     * Default size of the deflater output buffer for {@link Compression#GZIP compressed} documents
+     */
+    static final int DEFAULT_DEFLATE_BUFFER_SIZE = 8 * 1024;
+
     private final Counts counts;
 
+    /**
+     * The charset strings are encoded into
+     */
+    private Charset charset;
+
+    /**
+     * Whether {@link #charset} is UTF-8, in which case strings are encoded straight into the
+     * buffer by {@link #encodeString(CharSequence, char[], int, int)}
+     */
+    private boolean utf8;
+
+    /**
+     * If {@link #charset} is a single byte charset whose code points match the first unicode
+     * characters ({@code US-ASCII} or {@code ISO-8859-1}), the first character value that is not
+     * mappable to it, {@code 0} otherwise
+     */
+    private int singleByteLimit;
+
+    /**
+     * Encoder for any charset that's neither UTF-8 nor {@link #singleByteLimit single byte},
+     * {@code null} otherwise
+     */
     private StringEncoder stringEncoder;
 
     private ByteBuffer buffer;
@@ -73,6 +102,41 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
 
     private boolean autoflush;
 
+    /**
+     * The stream position at the time {@link #setAutoFlushing(boolean) auto flushing} was disabled
+     * or the stream was last {@link #pin() pinned}.
+     * Content before it may still be flushed to make room in the buffer.
+     */
+    private long pinnedPosition;
+
+    /**
+     * Compression level to use if the header states {@link Compression#GZIP} compression
+     */
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Size of the deflater output buffer if the header states {@link Compression#GZIP} compression
+     */
+    private int deflateBufferSize = DEFAULT_DEFLATE_BUFFER_SIZE;
+
+    /**
+     * Uncompressed size of the compressed blocks if the header states {@link Compression#GZIP}
+     * compression, or {@code 0} if the body shall be compressed as a single GZIP stream
+     */
+    private int compressionBlockSize;
+
+    /**
+     * The compressing stream {@link #writeChannel} writes to, if the header states
+     * {@link Compression#GZIP} compression, {@code null} otherwise
+     */
+    private GZIPOutputStream deflater;
+
+    /**
+     * The {@link #writeChannel} if the header states {@link Compression#GZIP} compression and
+     * {@link #setCompressionBlockSize(int) block compression} is set, {@code null} otherwise
+     */
+    private BlockCompressedOutputChannel blockDeflater;
+
     /**
      * Creates a DefaultBxmlOutputStream that writes to the given write {@code channel} in the
      * provided {@code byteOrder} using the provided {@code bulkWriteSize} as the buffer capacity.
@@ -99,13 +163,26 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
     public void close() throws IOException {
         if (writeChannel != null) {
             flush();
+            if (deflater != null) {
+                // write out the gzip trailer, but do not close the target channel either
+                final GZIPOutputStream gzip = deflater;
+                deflater = null;
+                GzipChannels.finish(gzip);
+            }
+            if (blockDeflater != null) {
+                // write out the last block and the block index
+                blockDeflater.finish();
+                blockDeflater = null;
+            }
             // do not close the channel, its up to the client code to do so...
             // writeChannel.close();
-            stringEncoder.dispose();
+            if (stringEncoder != null) {
+                stringEncoder.dispose();
+            }
         }
         position = -1;
         writeChannel = null;
-        ByteBufferPool.returnToPool(buffer);
+        BufferPool.DEFAULT.returnToPool(buffer);
         buffer = EMPTY_BUFFER;
     }
 
@@ -160,9 +237,20 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
      * @see org.gvsig.bxml.stream.io.BxmlOutputStream#setAutoFlushing(boolean)
      */
     public void setAutoFlushing(boolean autoFlush) {
+        if (this.autoflush && !autoFlush) {
+            pinnedPosition = position;
+        }
         this.autoflush = autoFlush;
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.io.BxmlOutputStream#pin()
+     */
+    public void pin() {
+        this.autoflush = false;
+        pinnedPosition = position;
+    }
+
     public void setPosition(long newPosition) throws IOException {
         long currentPosition = getPosition();
         int cachedSize = getCachedSize();
@@ -184,8 +272,10 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
      * current position plus byteCount.
      * <p>
      * If there's not enough free space to hold {@code byteCount} bytes more, this method will
-     * either expand the buffer size or flush the current unwritten bytes, depending on whether
-     * {@link #isAutoFlushing()} is set or not, respectively.
+     * flush the current unwritten bytes if {@link #isAutoFlushing()} is set. Otherwise it flushes
+     * only the bytes before the {@link #pinnedPosition pinned position}, which can't be rewound to,
+     * and expands the buffer by at least doubling its size if that is still not enough, so that
+     * the buffer grows only as much as the content written since auto flushing was disabled.
      * </p>
      * 
      * @param byteCount
@@ -202,19 +292,73 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
                 }
                 // not needed, flush rewinds the buffer buffer.position(0);
             } else {
-                // can't flush, expand the buffer by a multiple of 1Kb
-                int kMultiplier = 1 + (byteCount / 1024);
-                expandBuffer(buffer.capacity() + (1024 * kMultiplier));
+                flushUnpinned();
+                if (buffer.capacity() - buffer.position() < byteCount) {
+                    final int minCapacity = buffer.position() + byteCount;
+                    expandBuffer(Math.max(2 * buffer.capacity(), minCapacity));
+                }
             }
         }
     }
 
+    /**
+     * Writes out the buffered bytes before the {@link #pinnedPosition pinned position} and moves
+     * the remaining ones to the start of the buffer.
+     */
+    private void flushUnpinned() throws IOException {
+        final long writtenLimit = position - buffer.position();
+        final int flushable = (int) (pinnedPosition - writtenLimit);
+        if (flushable <= 0) {
+            return;
+        }
+        final int cachedSize = buffer.position();
+        buffer.limit(flushable);
+        buffer.position(0);
+        while (buffer.remaining() > 0) {
+            writeChannel.write(buffer);
+        }
+        buffer.limit(cachedSize);
+        buffer.compact();
+    }
+
+    /**
+     * Makes sure the buffer can hold at least one element of {@code elementSize} bytes and returns
+     * how many of the {@code count} elements to write can be put straight into it, so that array
+     * writes can be performed in bulk instead of element by element.
+     * <p>
+     * Each call asks {@link #ensureWriteCapacity(int)} for no more than the buffer capacity, so
+     * when the buffer can't be flushed it is expanded as needed by doubling its size.
+     * </p>
+     * 
+     * @param elementSize
+     *            the size in bytes of the elements to write
+     * @param count
+     *            the number of elements still to be written
+     * @return the number of elements, between {@code 1} and {@code count}, that can be put in the
+     *         buffer without further calls to {@link #ensureWriteCapacity(int)}
+     */
+    private int ensureWriteElements(final int elementSize, final int count) throws IOException {
+        if (buffer.remaining() < elementSize) {
+            final int maxChunkElements = Math.max(1, buffer.capacity() / elementSize);
+            ensureWriteCapacity(elementSize * Math.min(maxChunkElements, count));
+        }
+        return Math.min(buffer.remaining() / elementSize, count);
+    }
+
+    /**
+     * Advances both the buffer and the stream position by {@code byteCount} after a bulk write
+     * performed on a view of {@link #buffer}, which does not modify the buffer position.
+     */
+    private void advance(final int byteCount) {
+        buffer.position(buffer.position() + byteCount);
+        position += byteCount;
+    }
+
     private void expandBuffer(final int newBufferSize) {
         final ByteBuffer previousBuffer = this.buffer;
 
         //buffer = ByteBuffer.allocateDirect(newBufferSize);
-        ByteBufferPool.returnToPool(buffer);
-        buffer = ByteBufferPool.getByteBuffer(newBufferSize);
+        buffer = BufferPool.DEFAULT.getByteBuffer(newBufferSize);
         buffer.position(0);
         buffer.limit(buffer.capacity());
 
@@ -224,6 +368,7 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
             previousBuffer.limit(previousBuffer.position());
             previousBuffer.position(0);
             buffer.put(previousBuffer);
+            BufferPool.DEFAULT.returnToPool(previousBuffer);
         }
         buffer.limit(buffer.capacity());
     }
@@ -251,8 +396,21 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
     public void setCharactersEncoding(final Charset charset) {
         if (stringEncoder != null) {
             stringEncoder.dispose();
+            stringEncoder = null;
+        }
+        final String name = charset.name();
+        this.charset = charset;
+        this.utf8 = "UTF-8".equals(name);
+        if ("US-ASCII".equals(name)) {
+            singleByteLimit = 0x80;
+        } else if ("ISO-8859-1".equals(name)) {
+            singleByteLimit = 0x100;
+        } else {
+            singleByteLimit = 0;
+        }
+        if (!utf8 && singleByteLimit == 0) {
+            this.stringEncoder = new StringEncoder(this, charset, counts);
         }
-        this.stringEncoder = new StringEncoder(this, charset, counts);
     }
 
     /**
@@ -263,14 +421,18 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
      *         this writer encodes strings into otherwise.
      */
     Charset getCharactersEncoding() {
-        return stringEncoder == null ? null : stringEncoder.getCharset();
+        return charset;
     }
 
     /**
      * @see org.gvsig.bxml.stream.io.BxmlOutputStream#writeString(java.lang.String)
      */
     public void writeString(final CharSequence string) throws IOException {
-        this.stringEncoder.encode(CharBuffer.wrap(string));
+        if (stringEncoder == null) {
+            encodeString(string, null, 0, string.length());
+        } else {
+            this.stringEncoder.encode(CharBuffer.wrap(string));
+        }
     }
 
     /**
@@ -278,7 +440,102 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
      */
     public void writeString(final char[] buffer, final int offset, final int length)
             throws IOException {
-        this.stringEncoder.encode(CharBuffer.wrap(buffer, offset, length));
+        if (stringEncoder == null) {
+            encodeString(null, buffer, offset, length);
+        } else {
+            this.stringEncoder.encode(CharBuffer.wrap(buffer, offset, length));
+        }
+    }
+
+    /**
+     * Encodes either {@code seq} or {@code length} chars of {@code chars} starting at
+     * {@code offset} straight into the buffer, for UTF-8 and {@link #singleByteLimit single byte}
+     * charsets.
+     * <p>
+     * A first pass over the characters computes the encoded length to write the string's count
+     * prefix, and the second one puts the encoded bytes, asking for more buffer capacity only when
+     * less than the longest encoded character is available. As {@link StringEncoder} does, lone
+     * surrogates and characters not mappable to the charset are replaced by {@code '?'}.
+     * </p>
+     */
+    private void encodeString(final CharSequence seq, final char[] chars, final int offset,
+            final int length) throws IOException {
+        long byteLength = 0;
+        char c;
+        for (int i = 0; i < length; i++) {
+            c = chars == null ? seq.charAt(i) : chars[offset + i];
+            if (c < 0x80) {
+                byteLength++;
+            } else if (utf8 && c < 0x800) {
+                byteLength += 2;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                if (isSurrogatePair(seq, chars, offset, length, i)) {
+                    i++;
+                    byteLength += utf8 ? 4 : 1;
+                } else {
+                    byteLength++;
+                }
+            } else {
+                byteLength += utf8 ? 3 : 1;
+            }
+        }
+        if (byteLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("String too long");
+        }
+        counts.writeCount(byteLength, this);
+
+        final int maxCharBytes = utf8 ? 4 : 1;
+        int start = buffer.position();
+        for (int i = 0; i < length; i++) {
+            if (buffer.capacity() - buffer.position() < maxCharBytes) {
+                position += buffer.position() - start;
+                ensureWriteCapacity(maxCharBytes);
+                start = buffer.position();
+            }
+            c = chars == null ? seq.charAt(i) : chars[offset + i];
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                if (isSurrogatePair(seq, chars, offset, length, i)) {
+                    i++;
+                    if (utf8) {
+                        final char low = chars == null ? seq.charAt(i) : chars[offset + i];
+                        final int codePoint = Character.toCodePoint(c, low);
+                        buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                        buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                        buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                        buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                    } else {
+                        buffer.put((byte) '?');
+                    }
+                } else {
+                    buffer.put((byte) '?');
+                }
+            } else if (!utf8) {
+                buffer.put(c < singleByteLimit ? (byte) c : (byte) '?');
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        position += buffer.position() - start;
+    }
+
+    /**
+     * Returns whether the char at index {@code i} is a high surrogate followed by a low one
+     */
+    private static boolean isSurrogatePair(final CharSequence seq, final char[] chars,
+            final int offset, final int length, final int i) {
+        if (i + 1 == length) {
+            return false;
+        }
+        final char high = chars == null ? seq.charAt(i) : chars[offset + i];
+        final char low = chars == null ? seq.charAt(i + 1) : chars[offset + i + 1];
+        return Character.isHighSurrogate(high) && Character.isLowSurrogate(low);
     }
 
     /**
@@ -335,8 +592,13 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
      */
     public void writeDouble(final double[] src, final int offset, final int length)
             throws IOException {
-        for (int i = 0; i < length; i++) {
-            writeDouble(src[offset + i]);
+        int writtenCount = 0;
+        int chunkCount;
+        while (writtenCount < length) {
+            chunkCount = ensureWriteElements(DOUBLE_BYTE_COUNT, length - writtenCount);
+            buffer.asDoubleBuffer().put(src, offset + writtenCount, chunkCount);
+            advance(chunkCount * DOUBLE_BYTE_COUNT);
+            writtenCount += chunkCount;
         }
     }
 
@@ -354,8 +616,13 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
      */
     public void writeFloat(final float[] src, final int offset, final int length)
             throws IOException {
-        for (int i = 0; i < length; i++) {
-            writeFloat(src[offset + i]);
+        int writtenCount = 0;
+        int chunkCount;
+        while (writtenCount < length) {
+            chunkCount = ensureWriteElements(FLOAT_BYTE_COUNT, length - writtenCount);
+            buffer.asFloatBuffer().put(src, offset + writtenCount, chunkCount);
+            advance(chunkCount * FLOAT_BYTE_COUNT);
+            writtenCount += chunkCount;
         }
     }
 
@@ -372,8 +639,13 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
      * @see org.gvsig.bxml.stream.io.BxmlOutputStream#writeInt(int[], int, int)
      */
     public void writeInt(final int[] src, final int offset, final int length) throws IOException {
-        for (int i = 0; i < length; i++) {
-            writeInt(src[offset + i]);
+        int writtenCount = 0;
+        int chunkCount;
+        while (writtenCount < length) {
+            chunkCount = ensureWriteElements(INTEGER_BYTE_COUNT, length - writtenCount);
+            buffer.asIntBuffer().put(src, offset + writtenCount, chunkCount);
+            advance(chunkCount * INTEGER_BYTE_COUNT);
+            writtenCount += chunkCount;
         }
     }
 
@@ -390,8 +662,13 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
      * @see org.gvsig.bxml.stream.io.BxmlOutputStream#writeLong(long[], int, int)
      */
     public void writeLong(final long[] src, final int offset, final int length) throws IOException {
-        for (int i = 0; i < length; i++) {
-            writeLong(src[offset + i]);
+        int writtenCount = 0;
+        int chunkCount;
+        while (writtenCount < length) {
+            chunkCount = ensureWriteElements(LONG_BYTE_COUNT, length - writtenCount);
+            buffer.asLongBuffer().put(src, offset + writtenCount, chunkCount);
+            advance(chunkCount * LONG_BYTE_COUNT);
+            writtenCount += chunkCount;
         }
     }
 
@@ -409,8 +686,13 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
      */
     public void writeShort(final short[] src, final int offset, final int length)
             throws IOException {
-        for (int i = 0; i < length; i++) {
-            writeShort(src[offset + i]);
+        int writtenCount = 0;
+        int chunkCount;
+        while (writtenCount < length) {
+            chunkCount = ensureWriteElements(SHORT_BYTE_COUNT, length - writtenCount);
+            buffer.asShortBuffer().put(src, offset + writtenCount, chunkCount);
+            advance(chunkCount * SHORT_BYTE_COUNT);
+            writtenCount += chunkCount;
         }
     }
 
@@ -434,8 +716,15 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
      * @see org.gvsig.bxml.stream.io.BxmlOutputStream#writeUShort(int[], int, int)
      */
     public void writeUShort(final int[] src, final int offset, final int length) throws IOException {
-        for (int i = 0; i < length; i++) {
-            writeUShort(src[offset + i]);
+        int writtenCount = 0;
+        int chunkCount;
+        while (writtenCount < length) {
+            chunkCount = ensureWriteElements(USHORT_BYTE_COUNT, length - writtenCount);
+            for (int i = 0; i < chunkCount; i++) {
+                buffer.putShort((short) src[offset + writtenCount + i]);
+            }
+            position += chunkCount * USHORT_BYTE_COUNT;
+            writtenCount += chunkCount;
         }
     }
 
@@ -446,10 +735,19 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
         writeByte(b ? 0xFF : 0x00);
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.io.BxmlOutputStream#writeBoolean(boolean[], int, int)
+     */
     public void writeBoolean(boolean[] value, int offset, int length) throws IOException {
-        final int finalIndex = length - offset;
-        for (int i = offset; i < finalIndex; i++) {
-            writeBoolean(value[i]);
+        int writtenCount = 0;
+        int chunkCount;
+        while (writtenCount < length) {
+            chunkCount = ensureWriteElements(BYTE_BYTE_COUNT, length - writtenCount);
+            for (int i = 0; i < chunkCount; i++) {
+                buffer.put(value[offset + writtenCount + i] ? (byte) 0xFF : 0x00);
+            }
+            position += chunkCount * BYTE_BYTE_COUNT;
+            writtenCount += chunkCount;
         }
     }
 
@@ -494,6 +792,69 @@ final class DefaultBxmlOutputStream implements BxmlOutputStream {
         }
         setCharactersEncoding(charactersEncoding);
         setEndianess(flags.getEndianess());
-        // TODO: configure GZIP encoding
+        if (Compression.GZIP == compression) {
+            startDeflating();
+        }
+    }
+
+    /**
+     * Flushes the uncompressed header and replaces the write channel by one that deflates the
+     * document body into it.
+     * <p>
+     * The stream {@link #getPosition() position} keeps counting uncompressed bytes.
+     * </p>
+     */
+    private void startDeflating() throws IOException {
+        if (deflater != null || blockDeflater != null) {
+            throw new IllegalStateException("Compression already started");
+        }
+        flush();
+        if (compressionBlockSize > 0) {
+            blockDeflater = new BlockCompressedOutputChannel(writeChannel, compressionBlockSize,
+                    compressionLevel);
+            writeChannel = blockDeflater;
+        } else {
+            deflater = GzipChannels.newDeflatingStream(writeChannel, compressionLevel,
+                    deflateBufferSize);
+            writeChannel = GzipChannels.newDeflatingChannel(deflater);
+        }
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.io.BxmlOutputStream#setCompressionLevel(int)
+     */
+    public void setCompressionLevel(final int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.compressionLevel = level;
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.io.BxmlOutputStream#setCompressionBlockSize(int)
+     */
+    public void setCompressionBlockSize(final int blockSize) {
+        if (blockSize < 0 || blockSize > BlockGzip.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Invalid compression block size: " + blockSize);
+        }
+        this.compressionBlockSize = blockSize;
+    }
+
+    /**
+     * Sets the size of the deflater output buffer used if the header states
+     * {@link Compression#GZIP} compression. Shall be called before {@link #writeHeader(Header)} in
+     * order to take effect.
+     * 
+     * @param deflateBufferSize
+     *            size in bytes of the buffer compressed data is gathered in before sending it to the
+     *            channel
+     */
+    void setDeflateBufferSize(final int deflateBufferSize) {
+        if (deflateBufferSize <= 0) {
+            throw new IllegalArgumentException("deflateBufferSize shall be > 0: "
+                    + deflateBufferSize);
+        }
+        this.deflateBufferSize = deflateBufferSize;
     }
 }
@@ -37,6 +37,7 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.ByteOrder;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 
@@ -55,10 +56,23 @@ public class DefaultStreamFactory implements BxmlStreamFactory {
      */
     public static final int DEFAULT_BUFFER_SIZE = 4 * 1024;
 
+    /**
+     * Size of the memory mapped file region for {@link #createMappedInputStream(FileChannel) mapped}
+     * input streams. Bigger files are read by sliding the mapped window.
+     */
+    public static final int DEFAULT_MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Default size of the buffers used to inflate and deflate GZIP compressed documents
+     */
+    public static final int DEFAULT_COMPRESSION_BUFFER_SIZE = 8 * 1024;
+
     private static DefaultStreamFactory INSTANCE;
 
     private org.gvsig.bxml.stream.util.System system = new SystemImpl();
 
+    private int compressionBufferSize = DEFAULT_COMPRESSION_BUFFER_SIZE;
+
     /**
      * Convenience setter for system settings in order to help on unit testing.
      * 
@@ -71,6 +85,25 @@ public class DefaultStreamFactory implements BxmlStreamFactory {
         this.system = system;
     }
 
+    /**
+     * Sets the size of the buffers used to inflate and deflate the body of
+     * {@link Header.Compression#GZIP GZIP} compressed documents.
+     * 
+     * @param compressionBufferSize
+     *            buffer size in bytes, defaults to {@link #DEFAULT_COMPRESSION_BUFFER_SIZE}
+     */
+    public void setCompressionBufferSize(final int compressionBufferSize) {
+        if (compressionBufferSize <= 0) {
+            throw new IllegalArgumentException("compressionBufferSize shall be > 0: "
+                    + compressionBufferSize);
+        }
+        this.compressionBufferSize = compressionBufferSize;
+    }
+
+    public int getCompressionBufferSize() {
+        return compressionBufferSize;
+    }
+
     /**
      * @see BxmlStreamFactory#createInputStream(InputStream)
      */
@@ -85,13 +118,31 @@ public class DefaultStreamFactory implements BxmlStreamFactory {
      */
     public BxmlInputStream createInputStream(final ReadableByteChannel in) throws IOException {
 
-        BxmlInputStream inputStream = new DefaultBxmlInputStream(in, DEFAULT_BUFFER_SIZE);
+        BxmlInputStream inputStream = new DefaultBxmlInputStream(in, DEFAULT_BUFFER_SIZE, false,
+                compressionBufferSize);
+
+        return wrapForLogging(inputStream);
+    }
+
+    /**
+     * @see BxmlStreamFactory#createMappedInputStream(FileChannel)
+     */
+    public BxmlInputStream createMappedInputStream(final FileChannel in) throws IOException {
+        if (in == null) {
+            throw new NullPointerException("in is null");
+        }
+        BxmlInputStream inputStream;
+        inputStream = new DefaultBxmlInputStream(in, DEFAULT_MAP_WINDOW_SIZE, true,
+                compressionBufferSize);
+
+        return wrapForLogging(inputStream);
+    }
 
+    private BxmlInputStream wrapForLogging(BxmlInputStream inputStream) {
         if (Boolean.getBoolean("BxmlInputStream.log")) {
             Writer logTo = new OutputStreamWriter(system.stdOut());
             inputStream = new LoggingBxmlInputStream(inputStream, logTo);
         }
-
         return inputStream;
     }
 
@@ -117,8 +168,10 @@ public class DefaultStreamFactory implements BxmlStreamFactory {
             throw new IllegalArgumentException("Stream is closed");
         }
         ByteOrder defaultOrder = system.nativeOrder();
-        BxmlOutputStream outputStream = new DefaultBxmlOutputStream(out, DEFAULT_BUFFER_SIZE,
-                defaultOrder);
+        DefaultBxmlOutputStream defaultStream = new DefaultBxmlOutputStream(out,
+                DEFAULT_BUFFER_SIZE, defaultOrder);
+        defaultStream.setDeflateBufferSize(compressionBufferSize);
+        BxmlOutputStream outputStream = defaultStream;
         if (Boolean.getBoolean("BxmlOutputStream.log")) {
             Writer writer = new OutputStreamWriter(system.stdOut());
             outputStream = new LoggingBxmlOutputStream(outputStream, writer);
@@ -126,6 +179,19 @@ public class DefaultStreamFactory implements BxmlStreamFactory {
         return outputStream;
     }
 
+    /**
+     * Drops the buffers pooled for the input and output streams, including the ones cached by
+     * every thread that used a stream.
+     * <p>
+     * Meant to be called when the application using BXML shuts down, so that the threads of a
+     * container that outlives it don't keep the pooled buffers, direct memory included, alive.
+     * Streams can still be created afterwards.
+     * </p>
+     */
+    public static void releasePooledBuffers() {
+        BufferPool.DEFAULT.clear();
+    }
+
     public static DefaultStreamFactory instance() {
         if (INSTANCE == null) {
             INSTANCE = new DefaultStreamFactory();
@@ -0,0 +1,178 @@
+package org.gvsig.bxml.stream.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A read only view of a {@link FileChannel} with its own position, so that several
+ * {@link BxmlInputStream}s can read the same file concurrently.
+ * <p>
+ * All reads are done through the shared channel's positional {@link #read(ByteBuffer, long)},
+ * which doesn't change its position and is safe to be called by several threads at once. A view
+ * itself is not thread safe though, each thread shall use its own. Closing a view does not close
+ * the shared channel.
+ * </p>
+ *
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+public final class FileChannelView extends FileChannel {
+
+    private final FileChannel file;
+
+    private long position;
+
+    /**
+     * @param file
+     *            the channel to share, its position is not used nor changed
+     */
+    public FileChannelView(final FileChannel file) {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        this.file = file;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        ensureOpen();
+        final int read = file.read(dst, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long read(final ByteBuffer[] dsts, final int offset, final int length)
+            throws IOException {
+        ensureOpen();
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (!dsts[i].hasRemaining()) {
+                continue;
+            }
+            final int read = read(dsts[i]);
+            if (read == -1) {
+                return total == 0 ? -1 : total;
+            }
+            total += read;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst, final long position) throws IOException {
+        ensureOpen();
+        return file.read(dst, position);
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public FileChannel position(final long newPosition) throws IOException {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        ensureOpen();
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return file.size();
+    }
+
+    @Override
+    public long transferTo(final long position, final long count, final WritableByteChannel target)
+            throws IOException {
+        ensureOpen();
+        return file.transferTo(position, count, target);
+    }
+
+    @Override
+    public MappedByteBuffer map(final MapMode mode, final long position, final long size)
+            throws IOException {
+        if (mode != MapMode.READ_ONLY) {
+            throw new NonWritableChannelException();
+        }
+        ensureOpen();
+        return file.map(mode, position, size);
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length)
+            throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public int write(final ByteBuffer src, final long position) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public FileChannel truncate(final long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long transferFrom(final ReadableByteChannel src, final long position, final long count)
+            throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public void force(final boolean metaData) throws IOException {
+        ensureOpen();
+    }
+
+    @Override
+    public FileLock lock(final long position, final long size, final boolean shared)
+            throws IOException {
+        ensureOpen();
+        return file.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(final long position, final long size, final boolean shared)
+            throws IOException {
+        ensureOpen();
+        return file.tryLock(position, size, shared);
+    }
+
+    /**
+     * Does nothing, the shared channel is left open
+     */
+    @Override
+    protected void implCloseChannel() throws IOException {
+        // no-op
+    }
+}
@@ -0,0 +1,127 @@
+package org.gvsig.bxml.stream.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Utility class to wrap the channels a BXML document body is read from or written to when the
+ * header states {@link Header.Compression#GZIP GZIP} compression.
+ * <p>
+ * The BXML header is never compressed, only the token stream that follows it is, so these channels
+ * are set up by the {@link BxmlInputStream} and {@link BxmlOutputStream} implementations right
+ * after the header has been read or written.
+ * </p>
+ *
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+final class GzipChannels {
+
+    private GzipChannels() {
+        // no-op
+    }
+
+    /**
+     * Returns a channel that inflates the GZIP stream made of {@code pending} followed by the
+     * contents of {@code compressed}.
+     *
+     * @param compressed
+     *            the channel to read the compressed data from
+     * @param pending
+     *            compressed data already read from {@code compressed} (for example, while parsing
+     *            the header), may be {@code null}
+     * @param bufferSize
+     *            size of the inflater's input buffer
+     * @return a channel whose contents are the decompressed bytes of the GZIP stream. Closing it
+     *         closes {@code compressed}
+     * @throws IOException
+     *             if the GZIP header can't be read
+     */
+    public static ReadableByteChannel newInflatingChannel(final ReadableByteChannel compressed,
+            final byte[] pending, final int bufferSize) throws IOException {
+        InputStream in = Channels.newInputStream(compressed);
+        if (pending != null && pending.length > 0) {
+            in = new SequenceInputStream(new ByteArrayInputStream(pending), in);
+        }
+        final GZIPInputStream inflater = new GZIPInputStream(in, bufferSize);
+        return Channels.newChannel(inflater);
+    }
+
+    /**
+     * Returns a GZIP output stream that deflates into {@code target} with the given compression
+     * level.
+     * <p>
+     * {@link #finish(GZIPOutputStream)} shall be called once all the data has been written in order
+     * to write out the GZIP trailer and release the deflater. Closing the returned stream closes
+     * {@code target}.
+     * </p>
+     *
+     * @param target
+     *            the channel to write the compressed data to
+     * @param level
+     *            the compression level, {@code 0-9} or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param bufferSize
+     *            size of the deflater's output buffer
+     * @return the compressing stream
+     * @throws IOException
+     *             if the GZIP header can't be written
+     */
+    public static GZIPOutputStream newDeflatingStream(final WritableByteChannel target,
+            final int level, final int bufferSize) throws IOException {
+        final OutputStream out = Channels.newOutputStream(target);
+        return new LeveledGZIPOutputStream(out, bufferSize, level);
+    }
+
+    /**
+     * Writes out the GZIP trailer of a stream created by {@link #newDeflatingStream} and releases
+     * the native memory held by its deflater, without closing the target channel.
+     * <p>
+     * The stream can't be written to afterwards.
+     * </p>
+     */
+    public static void finish(final GZIPOutputStream deflater) throws IOException {
+        try {
+            deflater.finish();
+            deflater.flush();
+        } finally {
+            ((LeveledGZIPOutputStream) deflater).end();
+        }
+    }
+
+    /**
+     * Returns a channel view of the given compressing stream.
+     */
+    public static WritableByteChannel newDeflatingChannel(final GZIPOutputStream deflater) {
+        return Channels.newChannel(deflater);
+    }
+
+    /**
+     * A {@link GZIPOutputStream} that allows to set the compression level, since the superclass
+     * does not provide a way to do it other than by accessing its {@link #def deflater}.
+     */
+    private static final class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        public LeveledGZIPOutputStream(final OutputStream out, final int bufferSize,
+                final int level) throws IOException {
+            super(out, bufferSize);
+            def.setLevel(level);
+        }
+
+        /**
+         * Releases the deflater, which otherwise is only released when the stream is closed, but
+         * that closes the target channel too
+         */
+        public void end() {
+            def.end();
+        }
+    }
+}
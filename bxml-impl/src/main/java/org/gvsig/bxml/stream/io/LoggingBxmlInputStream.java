@@ -82,6 +82,11 @@ public class LoggingBxmlInputStream extends BxmlInputStreamWrapper {
         return log("readString", wrapped.readString());
     }
 
+    @Override
+    public CharSequence readCharSequence() throws IOException {
+        return log("readCharSequence", wrapped.readCharSequence());
+    }
+
     @Override
     public void decode(CharsetDecoder charsetDecoder, CharBuffer charBuffer, int length)
             throws IOException {
@@ -68,11 +68,26 @@ public class LoggingBxmlOutputStream extends BxmlOutputStreamWrapper {
         wrapped.setAutoFlushing(autoFlush);
     }
 
+    public void pin() {
+        log("pin");
+        wrapped.pin();
+    }
+
     public void setCharactersEncoding(Charset charset) {
         log("setCharactersEncoding", charset);
         wrapped.setCharactersEncoding(charset);
     }
 
+    public void setCompressionLevel(int level) {
+        log("setCompressionLevel", level);
+        wrapped.setCompressionLevel(level);
+    }
+
+    public void setCompressionBlockSize(int blockSize) {
+        log("setCompressionBlockSize", blockSize);
+        wrapped.setCompressionBlockSize(blockSize);
+    }
+
     public void setEndianess(ByteOrder byteOrder) {
         log("setEndianess", byteOrder);
         wrapped.setEndianess(byteOrder);
@@ -0,0 +1,143 @@
+/* gvSIG. Sistem a de Información Geográfica de la Generalitat Valenciana
+ *
+ * Copyright (C) 2007 Generalitat Valenciana.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,USA.
+ *
+ * For more information, contact:
+ *
+ *  Generalitat Valenciana
+ *   Conselleria d'Infraestructures i Transport
+ *   Av. Blasco Ibáñez, 50
+ *   46010 VALENCIA
+ *   SPAIN
+ *
+ *      +34 9638 62 495
+ *      gvsig@gva.es
+ *      www.gvsig.gva.es
+ */
+package org.gvsig.bxml.stream.io;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Utility to explicitly release the memory region held by a {@link MappedByteBuffer} instead of
+ * waiting for it to be garbage collected.
+ * <p>
+ * There's no public API to unmap a buffer, so this is done on a best effort basis, by reflection,
+ * either through the buffer's {@code cleaner()} (pre Java 9 runtimes) or through
+ * {@code sun.misc.Unsafe.invokeCleaner(ByteBuffer)} (Java 9+ runtimes). If neither is available the
+ * mapping is left to the garbage collector.
+ * </p>
+ * <p>
+ * NOTE: the buffer shall not be accessed after being unmapped.
+ * </p>
+ *
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+final class MappedBuffers {
+
+    private static final Logger LOGGER = Logger.getLogger("org.gvsig.bxml.stream.io");
+
+    /**
+     * {@code sun.misc.Unsafe.theUnsafe} and its {@code invokeCleaner(ByteBuffer)} method, on Java
+     * 9+ runtimes, {@code null} otherwise
+     */
+    private static final Object UNSAFE;
+
+    private static final Method INVOKE_CLEANER;
+
+    /**
+     * {@code sun.nio.ch.DirectBuffer.cleaner()} and {@code sun.misc.Cleaner.clean()}, on pre Java 9
+     * runtimes, {@code null} otherwise
+     */
+    private static final Method CLEANER;
+
+    private static final Method CLEAN;
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (Exception e) {
+            // not a Java 9+ runtime, try the pre Java 9 way
+            invokeCleaner = null;
+        }
+        Method cleaner = null;
+        Method clean = null;
+        if (invokeCleaner == null) {
+            try {
+                cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            } catch (Exception e) {
+                cleaner = null;
+                clean = null;
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Can't unmap buffers, leaving them to the garbage collector: " + e);
+                }
+            }
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+
+    private MappedBuffers() {
+        // no-op
+    }
+
+    /**
+     * Releases the memory mapped region held by {@code buffer}, if it is a mapped buffer.
+     *
+     * @param buffer
+     *            the buffer to release, may be {@code null}
+     * @return {@code true} if the buffer was a mapped one and has been unmapped, {@code false}
+     *         otherwise
+     */
+    public static boolean unmap(final ByteBuffer buffer) {
+        if (!(buffer instanceof MappedByteBuffer)) {
+            return false;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                return true;
+            }
+            if (CLEANER != null) {
+                final Object cleaner = CLEANER.invoke(buffer);
+                if (cleaner != null) {
+                    CLEAN.invoke(cleaner);
+                    return true;
+                }
+            }
+        } catch (Exception e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Can't unmap buffer, leaving it to the garbage collector: " + e);
+            }
+        }
+        return false;
+    }
+}
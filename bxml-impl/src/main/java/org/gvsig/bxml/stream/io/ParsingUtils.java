@@ -31,6 +31,7 @@
 package org.gvsig.bxml.stream.io;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
@@ -50,6 +51,12 @@ import org.gvsig.bxml.stream.io.Header.Version;
  */
 class ParsingUtils {
 
+    /**
+     * Maximum byte length of the strings that are read at once to check whether they can be
+     * decoded without going through the charset decoder. Longer strings are decoded in chunks.
+     */
+    static final int MAX_SINGLE_BYTE_LENGTH = 8 * 1024;
+
     private final Counts counts;
 
     private final Charset charset;
@@ -60,6 +67,22 @@ class ParsingUtils {
 
     CharBuffer charBuffer;
 
+    /**
+     * Whether the charset decodes the 7-bit ASCII bytes to the characters of the same value, in
+     * which case strings made only of such bytes need not go through the charset decoder
+     */
+    private final boolean asciiCompatible;
+
+    /**
+     * Whether the charset decodes every byte to the character of the same value (ISO-8859-1)
+     */
+    private final boolean latin1;
+
+    /**
+     * Holds the bytes of strings up to {@link #MAX_SINGLE_BYTE_LENGTH} long
+     */
+    private byte[] bytes;
+
     /**
      * Private constructor to force the use of this class as a pure utility class
      * 
@@ -76,6 +99,26 @@ class ParsingUtils {
         this.counts = new Counts();
         this.reader = reader;
         this.charBuffer = CharBuffer.allocate(1024);
+        this.latin1 = "ISO-8859-1".equals(charset.name());
+        this.asciiCompatible = latin1 || isAsciiCompatible(charset);
+        this.bytes = new byte[256];
+    }
+
+    private static boolean isAsciiCompatible(final Charset charset) {
+        final byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+        }
+        final String decoded = new String(ascii, charset);
+        if (decoded.length() != ascii.length) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length; i++) {
+            if (decoded.charAt(i) != i) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -85,6 +128,11 @@ class ParsingUtils {
      * This method is intended to be called by {@link DefaultBxmlInputStream}. Care shall be taken
      * since the returned CharBuffer constitutes this class internal state.
      * </p>
+     * <p>
+     * If the charset is ASCII compatible, strings up to {@link #MAX_SINGLE_BYTE_LENGTH} bytes long
+     * are read at once and, if all of their bytes are 7-bit (or the charset is ISO-8859-1),
+     * widened straight into the char buffer without going through the charset decoder.
+     * </p>
      * 
      * @return the internal charbuffer where the string was decoded
      * @throws IOException
@@ -100,15 +148,50 @@ class ParsingUtils {
         }
         charBuffer.position(0);
         charBuffer.limit(charBuffer.capacity());
-        // we need to call reset to avoid a potential previous state to influence the current
-        // decoding
-        charsetDecoder.reset();
-        reader.decode(charsetDecoder, charBuffer, byteLength);
+        if (asciiCompatible && byteLength <= MAX_SINGLE_BYTE_LENGTH) {
+            parseSingleByteString(byteLength);
+        } else {
+            // we need to call reset to avoid a potential previous state to influence the current
+            // decoding
+            charsetDecoder.reset();
+            reader.decode(charsetDecoder, charBuffer, byteLength);
+        }
         charBuffer.flip();
 
         return charBuffer;
     }
 
+    private void parseSingleByteString(final int byteLength) throws IOException {
+        if (bytes.length < byteLength) {
+            bytes = new byte[Math.max(byteLength, 2 * bytes.length)];
+        }
+        final byte[] bytes = this.bytes;
+        reader.readByte(bytes, 0, byteLength);
+
+        final char[] chars = charBuffer.array();
+        byte b;
+        for (int i = 0; i < byteLength; i++) {
+            b = bytes[i];
+            if (b < 0 && !latin1) {
+                decodeBytes(byteLength);
+                return;
+            }
+            chars[i] = (char) (b & 0xFF);
+        }
+        charBuffer.position(byteLength);
+    }
+
+    /**
+     * Decodes the first {@code byteLength} bytes of {@link #bytes} into {@link #charBuffer}
+     * through the charset decoder, for the strings that turned out not to be single byte ones, the
+     * same way {@link BxmlInputStream#decode(CharsetDecoder, CharBuffer, int)} does
+     */
+    private void decodeBytes(final int byteLength) {
+        final ByteBuffer in = ByteBuffer.wrap(bytes, 0, byteLength);
+        charsetDecoder.reset();
+        charsetDecoder.decode(in, charBuffer, true);
+    }
+
     /**
      * Parses a {@link Header} out of a {@link ReadStrategy}.
      * <p>
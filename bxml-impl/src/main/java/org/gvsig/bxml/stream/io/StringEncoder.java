@@ -50,13 +50,15 @@ final class StringEncoder {
 
     private void expandBuffer(final int length) {
         dispose();
-        encodedStringBuffer = Buffers.newByteArray(length);
+        encodedStringBuffer = BufferPool.DEFAULT.newByteArray(length);
         out = ByteBuffer.wrap(encodedStringBuffer);
     }
 
     public void dispose() {
         if (encodedStringBuffer != null) {
-            Buffers.returnArray(encodedStringBuffer);
+            BufferPool.DEFAULT.returnArray(encodedStringBuffer);
+            encodedStringBuffer = null;
+            out = null;
         }
     }
 
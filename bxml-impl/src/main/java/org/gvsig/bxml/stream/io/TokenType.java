@@ -30,9 +30,6 @@
  */
 package org.gvsig.bxml.stream.io;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import org.w3c.dom.CDATASection;
 
 /**
@@ -752,6 +749,13 @@ public enum TokenType {
      * This gives an index of all index tables present in the file. If no information is available,
      * {@code isUsed} must be set to {@code FALSE} and {@code nEntries} to zero.
      * </p>
+     * <p>
+     * <b>Format deviation</b>: this implementation does not write, nor expects, the
+     * {@code nFragments} and {@code nEntries} counts of an unused {@code StringTableIndex} and
+     * {@code IndexTableIndex}. That is, when {@code isUsed} is {@code FALSE} the index consists of
+     * the {@code isUsed} flag alone, instead of being followed by a zero count. Readers of other
+     * implementations expecting the zero count will be one byte off past an unused index.
+     * </p>
      */
     Trailer(0x32) // trailer
     ;
@@ -763,19 +767,23 @@ public enum TokenType {
      */
     private final int tokenCode;
 
-    private static Map<Integer, TokenType> byCodeMap;
+    /**
+     * Enum constants indexed by token code, {@code null} for unused codes
+     */
+    private static final TokenType[] byCode;
+    static {
+        int maxCode = 0;
+        for (TokenType type : values()) {
+            maxCode = Math.max(maxCode, type.tokenCode);
+        }
+        byCode = new TokenType[maxCode + 1];
+        for (TokenType type : values()) {
+            byCode[type.tokenCode] = type;
+        }
+    }
 
     TokenType(final int tokenCode) {
         this.tokenCode = tokenCode;
-        register(tokenCode);
-    }
-
-    private void register(final int tokenCode) {
-        if (byCodeMap == null) {
-            byCodeMap = new HashMap<Integer, TokenType>();
-        }
-        Integer valueOf = Integer.valueOf(tokenCode);
-        byCodeMap.put(valueOf, this);
     }
 
     /**
@@ -801,7 +809,8 @@ public enum TokenType {
      *             if this enum type has no constant with the specified code
      */
     public static TokenType valueOf(final int tokenCode) throws IllegalArgumentException {
-        TokenType value = byCodeMap.get(Integer.valueOf(tokenCode));
+        final TokenType value = tokenCode >= 0 && tokenCode < byCode.length ? byCode[tokenCode]
+                : null;
         if (value == null) {
             throw new IllegalArgumentException("A Token type with code "
                     + Integer.toHexString(tokenCode) + " does not exist");
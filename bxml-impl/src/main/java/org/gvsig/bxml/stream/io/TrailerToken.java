@@ -55,6 +55,8 @@ import java.util.Set;
  * <li>{@code IndexTableIndex.nEntries = getIndexTableIndex().size()}
  * <li>{@code IndexTableIndex.entries = getIndexTableIndex()}
  * </ul>
+ * Note the counts of an unused index are not encoded, see the format deviation documented at
+ * {@link TokenType#Trailer}.
  * Also, the {@code TrailerToken.tokenType} and {@code TrailerToken.id} attributes are of no
  * interest for the runtime usage of this structure, and thus omitted from this interface.
  * </p>
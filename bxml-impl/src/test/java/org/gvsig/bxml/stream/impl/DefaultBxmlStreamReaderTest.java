@@ -68,6 +68,8 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
 
@@ -75,9 +77,14 @@ import javax.xml.namespace.QName;
 
 import org.easymock.EasyMock;
 import org.gvsig.bxml.stream.BxmlStreamReader;
+import org.gvsig.bxml.stream.BxmlStreamWriter;
+import org.gvsig.bxml.stream.BxmlStreamWriter_Contract;
+import org.gvsig.bxml.stream.EncodingOptions;
 import org.gvsig.bxml.stream.EventType;
 import org.gvsig.bxml.stream.io.BxmlInputStream;
+import org.gvsig.bxml.stream.io.BxmlOutputStream;
 import org.gvsig.bxml.stream.io.CommentPositionHint;
+import org.gvsig.bxml.stream.io.DefaultStreamFactory;
 import org.gvsig.bxml.stream.io.Header;
 import org.gvsig.bxml.stream.io.TokenType;
 import org.gvsig.bxml.stream.io.ValueType;
@@ -1713,6 +1720,111 @@ public class DefaultBxmlStreamReaderTest {
         verify(mockInput);
     }
 
+    /**
+     * Name identifiers shall be the same for the same name, different for different names, and
+     * match the ones returned by {@link BxmlStreamReader#getNameId(QName)}
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testNameIds() throws IOException {
+        recordMockTestFile();
+        expect(mockInput.getPosition()).andReturn(100L).anyTimes();
+        replay(mockInput);
+
+        final NamesResolver namespaceResolver = new NamespaceAwareNameResolver();
+        final BxmlStreamReader scanner = new DefaultBxmlStreamReader(mockInput, namespaceResolver);
+        final String sld = "http://www.opengis.net/sld";
+
+        assertEquals(START_DOCUMENT, scanner.next());
+        assertEquals(COMMENT, scanner.next());
+        assertEquals("comment1", scanner.getStringValue());
+        assertEquals(COMMENT, scanner.next());
+        assertEquals("comment2", scanner.getStringValue());
+        assertEquals(START_ELEMENT, scanner.next());
+        final int rootId = scanner.getElementNameId();
+        assertEquals(rootId, scanner.getNameId(new QName(sld, "StyledLayerDescriptor")));
+        assertEquals(scanner.getAttributeNameId(0), scanner.getNameId(new QName(sld, "version")));
+        assertEquals(-1, scanner.getNameId(new QName(sld, "NotThere")));
+        assertEquals(-1, scanner.getNameId(new QName("http://example.com", "NamedLayer")));
+
+        assertEquals(START_ELEMENT, scanner.next());
+        assertEquals(scanner.getNameId(new QName(sld, "NamedLayer")), scanner.getElementNameId());
+        assertTrue(rootId != scanner.getElementNameId());
+
+        assertEquals(START_ELEMENT, scanner.next());
+        final int nameId = scanner.getElementNameId();
+        assertEquals(nameId, scanner.getNameId(new QName(sld, "Name")));
+        assertEquals(VALUE_STRING, scanner.next());
+        scanner.getStringValue();
+        assertEquals(END_ELEMENT, scanner.next());
+        assertEquals(nameId, scanner.getElementNameId());
+    }
+
+    /**
+     * Attribute values encoded as single numeric tokens shall be readable both as primitives and
+     * as strings, and multi token values shall be coalesced
+     */
+    @Test
+    public void testWriteAttributeValuesRoundTrip() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BxmlOutputStream outputStream = new DefaultStreamFactory().createOutputStream(out);
+        BxmlStreamWriter serializer = new BxmlStreamWriter_Contract(new DefaultBxmlStreamWriter(
+                new EncodingOptions(), outputStream));
+
+        serializer.writeStartDocument();
+        serializer.writeStartElement("", "root");
+        serializer.writeStartAttribute("", "small");
+        serializer.writeValue(5);
+        serializer.writeStartAttribute("", "int");
+        serializer.writeValue(100000);
+        serializer.writeStartAttribute("", "double");
+        serializer.writeValue(1.5D);
+        serializer.writeStartAttribute("", "string");
+        serializer.writeValue("abc");
+        serializer.writeStartAttribute("", "list");
+        serializer.writeValue(new int[] { 1, 2, 3 }, 0, 3);
+        serializer.writeEndAttributes();
+        serializer.writeEndElement();
+        serializer.writeEndDocument();
+        serializer.close();
+
+        BxmlStreamReader parser = new DefaultBxmlInputFactory()
+                .createScanner(new ByteArrayInputStream(out.toByteArray()));
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertEquals(5, parser.getAttributeCount());
+        final int small = getAttributeIndex(parser, "small");
+        assertEquals(5, parser.getAttributeIntValue(small));
+        assertEquals(5D, parser.getAttributeDoubleValue(small), 0D);
+        assertEquals("5", parser.getAttributeValue(small));
+        final int intAtt = getAttributeIndex(parser, "int");
+        assertEquals(100000, parser.getAttributeIntValue(intAtt));
+        assertEquals("100000", parser.getAttributeValue(intAtt));
+        final int doubleAtt = getAttributeIndex(parser, "double");
+        assertEquals(1.5D, parser.getAttributeDoubleValue(doubleAtt), 0D);
+        assertEquals("1.5", parser.getAttributeValue(doubleAtt));
+        try {
+            parser.getAttributeIntValue(doubleAtt);
+            fail("expected NumberFormatException");
+        } catch (NumberFormatException e) {
+            assertTrue(true);
+        }
+        assertEquals("abc", parser.getAttributeValue(getAttributeIndex(parser, "string")));
+        assertEquals("1 2 3", parser.getAttributeValue(getAttributeIndex(parser, "list")));
+        assertSame(EventType.END_ELEMENT, parser.nextTag());
+        parser.close();
+    }
+
+    private int getAttributeIndex(final BxmlStreamReader parser, final String localName) {
+        for (int i = 0; i < parser.getAttributeCount(); i++) {
+            if (localName.equals(parser.getAttributeName(i).getLocalPart())) {
+                return i;
+            }
+        }
+        fail("attribute not found: " + localName);
+        return -1;
+    }
+
     /**
      * Records the full reading of the following test file:
      * 
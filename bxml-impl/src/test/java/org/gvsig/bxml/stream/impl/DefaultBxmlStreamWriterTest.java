@@ -37,9 +37,12 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.gvsig.bxml.stream.io.TokenType.XmlDeclaration;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -48,6 +51,13 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import javax.xml.XMLConstants;
 
 import org.gvsig.bxml.stream.BxmlFactoryFinder;
 import org.gvsig.bxml.stream.BxmlOutputFactory;
@@ -60,6 +70,8 @@ import org.gvsig.bxml.stream.io.BxmlInputStream;
 import org.gvsig.bxml.stream.io.BxmlOutputStream;
 import org.gvsig.bxml.stream.io.DefaultStreamFactory;
 import org.gvsig.bxml.stream.io.Header;
+import org.gvsig.bxml.stream.io.IndexTableIndexEntry;
+import org.gvsig.bxml.stream.io.StringTableIndexEntry;
 import org.gvsig.bxml.stream.io.TokenType;
 import org.gvsig.bxml.stream.io.ValueType;
 import org.junit.After;
@@ -195,6 +207,8 @@ public class DefaultBxmlStreamWriterTest {
         encodingOptions.setByteOrder(byteOrder);
         encodingOptions.setCharactersEncoding(charsEncoding);
         encodingOptions.setUseCompression(useCompression);
+        encodingOptions.setCompressionLevel(9);
+        encodingOptions.setCompressionBlockSize(EncodingOptions.DEFAULT_COMPRESSION_BLOCK_SIZE);
         encodingOptions.setUseStrictXmlStrings(useStrictXmlStrings);
         encodingOptions.setValidated(isValidated);
         encodingOptions.setXmlVersion(xmlVersion);
@@ -206,6 +220,8 @@ public class DefaultBxmlStreamWriterTest {
     private void testWriteStartDocument(EncodingOptions encodingOptions) throws IOException {
         // record expected writer calls
         Header header = DefaultBxmlStreamWriter.toHeader(encodingOptions);
+        mockOutputStream.setCompressionLevel(eq(encodingOptions.getCompressionLevel()));
+        mockOutputStream.setCompressionBlockSize(eq(encodingOptions.getCompressionBlockSize()));
         mockOutputStream.writeHeader(eq(header));
         mockOutputStream.writeTokenType(eq(XmlDeclaration));
         mockOutputStream.writeString(eq(encodingOptions.getXmlVersion()));
@@ -227,6 +243,7 @@ public class DefaultBxmlStreamWriterTest {
         expect(mockOutputStream.isOpen()).andReturn(true);
         expect(mockOutputStream.isAutoFlushing()).andReturn(true);
         mockOutputStream.flush();
+        mockOutputStream.close();
 
         replay(mockOutputStream);
         writer.close();
@@ -239,6 +256,7 @@ public class DefaultBxmlStreamWriterTest {
         expect(mockOutputStream.isAutoFlushing()).andReturn(false);
         mockOutputStream.setAutoFlushing(eq(true));
         mockOutputStream.flush();
+        mockOutputStream.close();
 
         replay(mockOutputStream);
         writer.close();
@@ -646,4 +664,1038 @@ public class DefaultBxmlStreamWriterTest {
         serializer.close();
         // TODO: check the gml:srsName value was written only once as a StringTable reference
     }
+
+    @Test
+    public void testWriteIndexTables() throws Exception {
+        final File file = new File("target/testWriteIndexTables.bxml");
+        OutputStream out = new FileOutputStream(file);
+
+        final String featureIdXpath = "/wfs:FeatureCollection/gml:featureMember/*/@gml:id";
+        final String nameXpath = "/wfs:FeatureCollection/gml:featureMember/topp:states/topp:NAME";
+        encodingOptions.setIndexTableXpathExpressions(new LinkedHashSet<String>(Arrays.asList(
+                featureIdXpath, nameXpath, "//gml:featureMember[1]")));
+        DefaultBxmlOutputFactory defaultBxmlFactory = new DefaultBxmlOutputFactory();
+        defaultBxmlFactory.setEncodingOptions(encodingOptions);
+
+        BxmlStreamWriter serializer = defaultBxmlFactory.createSerializer(out);
+        serializer = new BxmlStreamWriter_Contract(serializer);
+
+        final String wfsNs = "http://www.opengis.net/wfs";
+        final String gmlNs = "http://www.opengis.net/gml";
+        final String toppNs = "http://www.openplans.org/topp";
+
+        serializer.writeStartDocument();
+        serializer.writeStartElement(wfsNs, "FeatureCollection");
+        serializer.writeNamespace("wfs", wfsNs);
+        serializer.writeNamespace("gml", gmlNs);
+        serializer.writeNamespace("topp", toppNs);
+
+        final long[] featurePositions = new long[3];
+        final long[] namePositions = new long[3];
+        for (int i = 0; i < 3; i++) {
+            serializer.writeStartElement(gmlNs, "featureMember");
+            serializer.writeStartElement(toppNs, "states");
+            serializer.writeStartAttribute(gmlNs, "id");
+            serializer.writeValue("states." + i);
+            serializer.writeEndAttributes();
+
+            serializer.writeStartElement(toppNs, "NAME");
+            serializer.writeValue(i == 2 ? "Idaho" : "Iowa");
+            serializer.writeEndElement();// NAME
+            serializer.writeEndElement();// states
+            serializer.writeEndElement();// featureMember
+        }
+        serializer.writeEndElement();// FeatureCollection
+        serializer.writeEndDocument();
+        serializer.flush();
+        serializer.close();
+
+        // gather the expected element positions
+        DefaultBxmlInputFactory inputFactory = new DefaultBxmlInputFactory();
+        inputFactory.setNamespaceAware(true);
+        BxmlStreamReader parser = inputFactory.createScanner(file);
+        int feature = 0;
+        while (parser.hasNext()) {
+            if (EventType.START_ELEMENT == parser.next()) {
+                if ("states".equals(parser.getElementName().getLocalPart())) {
+                    featurePositions[feature] = parser.getElementPosition();
+                } else if ("NAME".equals(parser.getElementName().getLocalPart())) {
+                    namePositions[feature++] = parser.getElementPosition();
+                }
+            }
+        }
+        parser.close();
+        assertEquals(3, feature);
+
+        BxmlInputStream in = new DefaultStreamFactory().createInputStream(new FileInputStream(
+                file).getChannel());
+        try {
+            in.setPosition(in.getSize() - 4);
+            in.setPosition(in.getSize() - in.readInt());
+            assertSame(TokenType.Trailer, in.readTokenType());
+            final List<IndexTableIndexEntry> indexTableIndex = new ArrayList<IndexTableIndexEntry>(
+                    in.readTrailer().getIndexTableIndex());
+            assertEquals(2, indexTableIndex.size());
+
+            for (IndexTableIndexEntry entry : indexTableIndex) {
+                in.setPosition(entry.getFileOffset());
+                assertSame(TokenType.IndexTable, in.readTokenType());
+                final long skipSize = in.readCount();
+                final long start = in.getPosition();
+                assertEquals(entry.getXpathExpression(), in.readString());
+                if (featureIdXpath.equals(entry.getXpathExpression())) {
+                    assertEquals(3, in.readCount());
+                    for (int i = 0; i < 3; i++) {
+                        assertEquals(ValueType.StringCode.getCode(), in.readByte());
+                        assertEquals("states." + i, in.readString());
+                        assertEquals(1, in.readCount());
+                        assertEquals(featurePositions[i], in.readCount());
+                    }
+                } else {
+                    assertEquals(nameXpath, entry.getXpathExpression());
+                    assertEquals(2, in.readCount());
+                    assertEquals(ValueType.StringCode.getCode(), in.readByte());
+                    assertEquals("Iowa", in.readString());
+                    assertEquals(2, in.readCount());
+                    assertEquals(namePositions[0], in.readCount());
+                    assertEquals(namePositions[1], in.readCount());
+                    assertEquals(ValueType.StringCode.getCode(), in.readByte());
+                    assertEquals("Idaho", in.readString());
+                    assertEquals(1, in.readCount());
+                    assertEquals(namePositions[2], in.readCount());
+                }
+                assertEquals(skipSize, in.getPosition() - start);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Index table values with more positions than the reader presizes for shall be read whole
+     */
+    @Test
+    public void testLookupManyPositions() throws Exception {
+        final File file = new File("target/testLookupManyPositions.bxml");
+        OutputStream out = new FileOutputStream(file);
+
+        final String nameXpath = "/FeatureCollection/featureMember/NAME";
+        encodingOptions.setIndexTableXpathExpressions(Collections.singleton(nameXpath));
+        DefaultBxmlOutputFactory defaultBxmlFactory = new DefaultBxmlOutputFactory();
+        defaultBxmlFactory.setEncodingOptions(encodingOptions);
+
+        BxmlStreamWriter serializer = defaultBxmlFactory.createSerializer(out);
+        serializer.writeStartDocument();
+        serializer.writeStartElement("", "FeatureCollection");
+        final int count = 2500;
+        for (int i = 0; i < count; i++) {
+            serializer.writeStartElement("", "featureMember");
+            serializer.writeStartElement("", "NAME");
+            serializer.writeValue(i % 1000 == 0 ? "Idaho" : "Iowa");
+            serializer.writeEndElement();// NAME
+            serializer.writeEndElement();// featureMember
+        }
+        serializer.writeEndElement();// FeatureCollection
+        serializer.writeEndDocument();
+        serializer.flush();
+        serializer.close();
+
+        BxmlStreamReader parser = new DefaultBxmlInputFactory().createScanner(file);
+        try {
+            final long[] iowa = parser.lookup(nameXpath, "Iowa");
+            assertEquals(count - 3, iowa.length);
+            for (int i = 1; i < iowa.length; i++) {
+                assertTrue(iowa[i - 1] < iowa[i]);
+            }
+            assertEquals(3, parser.lookup(nameXpath, "Idaho").length);
+            parser.setPosition(iowa[iowa.length - 1]);
+            assertEquals("NAME", parser.getElementName().getLocalPart());
+        } finally {
+            parser.close();
+        }
+    }
+
+    @Test
+    public void testWriteStringTableFragments() throws Exception {
+        final File file = new File("target/testWriteStringTableFragments.bxml");
+        OutputStream out = new FileOutputStream(file);
+
+        encodingOptions.setStringTableFragmentSize(3);
+        DefaultBxmlOutputFactory defaultBxmlFactory = new DefaultBxmlOutputFactory();
+        defaultBxmlFactory.setEncodingOptions(encodingOptions);
+
+        BxmlStreamWriter serializer = defaultBxmlFactory.createSerializer(out);
+        serializer = new BxmlStreamWriter_Contract(serializer);
+
+        serializer.writeStartDocument();
+        // referenced right away, fragment of 1
+        serializer.writeStartElement("", "root");
+        // buffered up to the fragment size, fragment of 3
+        final long refA = serializer.getStringTableReference("a");
+        serializer.getStringTableReference("b");
+        serializer.getStringTableReference("c");
+        // buffered until the element name is referenced, fragment of 3
+        serializer.getStringTableReference("d");
+        final long refE = serializer.getStringTableReference("e");
+        serializer.writeStartElement("", "child");
+        serializer.writeStringTableValue(refA);
+        serializer.writeEndElement();
+        serializer.writeStartElement("", "child");
+        // never referenced, written at the end of the document, fragment of 1
+        serializer.getStringTableReference("f");
+        serializer.writeStringTableValue(refE);
+        serializer.writeEndElement();
+        serializer.writeEndElement();
+        serializer.writeEndDocument();
+        serializer.flush();
+        serializer.close();
+
+        BxmlInputStream in = new DefaultStreamFactory().createInputStream(new FileInputStream(
+                file).getChannel());
+        try {
+            in.setPosition(in.getSize() - 4);
+            in.setPosition(in.getSize() - in.readInt());
+            assertSame(TokenType.Trailer, in.readTokenType());
+            final List<StringTableIndexEntry> stringTableIndex = new ArrayList<StringTableIndexEntry>(
+                    in.readTrailer().getStringTableIndex());
+            assertEquals(4, stringTableIndex.size());
+            final long[] expectedCounts = { 1, 3, 3, 1 };
+            final String[][] expectedStrings = { { "root" }, { "a", "b", "c" },
+                    { "d", "e", "child" }, { "f" } };
+            for (int i = 0; i < 4; i++) {
+                final StringTableIndexEntry entry = stringTableIndex.get(i);
+                assertEquals(expectedCounts[i], entry.getStringCount());
+                in.setPosition(entry.getFileOffset());
+                assertSame(TokenType.StringTable, in.readTokenType());
+                assertEquals(expectedCounts[i], in.readCount());
+                for (String expected : expectedStrings[i]) {
+                    assertEquals(expected, in.readString());
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        BxmlStreamReader parser = new DefaultBxmlInputFactory().createScanner(file);
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertEquals("child", parser.getElementName().getLocalPart());
+        assertSame(EventType.VALUE_STRING, parser.next());
+        assertEquals("a", parser.getStringValue());
+        assertSame(EventType.END_ELEMENT, parser.nextTag());
+        // loads the remaining fragments out of the trailer, the ones parsed so far shall not be
+        // loaded twice nor the remaining ones once parsed
+        assertTrue(parser.supportsRandomAccess());
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertSame(EventType.VALUE_STRING, parser.next());
+        assertEquals("e", parser.getStringValue());
+        parser.close();
+    }
+
+    /**
+     * String values and comments shall be readable in chunks through getValue(char[], int, int)
+     * and as character sequences
+     */
+    @Test
+    public void testReadStringValueChars() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BxmlOutputStream outputStream = new DefaultStreamFactory().createOutputStream(out);
+        BxmlStreamWriter serializer = new BxmlStreamWriter_Contract(new DefaultBxmlStreamWriter(
+                encodingOptions, outputStream));
+
+        serializer.writeStartDocument();
+        serializer.writeStartElement("", "root");
+        serializer.writeComment("a comment");
+        serializer.writeStartElement("", "chunked");
+        serializer.writeValue("hello world");
+        serializer.writeEndElement();
+        serializer.writeStartElement("", "sequence");
+        serializer.writeValue("ma\u00f1ana");
+        serializer.writeEndElement();
+        serializer.writeEndElement();
+        serializer.writeEndDocument();
+        serializer.close();
+
+        BxmlStreamReader parser = new DefaultBxmlInputFactory()
+                .createScanner(new ByteArrayInputStream(out.toByteArray()));
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertSame(EventType.COMMENT, parser.next());
+        assertEquals("a comment", parser.getCharSequenceValue().toString());
+
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertSame(EventType.VALUE_STRING, parser.next());
+        final char[] chars = new char[6];
+        final StringBuilder read = new StringBuilder();
+        int count;
+        while ((count = parser.getValue(chars, 2, 4)) > 0) {
+            assertTrue(count <= 4);
+            read.append(chars, 2, count);
+        }
+        assertEquals("hello world", read.toString());
+        assertEquals(1, parser.getValueReadCount());
+        assertSame(EventType.END_ELEMENT, parser.next());
+
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertSame(EventType.VALUE_STRING, parser.next());
+        final CharSequence value = parser.getCharSequenceValue();
+        assertEquals(6, value.length());
+        assertEquals("ma\u00f1ana", value.toString());
+        assertSame(EventType.END_ELEMENT, parser.next());
+        parser.close();
+    }
+
+    @Test
+    public void testSkipElement() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BxmlOutputStream outputStream = new DefaultStreamFactory().createOutputStream(out);
+        BxmlStreamWriter serializer = new BxmlStreamWriter_Contract(new DefaultBxmlStreamWriter(
+                encodingOptions, outputStream));
+
+        serializer.writeStartDocument();
+        serializer.writeStartElement("", "root");
+        serializer.writeStartElement("", "skipped");
+        serializer.writeStartAttribute("", "id");
+        serializer.writeValue("s1");
+        serializer.writeStartAttribute("", "list");
+        serializer.writeValue(new int[] { 1, 2, 3 }, 0, 3);
+        serializer.writeEndAttributes();
+        serializer.writeComment("a comment");
+        serializer.writeStartElement("", "nested");
+        serializer.writeValue(new double[] { 1.5, 2.5, 3.5, 4.5 }, 0, 4);
+        serializer.writeValue("text");
+        serializer.writeStartElement("", "empty");
+        serializer.writeEndElement();
+        serializer.writeStartElement("", "emptyWithAtts");
+        serializer.writeStartAttribute("", "count");
+        serializer.writeValue(12);
+        serializer.writeEndAttributes();
+        serializer.writeEndElement();
+        serializer.writeEndElement();
+        serializer.writeStartElement("", "flag");
+        serializer.writeValue(true);
+        serializer.writeEndElement();
+        serializer.writeEndElement();
+
+        serializer.writeStartElement("", "empty");
+        serializer.writeStartAttribute("", "count");
+        serializer.writeValue(7);
+        serializer.writeEndAttributes();
+        serializer.writeEndElement();
+        serializer.writeStartElement("", "nested");
+        serializer.writeValue(42);
+        serializer.writeEndElement();
+        serializer.writeEndElement();
+        serializer.writeEndDocument();
+        serializer.close();
+
+        BxmlStreamReader parser = new DefaultBxmlInputFactory()
+                .createScanner(new ByteArrayInputStream(out.toByteArray()));
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertEquals("skipped", parser.getElementName().getLocalPart());
+        assertEquals(2, parser.getTagDepth());
+
+        parser.skipElement();
+        assertSame(EventType.END_ELEMENT, parser.getEventType());
+        assertEquals("skipped", parser.getElementName().getLocalPart());
+        assertEquals(1, parser.getTagDepth());
+
+        // names first used inside the skipped element shall still be resolved
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertEquals("empty", parser.getElementName().getLocalPart());
+        assertEquals(7, parser.getAttributeIntValue(getAttributeIndex(parser, "count")));
+        // skipping an empty element just advances to its end
+        parser.skipElement();
+        assertSame(EventType.END_ELEMENT, parser.getEventType());
+        assertEquals("empty", parser.getElementName().getLocalPart());
+
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertEquals("nested", parser.getElementName().getLocalPart());
+        assertSame(EventType.VALUE_INT, parser.next());
+        assertEquals(42, parser.getIntValue());
+        assertSame(EventType.END_ELEMENT, parser.next());
+        assertSame(EventType.END_ELEMENT, parser.nextTag());
+        assertEquals("root", parser.getElementName().getLocalPart());
+        assertEquals(0, parser.getTagDepth());
+        assertSame(EventType.END_DOCUMENT, parser.next());
+        parser.close();
+    }
+
+    @Test
+    public void testSkipIndex() throws Exception {
+        final File file = new File("target/testSkipIndex.bxml");
+        OutputStream out = new FileOutputStream(file);
+
+        encodingOptions.setSkipIndexThreshold(256);
+        DefaultBxmlOutputFactory defaultBxmlFactory = new DefaultBxmlOutputFactory();
+        defaultBxmlFactory.setEncodingOptions(encodingOptions);
+
+        BxmlStreamWriter serializer = defaultBxmlFactory.createSerializer(out);
+        serializer = new BxmlStreamWriter_Contract(serializer);
+
+        serializer.writeStartDocument();
+        serializer.writeStartElement("", "root");
+        serializer.writeStartElement("", "big");
+        for (int i = 0; i < 10; i++) {
+            serializer.writeStartElement("", "coordinates");
+            serializer.writeValue(new double[] { i, i + 0.5, i + 1, i + 1.5 }, 0, 4);
+            serializer.writeEndElement();
+        }
+        serializer.writeEndElement();
+        serializer.writeStartElement("", "small");
+        serializer.writeStartElement("", "coordinates");
+        serializer.writeValue(1.5D);
+        serializer.writeEndElement();
+        serializer.writeEndElement();
+        serializer.writeEndElement();
+        serializer.writeEndDocument();
+        serializer.flush();
+        serializer.close();
+
+        BxmlStreamReader parser = new DefaultBxmlInputFactory().createScanner(file);
+        assertTrue(parser.supportsRandomAccess());
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertEquals("big", parser.getElementName().getLocalPart());
+        final long[] bigEnd = parser.lookup(SkipIndexBuilder.EXPRESSION, parser
+                .getElementPosition());
+        assertEquals(1, bigEnd.length);
+        assertTrue(bigEnd[0] - parser.getElementPosition() >= 256);
+
+        parser.skipElement();
+        assertSame(EventType.END_ELEMENT, parser.getEventType());
+        assertEquals("big", parser.getElementName().getLocalPart());
+        assertEquals(1, parser.getTagDepth());
+
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertEquals("small", parser.getElementName().getLocalPart());
+        assertEquals(0, parser.lookup(SkipIndexBuilder.EXPRESSION, parser.getElementPosition())
+                .length);
+        // names first used inside the element skipped through the index shall still be resolved
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertEquals("coordinates", parser.getElementName().getLocalPart());
+        // too small to be indexed, walked over instead
+        parser.skipElement();
+        assertSame(EventType.END_ELEMENT, parser.getEventType());
+        assertEquals("coordinates", parser.getElementName().getLocalPart());
+        assertSame(EventType.END_ELEMENT, parser.nextTag());
+        assertEquals("small", parser.getElementName().getLocalPart());
+
+        assertSame(EventType.END_ELEMENT, parser.nextTag());
+        assertEquals("root", parser.getElementName().getLocalPart());
+        assertSame(EventType.END_DOCUMENT, parser.next());
+        parser.close();
+    }
+
+    private int getAttributeIndex(final BxmlStreamReader parser, final String localName) {
+        for (int i = 0; i < parser.getAttributeCount(); i++) {
+            if (localName.equals(parser.getAttributeName(i).getLocalPart())) {
+                return i;
+            }
+        }
+        fail("attribute not found: " + localName);
+        return -1;
+    }
+
+    /**
+     * Content shall be flushed after closing the elements at the flush depth only, or when the
+     * document ends
+     */
+    @Test
+    public void testWriteEndElementFlushDepth() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encodingOptions.setFlushDepth(2);
+        encodingOptions.setFlushThreshold(Integer.MAX_VALUE);
+        BxmlOutputStream outputStream = new DefaultStreamFactory().createOutputStream(out);
+        BxmlStreamWriter serializer = new BxmlStreamWriter_Contract(new DefaultBxmlStreamWriter(
+                encodingOptions, outputStream));
+
+        serializer.writeStartDocument();
+        serializer.writeStartElement("", "root");
+        int flushed = out.size();
+        for (int i = 0; i < 3; i++) {
+            serializer.writeStartElement("", "member");
+            serializer.writeStartElement("", "value");
+            serializer.writeValue(i);
+            serializer.writeEndElement();
+            assertEquals("flushed below the flush depth", flushed, out.size());
+
+            serializer.writeEndElement();
+            assertTrue("not flushed at the flush depth", out.size() > flushed);
+            assertEquals(0, outputStream.getCachedSize());
+            flushed = out.size();
+        }
+        serializer.writeEndElement();
+        assertEquals("flushed above the flush depth", flushed, out.size());
+        serializer.writeEndDocument();
+        assertTrue(out.size() > flushed);
+        assertEquals(0, outputStream.getCachedSize());
+        serializer.close();
+    }
+
+    /**
+     * Content shall be flushed at an element end once the flush threshold is reached
+     */
+    @Test
+    public void testWriteEndElementFlushThreshold() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encodingOptions.setFlushThreshold(64);
+        BxmlOutputStream outputStream = new DefaultStreamFactory().createOutputStream(out);
+        BxmlStreamWriter serializer = new BxmlStreamWriter_Contract(new DefaultBxmlStreamWriter(
+                encodingOptions, outputStream));
+
+        serializer.writeStartDocument();
+        serializer.writeStartElement("", "root");
+        serializer.writeStartElement("", "small");
+        serializer.writeEndElement();
+        assertEquals(0, out.size());
+
+        serializer.writeStartElement("", "large");
+        serializer.writeValue(new double[16], 0, 16);
+        serializer.writeEndElement();
+        assertTrue(out.size() > 0);
+        assertEquals(0, outputStream.getCachedSize());
+        serializer.writeEndElement();
+        serializer.writeEndDocument();
+        serializer.close();
+    }
+
+    /**
+     * The root element name, its namespace declarations and the schema location attribute name go
+     * in a single StringTable fragment
+     */
+    @Test
+    public void testWriteStringTableFragmentsRootElement() throws Exception {
+        final File file = new File("target/testWriteStringTableFragmentsRootElement.bxml");
+        OutputStream out = new FileOutputStream(file);
+
+        DefaultBxmlOutputFactory defaultBxmlFactory = new DefaultBxmlOutputFactory();
+        defaultBxmlFactory.setEncodingOptions(encodingOptions);
+        BxmlStreamWriter serializer = defaultBxmlFactory.createSerializer(out);
+        serializer = new BxmlStreamWriter_Contract(serializer);
+
+        serializer.writeStartDocument();
+        serializer.setSchemaLocation("urn:a", "a.xsd");
+        serializer.writeDefaultNamespace("urn:a");
+        serializer.writeNamespace("b", "urn:b");
+        serializer.writeNamespace("xsi", XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+        serializer.writeStartElement("urn:a", "root");
+        serializer.writeEndAttributes();
+        // declares its namespace inline, one more fragment
+        serializer.writeStartElement("urn:c", "child");
+        serializer.writeEndElement();
+        serializer.writeEndElement();
+        serializer.writeEndDocument();
+        serializer.flush();
+        serializer.close();
+
+        BxmlInputStream in = new DefaultStreamFactory().createInputStream(new FileInputStream(
+                file).getChannel());
+        try {
+            in.setPosition(in.getSize() - 4);
+            in.setPosition(in.getSize() - in.readInt());
+            assertSame(TokenType.Trailer, in.readTokenType());
+            final List<StringTableIndexEntry> stringTableIndex = new ArrayList<StringTableIndexEntry>(
+                    in.readTrailer().getStringTableIndex());
+            assertEquals(2, stringTableIndex.size());
+            final StringTableIndexEntry rootFragment = stringTableIndex.get(0);
+            assertEquals(8, rootFragment.getStringCount());
+            in.setPosition(rootFragment.getFileOffset());
+            assertSame(TokenType.StringTable, in.readTokenType());
+            assertEquals(8, in.readCount());
+            final List<String> strings = new ArrayList<String>();
+            for (int i = 0; i < 8; i++) {
+                strings.add(in.readString());
+            }
+            assertTrue(strings.toString(), strings.containsAll(Arrays.asList("root", "urn:a",
+                    "urn:b", XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI)));
+            // child, urn:c
+            assertEquals(2, stringTableIndex.get(1).getStringCount());
+        } finally {
+            in.close();
+        }
+
+        BxmlStreamReader parser = new DefaultBxmlInputFactory().createScanner(file);
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertEquals("root", parser.getElementName().getLocalPart());
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        assertEquals("child", parser.getElementName().getLocalPart());
+        assertSame(EventType.END_ELEMENT, parser.nextTag());
+        assertSame(EventType.END_ELEMENT, parser.nextTag());
+        parser.close();
+    }
+
+    private static final String FEATURE_NS = "http://www.example.com/test";
+
+    private static final String GML_NS = "http://www.opengis.net/gml";
+
+    /**
+     * Creates a writer on {@code out} positioned inside a root element with a default and a
+     * prefixed namespace
+     */
+    private DefaultBxmlStreamWriter createFragmentsParent(final OutputStream out)
+            throws IOException {
+        BxmlOutputStream outputStream = new DefaultStreamFactory().createOutputStream(out);
+        DefaultBxmlStreamWriter serializer = new DefaultBxmlStreamWriter(new EncodingOptions(),
+                outputStream);
+        serializer.writeStartDocument();
+        serializer.writeDefaultNamespace(FEATURE_NS);
+        serializer.writeNamespace("gml", GML_NS);
+        serializer.writeStartElement(FEATURE_NS, "root");
+        return serializer;
+    }
+
+    private void endFragmentsParent(final BxmlStreamWriter serializer) throws IOException {
+        serializer.writeEndElement();
+        serializer.writeEndDocument();
+        serializer.flush();
+        serializer.close();
+    }
+
+    /**
+     * Writes a feature like element using prefixed, default and inline declared namespaces,
+     * attributes, arrays and string table values, named after {@code name}
+     */
+    private void writeFeature(final BxmlStreamWriter serializer, final int index,
+            final String name) throws IOException {
+        serializer.writeStartElement(FEATURE_NS, "feature");
+        serializer.writeStartAttribute(GML_NS, "id");
+        serializer.writeValue("feature." + index);
+        serializer.writeEndAttributes();
+
+        serializer.writeStartElement(GML_NS, "pos");
+        serializer.writeValue(new double[] { index, -index }, 0, 2);
+        serializer.writeEndElement();
+
+        serializer.writeStartElement(FEATURE_NS, "name");
+        serializer.writeStringTableValue(serializer.getStringTableReference(name));
+        serializer.writeEndElement();
+
+        serializer.writeStartElement("urn:other", "empty");
+        serializer.writeEndElement();
+
+        serializer.writeEndElement();
+    }
+
+    /**
+     * Writes {@code count} features through fragment writers, up to {@code window} of them
+     * encoded ahead of being written down, and writes the rejected ones again directly.
+     * 
+     * @return the number of rejected fragments
+     */
+    private int writeFeatureFragments(final DefaultBxmlStreamWriter serializer, final int count,
+            final int window) throws IOException {
+        final List<DefaultBxmlStreamWriter> fragments = new ArrayList<DefaultBxmlStreamWriter>();
+        int rejected = 0;
+        for (int i = 0, written = 0; written < count;) {
+            if (i < count && fragments.size() < window) {
+                DefaultBxmlStreamWriter fragment = serializer.createFragmentWriter();
+                writeFeature(fragment, i, "name" + i / 3);
+                fragments.add(fragment);
+                i++;
+                continue;
+            }
+            if (!serializer.writeFragment(fragments.remove(0))) {
+                writeFeature(serializer, written, "name" + written / 3);
+                rejected++;
+            }
+            written++;
+        }
+        return rejected;
+    }
+
+    /**
+     * Fragments written down shall produce the same document than writing the same events
+     * directly, and the ones adding strings shall be rejected
+     */
+    @Test
+    public void testWriteFragments() throws Exception {
+        final int count = 12;
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DefaultBxmlStreamWriter serializer = createFragmentsParent(expected);
+        for (int i = 0; i < count; i++) {
+            writeFeature(serializer, i, "name" + i / 3);
+        }
+        endFragmentsParent(serializer);
+
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        serializer = createFragmentsParent(actual);
+        assertTrue(serializer.canWriteFragments());
+        final int rejected = writeFeatureFragments(serializer, count, 2);
+        endFragmentsParent(serializer);
+
+        // the ones encoded before a new name was written down
+        assertTrue(String.valueOf(rejected), rejected > 0 && rejected < count);
+        assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+
+        BxmlStreamReader parser = new DefaultBxmlInputFactory()
+                .createScanner(new ByteArrayInputStream(actual.toByteArray()));
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        for (int i = 0; i < count; i++) {
+            assertSame(EventType.START_ELEMENT, parser.nextTag());
+            assertEquals("feature", parser.getElementName().getLocalPart());
+            parser.skipElement();
+        }
+        assertSame(EventType.END_ELEMENT, parser.nextTag());
+        parser.close();
+    }
+
+    /**
+     * Once an element was written directly, fragments of elements with the same names and strings
+     * shall not be rejected, also when written through the {@link BxmlStreamWriter} interface
+     */
+    @Test
+    public void testWriteFragmentsAfterFirstElement() throws Exception {
+        final int count = 8;
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BxmlStreamWriter serializer = createFragmentsParent(expected);
+        for (int i = 0; i < count; i++) {
+            writeFeature(serializer, i, "name");
+        }
+        endFragmentsParent(serializer);
+
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        serializer = new BxmlStreamWriter_Contract(createFragmentsParent(actual));
+        writeFeature(serializer, 0, "name");
+        final List<BxmlStreamWriter> fragments = new ArrayList<BxmlStreamWriter>();
+        for (int i = 1; i < count; i++) {
+            assertTrue(serializer.canWriteFragments());
+            BxmlStreamWriter fragment = serializer.createFragmentWriter();
+            writeFeature(fragment, i, "name");
+            fragments.add(fragment);
+        }
+        for (BxmlStreamWriter fragment : fragments) {
+            assertTrue(serializer.writeFragment(fragment));
+        }
+        endFragmentsParent(serializer);
+
+        assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+    }
+
+    /**
+     * Resolves the names {@link #writeFeature(BxmlStreamWriter, int, String, long[])} writes
+     */
+    private long[] getFeatureNameReferences(final BxmlStreamWriter serializer) throws IOException {
+        return new long[] { serializer.getNameReference(FEATURE_NS, "feature"),
+                serializer.getNameReference(GML_NS, "id"),
+                serializer.getNameReference(GML_NS, "pos"),
+                serializer.getNameReference(FEATURE_NS, "name") };
+    }
+
+    /**
+     * Same as {@link #writeFeature(BxmlStreamWriter, int, String)} but through the name
+     * references returned by {@link #getFeatureNameReferences(BxmlStreamWriter)}
+     */
+    private void writeFeature(final BxmlStreamWriter serializer, final int index,
+            final String name, final long[] names) throws IOException {
+        serializer.writeStartElement(names[0]);
+        serializer.writeStartAttribute(names[1]);
+        serializer.writeValue("feature." + index);
+        serializer.writeEndAttributes();
+
+        serializer.writeStartElement(names[2]);
+        serializer.writeValue(new double[] { index, -index }, 0, 2);
+        serializer.writeEndElement();
+
+        serializer.writeStartElement(names[3]);
+        serializer.writeStringTableValue(serializer.getStringTableReference(name));
+        serializer.writeEndElement();
+
+        serializer.writeStartElement("urn:other", "empty");
+        serializer.writeEndElement();
+
+        serializer.writeEndElement();
+    }
+
+    /**
+     * Writes an element that binds the gml prefix to another namespace around a gml:pos one
+     */
+    private void writeRebound(final BxmlStreamWriter serializer, final long pos)
+            throws IOException {
+        serializer.writeStartElement(FEATURE_NS, "rebound");
+        serializer.writeNamespace("gml", "urn:other-gml");
+        if (pos == -1) {
+            serializer.writeStartElement(GML_NS, "pos");
+        } else {
+            serializer.writeStartElement(pos);
+        }
+        serializer.writeEndElement();
+        serializer.writeEndElement();
+    }
+
+    /**
+     * Names written through references, directly or from fragment writers, shall produce the same
+     * document than writing them as usual, also once the namespace prefixes changed
+     */
+    @Test
+    public void testNameReferences() throws Exception {
+        final int count = 12;
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DefaultBxmlStreamWriter serializer = createFragmentsParent(expected);
+        // resolving the names adds them to the string table
+        getFeatureNameReferences(serializer);
+        for (int i = 0; i < count; i++) {
+            writeFeature(serializer, i, "name" + i / 3);
+            if (i == 7) {
+                writeRebound(serializer, -1);
+            }
+        }
+        endFragmentsParent(serializer);
+
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        serializer = createFragmentsParent(actual);
+        final long[] names = getFeatureNameReferences(serializer);
+        for (long name : names) {
+            assertTrue(name >= 0);
+        }
+        // no prefix bound
+        assertEquals(-1, serializer.getNameReference("urn:other", "empty"));
+
+        for (int i = 0; i < 4; i++) {
+            writeFeature(serializer, i, "name" + i / 3, names);
+        }
+        final List<DefaultBxmlStreamWriter> fragments = new ArrayList<DefaultBxmlStreamWriter>();
+        for (int i = 4; i < 8; i++) {
+            DefaultBxmlStreamWriter fragment = serializer.createFragmentWriter();
+            writeFeature(fragment, i, "name" + i / 3, names);
+            fragments.add(fragment);
+        }
+        // a fragment writer only references the names its document writer knows of
+        assertTrue(fragments.get(0).getNameReference(GML_NS, "id") >= 0);
+        assertEquals(-1, fragments.get(0).getNameReference(GML_NS, "unknown"));
+        for (int i = 4; i < 8; i++) {
+            if (!serializer.writeFragment(fragments.remove(0))) {
+                writeFeature(serializer, i, "name" + i / 3, names);
+            }
+        }
+        writeRebound(serializer, names[2]);
+        for (int i = 8; i < count; i++) {
+            writeFeature(serializer, i, "name" + i / 3, names);
+        }
+        endFragmentsParent(serializer);
+
+        assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+    }
+
+    /**
+     * A string table reference attribute value shall not let the element token be flushed before
+     * its type is known, whatever the buffered bytes when the attribute list ends
+     */
+    @Test
+    public void testStringTableAttributeValues() throws Exception {
+        final int count = 4 * DefaultStreamFactory.DEFAULT_BUFFER_SIZE / 16;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BxmlStreamWriter serializer = createFragmentsParent(out);
+        final long srsName = serializer.getStringTableReference("EPSG:4326");
+        for (int i = 0; i < count; i++) {
+            serializer.writeStartElement(GML_NS, "pos");
+            serializer.writeStartAttribute(XMLConstants.NULL_NS_URI, "srsName");
+            serializer.writeStringTableValue(srsName);
+            serializer.writeStartAttribute(XMLConstants.NULL_NS_URI, "name");
+            serializer.writeValue("pos." + i);
+            serializer.writeEndAttributes();
+            serializer.writeEndElement();
+        }
+        endFragmentsParent(serializer);
+
+        BxmlStreamReader parser = new DefaultBxmlInputFactory()
+                .createScanner(new ByteArrayInputStream(out.toByteArray()));
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        for (int i = 0; i < count; i++) {
+            assertSame(EventType.START_ELEMENT, parser.nextTag());
+            assertEquals(2, parser.getAttributeCount());
+            assertEquals("EPSG:4326", parser.getAttributeValue(null, "srsName"));
+            assertEquals("pos." + i, parser.getAttributeValue(null, "name"));
+            assertSame(EventType.END_ELEMENT, parser.nextTag());
+        }
+        assertSame(EventType.END_ELEMENT, parser.nextTag());
+        parser.close();
+    }
+
+    /**
+     * Starts a feature like element and a child element with constant attributes, to be written
+     * as a template
+     */
+    private void writeFeatureStart(final BxmlStreamWriter serializer) throws IOException {
+        serializer.writeStartElement(FEATURE_NS, "feature");
+        serializer.writeStartAttribute(XMLConstants.NULL_NS_URI, "kind");
+        serializer.writeStringTableValue(serializer.getStringTableReference("point"));
+        serializer.writeEndAttributes();
+
+        serializer.writeStartElement(GML_NS, "pos");
+        serializer.writeStartAttribute(XMLConstants.NULL_NS_URI, "srsName");
+        serializer.writeValue("EPSG:4326");
+        serializer.writeEndAttributes();
+    }
+
+    /**
+     * Ends the elements started by {@link #writeFeatureStart(BxmlStreamWriter)}
+     */
+    private void writeFeatureEnd(final BxmlStreamWriter serializer, final int index)
+            throws IOException {
+        serializer.writeValue(new double[] { index, -index }, 0, 2);
+        serializer.writeEndElement();
+
+        serializer.writeStartElement(FEATURE_NS, "name");
+        serializer.writeValue("feature." + index);
+        serializer.writeEndElement();
+
+        serializer.writeEndElement();
+    }
+
+    /**
+     * Templates written down shall produce the same document than writing the same events
+     * directly, and can be written several times, also by fragment writers
+     */
+    @Test
+    public void testWriteTemplate() throws Exception {
+        final int count = 6;
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BxmlStreamWriter serializer = createFragmentsParent(expected);
+        for (int i = 0; i < count; i++) {
+            writeFeatureStart(serializer);
+            writeFeatureEnd(serializer, i);
+        }
+        endFragmentsParent(serializer);
+
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        serializer = new BxmlStreamWriter_Contract(createFragmentsParent(actual));
+        writeFeatureStart(serializer);
+        writeFeatureEnd(serializer, 0);
+        final BxmlStreamWriter template = serializer.createFragmentWriter();
+        writeFeatureStart(template);
+        for (int i = 1; i < count - 1; i++) {
+            assertTrue(serializer.writeTemplate(template));
+            assertEquals(3, serializer.getTagDepth());
+            assertEquals("pos", serializer.getCurrentElementName());
+            writeFeatureEnd(serializer, i);
+        }
+        final BxmlStreamWriter fragment = serializer.createFragmentWriter();
+        assertTrue(fragment.writeTemplate(template));
+        writeFeatureEnd(fragment, count - 1);
+        assertTrue(serializer.writeFragment(fragment));
+        endFragmentsParent(serializer);
+
+        assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+
+        BxmlStreamReader parser = new DefaultBxmlInputFactory()
+                .createScanner(new ByteArrayInputStream(actual.toByteArray()));
+        assertSame(EventType.START_ELEMENT, parser.nextTag());
+        for (int i = 0; i < count; i++) {
+            assertSame(EventType.START_ELEMENT, parser.nextTag());
+            assertEquals("feature", parser.getElementName().getLocalPart());
+            assertEquals("point", parser.getAttributeValue(0));
+            assertSame(EventType.START_ELEMENT, parser.nextTag());
+            assertEquals("EPSG:4326", parser.getAttributeValue(0));
+            assertSame(EventType.VALUE_DOUBLE, parser.next());
+            assertEquals(i, parser.getDoubleValue(), 0D);
+            assertSame(EventType.END_ELEMENT, parser.nextTag());
+            assertSame(EventType.START_ELEMENT, parser.nextTag());
+            parser.skipElement();
+            assertSame(EventType.END_ELEMENT, parser.nextTag());
+        }
+        assertSame(EventType.END_ELEMENT, parser.nextTag());
+        parser.close();
+    }
+
+    /**
+     * Templates that are not just element starts, that are to be written to another document, or
+     * that may reference strings or namespace prefixes the writer does not know of are rejected
+     * without writing anything
+     */
+    @Test
+    public void testWriteTemplateRejected() throws Exception {
+        final DefaultBxmlStreamWriter serializer = createFragmentsParent(
+                new ByteArrayOutputStream());
+        writeFeatureStart(serializer);
+        writeFeatureEnd(serializer, 0);
+        final DefaultBxmlStreamWriter earlyFragment = serializer.createFragmentWriter();
+
+        DefaultBxmlStreamWriter template = serializer.createFragmentWriter();
+        writeFeatureStart(template);
+        template.writeStartAttribute(XMLConstants.NULL_NS_URI, "srsName");
+        assertRejected(serializer, template);
+
+        template = serializer.createFragmentWriter();
+        writeFeatureStart(template);
+        template.writeValue(1);
+        assertRejected(serializer, template);
+
+        template = serializer.createFragmentWriter();
+        template.writeStartElement(FEATURE_NS, "unknown");
+        assertRejected(serializer, template);
+
+        final DefaultBxmlStreamWriter other = createFragmentsParent(new ByteArrayOutputStream());
+        writeFeatureStart(other);
+        writeFeatureEnd(other, 0);
+        template = other.createFragmentWriter();
+        writeFeatureStart(template);
+        assertRejected(serializer, template);
+
+        serializer.writeStartElement(FEATURE_NS, "group");
+        template = serializer.createFragmentWriter();
+        writeFeatureStart(template);
+        assertRejected(earlyFragment, template);
+        assertTrue(serializer.writeTemplate(template));
+        writeFeatureEnd(serializer, 1);
+
+        serializer.setPrefix("other", "urn:other");
+        assertRejected(serializer, template);
+
+        try {
+            serializer.writeTemplate(serializer);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
+    private void assertRejected(final BxmlStreamWriter serializer, final BxmlStreamWriter template)
+            throws IOException {
+        final int depth = serializer.getTagDepth();
+        final EventType lastEvent = serializer.getLastEvent();
+        assertFalse(serializer.writeTemplate(template));
+        assertEquals(depth, serializer.getTagDepth());
+        assertSame(lastEvent, serializer.getLastEvent());
+    }
+
+    /**
+     * Fragments can't be written outside the root element, nor when building a skip index
+     */
+    @Test
+    public void testCanWriteFragments() throws Exception {
+        BxmlOutputStream outputStream = new DefaultStreamFactory()
+                .createOutputStream(new ByteArrayOutputStream());
+        DefaultBxmlStreamWriter serializer = new DefaultBxmlStreamWriter(new EncodingOptions(),
+                outputStream);
+        serializer.writeStartDocument();
+        assertFalse(serializer.canWriteFragments());
+        try {
+            serializer.createFragmentWriter();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+        serializer.writeStartElement("", "root");
+        assertTrue(serializer.canWriteFragments());
+        final DefaultBxmlStreamWriter fragment = serializer.createFragmentWriter();
+        assertFalse(fragment.canWriteFragments());
+        try {
+            fragment.writeStartDocument();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+        // an incomplete element is rejected
+        fragment.writeStartElement("", "child");
+        assertFalse(serializer.writeFragment(fragment));
+
+        final EncodingOptions options = new EncodingOptions();
+        options.setSkipIndexThreshold(256);
+        outputStream = new DefaultStreamFactory().createOutputStream(new ByteArrayOutputStream());
+        serializer = new DefaultBxmlStreamWriter(options, outputStream);
+        serializer.writeStartDocument();
+        serializer.writeStartElement("", "root");
+        assertFalse(serializer.canWriteFragments());
+    }
 }
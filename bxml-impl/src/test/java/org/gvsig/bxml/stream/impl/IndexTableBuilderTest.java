@@ -0,0 +1,177 @@
+/* gvSIG. Sistem a de Información Geográfica de la Generalitat Valenciana
+ *
+ * Copyright (C) 2007 Generalitat Valenciana.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,USA.
+ *
+ * For more information, contact:
+ *
+ *  Generalitat Valenciana
+ *   Conselleria d'Infraestructures i Transport
+ *   Av. Blasco Ibáñez, 50
+ *   46010 VALENCIA
+ *   SPAIN
+ *
+ *      +34 9638 62 495
+ *      gvsig@gva.es
+ *      www.gvsig.gva.es
+ */
+package org.gvsig.bxml.stream.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import javax.xml.XMLConstants;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test suite for {@link IndexTableBuilder}
+ * 
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+public class IndexTableBuilderTest {
+
+    private static final String WFS = "http://www.opengis.net/wfs";
+
+    private static final String GML = "http://www.opengis.net/gml";
+
+    private static final String TOPP = "http://www.openplans.org/topp";
+
+    private NamesResolver namespaceContext;
+
+    @Before
+    public void setUp() {
+        namespaceContext = new NamespaceAwareNameResolver();
+        namespaceContext.declarePrefix("wfs", WFS);
+        namespaceContext.declarePrefix("gml", GML);
+        namespaceContext.declarePrefix("topp", TOPP);
+    }
+
+    @Test
+    public void testValueOfUnsupported() {
+        final String[] unsupported = { null, "", "gml:featureMember", "//gml:featureMember",
+                "/wfs:FeatureCollection//gml:featureMember", "/wfs:FeatureCollection/@gml:id/a",
+                "/gml:featureMember[1]", "/@gml:id", "/child::gml:featureMember",
+                "/wfs:FeatureCollection/gml:featureMember/" };
+        for (String xpath : unsupported) {
+            try {
+                IndexTableBuilder.valueOf(xpath, namespaceContext);
+                fail("Expected IAE for " + xpath);
+            } catch (IllegalArgumentException e) {
+                assertTrue(true);
+            }
+        }
+    }
+
+    @Test
+    public void testIndexAttributeValue() {
+        IndexTableBuilder builder;
+        builder = IndexTableBuilder.valueOf("/wfs:FeatureCollection/gml:featureMember/*/@gml:id",
+                namespaceContext);
+        assertEquals("/wfs:FeatureCollection/gml:featureMember/*/@gml:id", builder
+                .getXpathExpression());
+
+        builder.startElement(WFS, "FeatureCollection", 10);
+        for (int i = 0; i < 2; i++) {
+            builder.startElement(GML, "featureMember", 100 * i + 20);
+            builder.startElement(TOPP, "states", 100 * i + 30);
+            builder.startAttribute(XMLConstants.NULL_NS_URI, "fid");
+            assertTrue(!builder.isCapturing());
+            builder.startAttribute(GML, "id");
+            assertTrue(builder.isCapturing());
+            builder.value("states.");
+            builder.scalarValue(Integer.valueOf(i));
+            builder.endAttributes();
+            assertTrue(!builder.isCapturing());
+
+            // nested elements with the same attribute are not indexed
+            builder.startElement(TOPP, "NAME", 100 * i + 40);
+            builder.startAttribute(GML, "id");
+            assertTrue(!builder.isCapturing());
+            builder.endAttributes();
+            builder.endElement();
+
+            builder.endElement();
+            builder.endElement();
+        }
+        // same local names, other namespace
+        builder.startElement(WFS, "featureMember", 300);
+        builder.startElement(TOPP, "states", 310);
+        builder.startAttribute(GML, "id");
+        builder.value("states.2");
+        builder.endAttributes();
+        builder.endElement();
+        builder.endElement();
+        builder.endElement();
+
+        assertEquals(2, builder.size());
+        assertTrue(Arrays.equals(new long[] { 30 }, builder.getOffsets("states.0")));
+        assertTrue(Arrays.equals(new long[] { 130 }, builder.getOffsets("states.1")));
+    }
+
+    @Test
+    public void testIndexElementValue() {
+        IndexTableBuilder builder;
+        builder = IndexTableBuilder.valueOf("/wfs:FeatureCollection/gml:featureMember/*/topp:POS",
+                namespaceContext);
+
+        builder.startElement(WFS, "FeatureCollection", 10);
+        builder.startElement(GML, "featureMember", 20);
+        builder.startElement(TOPP, "states", 30);
+
+        builder.startElement(TOPP, "POS", 40);
+        builder.startAttribute(XMLConstants.NULL_NS_URI, "srsDimension");
+        assertTrue(!builder.isCapturing());
+        builder.endAttributes();
+        assertTrue(builder.isCapturing());
+        builder.scalarValue(Double.valueOf(1));
+        builder.scalarValue(Double.valueOf(2));
+        builder.endElement();
+
+        // no value, not indexed
+        builder.startElement(TOPP, "POS", 50);
+        builder.endElement();
+
+        builder.startElement(TOPP, "POS", 60);
+        builder.value("1.0 2.0".toCharArray(), 0, 7);
+        builder.endElement();
+
+        builder.endElement();
+        builder.endElement();
+
+        // a topp:POS at the wrong location is not indexed
+        builder.startElement(GML, "boundedBy", 70);
+        builder.startElement(TOPP, "states", 80);
+        builder.startElement(TOPP, "POS", 90);
+        assertTrue(!builder.isCapturing());
+        builder.scalarValue(Double.valueOf(3));
+        builder.endElement();
+        builder.endElement();
+        builder.endElement();
+
+        builder.endElement();
+
+        assertEquals(1, builder.size());
+        assertTrue(Arrays.equals(new long[] { 40, 60 }, builder.getOffsets("1.0 2.0")));
+        assertNull(builder.getOffsets("3.0"));
+    }
+}
@@ -134,9 +134,9 @@ class MockBxmlInputStream implements BxmlInputStream {
         throw new UnsupportedOperationException("Not yet implemented");
     }
 
-    // public void readString(char[] dst, int offset) throws IOException {
-    // throw new UnsupportedOperationException("Not yet implemented");
-    // }
+    public CharSequence readCharSequence() throws IOException {
+        throw new UnsupportedOperationException("Not yet implemented");
+    }
 
     public TokenType readTokenType() throws IOException {
         throw new UnsupportedOperationException("Not yet implemented");
@@ -0,0 +1,307 @@
+/* gvSIG. Sistem a de Información Geográfica de la Generalitat Valenciana
+ *
+ * Copyright (C) 2007 Generalitat Valenciana.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307,USA.
+ *
+ * For more information, contact:
+ *
+ *  Generalitat Valenciana
+ *   Conselleria d'Infraestructures i Transport
+ *   Av. Blasco Ibáñez, 50
+ *   46010 VALENCIA
+ *   SPAIN
+ *
+ *      +34 9638 62 495
+ *      gvsig@gva.es
+ *      www.gvsig.gva.es
+ */
+package org.gvsig.bxml.stream.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.namespace.QName;
+
+import org.gvsig.bxml.stream.BxmlStreamReader;
+import org.gvsig.bxml.stream.BxmlStreamWriter;
+import org.gvsig.bxml.stream.EncodingOptions;
+import org.gvsig.bxml.stream.EventType;
+import org.junit.Test;
+
+/**
+ * Unit test suite for {@link ParallelBxmlScanner}
+ * 
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+public class ParallelBxmlScannerTest {
+
+    private static final int N_FEATURES = 200;
+
+    /**
+     * Writes a collection of {@code nFeatures} members with a different element name every few
+     * features, so that the string table is spread all over the document
+     */
+    private File writeCollection(final String fileName, final EncodingOptions encodingOptions,
+            final int nFeatures) throws IOException {
+        final File file = new File("target/" + fileName);
+        final DefaultBxmlOutputFactory outputFactory = new DefaultBxmlOutputFactory();
+        encodingOptions.setStringTableFragmentSize(4);
+        outputFactory.setEncodingOptions(encodingOptions);
+        final BxmlStreamWriter writer = outputFactory.createSerializer(new FileOutputStream(file));
+        writer.writeStartDocument();
+        writer.writeStartElement("", "FeatureCollection");
+        for (int i = 0; i < nFeatures; i++) {
+            writer.writeStartElement("", "featureMember");
+            writer.writeStartElement("", "Feature" + (i % 17));
+            writer.writeStartAttribute("", "id");
+            writer.writeValue("f." + i);
+            writer.writeEndAttributes();
+            writer.writeStartElement("", "value");
+            writer.writeValue(i);
+            writer.writeEndElement();
+            writer.writeStartElement("", "geometry");
+            writer.writeValue(new double[] { i, i, i + 1, i + 1 }, 0, 4);
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+        return file;
+    }
+
+    @Test
+    public void testScanElementPositions() throws Exception {
+        final File file = writeCollection("testScanElementPositions.bxml",
+                new EncodingOptions(), N_FEATURES);
+        final ParallelBxmlScanner scanner = new DefaultBxmlInputFactory()
+                .createParallelScanner(file);
+        try {
+            final long[] positions = scanner.scanElementPositions(2);
+            assertEquals(N_FEATURES, positions.length);
+
+            final BxmlStreamReader reader = scanner.createReader();
+            int member = 0;
+            while (reader.hasNext()) {
+                if (EventType.START_ELEMENT == reader.next() && reader.getTagDepth() == 2) {
+                    assertEquals(positions[member++], reader.getElementPosition());
+                }
+            }
+            reader.close();
+            assertEquals(N_FEATURES, member);
+        } finally {
+            scanner.close();
+        }
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        final File file = writeCollection("testSplit.bxml", new EncodingOptions(), N_FEATURES);
+        final ParallelBxmlScanner scanner = new DefaultBxmlInputFactory()
+                .createParallelScanner(file);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<BxmlStreamReader> ranges = scanner.split(scanner
+                    .scanElementPositions(2), 4);
+            assertEquals(4, ranges.size());
+
+            final List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+            for (final BxmlStreamReader range : ranges) {
+                results.add(executor.submit(new Callable<int[]>() {
+                    public int[] call() throws Exception {
+                        try {
+                            return decode(range);
+                        } finally {
+                            range.close();
+                        }
+                    }
+                }));
+            }
+            int nFeatures = 0;
+            int expectedFirst = 0;
+            for (Future<int[]> result : results) {
+                final int[] decoded = result.get();
+                // ranges are in document order and don't overlap
+                assertEquals(expectedFirst, decoded[1]);
+                expectedFirst += decoded[0];
+                nFeatures += decoded[0];
+            }
+            assertEquals(N_FEATURES, nFeatures);
+        } finally {
+            executor.shutdown();
+            scanner.close();
+        }
+    }
+
+    /**
+     * @return the number of features decoded and the value of the first one
+     */
+    private static int[] decode(final BxmlStreamReader range) throws IOException {
+        int nFeatures = 0;
+        int firstValue = -1;
+        assertSame(EventType.START_DOCUMENT, range.getEventType());
+        while (range.nextTag() != EventType.END_DOCUMENT) {
+            assertSame(EventType.START_ELEMENT, range.getEventType());
+            assertEquals(1, range.getTagDepth());
+            assertEquals("featureMember", range.getElementName().getLocalPart());
+
+            assertSame(EventType.START_ELEMENT, range.nextTag());
+            final String featureName = range.getElementName().getLocalPart();
+            final int featureIndex = Integer.parseInt(range.getAttributeValue(0).substring(2));
+            assertEquals("Feature" + (featureIndex % 17), featureName);
+
+            assertSame(EventType.START_ELEMENT, range.nextTag());
+            assertEquals("value", range.getElementName().getLocalPart());
+            assertSame(EventType.VALUE_INT, range.next());
+            final int value = range.getIntValue();
+            assertEquals(featureIndex, value);
+            if (firstValue == -1) {
+                firstValue = value;
+            }
+            assertSame(EventType.END_ELEMENT, range.nextTag());
+
+            assertSame(EventType.START_ELEMENT, range.nextTag());
+            assertEquals("geometry", range.getElementName().getLocalPart());
+            range.skipElement();
+            assertSame(EventType.END_ELEMENT, range.nextTag());
+            assertEquals(featureName, range.getElementName().getLocalPart());
+            assertSame(EventType.END_ELEMENT, range.nextTag());
+            assertEquals(0, range.getTagDepth());
+            nFeatures++;
+        }
+        assertFalse(range.hasNext());
+        return new int[] { nFeatures, firstValue };
+    }
+
+    @Test
+    public void testSplitFewElements() throws Exception {
+        final File file = writeCollection("testSplitFewElements.bxml", new EncodingOptions(), 3);
+        final ParallelBxmlScanner scanner = new DefaultBxmlInputFactory()
+                .createParallelScanner(file);
+        try {
+            final List<BxmlStreamReader> ranges = scanner.split(scanner
+                    .scanElementPositions(2), 5);
+            assertEquals(3, ranges.size());
+            for (BxmlStreamReader range : ranges) {
+                assertEquals(1, decode(range)[0]);
+                range.close();
+            }
+            assertEquals(0, scanner.split(new long[0], 5).size());
+        } finally {
+            scanner.close();
+        }
+    }
+
+    /**
+     * Range readers start decoding past the root element's namespace declarations, yet shall
+     * resolve the prefixed names of their elements as a reader over the whole document does
+     */
+    @Test
+    public void testSplitPrefixedNames() throws Exception {
+        final String wfs = "http://www.opengis.net/wfs";
+        final String gml = "http://www.opengis.net/gml";
+        final String topp = "http://www.openplans.org/topp";
+        final File file = new File("target/testSplitPrefixedNames.bxml");
+        final DefaultBxmlOutputFactory outputFactory = new DefaultBxmlOutputFactory();
+        final EncodingOptions encodingOptions = new EncodingOptions();
+        encodingOptions.setStringTableFragmentSize(4);
+        outputFactory.setEncodingOptions(encodingOptions);
+        final BxmlStreamWriter writer = outputFactory.createSerializer(new FileOutputStream(file));
+        writer.writeStartDocument();
+        writer.writeNamespace("wfs", wfs);
+        writer.writeNamespace("gml", gml);
+        writer.writeNamespace("topp", topp);
+        writer.writeStartElement(wfs, "FeatureCollection");
+        writer.writeEndAttributes();
+        for (int i = 0; i < N_FEATURES; i++) {
+            writer.writeStartElement(gml, "featureMember");
+            writer.writeStartElement(topp, "states");
+            writer.writeStartAttribute(gml, "id");
+            writer.writeValue("states." + i);
+            writer.writeEndAttributes();
+            writer.writeStartElement(gml, "pos");
+            writer.writeValue(new double[] { i, i }, 0, 2);
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+
+        final DefaultBxmlInputFactory inputFactory = new DefaultBxmlInputFactory();
+        inputFactory.setNamespaceAware(true);
+        final ParallelBxmlScanner scanner = inputFactory.createParallelScanner(file);
+        try {
+            final List<BxmlStreamReader> ranges = scanner.split(scanner
+                    .scanElementPositions(2), 3);
+            assertEquals(3, ranges.size());
+            int feature = 0;
+            for (BxmlStreamReader range : ranges) {
+                while (range.nextTag() != EventType.END_DOCUMENT) {
+                    assertEquals(new QName(gml, "featureMember"), range.getElementName());
+                    assertSame(EventType.START_ELEMENT, range.nextTag());
+                    assertEquals(new QName(topp, "states"), range.getElementName());
+                    assertEquals(new QName(gml, "id"), range.getAttributeName(0));
+                    assertEquals("states." + feature, range.getAttributeValue(gml, "id"));
+                    assertEquals(gml, range.getNamespaceURI("gml"));
+                    assertSame(EventType.START_ELEMENT, range.nextTag());
+                    assertEquals(new QName(gml, "pos"), range.getElementName());
+                    assertSame(EventType.VALUE_DOUBLE, range.next());
+                    assertEquals(feature, range.getDoubleValue(), 0D);
+                    assertSame(EventType.END_ELEMENT, range.nextTag());
+                    assertEquals(new QName(gml, "pos"), range.getElementName());
+                    assertSame(EventType.END_ELEMENT, range.nextTag());
+                    assertSame(EventType.END_ELEMENT, range.nextTag());
+                    assertEquals(new QName(gml, "featureMember"), range.getElementName());
+                    feature++;
+                }
+                range.close();
+            }
+            assertEquals(N_FEATURES, feature);
+        } finally {
+            scanner.close();
+        }
+    }
+
+    @Test
+    public void testNoRandomAccess() throws Exception {
+        final EncodingOptions encodingOptions = new EncodingOptions();
+        encodingOptions.setUseCompression(true);
+        final File file = writeCollection("testNoRandomAccess.bxml", encodingOptions, 3);
+        try {
+            new DefaultBxmlInputFactory().createParallelScanner(file);
+            fail("Expected IAE, a single GZIP stream does not support random access");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Can't split"));
+        }
+    }
+}
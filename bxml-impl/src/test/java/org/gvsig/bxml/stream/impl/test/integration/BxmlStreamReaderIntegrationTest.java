@@ -31,6 +31,7 @@
 package org.gvsig.bxml.stream.impl.test.integration;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 
@@ -43,6 +44,8 @@ import java.io.InputStream;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.HashSet;
 
 import javax.xml.namespace.QName;
 import javax.xml.parsers.SAXParser;
@@ -51,6 +54,7 @@ import javax.xml.parsers.SAXParserFactory;
 import org.geotools.test.TestData;
 import org.gvsig.bxml.stream.BxmlStreamReader;
 import org.gvsig.bxml.stream.BxmlStreamWriter;
+import org.gvsig.bxml.stream.EncodingOptions;
 import org.gvsig.bxml.stream.EventType;
 import org.gvsig.bxml.stream.impl.DefaultBxmlInputFactory;
 import org.gvsig.bxml.stream.impl.DefaultBxmlOutputFactory;
@@ -253,6 +257,71 @@ public class BxmlStreamReaderIntegrationTest {
         assertEquals(rootPosition, reader.getElementPosition());
     }
 
+    @Test
+    public void testLookup() throws Exception {
+        final String fileName = "target/testLookup.bxml";
+        final String featureIdXpath = "/wfs:FeatureCollection/gml:featureMember/*/@gml:id";
+        final String nameXpath = "/wfs:FeatureCollection/gml:featureMember/*/topp:NAME";
+        final String wfsNs = "http://www.opengis.net/wfs";
+        final String gmlNs = "http://www.opengis.net/gml";
+        final String toppNs = "http://www.openplans.org/topp";
+
+        final File file = new File(fileName);
+        file.createNewFile();
+        final EncodingOptions encodingOptions = new EncodingOptions();
+        encodingOptions.setIndexTableXpathExpressions(new HashSet<String>(Arrays.asList(
+                featureIdXpath, nameXpath)));
+        final DefaultBxmlOutputFactory outputFactory = new DefaultBxmlOutputFactory();
+        outputFactory.setEncodingOptions(encodingOptions);
+
+        WritableByteChannel outChannel = new FileOutputStream(file).getChannel();
+        BxmlStreamWriter w = outputFactory.createSerializer(outChannel);
+        w.writeStartDocument();
+        w.writeStartElement(wfsNs, "FeatureCollection");
+        w.writeNamespace("wfs", wfsNs);
+        w.writeNamespace("gml", gmlNs);
+        w.writeNamespace("topp", toppNs);
+        for (int i = 0; i < 100; i++) {
+            w.writeStartElement(gmlNs, "featureMember");
+            w.writeStartElement(toppNs, "states");
+            w.writeStartAttribute(gmlNs, "id");
+            w.writeValue("states." + i);
+            w.writeEndAttributes();
+            w.writeStartElement(toppNs, "NAME");
+            w.writeValue(i % 2 == 0 ? "even" : "odd");
+            w.writeEndElement();
+            w.writeStartElement(toppNs, "PERSONS");
+            w.writeValue(i);
+            w.writeEndElement();
+            w.writeEndElement();
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+        w.writeEndDocument();
+        w.close();
+        outChannel.close();
+
+        BxmlStreamReader reader = createFileReader(file, true);
+        assertTrue(reader.supportsRandomAccess());
+        assertNull(reader.lookup("/wfs:FeatureCollection/gml:featureMember/*/topp:PERSONS", "1"));
+        assertEquals(0, reader.lookup(featureIdXpath, "states.100").length);
+        assertEquals(50, reader.lookup(nameXpath, "odd").length);
+
+        final long[] positions = reader.lookup(featureIdXpath, "states.42");
+        assertEquals(1, positions.length);
+        assertSame(EventType.START_ELEMENT, reader.setPosition(positions[0]));
+        assertEquals(new QName(toppNs, "states"), reader.getElementName());
+        assertEquals("states.42", reader.getAttributeValue(gmlNs, "id"));
+
+        assertSame(EventType.NONE, reader.seekToMatch(featureIdXpath, "states.100"));
+        assertSame(EventType.START_ELEMENT, reader.seekToMatch(featureIdXpath, "states.7"));
+        assertEquals("states.7", reader.getAttributeValue(gmlNs, "id"));
+        assertSame(EventType.START_ELEMENT, reader.nextTag());
+        assertEquals(new QName(toppNs, "NAME"), reader.getElementName());
+        reader.next();
+        assertEquals("odd", reader.getStringValue());
+    }
+
     private File createTestFile(final String fileName) throws IOException, FileNotFoundException {
         File file = new File(fileName);
         file.createNewFile();
@@ -308,6 +377,12 @@ public class BxmlStreamReaderIntegrationTest {
         testTraverseBxml(TestData.openChannel(this, fileName));
     }
 
+    @Test
+    public void testDefaultBxmlScannerParseStat_id_1000_gz() throws IOException {
+        final String fileName = "stat_id_1000.gz.bxml";
+        testTraverseBxml(TestData.openChannel(this, fileName));
+    }
+
     @Test
     @Ignore
     public void testParseLarge_Polygons_SAX() throws Exception {
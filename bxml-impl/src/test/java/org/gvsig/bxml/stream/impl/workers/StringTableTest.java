@@ -109,4 +109,64 @@ public class StringTableTest {
         assertEquals(-1, st.get("no way"));
     }
 
+    /**
+     * Look ups shall keep working as the hash index grows
+     */
+    @Test
+    public void testAddMany() {
+        final int count = 10000;
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, st.add("string" + i, i));
+        }
+        assertEquals(count, st.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, st.get(new StringBuilder("string").append(i)));
+            assertEquals(i, st.add("string" + i, -1));
+            assertEquals("string" + i, st.get(i));
+            assertEquals(i, st.getOffset(i));
+        }
+        assertEquals(count, st.size());
+    }
+
+    /**
+     * A table without reverse index shall append every string, as readers need the entries to
+     * match the document's StringTable tokens one to one
+     */
+    @Test
+    public void testAddNotIndexed() {
+        st = new StringTable(false);
+        assertEquals(0, st.add("abc", 10));
+        assertEquals(1, st.add("123", 20));
+        assertEquals(2, st.add("abc", 30));
+        assertEquals("abc", st.get(2));
+        assertEquals(30, st.getOffset(2));
+        try {
+            st.get("abc");
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+    }
+
+    /**
+     * A copy shall keep the entries of the original and not see the ones added to it afterwards
+     */
+    @Test
+    public void testCopy() {
+        st.add("abc", 10);
+        st.add("123", 20);
+        final StringTable copy = st.copy();
+        st.add("def", 30);
+        st.setOffset(0, 40);
+
+        assertEquals(2, copy.size());
+        assertEquals(0, copy.get("abc"));
+        assertEquals(1, copy.get("123"));
+        assertEquals(-1, copy.get("def"));
+        assertEquals(10, copy.getOffset(0));
+
+        assertEquals(2, copy.add("ghi", 50));
+        assertEquals(3, st.size());
+        assertEquals(-1, st.get("ghi"));
+    }
 }
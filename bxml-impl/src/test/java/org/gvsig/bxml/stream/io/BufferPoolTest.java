@@ -0,0 +1,124 @@
+package org.gvsig.bxml.stream.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/**
+ * Unit test suite for {@link BufferPool}
+ *
+ * @author Gabriel Roldan (OpenGeo)
+ * @version $Id$
+ */
+public class BufferPoolTest {
+
+    /**
+     * A pool of its own, so that the buffers other tests return to the default pool, possibly from
+     * other threads, don't get in the way
+     */
+    private final BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_DIRECT_MEMORY);
+
+    @Test
+    public void testSizeClassOf() {
+        assertEquals(0, BufferPool.sizeClassOf(1));
+        assertEquals(0, BufferPool.sizeClassOf(BufferPool.MIN_CAPACITY));
+        assertEquals(1, BufferPool.sizeClassOf(BufferPool.MIN_CAPACITY + 1));
+        assertEquals(1, BufferPool.sizeClassOf(2 * BufferPool.MIN_CAPACITY));
+        assertEquals(2, BufferPool.sizeClassOf(2 * BufferPool.MIN_CAPACITY + 1));
+        assertEquals(10, BufferPool.sizeClassOf(BufferPool.MAX_POOLED_CAPACITY));
+        assertEquals(11, BufferPool.sizeClassOf(BufferPool.MAX_POOLED_CAPACITY + 1));
+    }
+
+    @Test
+    public void testGetByteBuffer() {
+        final ByteBuffer buffer = pool.getByteBuffer(3000);
+        assertEquals(4096, buffer.capacity());
+        buffer.position(10);
+        buffer.limit(20);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        pool.returnToPool(buffer);
+
+        final long hits = pool.getHitCount();
+        final ByteBuffer reused = pool.getByteBuffer(2049);
+        assertSame(buffer, reused);
+        assertEquals(hits + 1, pool.getHitCount());
+        assertEquals(0, reused.position());
+        assertEquals(reused.capacity(), reused.limit());
+        assertSame(ByteOrder.BIG_ENDIAN, reused.order());
+
+        final long misses = pool.getMissCount();
+        final ByteBuffer other = pool.getByteBuffer(2049);
+        assertNotSame(reused, other);
+        assertEquals(misses + 1, pool.getMissCount());
+        pool.returnToPool(reused);
+        pool.returnToPool(other);
+    }
+
+    @Test
+    public void testMaxDirectMemory() {
+        pool.setMaxDirectMemory(0);
+        final ByteBuffer buffer = pool.getByteBuffer(2 * BufferPool.MAX_POOLED_CAPACITY);
+        assertFalse(buffer.isDirect());
+        pool.returnToPool(buffer);
+        assertEquals(0, pool.getDirectMemory());
+
+        pool.setMaxDirectMemory(Long.MAX_VALUE);
+        final ByteBuffer direct = pool.getByteBuffer(2 * BufferPool.MAX_POOLED_CAPACITY);
+        assertTrue(direct.isDirect());
+        assertEquals(direct.capacity(), pool.getDirectMemory());
+        // too big to be pooled, so it's discarded
+        pool.returnToPool(direct);
+        assertEquals(0, pool.getDirectMemory());
+    }
+
+    @Test
+    public void testNewByteArray() {
+        final byte[] array = pool.newByteArray(100);
+        assertEquals(BufferPool.MIN_CAPACITY, array.length);
+        pool.returnArray(array);
+        assertSame(array, pool.newByteArray(BufferPool.MIN_CAPACITY));
+        assertNotSame(array, pool.newByteArray(BufferPool.MIN_CAPACITY));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        pool.setMaxDirectMemory(Long.MAX_VALUE);
+        final ByteBuffer cached = pool.getByteBuffer(BufferPool.MIN_CAPACITY);
+        final ByteBuffer depot = pool.getByteBuffer(BufferPool.MIN_CAPACITY);
+
+        // a buffer cached by another thread
+        final ByteBuffer[] otherThread = new ByteBuffer[1];
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                otherThread[0] = pool.getByteBuffer(BufferPool.MIN_CAPACITY);
+                pool.returnToPool(otherThread[0]);
+            }
+        };
+        thread.start();
+        thread.join();
+        pool.returnToPool(cached);
+        pool.returnToPool(depot);
+        assertEquals(3 * BufferPool.MIN_CAPACITY, pool.getDirectMemory());
+
+        pool.clear();
+        assertEquals(0, pool.getDirectMemory());
+        final long misses = pool.getMissCount();
+        final ByteBuffer buffer = pool.getByteBuffer(BufferPool.MIN_CAPACITY);
+        assertNotSame(cached, buffer);
+        assertNotSame(depot, buffer);
+        assertNotSame(otherThread[0], buffer);
+        assertEquals(misses + 1, pool.getMissCount());
+
+        // still pools after being cleared
+        pool.returnToPool(buffer);
+        assertSame(buffer, pool.getByteBuffer(BufferPool.MIN_CAPACITY));
+    }
+}
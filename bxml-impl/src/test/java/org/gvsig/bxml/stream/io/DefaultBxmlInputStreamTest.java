@@ -44,11 +44,21 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
@@ -57,6 +67,7 @@ import java.nio.charset.CodingErrorAction;
 
 import org.gvsig.bxml.stream.io.Header.Compression;
 import org.gvsig.bxml.stream.io.Header.Flags;
+import org.gvsig.bxml.stream.io.TestData.ByteArrayWriteChannel;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -237,6 +248,48 @@ public class DefaultBxmlInputStreamTest {
         assertEquals(charsetName, expected1, readString1);
     }
 
+    /**
+     * Strings read through readCharSequence shall be the same than the ones read through
+     * readString, whether they can be decoded as single byte strings or not
+     */
+    @Test
+    public void testReadCharSequence() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() <= ParsingUtils.MAX_SINGLE_BYTE_LENGTH) {
+            sb.append("gml:posList ");
+        }
+        final String large = sb.toString();
+        final String[] strings = { "gml:pos", "", "Ma\u00f1ana", large, large + "\u00f1" };
+
+        testReadCharSequence("UTF-8", strings);
+        testReadCharSequence("ISO-8859-1", strings);
+        testReadCharSequence("UTF-16", strings);
+        testReadCharSequence("US-ASCII", new String[] { "gml:pos", large });
+    }
+
+    private void testReadCharSequence(final String charsetName, final String[] strings)
+            throws IOException {
+        final Charset charset = Charset.forName(charsetName);
+        final ByteArrayWriteChannel writeChannel = TestData.getWriteChannel();
+        final DefaultBxmlOutputStream writer = new DefaultBxmlOutputStream(writeChannel, 1024,
+                ByteOrder.nativeOrder());
+        writer.setCharactersEncoding(charset);
+        for (String string : strings) {
+            writer.writeString(string);
+        }
+        writer.close();
+
+        final Flags flags = Flags.valueOf(ByteOrder.nativeOrder(), ByteOrder.nativeOrder(), false,
+                false, false);
+        final Header header = Header.valueOf(flags, Compression.NO_COMPRESSION, charset);
+        final DefaultBxmlInputStream reader = new DefaultBxmlInputStream(header,
+                getReadChannel(writeChannel.getWrittenContent()), 1024);
+        for (String string : strings) {
+            assertEquals(charsetName, string, reader.readCharSequence().toString());
+        }
+        reader.close();
+    }
+
     /**
      * Decode a String whose length in bytes is greater than the internal ByteBuffer capacity
      * 
@@ -565,6 +618,39 @@ public class DefaultBxmlInputStreamTest {
         }
     }
 
+    @Test
+    public void testReadDoubleArrayBufferOverflowLE() throws IOException {
+        testReadDoubleArrayBufferOverflow(LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void testReadDoubleArrayBufferOverflowBE() throws IOException {
+        testReadDoubleArrayBufferOverflow(BIG_ENDIAN);
+    }
+
+    /**
+     * Reads an array several times bigger than the read buffer, with a leading byte so values
+     * straddle buffer refills
+     */
+    private void testReadDoubleArrayBufferOverflow(final ByteOrder byteOrder) throws IOException {
+        final int count = 1000;
+        ByteBuffer content = ByteBuffer.allocate(1 + count * 8);
+        content.order(byteOrder);
+        content.put((byte) 0x0F);
+        for (int i = 0; i < count; i++) {
+            content.putDouble(i + 0.5);
+        }
+
+        BxmlInputStream reader = getTestInputStream(content, byteOrder);
+        assertEquals(0x0F, reader.readByte());
+        double[] dest = new double[count + 1];
+        reader.readDouble(dest, 1, count);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 0.5, dest[i + 1], 0D);
+        }
+        assertEquals(1 + count * 8, reader.getPosition());
+    }
+
     @Test
     public void testReadFloatArrayLE() throws IOException {
         testGetFloatArray(LITTLE_ENDIAN);
@@ -719,6 +805,34 @@ public class DefaultBxmlInputStreamTest {
         }
     }
 
+    /**
+     * Reads short arrays larger than the read buffer, so that the bulk reads span several chunks
+     */
+    @Test
+    public void testReadShortArraysChunked() throws IOException {
+        final int count = 100;
+        ByteBuffer content = ByteBuffer.allocate(4 * count);
+        content.order(Header.DEFAULT_BYTE_ORDER);
+        for (int i = 0; i < count; i++) {
+            content.putShort((short) (i * 655 - 32768));
+        }
+        for (int i = 0; i < count; i++) {
+            content.putShort((short) (i * 655));
+        }
+        ReadableByteChannel channel = getReadChannel(content.array());
+        DefaultBxmlInputStream reader = new DefaultBxmlInputStream(Header.DEFAULT, channel, 7);
+        int[] dest = new int[count + 1];
+        reader.readShort(dest, 1, count);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i * 655 - 32768, dest[i + 1]);
+        }
+        reader.readUShort(dest, 0, count);
+        for (int i = 0; i < count; i++) {
+            assertEquals((i * 655) & 0xFFFF, dest[i]);
+        }
+        assertEquals(4 * count, reader.getPosition());
+    }
+
     @Test
     public void testGetPosition() throws IOException {
         byte[] content = { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07 };
@@ -767,4 +881,312 @@ public class DefaultBxmlInputStreamTest {
         reader.skipString();
         assertEquals(0x04, reader.readByte());
     }
+
+    /**
+     * Creates a temporary file with the default header followed by {@code content}
+     */
+    private File createTestFile(byte[] content) throws IOException {
+        File file = File.createTempFile("DefaultBxmlInputStreamTest", ".bxml");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(getHeader());
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testMemoryMappedRead() throws IOException {
+        final int headerLength = getHeader().length;
+        ByteBuffer content = ByteBuffer.allocate(20);
+        content.order(ByteOrder.nativeOrder());
+        content.put((byte) 0x05);
+        content.putInt(Integer.MAX_VALUE);
+        content.putDouble(Math.PI);
+        content.put(new byte[] { 0x03, 'A', 'B', 'C' });
+        content.put((byte) 0x0A);
+        content.putShort((short) -1);
+        File file = createTestFile(content.array());
+
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        // tell newInstance to map a very small window, just 3 bytes, so every multi byte read
+        // needs to slide it
+        DefaultBxmlInputStream reader = new DefaultBxmlInputStream(channel, 3, true);
+        assertEquals(Header.DEFAULT, reader.getHeader());
+        assertEquals(headerLength, reader.getPosition());
+        assertEquals(headerLength + 20, reader.getSize());
+
+        assertEquals(0x05, reader.readByte());
+        assertEquals(Integer.MAX_VALUE, reader.readInt());
+        assertEquals(Math.PI, reader.readDouble(), 0D);
+        assertEquals("ABC", reader.readString());
+        assertEquals(headerLength + 17, reader.getPosition());
+
+        // seek backwards out of the current window
+        reader.setPosition(headerLength + 1);
+        assertEquals(Integer.MAX_VALUE, reader.readInt());
+
+        reader.skip(12);
+        assertEquals(0x0A, reader.readByte());
+        assertEquals(-1, reader.readShort());
+        try {
+            reader.readByte();
+            fail("Expected EOF exception");
+        } catch (EOFException e) {
+            assertTrue(true);
+        }
+        reader.close();
+        assertFalse(reader.isOpen());
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testMemoryMappedReadArray() throws IOException {
+        final int count = 100;
+        ByteBuffer content = ByteBuffer.allocate(1 + count * 4);
+        content.order(ByteOrder.nativeOrder());
+        content.put((byte) 0x0F);
+        for (int i = 0; i < count; i++) {
+            content.putInt(Integer.MAX_VALUE - i);
+        }
+        File file = createTestFile(content.array());
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        // windows smaller than an int
+        DefaultBxmlInputStream reader = new DefaultBxmlInputStream(channel, 3, true);
+        assertEquals(0x0F, reader.readByte());
+        int[] dest = new int[count];
+        reader.readInt(dest, 0, count);
+        for (int i = 0; i < count; i++) {
+            assertEquals(Integer.MAX_VALUE - i, dest[i]);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testMemoryMappedSkipBeyondEOF() throws IOException {
+        final int headerLength = getHeader().length;
+        File file = createTestFile(new byte[] { 0x00, 0x01, 0x02, 0x03 });
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        DefaultBxmlInputStream reader = new DefaultBxmlInputStream(channel, 1024, true);
+        reader.skip(4);
+        assertEquals(headerLength + 4, reader.getPosition());
+        try {
+            reader.skip(1);
+            fail("Expected EOF exception trying to skip beyond the content length");
+        } catch (EOFException e) {
+            assertTrue(true);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static final String TEST_DATA = "/org/gvsig/bxml/stream/impl/test/integration/test-data/";
+
+    /**
+     * {@code stat_id_1000.gz.bxml} is the GZIP compressed version of {@code stat_id_1000.bxml}, so
+     * they shall only differ in the header compression flag
+     */
+    @Test
+    public void testReadCompressedBody() throws IOException {
+        ReadableByteChannel plainChannel = Channels.newChannel(getClass().getResourceAsStream(
+                TEST_DATA + "stat_id_1000.bxml"));
+        ReadableByteChannel gzChannel = Channels.newChannel(getClass().getResourceAsStream(
+                TEST_DATA + "stat_id_1000.gz.bxml"));
+        DefaultBxmlInputStream plain = new DefaultBxmlInputStream(plainChannel, 1024);
+        DefaultBxmlInputStream gz = new DefaultBxmlInputStream(gzChannel, 1024, false, 512);
+
+        assertEquals(Compression.NO_COMPRESSION, plain.getHeader().getCompression());
+        assertEquals(Compression.GZIP, gz.getHeader().getCompression());
+        assertEquals(plain.getPosition(), gz.getPosition());
+        assertFalse(gz.supportsRandomAccess());
+
+        assertContentEquals(plain, gz, 621348);
+        plain.close();
+        gz.close();
+    }
+
+    @Test
+    public void testReadCompressedBodyMemoryMapped() throws IOException {
+        File file = createTestFile(new byte[0]);
+        FileOutputStream out = new FileOutputStream(file);
+        InputStream in = getClass().getResourceAsStream(TEST_DATA + "stat_id_1000.gz.bxml");
+        byte[] buff = new byte[4096];
+        int read;
+        while ((read = in.read(buff)) != -1) {
+            out.write(buff, 0, read);
+        }
+        in.close();
+        out.close();
+
+        ReadableByteChannel plainChannel = Channels.newChannel(getClass().getResourceAsStream(
+                TEST_DATA + "stat_id_1000.bxml"));
+        DefaultBxmlInputStream plain = new DefaultBxmlInputStream(plainChannel, 1024);
+        FileChannel gzChannel = new RandomAccessFile(file, "r").getChannel();
+        DefaultBxmlInputStream gz = new DefaultBxmlInputStream(gzChannel, 1024, true);
+        assertFalse(gz.supportsRandomAccess());
+
+        assertContentEquals(plain, gz, 621348);
+        plain.close();
+        gz.close();
+        assertFalse(gzChannel.isOpen());
+    }
+
+    /**
+     * Creates a block compressed copy of {@code stat_id_1000.bxml}
+     */
+    private File createBlockCompressedTestFile(final byte[] plainContent, final int headerLength,
+            final int blockSize) throws IOException {
+        final byte[] header = new byte[headerLength];
+        System.arraycopy(plainContent, 0, header, 0, headerLength);
+        header[14] = (byte) Compression.GZIP.compressionCode();
+        File file = File.createTempFile("DefaultBxmlInputStreamTest", ".gz.bxml");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(header);
+        BlockCompressedOutputChannel blockChannel;
+        blockChannel = new BlockCompressedOutputChannel(out.getChannel(), blockSize, 9);
+        blockChannel.write(ByteBuffer.wrap(plainContent, headerLength, plainContent.length
+                - headerLength));
+        blockChannel.close();
+        out.close();
+        return file;
+    }
+
+    private byte[] getPlainContent() throws IOException {
+        InputStream in = getClass().getResourceAsStream(TEST_DATA + "stat_id_1000.bxml");
+        byte[] content = new byte[621348];
+        int read = 0;
+        while (read < content.length) {
+            read += in.read(content, read, content.length - read);
+        }
+        assertEquals(-1, in.read());
+        in.close();
+        return content;
+    }
+
+    @Test
+    public void testReadBlockCompressedBody() throws IOException {
+        final byte[] plainContent = getPlainContent();
+        DefaultBxmlInputStream plain = new DefaultBxmlInputStream(Channels
+                .newChannel(new ByteArrayInputStream(plainContent)), 1024);
+        File file = createBlockCompressedTestFile(plainContent, (int) plain.getPosition(), 4096);
+        assertTrue(file.length() < plainContent.length);
+
+        // not a FileChannel, hence no random access
+        ReadableByteChannel blockChannel = Channels.newChannel(new BufferedInputStream(
+                new FileInputStream(file)));
+        DefaultBxmlInputStream block = new DefaultBxmlInputStream(blockChannel, 1024);
+        assertEquals(Compression.GZIP, block.getHeader().getCompression());
+        assertEquals(plain.getPosition(), block.getPosition());
+        assertFalse(block.supportsRandomAccess());
+
+        assertContentEquals(plain, block, plainContent.length);
+        plain.close();
+        block.close();
+    }
+
+    @Test
+    public void testReadBlockCompressedBodyRandomAccess() throws IOException {
+        testReadBlockCompressedBodyRandomAccess(false);
+    }
+
+    @Test
+    public void testReadBlockCompressedBodyRandomAccessMemoryMapped() throws IOException {
+        testReadBlockCompressedBodyRandomAccess(true);
+    }
+
+    private void testReadBlockCompressedBodyRandomAccess(final boolean memoryMapped)
+            throws IOException {
+        final byte[] plainContent = getPlainContent();
+        DefaultBxmlInputStream plain = new DefaultBxmlInputStream(Channels
+                .newChannel(new ByteArrayInputStream(plainContent)), 1024);
+        final int headerLength = (int) plain.getPosition();
+        final int blockSize = 4096;
+        File file = createBlockCompressedTestFile(plainContent, headerLength, blockSize);
+
+        FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel();
+        DefaultBxmlInputStream block = new DefaultBxmlInputStream(fileChannel, 1024, memoryMapped);
+        assertTrue(block.supportsRandomAccess());
+        assertEquals(plainContent.length, block.getSize());
+
+        assertContentEquals(plain, block, plainContent.length);
+        plain.close();
+
+        final long[] positions = { plainContent.length - 4, headerLength, 300000,
+                headerLength + blockSize - 2, headerLength + 3 * blockSize, 1000,
+                plainContent.length - 100 };
+        byte[] actual = new byte[100];
+        for (long position : positions) {
+            block.setPosition(position);
+            assertEquals(position, block.getPosition());
+            final int length = (int) Math.min(actual.length, plainContent.length - position);
+            block.readByte(actual, 0, length);
+            for (int i = 0; i < length; i++) {
+                assertEquals(plainContent[(int) position + i], actual[i]);
+            }
+        }
+        try {
+            block.setPosition(headerLength - 1);
+            fail("Expected IAE, can't seek into the header of a block compressed document");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+        block.close();
+        assertFalse(fileChannel.isOpen());
+    }
+
+    /**
+     * A member stating an uncompressed size bigger than any block shall be rejected instead of
+     * allocating a buffer for it
+     */
+    @Test
+    public void testReadBlockCompressedBodyCorruptSize() throws IOException {
+        final byte[] plainContent = getPlainContent();
+        DefaultBxmlInputStream plain = new DefaultBxmlInputStream(Channels
+                .newChannel(new ByteArrayInputStream(plainContent)), 1024);
+        final int headerLength = (int) plain.getPosition();
+        plain.close();
+        File file = createBlockCompressedTestFile(plainContent, headerLength, 4096);
+
+        final byte[] content = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(content);
+        in.close();
+        // the member size subfield follows the fixed header and the subfield prefix
+        final ByteBuffer member = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+        final int memberSize = member.getInt(headerLength + BlockGzip.HEADER_LENGTH
+                + BlockGzip.SUBFIELD_HEADER_LENGTH);
+        member.putInt(headerLength + memberSize - 4, Integer.MAX_VALUE);
+
+        try {
+            DefaultBxmlInputStream block = new DefaultBxmlInputStream(Channels
+                    .newChannel(new ByteArrayInputStream(content)), 1024);
+            block.readByte(new byte[100], 0, 100);
+            fail("Expected IOException, the first member states a 2GB uncompressed size");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("at offset 0"));
+        }
+    }
+
+    private void assertContentEquals(BxmlInputStream expected, BxmlInputStream actual,
+            long totalLength) throws IOException {
+        byte[] expectedBuff = new byte[1000];
+        byte[] actualBuff = new byte[1000];
+        while (expected.getPosition() < totalLength) {
+            int length = (int) Math.min(1000, totalLength - expected.getPosition());
+            expected.readByte(expectedBuff, 0, length);
+            actual.readByte(actualBuff, 0, length);
+            Assert.assertArrayEquals(expectedBuff, actualBuff);
+        }
+        assertEquals(totalLength, actual.getPosition());
+        try {
+            actual.readByte();
+            fail("Expected EOF exception");
+        } catch (EOFException e) {
+            assertTrue(true);
+        }
+    }
 }
@@ -45,6 +45,8 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -52,6 +54,7 @@ import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CodingErrorAction;
+import java.util.zip.GZIPInputStream;
 
 import org.gvsig.bxml.stream.io.Header.Compression;
 import org.gvsig.bxml.stream.io.Header.Flags;
@@ -276,6 +279,55 @@ public class DefaultBxmlOutputStreamTest {
         assertArrayEquals(expected, writtenContent);
     }
 
+    /**
+     * Strings with two, three and four byte UTF-8 sequences and lone surrogates shall be encoded
+     * as the JDK encoders do, even if they don't fit in the buffer and need a multi byte count.
+     */
+    @Test
+    public void testWriteStringSupplementaryAndLoneSurrogates() throws IOException {
+        final String tricky = "a\u00e9\u20ac\ud834\udd1e-\ud834-\udd1e-\ud834";
+        StringBuffer sb = new StringBuffer();
+        while (sb.length() < 1000) {
+            sb.append(tricky);
+        }
+        final String[] strings = { tricky, "\ud834", sb.toString() };
+        final String[] charsets = { "UTF-8", "US-ASCII", "ISO-8859-1" };
+        for (String charsetName : charsets) {
+            final Charset charset = Charset.forName(charsetName);
+            for (String string : strings) {
+                final CharsetEncoder charencoder = charset.newEncoder();
+                charencoder.onMalformedInput(CodingErrorAction.REPLACE);
+                charencoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+                ByteBuffer encoded = charencoder.encode(CharBuffer.wrap(string));
+
+                ByteArrayWriteChannel writeChannel = TestData.getWriteChannel();
+                writer = new DefaultBxmlOutputStream(writeChannel, 30, NATIVE_ORDER);
+                writer.writeCount(encoded.remaining());
+                writer.writeByte(encoded.array(), 0, encoded.remaining());
+                writer.close();
+                final byte[] expected = writeChannel.getWrittenContent();
+
+                writeChannel = TestData.getWriteChannel();
+                writer = new DefaultBxmlOutputStream(writeChannel, 30, NATIVE_ORDER);
+                writer.setCharactersEncoding(charset);
+                writer.writeString(string);
+                assertEquals(expected.length, writer.getPosition());
+                writer.close();
+                assertArrayEquals(expected, writeChannel.getWrittenContent());
+
+                writeChannel = TestData.getWriteChannel();
+                writer = new DefaultBxmlOutputStream(writeChannel, 30, NATIVE_ORDER);
+                writer.setCharactersEncoding(charset);
+                writer.setAutoFlushing(false);
+                final char[] chars = ("x" + string + "x").toCharArray();
+                writer.writeString(chars, 1, string.length());
+                assertEquals(expected.length, writer.getPosition());
+                writer.close();
+                assertArrayEquals(expected, writeChannel.getWrittenContent());
+            }
+        }
+    }
+
     /**
      * Test method for {@link DefaultBxmlOutputStream#writeHeader(org.gvsig.bxml.stream.io.Header)}.
      */
@@ -309,6 +361,111 @@ public class DefaultBxmlOutputStreamTest {
         assertEquals(defaultHeader, parsedHeader);
     }
 
+    /**
+     * The header shall be written uncompressed, and everything after it GZIP compressed
+     */
+    @Test
+    public void testWriteCompressedBody() throws IOException {
+        Flags flags = Flags.valueOf(ByteOrder.BIG_ENDIAN, ByteOrder.BIG_ENDIAN, false, false,
+                false);
+        Header header = Header.valueOf(flags, Compression.GZIP, Charset.forName("UTF-8"));
+
+        final ByteArrayWriteChannel plainChannel = TestData.getWriteChannel();
+        DefaultBxmlOutputStream plainWriter = new DefaultBxmlOutputStream(plainChannel,
+                DEFAULT_TEST_BUFFER_SIZE, NATIVE_ORDER);
+        plainWriter.writeHeader(Header.valueOf(flags, Compression.NO_COMPRESSION, Charset
+                .forName("UTF-8")));
+        plainWriter.close();
+        final int headerLength = plainChannel.getWrittenContent().length;
+
+        final double[] values = new double[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i / 2D;
+        }
+        writer.setCompressionLevel(9);
+        writer.writeHeader(header);
+        assertEquals(headerLength, writer.getPosition());
+        writer.writeString("compressed");
+        writer.writeDouble(values, 0, values.length);
+        // position keeps counting uncompressed bytes
+        assertEquals(headerLength + 11 + 8 * values.length, writer.getPosition());
+        writer.close();
+
+        final byte[] written = channel.getWrittenContent();
+        assertTrue(written.length < headerLength + 11 + 8 * values.length);
+        // the header is not compressed, but the compression flag changes
+        assertEquals(Compression.GZIP.compressionCode(), written[14]);
+
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(
+                written, headerLength, written.length - headerLength)));
+        assertEquals(10, in.read());
+        byte[] string = new byte[10];
+        in.readFully(string);
+        assertEquals("compressed", new String(string, "UTF-8"));
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], in.readDouble(), 0D);
+        }
+        assertEquals(-1, in.read());
+    }
+
+    /**
+     * A block compressed body is still a valid (multi-member) GZIP stream
+     */
+    @Test
+    public void testWriteBlockCompressedBody() throws IOException {
+        Flags flags = Flags.valueOf(ByteOrder.BIG_ENDIAN, ByteOrder.BIG_ENDIAN, false, false,
+                false);
+        Header header = Header.valueOf(flags, Compression.GZIP, Charset.forName("UTF-8"));
+
+        final int[] values = new int[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        writer.setCompressionBlockSize(100);
+        writer.writeHeader(header);
+        final long headerLength = writer.getPosition();
+        writer.writeInt(values, 0, values.length);
+        assertEquals(headerLength + 4 * values.length, writer.getPosition());
+        writer.close();
+
+        final byte[] written = channel.getWrittenContent();
+        final ByteBuffer body = ByteBuffer.wrap(written, (int) headerLength, written.length
+                - (int) headerLength);
+        assertTrue(BlockGzip.isBlockCompressed(body));
+
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(
+                written, (int) headerLength, written.length - (int) headerLength)));
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], in.readInt());
+        }
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testSetCompressionBlockSize() {
+        writer.setCompressionBlockSize(0);
+        writer.setCompressionBlockSize(64 * 1024);
+        try {
+            writer.setCompressionBlockSize(-1);
+            fail("Expected IAE");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
+    @Test
+    public void testSetCompressionLevel() {
+        writer.setCompressionLevel(-1);
+        writer.setCompressionLevel(0);
+        writer.setCompressionLevel(9);
+        try {
+            writer.setCompressionLevel(10);
+            fail("Expected IAE");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
     @Test
     public void testWriteByte() throws IOException {
         for (int value = 0; value < 256; value++) {
@@ -406,6 +563,131 @@ public class DefaultBxmlOutputStreamTest {
         Assert.assertArrayEquals(expected, writtenContent);
     }
 
+    /**
+     * With auto flushing disabled the buffer can't be flushed and shall be expanded to hold the
+     * whole array
+     */
+    @Test
+    public void testWriteDoubleArrayNoAutoFlush() throws IOException {
+        final int count = 1000;
+        final byte[] expected = new byte[1 + DOUBLE_BYTE_COUNT * count];
+        final double[] values = new double[count];
+        final ByteBuffer wrapper = ByteBuffer.wrap(expected);
+        wrapper.order(NATIVE_ORDER);
+        wrapper.put((byte) 0x0F);
+        for (int i = 0; i < count; i++) {
+            values[i] = i + 0.5;
+            wrapper.putDouble(values[i]);
+        }
+
+        writer.setAutoFlushing(false);
+        writer.writeByte(0x0F);
+        writer.writeDouble(values, 0, count);
+        assertEquals(expected.length, writer.getPosition());
+        assertEquals(expected.length, writer.getCachedSize());
+        assertEquals(0, channel.getWrittenContent().length);
+
+        writer.close();
+        Assert.assertArrayEquals(expected, channel.getWrittenContent());
+    }
+
+    /**
+     * With auto flushing disabled, content written before it was disabled shall still be flushed
+     * to make room in the buffer, and going back to the pinned position shall still be possible
+     */
+    @Test
+    public void testWriteNoAutoFlushFlushesBeforePinnedPosition() throws IOException {
+        // large enough to exceed the buffer size regardless of the pooled buffer being used
+        final int leading = 100 * 1024;
+        final int count = 20 * 1024;
+        final byte[] expected = new byte[leading + 1 + DOUBLE_BYTE_COUNT * count];
+        final double[] values = new double[count];
+        final ByteBuffer wrapper = ByteBuffer.wrap(expected);
+        wrapper.order(NATIVE_ORDER);
+        for (int i = 0; i < leading; i++) {
+            wrapper.put((byte) i);
+        }
+        wrapper.put((byte) 0x0F);
+        for (int i = 0; i < count; i++) {
+            values[i] = i + 0.5;
+            wrapper.putDouble(values[i]);
+        }
+
+        for (int i = 0; i < leading - 2; i++) {
+            writer.writeByte(i);
+        }
+        writer.setAutoFlushing(false);
+        writer.writeByte(leading - 2);
+        writer.writeByte(leading - 1);
+        writer.writeByte(0x0E);
+        writer.writeDouble(values, 0, count);
+        assertEquals(expected.length, writer.getPosition());
+        // everything before the pinned position was flushed
+        assertEquals(leading - 2, channel.getWrittenContent().length);
+        assertEquals(expected.length - (leading - 2), writer.getCachedSize());
+
+        writer.setPosition(leading);
+        writer.writeByte(0x0F);
+        writer.setPosition(expected.length);
+        writer.setAutoFlushing(true);
+
+        writer.close();
+        Assert.assertArrayEquals(expected, channel.getWrittenContent());
+    }
+
+    /**
+     * Pinning with auto flushing already disabled moves the pinned position forward, so content
+     * written before the new pinned position can be flushed to make room in the buffer
+     */
+    @Test
+    public void testPin() throws IOException {
+        final int leading = 100 * 1024;
+        final int count = 20 * 1024;
+        final byte[] expected = new byte[leading + 1 + DOUBLE_BYTE_COUNT * count];
+        final double[] values = new double[count];
+        final ByteBuffer wrapper = ByteBuffer.wrap(expected);
+        wrapper.order(NATIVE_ORDER);
+        for (int i = 0; i < leading; i++) {
+            wrapper.put((byte) i);
+        }
+        wrapper.put((byte) 0x0F);
+        for (int i = 0; i < count; i++) {
+            values[i] = i + 0.5;
+            wrapper.putDouble(values[i]);
+        }
+
+        writer.setAutoFlushing(false);
+        for (int i = 0; i < leading - 2; i++) {
+            writer.writeByte(i);
+        }
+        writer.pin();
+        assertFalse(writer.isAutoFlushing());
+        writer.writeByte(leading - 2);
+        writer.writeByte(leading - 1);
+        writer.writeByte(0x0E);
+        writer.writeDouble(values, 0, count);
+        // everything before the pinned position was flushed
+        assertEquals(leading - 2, channel.getWrittenContent().length);
+
+        writer.setPosition(leading);
+        writer.writeByte(0x0F);
+        writer.setPosition(expected.length);
+        writer.setAutoFlushing(true);
+
+        writer.close();
+        Assert.assertArrayEquals(expected, channel.getWrittenContent());
+    }
+
+    @Test
+    public void testWriteBooleanArray() throws IOException {
+        final boolean[] values = { false, true, true, false, true };
+        writer.writeBoolean(values, 1, 3);
+        assertEquals(3, writer.getPosition());
+        writer.close();
+        byte[] expected = { (byte) 0xFF, (byte) 0xFF, 0x00 };
+        Assert.assertArrayEquals(expected, channel.getWrittenContent());
+    }
+
     @Test
     public void testWriteFloatLE() throws IOException {
         testPutFloat(LITTLE_ENDIAN);
@@ -0,0 +1,38 @@
+package org.gvsig.bxml.stream.io;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TokenTypeTest {
+
+    @Test
+    public void testValueOf() {
+        for (TokenType tokenType : TokenType.values()) {
+            assertSame(tokenType, TokenType.valueOf(tokenType.getCode()));
+        }
+    }
+
+    @Test
+    public void testValueOfInvalidCode() {
+        final Set<Integer> codes = new HashSet<Integer>();
+        for (TokenType tokenType : TokenType.values()) {
+            codes.add(Integer.valueOf(tokenType.getCode()));
+        }
+        for (int code = -1; code <= 0xFF; code++) {
+            if (codes.contains(Integer.valueOf(code))) {
+                continue;
+            }
+            try {
+                TokenType.valueOf(code);
+                fail("Expected IAE for token code " + code);
+            } catch (IllegalArgumentException e) {
+                // ok
+            }
+        }
+    }
+}
@@ -3,8 +3,10 @@ package org.gvsig.bxml.adapt.stax;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.namespace.NamespaceContext;
@@ -51,6 +53,20 @@ public class XmlStreamReaderAdapter implements BxmlStreamReader {
 
     private int tagDepth;
 
+    /**
+     * Name identifiers handed out so far, assigned in order of request as there's no string table
+     * to take them from
+     */
+    private final Map<QName, Integer> nameIds = new HashMap<QName, Integer>();
+
+    /**
+     * The current value being read through {@link #getValue(char[], int, int)} and how many of its
+     * characters were already returned
+     */
+    private String charsValue;
+
+    private int charsValueReadCount;
+
     /**
      * @param factory
      * @param stream
@@ -186,6 +202,7 @@ public class XmlStreamReaderAdapter implements BxmlStreamReader {
      * @see org.gvsig.bxml.stream.BxmlStreamReader#next()
      */
     public EventType next() throws IOException {
+        charsValue = null;
         try {
             int event = reader.next();
             while (event == XMLStreamConstants.ATTRIBUTE) {
@@ -225,6 +242,19 @@ public class XmlStreamReaderAdapter implements BxmlStreamReader {
         return eventType;
     }
 
+    /**
+     * There's no way to skip content in StAX, so this just calls {@link #nextTag()} until reaching
+     * the end of the current element.
+     *
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#skipElement()
+     */
+    public void skipElement() throws IOException {
+        final int elementDepth = tagDepth;
+        while (!(nextTag() == EventType.END_ELEMENT && tagDepth == elementDepth - 1)) {
+            // keep going
+        }
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getEventType()
      */
@@ -304,6 +334,28 @@ public class XmlStreamReaderAdapter implements BxmlStreamReader {
         return reader.getName();
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getElementNameId()
+     */
+    public int getElementNameId() {
+        return getNameId(reader.getName());
+    }
+
+    /**
+     * Returns the identifier assigned to {@code name}, assigning a new one if needed, so this
+     * method never returns {@code -1}
+     * 
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getNameId(javax.xml.namespace.QName)
+     */
+    public int getNameId(final QName name) {
+        Integer nameId = nameIds.get(name);
+        if (nameId == null) {
+            nameId = Integer.valueOf(nameIds.size());
+            nameIds.put(name, nameId);
+        }
+        return nameId.intValue();
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getElementPosition()
      */
@@ -326,6 +378,21 @@ public class XmlStreamReaderAdapter implements BxmlStreamReader {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#lookup(java.lang.String, java.lang.Object)
+     */
+    public long[] lookup(final String xpathExpression, final Object value) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#seekToMatch(java.lang.String, java.lang.Object)
+     */
+    public EventType seekToMatch(final String xpathExpression, final Object value)
+            throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeCount()
      */
@@ -337,6 +404,13 @@ public class XmlStreamReaderAdapter implements BxmlStreamReader {
         return reader.getAttributeName(index);
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeNameId(int)
+     */
+    public int getAttributeNameId(final int index) {
+        return getNameId(reader.getAttributeName(index));
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeValue(int)
      */
@@ -344,6 +418,20 @@ public class XmlStreamReaderAdapter implements BxmlStreamReader {
         return reader.getAttributeValue(index);
     }
 
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeIntValue(int)
+     */
+    public int getAttributeIntValue(final int index) {
+        return Integer.parseInt(reader.getAttributeValue(index).trim());
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeDoubleValue(int)
+     */
+    public double getAttributeDoubleValue(final int index) {
+        return Double.parseDouble(reader.getAttributeValue(index));
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamReader#getAttributeValue(java.lang.String,
      *      java.lang.String)
@@ -404,6 +492,29 @@ public class XmlStreamReaderAdapter implements BxmlStreamReader {
         return text;
     }
 
+    /**
+     * There's no buffer to expose, returns {@link #getStringValue()}
+     * 
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getCharSequenceValue()
+     */
+    public CharSequence getCharSequenceValue() throws IOException {
+        return getStringValue();
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamReader#getValue(char[], int, int)
+     */
+    public int getValue(final char[] dst, final int offset, final int length) throws IOException {
+        if (charsValue == null) {
+            charsValue = getStringValue();
+            charsValueReadCount = 0;
+        }
+        final int count = Math.min(length, charsValue.length() - charsValueReadCount);
+        charsValue.getChars(charsValueReadCount, charsValueReadCount + count, dst, offset);
+        charsValueReadCount += count;
+        return count;
+    }
+
     public void getValue(boolean[] dst, int offset, int length) throws IOException {
         throw new UnsupportedOperationException();
     }
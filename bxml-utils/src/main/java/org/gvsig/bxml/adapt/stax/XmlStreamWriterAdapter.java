@@ -750,6 +750,58 @@ public class XmlStreamWriterAdapter implements BxmlStreamWriter {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * @return {@code false}, elements are written as they come
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#canWriteFragments()
+     */
+    public boolean canWriteFragments() {
+        return false;
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#createFragmentWriter()
+     */
+    public BxmlStreamWriter createFragmentWriter() throws IOException {
+        throw new IllegalStateException("Fragments are not supported");
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeFragment(BxmlStreamWriter)
+     */
+    public boolean writeFragment(BxmlStreamWriter fragment) throws IOException {
+        throw new IllegalArgumentException("Not a fragment writer");
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeTemplate(BxmlStreamWriter)
+     */
+    public boolean writeTemplate(BxmlStreamWriter template) throws IOException {
+        throw new IllegalArgumentException("Not a fragment writer");
+    }
+
+    /**
+     * @return {@code -1}, names are written as they are
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#getNameReference(java.lang.String,
+     *      java.lang.String)
+     */
+    public long getNameReference(String namespaceUri, String localName) throws IOException {
+        return -1;
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeStartElement(long)
+     */
+    public void writeStartElement(long nameReference) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @see org.gvsig.bxml.stream.BxmlStreamWriter#writeStartAttribute(long)
+     */
+    public void writeStartAttribute(long nameReference) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * @see org.gvsig.bxml.stream.BxmlStreamWriter#getValueLength()
      */